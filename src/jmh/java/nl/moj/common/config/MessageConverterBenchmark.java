@@ -0,0 +1,206 @@
+package nl.moj.common.config;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.apache.activemq.artemis.jms.client.ActiveMQConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.jms.support.converter.MessageType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.moj.common.config.properties.Runtime.Messaging;
+import nl.moj.common.messages.JMSCompileResponse;
+import nl.moj.common.messages.JMSFile;
+import nl.moj.common.messages.JMSTestCase;
+import nl.moj.common.messages.JMSTestCaseResult;
+import nl.moj.common.messages.JMSTestRequest;
+import nl.moj.common.messages.JMSTestResponse;
+
+/**
+ * Sends a test request with the sources of a team, and a test response with the
+ * output of failing tests, through an in-vm broker and back, with the Jackson
+ * text converter and with the compact converter. The size of the message body
+ * kept by the broker is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageConverterBenchmark {
+
+    @Param({ "jackson", "compact" })
+    public String converter;
+
+    @Param({ "test-request", "test-response" })
+    public String payload;
+
+    private EmbeddedActiveMQ broker;
+    private Connection connection;
+    private Session session;
+    private MessageProducer producer;
+    private MessageConsumer consumer;
+    private MessageConverter messageConverter;
+    private Object message;
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new EmbeddedActiveMQ();
+        broker.setConfiguration(new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("in-vm", "vm://1"));
+        broker.start();
+        connection = new ActiveMQConnectionFactory("vm://1").createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Queue queue = session.createQueue("benchmark");
+        producer = session.createProducer(queue);
+        consumer = session.createConsumer(queue);
+
+        ObjectMapper objectMapper = new CommonConfig().jsonObjectMapper();
+        messageConverter = switch (converter) {
+            case "jackson" -> jackson(objectMapper);
+            default -> compact(objectMapper);
+        };
+        message = switch (payload) {
+            case "test-request" -> testRequest();
+            default -> testResponse();
+        };
+
+        producer.send(messageConverter.toMessage(message, session));
+        Message received = consumer.receive();
+        // the broker keeps text as two bytes per character
+        long size = received instanceof TextMessage text ? text.getText().length() * 2L
+                : ((BytesMessage) received).getBodyLength();
+        System.out.printf("%n%s %s: %d bytes%n", converter, payload, size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Exception {
+        producer.send(messageConverter.toMessage(message, session));
+        return messageConverter.fromMessage(consumer.receive());
+    }
+
+    private static MessageConverter jackson(ObjectMapper objectMapper) {
+        MappingJackson2MessageConverter jackson = new MappingJackson2MessageConverter();
+        jackson.setTargetType(MessageType.TEXT);
+        jackson.setTypeIdPropertyName(CompactMessageConverter.TYPE_ID_PROPERTY);
+        jackson.setObjectMapper(objectMapper);
+        return jackson;
+    }
+
+    private static MessageConverter compact(ObjectMapper objectMapper) {
+        Messaging messaging = new Messaging();
+        messaging.setCompress(true);
+        return new CompactMessageConverter(objectMapper, messaging);
+    }
+
+    private static JMSTestRequest testRequest() {
+        List<JMSFile> sources = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sources.add(JMSFile.builder()
+                    .type(JMSFile.Type.SOURCE)
+                    .path("src/main/java/nl/moj/assignment/Source" + i + ".java")
+                    .content(source(i))
+                    .build());
+        }
+        List<JMSTestCase> tests = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tests.add(JMSTestCase.builder().testCase(UUID.randomUUID()).name("Test" + i).build());
+        }
+        return JMSTestRequest.builder()
+                .attempt(UUID.randomUUID())
+                .assignment(UUID.randomUUID())
+                .sources(sources)
+                .tests(tests)
+                .build();
+    }
+
+    private static JMSTestResponse testResponse() {
+        List<JMSTestCaseResult> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            results.add(JMSTestCaseResult.builder()
+                    .testCase(UUID.randomUUID())
+                    .worker("worker-1")
+                    .started(Instant.now())
+                    .ended(Instant.now())
+                    .output(output(i))
+                    .cpuUser(Duration.ofMillis(840))
+                    .cpuSystem(Duration.ofMillis(120))
+                    .peakRss(96L * 1024 * 1024)
+                    .build());
+        }
+        return JMSTestResponse.builder()
+                .attempt(UUID.randomUUID())
+                .worker("worker-1")
+                .started(Instant.now())
+                .ended(Instant.now())
+                .compileResponse(JMSCompileResponse.builder().success(true).output("").build())
+                .testCaseResults(results)
+                .build();
+    }
+
+    private static String source(int n) {
+        StringBuilder sb = new StringBuilder("package nl.moj.assignment;\n\nimport java.util.*;\n\n");
+        sb.append("public class Source").append(n).append(" {\n\n");
+        for (int m = 0; m < 30; m++) {
+            sb.append("    public List<Integer> method").append(m).append("(List<Integer> values) {\n")
+                    .append("        List<Integer> result = new ArrayList<>();\n")
+                    .append("        for (int i = 0; i < values.size(); i++) {\n")
+                    .append("            if (values.get(i) % ").append(m + 2).append(" == 0) {\n")
+                    .append("                result.add(values.get(i) * ").append(m).append(");\n")
+                    .append("            }\n        }\n        return result;\n    }\n\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static String output(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 20_000; i++) {
+            sb.append("Iteration ").append(i).append(": expected <").append(i * n).append("> but was <")
+                    .append(i * n + 1).append(">\n")
+                    .append("\tat org.junit.jupiter.api.AssertionUtils.fail(AssertionUtils.java:55)\n")
+                    .append("\tat org.junit.jupiter.api.AssertEquals.failNotEqual(AssertEquals.java:197)\n")
+                    .append("\tat nl.moj.assignment.Test").append(n).append(".test(Test").append(n)
+                    .append(".java:").append(20 + i % 7).append(")\n");
+        }
+        return sb.toString();
+    }
+}
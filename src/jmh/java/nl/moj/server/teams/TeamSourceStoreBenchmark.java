@@ -0,0 +1,93 @@
+package nl.moj.server.teams;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.teams.service.TeamSourceStore;
+
+/**
+ * Saves the sources of a team from many threads at once, each thread a team of its
+ * own, through the store and by writing the file directly as teams did before the
+ * store. The latency of a save should not depend on how many teams save at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class TeamSourceStoreBenchmark {
+
+    private static final Path TEAM_JAVA = Path.of("src", "Team.java");
+    private static final String CONTENT = "class Team { /* " + "x".repeat(2000) + " */ }";
+
+    @Param({ "store", "direct" })
+    public String target;
+
+    private Path dataDirectory;
+    private StorageService storageService;
+    private TeamSourceStore store;
+
+    @Setup
+    public void setup() throws Exception {
+        dataDirectory = Files.createTempDirectory("team-sources-benchmark");
+        MojServerProperties mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(dataDirectory);
+        storageService = new StorageService(mojServerProperties);
+        store = new TeamSourceStore(mojServerProperties, storageService, new SimpleMeterRegistry());
+        store.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        store.shutdown();
+        FileSystemUtils.deleteRecursively(dataDirectory);
+    }
+
+    @State(Scope.Thread)
+    public static class Team {
+
+        private Path directory;
+        private int saves;
+
+        @Setup
+        public void setup(TeamSourceStoreBenchmark benchmark) {
+            directory = benchmark.storageService.getSessionTeamFolder(UUID.randomUUID(), UUID.randomUUID())
+                    .resolve("assignment").resolve("sources");
+        }
+    }
+
+    @Benchmark
+    public void save(Team team) throws Exception {
+        String content = CONTENT + team.saves++;
+        if (target.equals("store")) {
+            store.write(team.directory, Map.of(TEAM_JAVA, content));
+        } else {
+            Path file = team.directory.resolve(TEAM_JAVA);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, content);
+        }
+    }
+}
@@ -61,6 +61,11 @@ public class AssignmentDescriptor {
     private Duration compileTimeout;
     @JsonProperty("execution-model")
     private ExecutionModel executionModel;
+    @JsonProperty("test-execution")
+    private TestExecution testExecution;
+    // only for assignments whose tests give the same result for the same sources
+    @JsonProperty("cache-test-results")
+    private boolean cacheTestResults;
 
     @JsonProperty("scoring-rules")
     private ScoringRules scoringRules;
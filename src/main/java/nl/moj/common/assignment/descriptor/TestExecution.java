@@ -0,0 +1,28 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.common.assignment.descriptor;
+
+public enum TestExecution {
+    /**
+     * Every test class runs in its own forked JVM.
+     */
+    PER_TEST,
+    /**
+     * All test classes of an attempt run one after the other in a single forked JVM.
+     */
+    BATCH
+}
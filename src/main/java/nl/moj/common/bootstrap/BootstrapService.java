@@ -70,8 +70,12 @@ public class BootstrapService {
         log.info("Populating needed libs.");
         Path libs = storageService.getLibsFolder();
         for (String lib : LIBS) {
-            Files.copy(getClass().getResourceAsStream("/bootstrap/libs/" + lib), libs.resolve(lib),
-                    StandardCopyOption.REPLACE_EXISTING);
+            // leave unchanged libs alone, class data sharing archives of the worker depend on them
+            byte[] content = getClass().getResourceAsStream("/bootstrap/libs/" + lib).readAllBytes();
+            Path target = libs.resolve(lib);
+            if (!Files.exists(target) || !Arrays.equals(content, Files.readAllBytes(target))) {
+                Files.write(target, content);
+            }
         }
     }
 
@@ -1,11 +1,13 @@
 package nl.moj.common.config;
 
+import javax.jms.ConnectionFactory;
+
+import org.springframework.boot.autoconfigure.jms.DefaultJmsListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jms.annotation.EnableJms;
-import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
 import org.springframework.jms.support.converter.MessageConverter;
-import org.springframework.jms.support.converter.MessageType;
 
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -14,6 +16,8 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import nl.moj.common.config.properties.MojServerProperties;
+
 @Configuration
 @EnableJms
 public class CommonConfig {
@@ -34,12 +38,22 @@ public class CommonConfig {
                 .build();
     }
 
+    /**
+     * Listener container factory for broadcast topics, every instance receives
+     * each message once.
+     */
+    @Bean
+    public DefaultJmsListenerContainerFactory topicListenerFactory(DefaultJmsListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory) {
+        DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setPubSubDomain(true);
+        factory.setConcurrency("1");
+        return factory;
+    }
+
     @Bean
-    public MessageConverter jacksonJmsMessageConverter() {
-        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
-        converter.setTargetType(MessageType.TEXT);
-        converter.setTypeIdPropertyName("_type");
-        converter.setObjectMapper(jsonObjectMapper());
-        return converter;
+    public MessageConverter jmsMessageConverter(MojServerProperties mojServerProperties) {
+        return new CompactMessageConverter(jsonObjectMapper(), mojServerProperties.getRuntime().getMessaging());
     }
 }
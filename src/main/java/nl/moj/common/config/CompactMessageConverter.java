@@ -0,0 +1,151 @@
+package nl.moj.common.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.jms.support.converter.MessageType;
+import org.springframework.util.ClassUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.moj.common.config.properties.Runtime.MessageCodec;
+import nl.moj.common.config.properties.Runtime.Messaging;
+
+/**
+ * Converts the messages between controller and workers to bytes messages holding
+ * UTF-8 encoded JSON, deflated above a size threshold. Team sources and test
+ * output make up most of these messages and compress well.
+ * <p>
+ * The codec property tells how the body is encoded. Messages without it are
+ * read as plain JSON, text or bytes, as sent by versions before this converter.
+ * Uncompressed messages keep the type id property of the Jackson converter,
+ * so those versions can still read them. Compression is off by default for that
+ * reason. A deflated body is never inflated beyond the configured maximum.
+ */
+public class CompactMessageConverter implements MessageConverter {
+
+    public static final String CODEC_PROPERTY = "_codec";
+    public static final String TYPE_ID_PROPERTY = "_type";
+
+    static final int PLAIN = 1;
+    static final int DEFLATED = 2;
+
+    private final ObjectMapper objectMapper;
+    private final Messaging messaging;
+    private final MappingJackson2MessageConverter json;
+
+    public CompactMessageConverter(ObjectMapper objectMapper, Messaging messaging) {
+        this.objectMapper = objectMapper;
+        this.messaging = messaging;
+        this.json = new MappingJackson2MessageConverter();
+        this.json.setTargetType(MessageType.TEXT);
+        this.json.setTypeIdPropertyName(TYPE_ID_PROPERTY);
+        this.json.setObjectMapper(objectMapper);
+    }
+
+    @Override
+    public Message toMessage(Object object, Session session) throws JMSException, MessageConversionException {
+        if (messaging.getCodec() == MessageCodec.JSON) {
+            return json.toMessage(object, session);
+        }
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(object);
+        } catch (IOException e) {
+            throw new MessageConversionException("Could not write JSON: " + e.getMessage(), e);
+        }
+        int codec = PLAIN;
+        if (messaging.isCompress() && body.length > messaging.getCompressThreshold().toBytes()) {
+            byte[] deflated = deflate(body);
+            if (deflated.length < body.length) {
+                body = deflated;
+                codec = DEFLATED;
+            }
+        }
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(body);
+        message.setIntProperty(CODEC_PROPERTY, codec);
+        message.setStringProperty(TYPE_ID_PROPERTY, object.getClass().getName());
+        return message;
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws JMSException, MessageConversionException {
+        if (!message.propertyExists(CODEC_PROPERTY)) {
+            return json.fromMessage(message);
+        }
+        if (!(message instanceof BytesMessage bytesMessage)) {
+            throw new MessageConversionException("Expected a bytes message, got " + message.getClass().getName());
+        }
+        byte[] body = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(body);
+        int codec = message.getIntProperty(CODEC_PROPERTY);
+        switch (codec) {
+            case PLAIN -> {
+            }
+            case DEFLATED -> body = inflate(body, messaging.getMaxInflatedSize().toBytes());
+            default -> throw new MessageConversionException("Unsupported message codec " + codec
+                    + ", sent by a newer version.");
+        }
+        String typeId = message.getStringProperty(TYPE_ID_PROPERTY);
+        try {
+            return objectMapper.readValue(body, ClassUtils.forName(typeId, getClass().getClassLoader()));
+        } catch (ClassNotFoundException e) {
+            throw new MessageConversionException("Unknown message type " + typeId, e);
+        } catch (IOException e) {
+            throw new MessageConversionException("Could not read JSON: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] deflate(byte[] body) {
+        // fastest level, most of the gain comes from the repetition in sources and output
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] body, long max) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(body.length * 4L, max));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new MessageConversionException("Truncated deflated message body.");
+                }
+                if (out.size() + n > max) {
+                    throw new MessageConversionException("Deflated message body inflates beyond " + max + " bytes.");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new MessageConversionException("Corrupt deflated message body.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -35,6 +35,18 @@ public class Limits {
      */
     private Duration testTimeout = Duration.ofSeconds(4);
 
+    /**
+     * What the test timeout limits. With CPU_TIME a test waiting for a busy worker
+     * is not timed out, a test spinning the CPU is.
+     */
+    private TimeoutMode testTimeoutMode = TimeoutMode.WALL_CLOCK;
+
+    /**
+     * The wall-clock time a test limited by CPU time may take, as a multiple of
+     * the test timeout, so a sleeping or blocked test still ends.
+     */
+    private double cpuTimeWallClockFactor = 3.0;
+
     @NestedConfigurationProperty
     private OutputLimits testOutputLimits = new OutputLimits();
     @NestedConfigurationProperty
@@ -50,6 +62,12 @@ public class Limits {
         private String lineTruncatedMessage = "...{truncated}";
         private String outputTruncMessage = "...{output truncated}";
         private String timeoutMessage = "...{terminated: time expired}";
+        private String cpuTimeoutMessage = "...{terminated: cpu time expired}";
+
+    }
 
+    public enum TimeoutMode {
+        WALL_CLOCK,
+        CPU_TIME
     }
 }
@@ -16,6 +16,12 @@
 */
 package nl.moj.common.config.properties;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
+import org.springframework.util.unit.DataSize;
+
 import lombok.Data;
 
 @Data
@@ -24,4 +30,323 @@ public class Runtime {
     private int gameThreads = 10;
     private boolean playSounds = true;
 
+    /**
+     * Finish pending compile and test attempts of a team as superseded when the
+     * team starts a newer one, and tell the workers to not run them.
+     */
+    private boolean supersedeAttempts = true;
+
+    /**
+     * Ask the workers to fetch and prepare an assignment when it is started, or
+     * the next assignment when a session is continued.
+     */
+    private boolean prewarmAssignments = true;
+
+    /**
+     * Compile in the worker JVM instead of forking javac when the requested
+     * java version is the version the worker runs on.
+     */
+    private boolean inProcessCompile = true;
+
+    /**
+     * The number of threads compiling in the worker JVM. A compilation that times
+     * out cannot be stopped, while such a thread is stuck compiles fork javac.
+     */
+    private int inProcessCompileThreads = 4;
+
+    /**
+     * Create and use AppCDS archives for the forked test JVMs and javac processes,
+     * only supported for java 13 and up.
+     */
+    private boolean classDataSharing = true;
+
+    /**
+     * Compile the non editable sources of an assignment once and only compile the
+     * sources depending on the team's code per attempt. Requires in-process compilation.
+     */
+    private boolean precompileFixedSources = true;
+
+    /**
+     * The maximum disk space used by precompiled assignment sources, the least
+     * recently used are removed first.
+     */
+    private DataSize precompiledSourcesMaxSize = DataSize.ofMegabytes(256);
+
+    /**
+     * Create workspaces by linking the files of a per assignment template instead
+     * of copying every file, and delete them in the background.
+     */
+    private boolean workspaceTemplates = true;
+
+    /**
+     * Once a request waited this long for a worker, new requests of a higher
+     * priority are sent with its priority, so they queue behind it instead of
+     * starving it.
+     */
+    private Duration priorityAgingTimeout = Duration.ofSeconds(30);
+
+    @NestedConfigurationProperty
+    private TestRunnerPool testRunnerPool = new TestRunnerPool();
+
+    @NestedConfigurationProperty
+    private CompileCache compileCache = new CompileCache();
+
+    @NestedConfigurationProperty
+    private TestResultCache testResultCache = new TestResultCache();
+
+    @NestedConfigurationProperty
+    private AssignmentCache assignmentCache = new AssignmentCache();
+
+    @NestedConfigurationProperty
+    private AssignmentFiles assignmentFiles = new AssignmentFiles();
+
+    @NestedConfigurationProperty
+    private TeamSources teamSources = new TeamSources();
+
+    @NestedConfigurationProperty
+    private Workspaces workspaces = new Workspaces();
+
+    @NestedConfigurationProperty
+    private Credits credits = new Credits();
+
+    @NestedConfigurationProperty
+    private Routing routing = new Routing();
+
+    @NestedConfigurationProperty
+    private Messaging messaging = new Messaging();
+
+    @Data
+    public static class TestRunnerPool {
+
+        /**
+         * Run tests in pre-started runner JVMs instead of forking a JVM per test case.
+         * Runner JVMs do not change their working directory per test, assignments
+         * relying on relative file paths need the forked runner.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The number of idle runner JVMs kept warm per java version and security policy.
+         */
+        private int size = 2;
+
+        /**
+         * The number of test runs after which a runner JVM is replaced.
+         */
+        private int maxRuns = 50;
+
+        /**
+         * The maximum time a runner JVM may take to start.
+         */
+        private Duration startupTimeout = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class CompileCache {
+
+        /**
+         * Reuse the classes of an earlier compilation of exactly the same sources.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The maximum disk space used by cached compile results.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+    }
+
+    @Data
+    public static class TestResultCache {
+
+        /**
+         * Reuse the result of an earlier run of the same test on exactly the same
+         * sources, only for assignments that enable cache-test-results.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The maximum memory used by cached test results.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class AssignmentCache {
+
+        /**
+         * The maximum disk space used by assignments a worker fetched from the controller.
+         */
+        private DataSize maxSize = DataSize.ofGigabytes(1);
+
+        /**
+         * The time after which a worker checks with the controller if a cached
+         * assignment changed.
+         */
+        private Duration revalidateAfter = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class AssignmentFiles {
+
+        /**
+         * The number of assignment versions the controller keeps the file listings of.
+         */
+        private int maxAssignments = 32;
+
+        /**
+         * The maximum memory used by the content of assignment files read from disk.
+         */
+        private DataSize contentCacheSize = DataSize.ofMegabytes(64);
+
+        /**
+         * Files above this size are read from disk on every use instead of cached.
+         */
+        private DataSize maxCachedFileSize = DataSize.ofMegabytes(1);
+    }
+
+    @Data
+    public static class TeamSources {
+
+        /**
+         * The interval at which the sources saved by teams are written to their
+         * session folders. Sources are served from memory in between.
+         */
+        private Duration flushInterval = Duration.ofSeconds(2);
+
+        /**
+         * What is forced to disk. Saves are always journaled before they are accepted,
+         * which survives a crash of the controller. JOURNAL forces every save in the
+         * journal to disk, surviving a loss of power, ALL also forces the files written
+         * on a flush.
+         */
+        private FsyncPolicy fsync = FsyncPolicy.JOURNAL;
+    }
+
+    @Data
+    public static class Workspaces {
+
+        /**
+         * The directory workspaces are created in on disk, the system temp
+         * directory when not set.
+         */
+        private Path diskRoot;
+
+        /**
+         * A directory on a memory backed file system, like a tmpfs mount or /dev/shm,
+         * to create workspaces in. Workspaces are only created on disk when not set.
+         */
+        private Path memoryRoot;
+
+        /**
+         * The space workspaces may take in the memory root, new workspaces are created
+         * on disk when exhausted. Workspace templates are included, the size of
+         * their assignment files is allocated for them.
+         */
+        private DataSize memoryCapacity = DataSize.ofMegabytes(512);
+
+        /**
+         * How often the files of an assignment are checked for changes, a changed
+         * assignment gets a new workspace template.
+         */
+        private Duration templateCheckInterval = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Credits {
+
+        /**
+         * The maximum number of attempts a worker has in flight, derived from the
+         * available processors and memory when not set.
+         */
+        private Integer max;
+
+        /**
+         * Attempts in flight per available processor, above one because tests are
+         * often waiting on I/O or sleeping.
+         */
+        private double perCpu = 2.0;
+
+        /**
+         * The memory an attempt in flight is expected to take, mostly by the forked
+         * test JVMs.
+         */
+        private DataSize memoryPerAttempt = DataSize.ofMegabytes(256);
+    }
+
+    @Data
+    public static class Routing {
+
+        /**
+         * Keeps the requests of a team, or of an assignment, on the worker that
+         * handled them before, so its caches and warm test JVMs are reused. Requests
+         * go to any worker when NONE.
+         */
+        private Affinity affinity = Affinity.NONE;
+
+        /**
+         * With ASSIGNMENT affinity, the teams working on an assignment are spread
+         * over this many groups, so a competition is not pinned to a single worker.
+         */
+        private int assignmentShards = 8;
+
+        /**
+         * Once this many requests pinned to a worker are without a response, the
+         * groups pinned to it are moved to another worker, so a busy worker does not
+         * hold up new requests of its groups. Best kept at the credits of a worker.
+         */
+        private int maxPending = 8;
+
+        /**
+         * Groups without pending requests that did not get a request for this long
+         * are forgotten, including the worker they were pinned to.
+         */
+        private Duration groupIdleTimeout = Duration.ofHours(1);
+    }
+
+    public enum Affinity {
+        NONE,
+        TEAM,
+        ASSIGNMENT
+    }
+
+    @Data
+    public static class Messaging {
+
+        /**
+         * The encoding of the messages between controller and workers. BINARY sends
+         * UTF-8 encoded JSON as bytes, JSON sends text messages, which the broker
+         * keeps as two bytes per character. Both are always understood.
+         */
+        private MessageCodec codec = MessageCodec.BINARY;
+
+        /**
+         * Deflate binary messages above the compress threshold. Versions before the
+         * codec header only understand uncompressed messages, only enable once the
+         * controller and all workers run a version that reads them.
+         */
+        private boolean compress = false;
+
+        /**
+         * The size above which binary messages are compressed.
+         */
+        private DataSize compressThreshold = DataSize.ofKilobytes(4);
+
+        /**
+         * The maximum size a compressed message may inflate to, larger messages are
+         * rejected instead of read into memory.
+         */
+        private DataSize maxInflatedSize = DataSize.ofMegabytes(64);
+    }
+
+    public enum MessageCodec {
+        JSON,
+        BINARY
+    }
+
+    public enum FsyncPolicy {
+        NONE,
+        JOURNAL,
+        ALL
+    }
+
 }
@@ -0,0 +1,227 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.common.java;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.Languages.JavaVersion;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.util.JavaVersionUtil;
+
+/**
+ * Keeps track of the configured Java versions. Every configured JDK is probed
+ * once on startup (and again when one of its binaries changes on disk or when
+ * {@link #refresh()} is called), the outcome is kept in an immutable lookup table
+ * so resolving a JDK for a compile or test never has to fork a JVM.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JavaVersionRegistry {
+
+    private static final String FALLBACK = "fallback";
+
+    private final MojServerProperties mojServerProperties;
+    private final MeterRegistry meterRegistry;
+
+    private volatile Snapshot snapshot = new Snapshot(List.of(), null, List.of());
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * Re-probes all configured Java versions and atomically replaces the lookup table.
+     */
+    public synchronized void refresh() {
+        Timer.Sample total = Timer.start(meterRegistry);
+        List<ResolvedJavaVersion> resolved = new ArrayList<>();
+        for (JavaVersion jv : mojServerProperties.getLanguages().getJavaVersions()) {
+            resolved.add(probe(jv));
+        }
+        ResolvedJavaVersion fallback = probeJavaHome();
+        snapshot = new Snapshot(List.copyOf(resolved), fallback, fingerprints(resolved, fallback));
+        total.stop(meterRegistry.timer("moj.jdk.refresh"));
+        Counter.builder("moj.jdk.refreshes").register(meterRegistry).increment();
+
+        log.info("Configured versions: ");
+        resolved.forEach(r -> log.info(
+                "Version {}  Compiler {}  Runtime {}  -> available = {}  -> version runtime = {} (probed in {} ms)",
+                r.javaVersion().getVersion(), r.javaVersion().getCompiler(), r.javaVersion().getRuntime(),
+                r.available(), r.runtimeVersion(), r.probeDuration().toMillis()));
+        if (fallback != null) {
+            log.info("Fallback JAVA_HOME {} -> version runtime = {}", fallback.javaVersion().getRuntime(),
+                    fallback.runtimeVersion());
+        }
+    }
+
+    /**
+     * Periodically verifies the probed binaries did not change on disk, for example
+     * because a JDK was upgraded in place, and re-probes if they did.
+     */
+    @Scheduled(initialDelayString = "${moj.server.languages.refresh-interval:PT1M}", fixedDelayString = "${moj.server.languages.refresh-interval:PT1M}")
+    public void refreshOnChange() {
+        Snapshot current = snapshot;
+        if (!current.fingerprints().equals(fingerprints(current.versions(), current.fallback()))) {
+            log.info("Java installation changed on disk, refreshing registry.");
+            refresh();
+        }
+    }
+
+    public List<ResolvedJavaVersion> getResolvedJavaVersions() {
+        return snapshot.versions();
+    }
+
+    /**
+     * Finds the first available configured Java version that is at least the
+     * requested version, falling back to JAVA_HOME if none was found.
+     *
+     * @param version the minimal major version needed
+     * @return the java version to use
+     * @throws IllegalArgumentException if no suitable java version is available
+     */
+    public JavaVersion getJavaVersion(Integer version) {
+        return resolve(version).javaVersion();
+    }
+
+    public ResolvedJavaVersion resolve(Integer version) {
+        Snapshot current = snapshot;
+        return current.versions().stream()
+                .filter(ResolvedJavaVersion::available)
+                .filter(r -> r.javaVersion().getVersion() >= version)
+                .findFirst()
+                .orElseGet(() -> fallback(current, version));
+    }
+
+    private ResolvedJavaVersion fallback(Snapshot current, Integer version) {
+        // we should still check if the specified version is available
+        // on the fallback as source and target version
+        ResolvedJavaVersion fallback = current.fallback();
+        if (fallback == null) {
+            throw new IllegalArgumentException(
+                    "No java version defined and no JAVA_HOME specified, cannot run without a javac/java...");
+        }
+        if (version != null && version >= 1 && fallback.runtimeVersion() != null
+                && version <= fallback.runtimeVersion()) {
+            log.debug("Using JAVA_HOME since it is an appropriate version");
+            return fallback;
+        }
+        throw new IllegalArgumentException("No java runtime available for version " + version);
+    }
+
+    private ResolvedJavaVersion probe(JavaVersion jv) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Integer runtimeVersion = null;
+        boolean available = false;
+        if (jv.getCompiler() != null && jv.getRuntime() != null
+                && Files.exists(jv.getCompiler()) && Files.exists(jv.getRuntime())) {
+            runtimeVersion = JavaVersionUtil.getRuntimeMajorVersion(jv);
+            available = Objects.equals(jv.getVersion(), runtimeVersion);
+        }
+        long nanos = sample.stop(probeTimer(jv.getName()));
+        return new ResolvedJavaVersion(jv, runtimeVersion, available, Duration.ofNanos(nanos));
+    }
+
+    private ResolvedJavaVersion probeJavaHome() {
+        String javaHome = System.getenv("JAVA_HOME");
+        if (StringUtils.isBlank(javaHome)) {
+            return null;
+        }
+        JavaVersion v = new JavaVersion();
+        v.setCompiler(Paths.get(javaHome, "bin", "javac"));
+        v.setRuntime(Paths.get(javaHome, "bin", "java"));
+        v.setName(FALLBACK);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        v.setVersion(JavaVersionUtil.getRuntimeMajorVersion(v));
+        long nanos = sample.stop(probeTimer(FALLBACK));
+        return new ResolvedJavaVersion(v, v.getVersion(), v.getVersion() != null, Duration.ofNanos(nanos));
+    }
+
+    private Timer probeTimer(String name) {
+        return Timer.builder("moj.jdk.probe")
+                .tag("jdk", name == null ? "unnamed" : name)
+                .register(meterRegistry);
+    }
+
+    private static List<String> fingerprints(List<ResolvedJavaVersion> versions, ResolvedJavaVersion fallback) {
+        List<String> fingerprints = new ArrayList<>();
+        versions.forEach(r -> addFingerprints(fingerprints, r.javaVersion()));
+        if (fallback != null) {
+            addFingerprints(fingerprints, fallback.javaVersion());
+        }
+        return List.copyOf(fingerprints);
+    }
+
+    private static void addFingerprints(List<String> fingerprints, JavaVersion jv) {
+        fingerprints.add(fingerprint(jv.getCompiler()));
+        fingerprints.add(fingerprint(jv.getRuntime()));
+    }
+
+    /**
+     * Describes the file a path points to, following links, so a changed file can
+     * be detected without reading it.
+     */
+    public static String fingerprint(Path p) {
+        if (p == null) {
+            return "<none>";
+        }
+        try {
+            // follow links, most installations point to the actual JDK through alternatives
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            return p.toRealPath() + ":" + attrs.size() + ":" + attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return p + ":missing";
+        }
+    }
+
+    /**
+     * The outcome of probing a single configured Java version.
+     *
+     * @param javaVersion the configured java version
+     * @param runtimeVersion the major version reported by the runtime, null if it could not be determined
+     * @param available if the compiler and runtime exist and the runtime reports the configured version
+     * @param probeDuration the time it took to probe this java version
+     */
+    public record ResolvedJavaVersion(JavaVersion javaVersion, Integer runtimeVersion, boolean available,
+            Duration probeDuration) {
+    }
+
+    private record Snapshot(List<ResolvedJavaVersion> versions, ResolvedJavaVersion fallback,
+            List<String> fingerprints) {
+    }
+}
@@ -0,0 +1,28 @@
+package nl.moj.common.messages;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * Broadcast to all workers when attempts no longer need to run, for example
+ * because the team started a newer attempt.
+ */
+@Getter
+@Builder
+@Jacksonized
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JMSCancel {
+
+    @JsonProperty("attempts")
+    private List<UUID> attempts;
+
+    @JsonProperty("reason")
+    private String reason;
+}
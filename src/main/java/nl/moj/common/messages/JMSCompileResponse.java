@@ -1,5 +1,6 @@
 package nl.moj.common.messages;
 
+import java.time.Duration;
 import java.time.Instant;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
@@ -37,4 +38,13 @@ public class JMSCompileResponse extends JMSResponse {
 
     @JsonProperty("ended")
     private Instant ended;
+
+    @JsonProperty("cpuUser")
+    private Duration cpuUser;
+
+    @JsonProperty("cpuSystem")
+    private Duration cpuSystem;
+
+    @JsonProperty("peakRss")
+    private Long peakRss;
 }
@@ -0,0 +1,24 @@
+package nl.moj.common.messages;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * Broadcast to all workers when an assignment is about to be used, so they can
+ * fetch and prepare it before the first attempt arrives.
+ */
+@Getter
+@Builder
+@Jacksonized
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JMSPrewarmRequest {
+
+    @JsonProperty("assignment")
+    private UUID assignment;
+}
@@ -0,0 +1,36 @@
+package nl.moj.common.messages;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.jackson.Jacksonized;
+
+@Getter
+@Builder
+@Jacksonized
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JMSPrewarmResponse {
+
+    @JsonProperty("assignment")
+    private UUID assignment;
+
+    @JsonProperty("worker")
+    private String worker;
+
+    @JsonProperty("success")
+    private boolean success;
+
+    @JsonProperty("reason")
+    private String reason;
+
+    @JsonProperty("started")
+    private Instant started;
+
+    @JsonProperty("ended")
+    private Instant ended;
+}
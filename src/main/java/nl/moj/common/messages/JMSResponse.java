@@ -15,6 +15,7 @@ import lombok.experimental.SuperBuilder;
 @JsonSubTypes({
         @JsonSubTypes.Type(value = JMSCompileResponse.class, name = "compile"),
         @JsonSubTypes.Type(value = JMSTestResponse.class, name = "test"),
+        @JsonSubTypes.Type(value = JMSTestCaseResponse.class, name = "test-case"),
         @JsonSubTypes.Type(value = JMSSubmitResponse.class, name = "submit")
 })
 @Getter
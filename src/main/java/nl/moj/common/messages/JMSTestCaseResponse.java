@@ -0,0 +1,25 @@
+package nl.moj.common.messages;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.SuperBuilder;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * The result of a single test case of a test attempt, sent as soon as the test
+ * case finished. The {@link JMSTestResponse} sent once all test cases finished
+ * completes the attempt and repeats every result.
+ */
+@Getter
+@SuperBuilder
+@Jacksonized
+@JsonIgnoreProperties(ignoreUnknown = true)
+@ToString(of = { "testCaseResult" })
+public class JMSTestCaseResponse extends JMSResponse {
+
+    @JsonProperty("testCase")
+    private JMSTestCaseResult testCaseResult;
+}
@@ -1,5 +1,6 @@
 package nl.moj.common.messages;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.UUID;
 
@@ -15,7 +16,7 @@ import lombok.extern.jackson.Jacksonized;
 @Builder
 @Jacksonized
 @JsonIgnoreProperties(ignoreUnknown = true)
-@ToString(of = { "testCase", "success", "timeout", "aborted", "reason" })
+@ToString(of = { "testCase", "success", "timeout", "aborted", "reason", "cached" })
 public class JMSTestCaseResult {
 
     @JsonProperty("trace")
@@ -47,4 +48,16 @@ public class JMSTestCaseResult {
 
     @JsonProperty("reason")
     private String reason;
+
+    @JsonProperty("cached")
+    private boolean cached;
+
+    @JsonProperty("cpuUser")
+    private Duration cpuUser;
+
+    @JsonProperty("cpuSystem")
+    private Duration cpuSystem;
+
+    @JsonProperty("peakRss")
+    private Long peakRss;
 }
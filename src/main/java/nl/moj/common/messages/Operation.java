@@ -0,0 +1,31 @@
+package nl.moj.common.messages;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The operations workers perform, with the JMS priority of their requests.
+ * Submits decide the score and go first, compiles go last, until a request
+ * waited too long, see {@code OperationQueue}.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum Operation {
+    COMPILE("compile", 3),
+    TEST("test", 5),
+    SUBMIT("submit", 7);
+
+    private final String name;
+    private final int priority;
+
+    public static Operation of(JMSRequest request) {
+        if (request instanceof JMSCompileRequest) {
+            return COMPILE;
+        } else if (request instanceof JMSTestRequest) {
+            return TEST;
+        } else if (request instanceof JMSSubmitRequest) {
+            return SUBMIT;
+        }
+        throw new IllegalArgumentException("Unknown operation request " + request.getClass().getName());
+    }
+}
@@ -24,6 +24,11 @@ public class StorageService {
     private static final String SOUNDS = "sounds";
     private static final String JAVADOC = "javadoc";
     private static final String ASSIGNMENTS = "assignments";
+    private static final String COMPILE_CACHE = "compile-cache";
+    private static final String PRECOMPILED = "precompiled";
+    private static final String ASSIGNMENT_CACHE = "assignment-cache";
+    private static final String TEAM_SOURCES_JOURNAL = "team-sources.journal";
+    private static final String SNAPSHOT_BLOBS = "snapshot-blobs";
 
     private final MojServerProperties mojServerProperties;
 
@@ -47,10 +52,30 @@ public class StorageService {
         return mojServerProperties.getDataDirectory().resolve(ASSIGNMENTS);
     }
 
+    public Path getCompileCacheFolder() {
+        return mojServerProperties.getDataDirectory().resolve(COMPILE_CACHE);
+    }
+
+    public Path getPrecompiledFolder() {
+        return mojServerProperties.getDataDirectory().resolve(PRECOMPILED);
+    }
+
+    public Path getAssignmentCacheFolder() {
+        return mojServerProperties.getDataDirectory().resolve(ASSIGNMENT_CACHE);
+    }
+
     public Path getJavadocFolder() {
         return mojServerProperties.getDataDirectory().resolve(JAVADOC);
     }
 
+    public Path getSnapshotBlobsFolder() {
+        return mojServerProperties.getDataDirectory().resolve(SNAPSHOT_BLOBS);
+    }
+
+    public Path getTeamSourcesJournal() {
+        return getSessionsFolder().resolve(TEAM_SOURCES_JOURNAL);
+    }
+
     public Path getSessionTeamFolder(UUID sessionId, UUID teamId) {
         return getSessionsFolder()
                 .resolve(sessionId.toString())
@@ -6,8 +6,10 @@ import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import nl.moj.common.assignment.service.AssignmentDescriptorService;
 import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
 import nl.moj.modes.condition.ConditionalOnMode;
 import nl.moj.worker.controller.ControllerClient;
 import nl.moj.worker.controller.RemoteControllerClient;
@@ -24,7 +26,7 @@ public class WorkerConfig {
 
     @Bean
     public ControllerClient controllerClient(MojServerProperties mojServerProperties, RestTemplate restTemplate,
-            AssignmentDescriptorService ads) {
-        return new RemoteControllerClient(mojServerProperties, ads, restTemplate);
+            AssignmentDescriptorService ads, StorageService storageService, MeterRegistry meterRegistry) {
+        return new RemoteControllerClient(mojServerProperties, ads, restTemplate, storageService, meterRegistry);
     }
 }
@@ -79,6 +79,7 @@ public class GameController {
 
         ActiveAssignment activeAssignment = competition.getActiveAssignment(team);
         model.addAttribute("team", team.getName());
+        model.addAttribute("teamId", team.getUuid());
         model.addAttribute("sessionId", competition.getSessionId());
         model.addAttribute("assignmentActive", activeAssignment.isRunning());
 
@@ -2,8 +2,14 @@ package nl.moj.server;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -12,6 +18,7 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.context.request.WebRequest;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -27,10 +34,16 @@ public class RemoteWorkerController {
     private final AssignmentService assignmentService;
 
     @GetMapping(value = "/api/assignment/{id}/content", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public void getAssignmentContent(@PathVariable("id") UUID uuid, HttpServletResponse response) throws IOException {
+    public void getAssignmentContent(@PathVariable("id") UUID uuid, WebRequest request, HttpServletResponse response)
+            throws IOException {
         AssignmentDescriptor ad = assignmentService.resolveAssignmentDescriptor(uuid);
         Path src = assignmentService.getAssignmentContentFolder(uuid);
 
+        // workers revalidate their cached copy
+        if (request.checkNotModified(version(src))) {
+            return;
+        }
+
         response.setStatus(HttpServletResponse.SC_OK);
         response.addHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"assignment-" + uuid + ".zip\"");
 
@@ -42,4 +55,20 @@ public class RemoteWorkerController {
             });
         }
     }
+
+    /**
+     * @return a hash of the names, sizes and modification times of the assignment files
+     */
+    private static String version(Path src) throws IOException {
+        try (Stream<Path> files = Files.walk(src)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Path f : files.filter(Files::isRegularFile).sorted().toList()) {
+                String stat = src.relativize(f) + ":" + Files.size(f) + ":" + Files.getLastModifiedTime(f).toMillis() + "\n";
+                digest.update(stat.getBytes(StandardCharsets.UTF_8));
+            }
+            return "\"" + HexFormat.of().formatHex(digest.digest()) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
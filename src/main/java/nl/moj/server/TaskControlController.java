@@ -60,6 +60,7 @@ import nl.moj.server.competition.repository.CompetitionRepository;
 import nl.moj.server.competition.repository.CompetitionSessionRepository;
 import nl.moj.server.competition.service.CompetitionService;
 import nl.moj.server.competition.service.CompetitionServiceException;
+import nl.moj.server.message.service.PrewarmService;
 import nl.moj.server.metrics.MetricsService;
 import nl.moj.server.metrics.MetricsVO;
 import nl.moj.server.runtime.CompetitionRuntime;
@@ -95,6 +96,8 @@ public class TaskControlController {
 
     private final MetricsService metricsService;
 
+    private final PrewarmService prewarmService;
+
     @RolesAllowed({ Role.GAME_MASTER, Role.ADMIN })
     @PostMapping(value = "/api/assignment/discover", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Map<String, String>> discoverAssignments() {
@@ -213,6 +216,8 @@ public class TaskControlController {
         model.addAttribute("assignments", allAssignments());
         model.addAttribute("competitions", allCompetitions());
         model.addAttribute("cs", toCompetitionSessionVO(competition));
+        model.addAttribute("prewarm", prewarmService.getCurrent().orElse(null));
+        model.addAttribute("prewarmWorkers", prewarmService.getResponses());
 
         model.addAttribute("clockStyle", "active");
         return "control";
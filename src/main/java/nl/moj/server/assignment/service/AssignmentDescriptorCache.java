@@ -0,0 +1,80 @@
+package nl.moj.server.assignment.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.assignment.service.AssignmentDescriptorService;
+
+/**
+ * Parsed assignment descriptors by descriptor file. A descriptor is parsed again
+ * once its file changed on disk, detected by modification time and size, or after
+ * the assignments are rescanned. Cached descriptors are shared between callers
+ * and must not be modified.
+ */
+@Component
+@Slf4j
+public class AssignmentDescriptorCache {
+
+    private final AssignmentDescriptorService assignmentDescriptorService;
+    private final Map<Path, Cached> descriptors = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+
+    public AssignmentDescriptorCache(AssignmentDescriptorService assignmentDescriptorService,
+            MeterRegistry meterRegistry) {
+        this.assignmentDescriptorService = assignmentDescriptorService;
+        this.hits = meterRegistry.counter("moj.assignment.descriptor.cache", "result", "hit");
+        this.misses = meterRegistry.counter("moj.assignment.descriptor.cache", "result", "miss");
+    }
+
+    public AssignmentDescriptor get(Path descriptor) {
+        Path key = descriptor.toAbsolutePath().normalize();
+        Version version = version(key);
+        Cached cached = descriptors.get(key);
+        if (cached != null && cached.version().equals(version)) {
+            hits.increment();
+            return cached.descriptor();
+        }
+        misses.increment();
+        AssignmentDescriptor ad = assignmentDescriptorService.parseAssignmentDescriptor(key);
+        if (version != null) {
+            descriptors.put(key, new Cached(version, ad));
+        }
+        return ad;
+    }
+
+    /**
+     * Drops every cached descriptor, they are parsed again on next use.
+     */
+    public void invalidate() {
+        log.info("Invalidating {} cached assignment descriptors.", descriptors.size());
+        descriptors.clear();
+    }
+
+    private static Version version(Path descriptor) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(descriptor, BasicFileAttributes.class);
+            return new Version(attributes.lastModifiedTime(), attributes.size());
+        } catch (IOException e) {
+            // not cached, parsing reports the problem
+            return null;
+        }
+    }
+
+    private record Version(FileTime modified, long size) {
+    }
+
+    private record Cached(Version version, AssignmentDescriptor descriptor) {
+    }
+}
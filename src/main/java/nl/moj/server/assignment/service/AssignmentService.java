@@ -23,7 +23,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -51,9 +50,14 @@ import nl.moj.server.runtime.model.AssignmentFile;
 @Slf4j
 public class AssignmentService {
 
-    // FIXME this is needed for now to make sure we get the same uuids as they are
-    // not persisted atm.
-    private static final Map<UUID, List<AssignmentFile>> ASSIGNMENT_FILES = new ConcurrentHashMap<>();
+    // access ordered, the least recently used listing is dropped once full
+    private final Map<AssignmentVersion, List<AssignmentFile>> assignmentFiles = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<AssignmentVersion, List<AssignmentFile>> eldest) {
+                    return size() > mojServerProperties.getRuntime().getAssignmentFiles().getMaxAssignments();
+                }
+            });
 
     private final AssignmentRepository assignmentRepository;
 
@@ -61,6 +65,10 @@ public class AssignmentService {
 
     private final AssignmentDescriptorService assignmentDescriptorService;
 
+    private final AssignmentDescriptorCache assignmentDescriptorCache;
+
+    private final JavaAssignmentFileResolver javaAssignmentFileResolver;
+
     private final MojServerProperties mojServerProperties;
 
     private final StorageService storageService;
@@ -88,8 +96,11 @@ public class AssignmentService {
         return resolveAssignmentDescriptor(assignment.getAssignmentDescriptor());
     }
 
+    /**
+     * @return the parsed descriptor, shared with other callers, do not modify.
+     */
     public AssignmentDescriptor resolveAssignmentDescriptor(String assignmentDescriptor) {
-        return assignmentDescriptorService.parseAssignmentDescriptor(Paths.get(assignmentDescriptor));
+        return assignmentDescriptorCache.get(Paths.get(assignmentDescriptor));
     }
 
     public Duration resolveCompileAbortTimout(Assignment assignment) {
@@ -125,13 +136,14 @@ public class AssignmentService {
 
     public List<Assignment> updateAssignments(Path base, String collection) throws IOException, AssignmentServiceException {
         log.info("Discovering assignments from {}.", base);
+        assignmentDescriptorCache.invalidate();
         List<Assignment> assignments = scanAssignments(base);
 
         // validate
         List<String> invalid = assignments.stream().map(this::validateAssignment).filter(r -> !r.isValid())
                 .map(AssignmentDescriptorValidationResult::getAssignment).toList();
         if (invalid.isEmpty()) {
-            ASSIGNMENT_FILES.clear();
+            assignmentFiles.clear();
             // update or create
             return assignments.stream().map(d -> {
                 Assignment current = assignmentRepository.findByName(d.getName());
@@ -170,11 +182,8 @@ public class AssignmentService {
         if (assignment == null) {
             return Collections.emptyList();
         }
-        if (!ASSIGNMENT_FILES.containsKey(uuid)) {
-            ASSIGNMENT_FILES.put(uuid, new JavaAssignmentFileResolver()
-                    .resolve(resolveAssignmentDescriptor(assignment.getAssignmentDescriptor())));
-        }
-        return ASSIGNMENT_FILES.get(uuid);
+        return assignmentFiles.computeIfAbsent(new AssignmentVersion(uuid, assignment.getAssignmentDescriptor()),
+                v -> javaAssignmentFileResolver.resolve(resolveAssignmentDescriptor(v.descriptor())));
     }
 
     private AssignmentDescriptorValidationResult validateAssignment(Assignment a) {
@@ -219,4 +228,6 @@ public class AssignmentService {
         return result;
     }
 
+    private record AssignmentVersion(UUID assignment, String descriptor) {
+    }
 }
@@ -16,6 +16,7 @@
 */
 package nl.moj.server.compiler.model;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.UUID;
 
@@ -77,4 +78,13 @@ public class CompileAttempt {
 
     @Column(name = "compiler_output", columnDefinition = "TEXT")
     private String compilerOutput;
+
+    @Column(name = "cpu_user")
+    private Duration cpuUser;
+
+    @Column(name = "cpu_system")
+    private Duration cpuSystem;
+
+    @Column(name = "peak_rss")
+    private Long peakRss;
 }
@@ -16,32 +16,40 @@
 */
 package nl.moj.server.compiler.service;
 
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.transaction.Transactional;
 
 import org.springframework.cloud.sleuth.annotation.NewSpan;
-import org.springframework.jms.core.JmsTemplate;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.MojServerProperties;
 import nl.moj.common.messages.JMSCompileRequest;
 import nl.moj.common.messages.JMSCompileResponse;
 import nl.moj.common.messages.JMSFile;
+import nl.moj.common.messages.Operation;
 import nl.moj.server.assignment.service.AssignmentService;
 import nl.moj.server.compiler.model.CompileAttempt;
 import nl.moj.server.compiler.repository.CompileAttemptRepository;
 import nl.moj.server.message.service.MessageService;
+import nl.moj.server.message.service.OperationQueue;
 import nl.moj.server.metrics.MetricsService;
 import nl.moj.server.runtime.model.TeamAssignmentStatus;
 import nl.moj.server.runtime.repository.TeamAssignmentStatusRepository;
+import nl.moj.server.teams.model.SourceSnapshot;
+import nl.moj.server.teams.service.SourceSnapshotService;
 import nl.moj.server.teams.service.TeamService;
+import nl.moj.server.test.model.TestAttempt;
 import nl.moj.server.util.JMSResponseHelper;
 import nl.moj.server.util.TransactionHelper;
 
@@ -53,13 +61,15 @@ public class CompileService {
     private final CompileAttemptRepository compileAttemptRepository;
     private final TeamAssignmentStatusRepository teamAssignmentStatusRepository;
     private final TeamService teamService;
-    private final JmsTemplate jmsTemplate;
+    private final OperationQueue operationQueue;
     private final MessageService messageService;
     private final JMSResponseHelper responseHelper;
     private final AssignmentService assignmentService;
     private final TaskScheduler taskScheduler;
     private final TransactionHelper trx;
     private final MetricsService metricsService;
+    private final MojServerProperties mojServerProperties;
+    private final SourceSnapshotService sourceSnapshotService;
 
     @Transactional
     public void receiveCompileResponse(JMSCompileResponse compileResponse) {
@@ -103,8 +113,12 @@ public class CompileService {
                     compileRequest.getAssignment().getUuid(), compileRequest.getSources());
 
             CompileAttempt compileAttempt = prepareCompileAttempt(compileRequest);
+            supersedePendingAttempts(compileAttempt);
+            sourceSnapshotService.snapshot(teamService.getTeamAssignmentDirectory(compileRequest.getTeam().getUuid(),
+                    compileRequest.getSession().getUuid(), compileRequest.getAssignment().getName()),
+                    compileAttempt.getUuid(), SourceSnapshot.Kind.COMPILE, compileRequest.getSources());
             // send JMS compile request
-            jmsTemplate.convertAndSend("operation_request", JMSCompileRequest.builder()
+            operationQueue.send(JMSCompileRequest.builder()
                     .attempt(compileAttempt.getUuid())
                     .assignment(compileRequest.getAssignment().getUuid())
                     .sources(compileRequest.getSources().entrySet().stream().map(e -> JMSFile.builder()
@@ -112,7 +126,8 @@ public class CompileService {
                             .path(e.getKey().toString())
                             .content(e.getValue())
                             .build()).collect(Collectors.toList()))
-                    .build());
+                    .build(),
+                    compileRequest.getAssignment().getUuid(), compileRequest.getTeam().getUuid());
 
             // schedule controller abort
             scheduleAbort(compileAttempt);
@@ -124,7 +139,7 @@ public class CompileService {
                             .getUuid(),
                     compileRequest.getTeam().getUuid());
             return compileAttempt;
-        } catch (IOException e) {
+        } catch (UncheckedIOException e) {
             messageService.sendCompileUnprocessable(compileRequest.getTeam());
             throw new CompileAttemptRegisterException(String
                     .format("Failed to register compile attempt for assignment %s by team %s.", compileRequest.getAssignment()
@@ -133,6 +148,32 @@ public class CompileService {
         }
     }
 
+    /**
+     * Finishes the pending compile attempts of the team that are not part of a test
+     * attempt, their feedback would be ignored anyway.
+     */
+    private void supersedePendingAttempts(CompileAttempt compileAttempt) {
+        if (!mojServerProperties.getRuntime().isSupersedeAttempts()) {
+            return;
+        }
+        TeamAssignmentStatus as = compileAttempt.getAssignmentStatus();
+        Set<CompileAttempt> testCompiles = as.getTestAttempts().stream()
+                .map(TestAttempt::getCompileAttempt)
+                .collect(Collectors.toSet());
+        List<UUID> superseded = new ArrayList<>();
+        for (CompileAttempt ca : as.getCompileAttempts()) {
+            if (!ca.equals(compileAttempt) && ca.getDateTimeEnd() == null && !testCompiles.contains(ca)) {
+                update(ca, responseHelper.supersededResponse(ca));
+                superseded.add(ca.getUuid());
+            }
+        }
+        if (!superseded.isEmpty()) {
+            log.info("Compile attempts {} superseded by compile attempt {}.", superseded, compileAttempt.getUuid());
+            operationQueue.cancel(superseded, JMSResponseHelper.SUPERSEDED);
+            metricsService.registerSupersededAttempts(Operation.COMPILE, superseded.size());
+        }
+    }
+
     @Transactional
     public CompileAttempt prepareCompileAttempt(CompileRequest compileRequest) {
         TeamAssignmentStatus as = teamAssignmentStatusRepository.findByAssignment_IdAndCompetitionSession_IdAndTeam_Id(
@@ -167,6 +208,9 @@ public class CompileService {
         compileAttempt.setCompilerOutput(compileResponse.getOutput());
         compileAttempt.setAborted(compileResponse.isAborted());
         compileAttempt.setReason(compileResponse.getReason());
+        compileAttempt.setCpuUser(compileResponse.getCpuUser());
+        compileAttempt.setCpuSystem(compileResponse.getCpuSystem());
+        compileAttempt.setPeakRss(compileResponse.getPeakRss());
         return compileAttemptRepository.save(compileAttempt);
     }
 
@@ -19,14 +19,24 @@ package nl.moj.server.config;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.scheduling.TaskScheduler;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.config.annotation.web.messaging.MessageSecurityMetadataSourceRegistry;
 import org.springframework.security.config.annotation.web.socket.AbstractSecurityWebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+import nl.moj.server.user.service.TeamSessionRegistry;
+
 @Configuration
 public class WebSocketConfiguration {
 
@@ -35,12 +45,18 @@ public class WebSocketConfiguration {
     public static class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
         private TaskScheduler taskScheduler;
+        private TeamSessionRegistry teamSessionRegistry;
 
         @Autowired
         public void setTaskScheduler(@Lazy TaskScheduler taskScheduler) {
             this.taskScheduler = taskScheduler;
         }
 
+        @Autowired
+        public void setTeamSessionRegistry(TeamSessionRegistry teamSessionRegistry) {
+            this.teamSessionRegistry = teamSessionRegistry;
+        }
+
         @Override
         public void configureMessageBroker(MessageBrokerRegistry config) {
             config.enableSimpleBroker("/topic", "/queue")
@@ -58,6 +74,34 @@ public class WebSocketConfiguration {
             registry.addEndpoint("/rankings/websocket");
             registry.addEndpoint("/feedback/websocket");
         }
+
+        @Override
+        public void configureClientInboundChannel(ChannelRegistration registration) {
+            registration.interceptors(new TeamSubscriptionInterceptor(teamSessionRegistry));
+        }
+    }
+
+    /**
+     * Refuses subscriptions the session may not make, team destinations only carry
+     * messages for the members of that team.
+     */
+    public static class TeamSubscriptionInterceptor implements ChannelInterceptor {
+
+        private final TeamSessionRegistry teamSessionRegistry;
+
+        public TeamSubscriptionInterceptor(TeamSessionRegistry teamSessionRegistry) {
+            this.teamSessionRegistry = teamSessionRegistry;
+        }
+
+        @Override
+        public Message<?> preSend(Message<?> message, MessageChannel channel) {
+            StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+            if (accessor != null && StompCommand.SUBSCRIBE.equals(accessor.getCommand())
+                    && !teamSessionRegistry.maySubscribe(accessor.getSessionId(), accessor.getDestination())) {
+                throw new AccessDeniedException("Not allowed to subscribe to " + accessor.getDestination());
+            }
+            return message;
+        }
     }
 
     @Configuration
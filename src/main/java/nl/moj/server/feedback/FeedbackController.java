@@ -16,6 +16,7 @@
 */
 package nl.moj.server.feedback;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -27,6 +28,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.transaction.Transactional;
 
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -42,6 +44,9 @@ import nl.moj.server.feedback.service.FeedbackService;
 import nl.moj.server.runtime.CompetitionRuntime;
 import nl.moj.server.runtime.model.ActiveAssignment;
 import nl.moj.server.runtime.model.AssignmentFileType;
+import nl.moj.server.teams.model.SourceSnapshot;
+import nl.moj.server.teams.service.SourceSnapshotService;
+import nl.moj.server.teams.service.TeamService;
 import nl.moj.server.util.CollectionUtil;
 
 @Controller
@@ -50,6 +55,8 @@ public class FeedbackController {
 
     private final FeedbackService feedbackService;
     private final CompetitionRuntime competitionRuntime;
+    private final TeamService teamService;
+    private final SourceSnapshotService sourceSnapshotService;
 
     @GetMapping("/feedback")
     @Transactional(Transactional.TxType.REQUIRED)
@@ -125,6 +132,34 @@ public class FeedbackController {
                 .build();
     }
 
+    @GetMapping(value = "/feedback/solution/{assignment}/team/{team}/attempts", produces = MediaType.APPLICATION_JSON_VALUE)
+    @RolesAllowed({ Role.GAME_MASTER, Role.ADMIN })
+    public @ResponseBody List<SourceSnapshot> getAttempts(@PathVariable("assignment") UUID assignment,
+            @PathVariable("team") UUID team) {
+        return sourceSnapshotService.getSnapshots(teamService.getTeamAssignmentDirectory(team,
+                competitionRuntime.getSessionId(), assignment));
+    }
+
+    @GetMapping(value = "/feedback/solution/{assignment}/team/{team}/attempt/{attempt}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @RolesAllowed({ Role.GAME_MASTER, Role.ADMIN })
+    public ResponseEntity<Submission> getAttempt(@PathVariable("assignment") UUID assignment,
+            @PathVariable("team") UUID team, @PathVariable("attempt") UUID attempt) {
+        Path directory = teamService.getTeamAssignmentDirectory(team, competitionRuntime.getSessionId(), assignment);
+        return sourceSnapshotService.getSnapshot(directory, attempt)
+                .map(snapshot -> Submission.builder()
+                        .team(team)
+                        .files(sourceSnapshotService.getSources(snapshot).entrySet().stream()
+                                .map(e -> FileSubmission.builder()
+                                        .filename(e.getKey().getFileName().toString())
+                                        .content(e.getValue())
+                                        .location(e.getKey().toString())
+                                        .build())
+                                .collect(Collectors.toList()))
+                        .build())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     private void orderTeamsByName(List<TeamFeedback> allTeams) {
         allTeams.sort(Comparator.comparing(t -> t.getTeam().getName()));
     }
@@ -8,6 +8,7 @@ import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.messages.JMSCompileResponse;
 import nl.moj.common.messages.JMSResponse;
 import nl.moj.common.messages.JMSSubmitResponse;
+import nl.moj.common.messages.JMSTestCaseResponse;
 import nl.moj.common.messages.JMSTestResponse;
 import nl.moj.server.compiler.service.CompileService;
 import nl.moj.server.submit.service.SubmitService;
@@ -26,8 +27,17 @@ public class JmsMessageListener {
 
     private final TestService testService;
 
+    private final OperationQueue operationQueue;
+
     @JmsListener(destination = RESPONSE_DESTINATION)
     public void receiveOperationResponse(JMSResponse response) {
+        if (response instanceof JMSTestCaseResponse r) {
+            // partial result, the attempt is still pending
+            operationQueue.progress(r);
+            receiveTestCaseResponse(r);
+            return;
+        }
+        operationQueue.received(response);
         if (response instanceof JMSCompileResponse r) {
             receiveCompileResponse(r);
         } else if (response instanceof JMSTestResponse r) {
@@ -47,6 +57,10 @@ public class JmsMessageListener {
         testService.receiveTestResponse(testResponse);
     }
 
+    private void receiveTestCaseResponse(JMSTestCaseResponse testCaseResponse) {
+        testService.receiveTestCaseResponse(testCaseResponse);
+    }
+
     private void receiveSubmitResponse(JMSSubmitResponse submitResponse) {
         submitService.receiveSubmitResponse(submitResponse);
     }
@@ -23,7 +23,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 import javax.transaction.Transactional;
 
@@ -56,8 +55,7 @@ import nl.moj.server.submit.model.SubmitAttempt;
 import nl.moj.server.teams.model.Team;
 import nl.moj.server.test.model.TestAttempt;
 import nl.moj.server.test.model.TestCase;
-import nl.moj.server.user.model.User;
-import nl.moj.server.user.service.UserService;
+import nl.moj.server.user.service.TeamSessionRegistry;
 
 @Controller
 @Slf4j
@@ -70,21 +68,31 @@ public class MessageService {
     private static final String DEST_STOP = "/queue/stop";
     private static final String DEST_RANKINGS = "/queue/rankings";
 
-    private final UserService userService;
+    private final TeamSessionRegistry teamSessionRegistry;
     private final SimpMessagingTemplate template;
     private final Tracer tracer;
 
     @Autowired
     public MessageService(SimpMessagingTemplate template, CompetitionSessionRepository competitionSessionRepository,
-            UserService userService, Tracer tracer) {
+            TeamSessionRegistry teamSessionRegistry, Tracer tracer) {
         super();
         this.template = template;
-        this.userService = userService;
+        this.teamSessionRegistry = teamSessionRegistry;
         this.tracer = tracer;
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendTestFeedback(TestAttempt ta) {
+        sendRemainingTestFeedback(ta, Set.of());
+    }
+
+    /**
+     * Sends the compile result and the results of the test cases of the attempt,
+     * except for the given test cases of which the result was already sent while
+     * the attempt was running.
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void sendRemainingTestFeedback(TestAttempt ta, Set<UUID> sent) {
         if (ta != null) {
             Team team = ta.getAssignmentStatus().getTeam();
             sendCompileFeedback(ta.getCompileAttempt());
@@ -94,11 +102,21 @@ public class MessageService {
             List<TestCase> tcs = new ArrayList<>(ta.getTestCases());
             tcs.sort(Comparator.comparing(TestCase::getName));
             tcs.forEach(tc -> {
-                sendTestFeedback(team, tc);
+                if (!sent.contains(tc.getUuid())) {
+                    sendTestFeedback(team, tc);
+                }
             });
         }
     }
 
+    /**
+     * Sends the result of a single test case of the attempt as soon as it is known.
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void sendTestFeedback(TestAttempt ta, TestCase tc) {
+        sendTestFeedback(ta.getAssignmentStatus().getTeam(), tc);
+    }
+
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendTestUnprocessable(Team team) {
         sendCompileUnprocessable(team);
@@ -115,7 +133,7 @@ public class MessageService {
                 .traceId(getTraceId())
                 .build();
         log.info("Sending test feedback: {}", msg);
-        sendToActiveUsers(team, msg);
+        sendToTeam(team, msg);
         template.convertAndSend(DEST_TESTRESULTS, msg);
     }
 
@@ -144,7 +162,7 @@ public class MessageService {
                 .traceId(getTraceId())
                 .message(reason)
                 .build();
-        sendToActiveUsers(team, msg);
+        sendToTeam(team, msg);
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
@@ -172,7 +190,7 @@ public class MessageService {
         if (sa != null) {
             sendTestFeedback(sa.getTestAttempt());
         }
-        sendToActiveUsers(team, msg);
+        sendToTeam(team, msg);
         template.convertAndSend(DEST_TESTRESULTS, msg);
         template.convertAndSend(DEST_RANKINGS, "refresh");
     }
@@ -189,7 +207,7 @@ public class MessageService {
                     .traceId(getTraceId())
                     .build();
             log.info("Sending compile feedback: {}", msg);
-            sendToActiveUsers(team, msg);
+            sendToTeam(team, msg);
         }
     }
 
@@ -203,7 +221,7 @@ public class MessageService {
                 .traceId(getTraceId())
                 .build();
         log.info("Sending compile feedback: {}", msg);
-        sendToActiveUsers(team, msg);
+        sendToTeam(team, msg);
     }
 
     public void sendGroupStart(String taskname, String sessionId) {
@@ -217,7 +235,7 @@ public class MessageService {
         log.info("Sending start to team: team={}, t={}, s={}", team.getName(), taskname, sessionId);
 
         template.convertAndSend(DEST_START, taskname);
-        sendToActiveUsers(team, StartAssignmentMessage.builder().sessionId(sessionId).assignment(taskname).build());
+        sendToTeam(team, StartAssignmentMessage.builder().sessionId(sessionId).assignment(taskname).build());
     }
 
     public void sendGroupStop(String taskname, String sessionId) {
@@ -229,7 +247,7 @@ public class MessageService {
 
     public void sendTeamStop(Team team, String taskname, String sessionId) {
         log.info("Sending stop: t={}, s={}", taskname, sessionId);
-        sendToActiveUsers(team, StopAssignmentMessage.builder().sessionId(sessionId).assignment(taskname).build());
+        sendToTeam(team, StopAssignmentMessage.builder().sessionId(sessionId).assignment(taskname).build());
     }
 
     public void sendGroupRemainingTime(Duration remainingTime, Duration totalTime, UUID session) {
@@ -250,7 +268,7 @@ public class MessageService {
             log.info("Sending time: r={}, t={}, s={}", remainingTime, totalTime, session.toString());
             TimerSyncMessage msg = TimerSyncMessage.builder().remainingTime(remainingTime.toSeconds())
                     .totalTime(totalTime.toSeconds()).sessionId(session.toString()).isRunning(true).build();
-            sendToActiveUsers(team, msg);
+            sendToTeam(team, msg);
         } catch (Exception e) {
             log.warn("Failed to send remaining time.", e);
         }
@@ -265,48 +283,45 @@ public class MessageService {
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendCompilingStarted(Team team) {
         log.info("Sending compiling started for team '{}' ", team.getUuid());
-        sendToActiveUsers(team, CompilingStarted.builder().team(team.getUuid()).build());
+        sendToTeam(team, CompilingStarted.builder().team(team.getUuid()).build());
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendCompilingEnded(Team team, boolean success) {
         log.info("Sending compiling ended for team uuid '{}'", team.getUuid());
-        sendToActiveUsers(team, CompilingEnded.builder().team(team.getUuid()).success(success).build());
+        sendToTeam(team, CompilingEnded.builder().team(team.getUuid()).success(success).build());
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendTestingStarted(Team team) {
         log.info("Sending testing started for team uuid '{}'", team.getUuid());
-        sendToActiveUsers(team, TestingStarted.builder().team(team.getUuid()).build());
+        sendToTeam(team, TestingStarted.builder().team(team.getUuid()).build());
         template.convertAndSend(DEST_TESTRESULTS, TeamStartedTestingMessage.builder().uuid(team.getUuid()).build());
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendTestingEnded(Team team, boolean success) {
         log.info("Sending testing ended for team uuid '{}'", team.getUuid());
-        sendToActiveUsers(team, TestingEnded.builder().team(team.getUuid()).success(success).build());
+        sendToTeam(team, TestingEnded.builder().team(team.getUuid()).success(success).build());
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendSubmitStarted(Team team) {
         log.info("Sending submit started for team uuid '{}'", team.getUuid());
-        sendToActiveUsers(team, SubmitStarted.builder().team(team.getUuid()).build());
+        sendToTeam(team, SubmitStarted.builder().team(team.getUuid()).build());
     }
 
     @Transactional(Transactional.TxType.MANDATORY)
     public void sendSubmitEnded(Team team, boolean success, Long score) {
         log.info("Sending submit ended for team uuid '{}'", team.getUuid());
-        sendToActiveUsers(team, SubmitEnded.builder().team(team.getUuid()).success(success).score(score).build());
-    }
-
-    private void sendToActiveUsers(Team team, Object payload) {
-        getActiveUsers(team).forEach(u -> {
-            template.convertAndSendToUser(u.getName(), DEST_COMPETITION, payload);
-        });
+        sendToTeam(team, SubmitEnded.builder().team(team.getUuid()).success(success).score(score).build());
     }
 
-    private Set<User> getActiveUsers(Team t) {
-        return userService.getActiveUsers().stream().filter(u -> t.getUsers().contains(u)).collect(Collectors.toSet());
+    private void sendToTeam(Team team, Object payload) {
+        // the broker delivers it to every session of the team
+        if (teamSessionRegistry.hasConnectedUsers(team.getUuid())) {
+            template.convertAndSend(TeamSessionRegistry.destination(team.getUuid()), payload);
+        }
     }
 
     private String getTraceId() {
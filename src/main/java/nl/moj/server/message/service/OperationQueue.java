@@ -0,0 +1,288 @@
+package nl.moj.server.message.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.Routing;
+import nl.moj.common.messages.JMSCancel;
+import nl.moj.common.messages.JMSRequest;
+import nl.moj.common.messages.JMSResponse;
+import nl.moj.common.messages.Operation;
+
+/**
+ * Sends operation requests to the workers with the JMS priority of their
+ * {@link Operation}, so the broker delivers pending submits before tests and
+ * tests before compiles, and keeps track of the requests pending per operation.
+ * <p>
+ * Strict priorities let a steady stream of tests and submits starve the compiles.
+ * Once a request is pending for longer than the priority aging timeout, new
+ * requests are sent with at most its priority. The broker delivers requests of
+ * the same priority in order, so a waiting request is only overtaken by the
+ * requests sent before it aged.
+ * <p>
+ * With routing affinity enabled requests carry a message group of their team or
+ * of a shard of the teams on an assignment. The broker delivers a group to the
+ * same worker for as long as it is connected, which has the workspace template,
+ * compiled fixed sources and warm test JVMs of the assignment.
+ * <p>
+ * The worker a group is pinned to is learned from the responses, including the
+ * results of single test cases. Once too many requests pinned to that worker are
+ * pending, for example because it ran out of credits, the group continues under a
+ * new name, which the broker pins to whichever worker takes it next. Groups idle
+ * for long are forgotten.
+ */
+@Component
+@Slf4j
+public class OperationQueue {
+
+    public static final String REQUEST_DESTINATION = "operation_request";
+    public static final String CANCEL_DESTINATION = "operation_cancel";
+    public static final String GROUP_PROPERTY = "JMSXGroupID";
+
+    // a response for a request this old is not expected anymore
+    private static final Duration EXPIRE = Duration.ofHours(1);
+
+    private final JmsTemplate jmsTemplate;
+    private final MojServerProperties mojServerProperties;
+    private final Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<Operation, AtomicInteger> depth = new ConcurrentHashMap<>();
+    private final Map<Operation, Timer> roundTrip = new ConcurrentHashMap<>();
+    private final Map<Operation, Counter> routedAffinity = new ConcurrentHashMap<>();
+    private final Map<Operation, Counter> routedAny = new ConcurrentHashMap<>();
+    // current generation per group, the worker each generation is pinned to and the last use per group,
+    // guarded by groups
+    private final Map<String, Integer> groups = new HashMap<>();
+    private final Map<GroupName, String> pinned = new HashMap<>();
+    private final Map<String, Instant> used = new HashMap<>();
+    private final Counter reassigned;
+
+    public OperationQueue(JmsTemplate jmsTemplate, MojServerProperties mojServerProperties,
+            MeterRegistry meterRegistry) {
+        this.jmsTemplate = jmsTemplate;
+        this.mojServerProperties = mojServerProperties;
+        for (Operation operation : Operation.values()) {
+            AtomicInteger count = new AtomicInteger();
+            depth.put(operation, count);
+            Gauge.builder("moj.operation.pending", count, AtomicInteger::get)
+                    .tag("operation", operation.getName())
+                    .description("Requests sent to the workers without a response")
+                    .register(meterRegistry);
+            roundTrip.put(operation, Timer.builder("moj.operation.response")
+                    .tag("operation", operation.getName())
+                    .description("Time between sending a request and receiving its response")
+                    .register(meterRegistry));
+            routedAffinity.put(operation, routed(meterRegistry, operation, "affinity"));
+            routedAny.put(operation, routed(meterRegistry, operation, "any"));
+        }
+        this.reassigned = Counter.builder("moj.operation.group.reassigned")
+                .description("Groups moved away from a worker with too many pending requests")
+                .register(meterRegistry);
+        Gauge.builder("moj.operation.groups", used, Map::size)
+                .description("Groups the worker they are pinned to is kept track of")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sends the request for an attempt of the team on the assignment to the workers.
+     */
+    public void send(JMSRequest request, UUID assignment, UUID team) {
+        Operation operation = Operation.of(request);
+        expire();
+        GroupName group = group(assignment, team);
+        int priority = priority(operation);
+        pending.put(request.getAttempt(), new Pending(operation, Instant.now(), group));
+        depth.get(operation).incrementAndGet();
+        (group == null ? routedAny : routedAffinity).get(operation).increment();
+        jmsTemplate.execute(REQUEST_DESTINATION, (session, producer) -> {
+            Message message = jmsTemplate.getMessageConverter().toMessage(request, session);
+            if (group != null) {
+                message.setStringProperty(GROUP_PROPERTY, group.toString());
+            }
+            producer.send(message, producer.getDeliveryMode(), priority, producer.getTimeToLive());
+            return null;
+        });
+    }
+
+    /**
+     * Registers the response for a request, called for every response received
+     * from the workers.
+     */
+    public void received(JMSResponse response) {
+        Pending p = pending.remove(response.getAttempt());
+        if (p != null) {
+            depth.get(p.operation()).decrementAndGet();
+            roundTrip.get(p.operation()).record(Duration.between(p.sent(), Instant.now()));
+            if (p.group() != null) {
+                synchronized (groups) {
+                    pin(p.group(), response.getWorker());
+                    // a moved group no longer needs its old worker once nothing is pending there
+                    if (groups.getOrDefault(p.group().base(), 0) != p.group().generation()
+                            && pending.values().stream().noneMatch(o -> p.group().equals(o.group()))) {
+                        pinned.remove(p.group());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a partial response for a request that is still pending, like the
+     * result of a single test case.
+     */
+    public void progress(JMSResponse response) {
+        Pending p = pending.get(response.getAttempt());
+        if (p != null && p.group() != null) {
+            synchronized (groups) {
+                pin(p.group(), response.getWorker());
+            }
+        }
+    }
+
+    /**
+     * Tells the workers the attempts no longer need to run. Workers drop the requests
+     * they did not start yet and stop the ones in progress where possible.
+     */
+    public void cancel(List<UUID> attempts, String reason) {
+        attempts.forEach(a -> {
+            Pending p = pending.remove(a);
+            if (p != null) {
+                depth.get(p.operation()).decrementAndGet();
+            }
+        });
+        JMSCancel cancel = JMSCancel.builder().attempts(attempts).reason(reason).build();
+        jmsTemplate.execute(session -> {
+            try (MessageProducer producer = session.createProducer(session.createTopic(CANCEL_DESTINATION))) {
+                producer.send(jmsTemplate.getMessageConverter().toMessage(cancel, session));
+            }
+            return null;
+        });
+    }
+
+    public int getPending(Operation operation) {
+        return depth.get(operation).get();
+    }
+
+    /**
+     * @return the priority of the operation, or the lowest priority of the requests
+     *         pending for longer than the priority aging timeout
+     */
+    private int priority(Operation operation) {
+        Instant aged = Instant.now().minus(mojServerProperties.getRuntime().getPriorityAgingTimeout());
+        return pending.values().stream()
+                .filter(p -> !p.sent().isAfter(aged))
+                .mapToInt(p -> p.operation().getPriority())
+                .reduce(operation.getPriority(), Math::min);
+    }
+
+    private GroupName group(UUID assignment, UUID team) {
+        Routing routing = mojServerProperties.getRuntime().getRouting();
+        String base = switch (routing.getAffinity()) {
+            case TEAM -> team == null ? null : "team-" + team;
+            case ASSIGNMENT -> assignment == null ? null
+                    : "assignment-" + assignment + "-"
+                            + (team == null ? 0 : Math.floorMod(team.hashCode(), routing.getAssignmentShards()));
+            case NONE -> null;
+        };
+        if (base == null) {
+            return null;
+        }
+        synchronized (groups) {
+            used.put(base, Instant.now());
+            GroupName name = new GroupName(base, groups.getOrDefault(base, 0));
+            String worker = pinned.get(name);
+            if (worker != null && pendingOn(worker) >= routing.getMaxPending()) {
+                log.debug("Worker {} has too many pending requests, moving group {}.", worker, base);
+                GroupName moved = name;
+                if (pending.values().stream().noneMatch(p -> moved.equals(p.group()))) {
+                    pinned.remove(moved);
+                }
+                name = new GroupName(base, name.generation() + 1);
+                groups.put(base, name.generation());
+                reassigned.increment();
+            }
+            return name;
+        }
+    }
+
+    private void pin(GroupName group, String worker) {
+        if (worker != null) {
+            pinned.put(group, worker);
+        }
+    }
+
+    /**
+     * @return the number of pending requests in the groups pinned to the worker
+     */
+    private long pendingOn(String worker) {
+        return pending.values().stream()
+                .filter(p -> p.group() != null && worker.equals(pinned.get(p.group())))
+                .count();
+    }
+
+    private static Counter routed(MeterRegistry meterRegistry, Operation operation, String routing) {
+        return Counter.builder("moj.operation.routed")
+                .tag("operation", operation.getName())
+                .tag("routing", routing)
+                .description("Requests sent to the worker of their group or to any worker")
+                .register(meterRegistry);
+    }
+
+    private void expire() {
+        Instant expired = Instant.now().minus(EXPIRE);
+        pending.entrySet().removeIf(e -> {
+            if (e.getValue().sent().isBefore(expired)) {
+                log.debug("No response received for attempt {}, no longer counted as pending.", e.getKey());
+                depth.get(e.getValue().operation()).decrementAndGet();
+                return true;
+            }
+            return false;
+        });
+
+        Instant idle = Instant.now().minus(mojServerProperties.getRuntime().getRouting().getGroupIdleTimeout());
+        synchronized (groups) {
+            Set<GroupName> busy = pending.values().stream()
+                    .map(Pending::group)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+            used.entrySet().removeIf(e -> !e.getValue().isAfter(idle)
+                    && busy.stream().noneMatch(g -> g.base().equals(e.getKey())));
+            groups.keySet().retainAll(used.keySet());
+            // old generations and forgotten groups without pending requests
+            pinned.keySet().removeIf(g -> !busy.contains(g)
+                    && (!used.containsKey(g.base()) || groups.getOrDefault(g.base(), 0) != g.generation()));
+        }
+    }
+
+    private record Pending(Operation operation, Instant sent, GroupName group) {
+    }
+
+    private record GroupName(String base, int generation) {
+
+        @Override
+        public String toString() {
+            return generation == 0 ? base : base + "-" + generation;
+        }
+    }
+
+}
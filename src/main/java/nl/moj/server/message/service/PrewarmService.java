@@ -0,0 +1,85 @@
+package nl.moj.server.message.service;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.MessageProducer;
+
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.messages.JMSPrewarmRequest;
+import nl.moj.common.messages.JMSPrewarmResponse;
+import nl.moj.server.assignment.model.Assignment;
+
+/**
+ * Asks all workers to prepare an assignment before teams start using it, and
+ * keeps track of the workers that reported back for the most recent request.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class PrewarmService {
+
+    public static final String PREWARM_DESTINATION = "operation_prewarm";
+    private static final String PREWARM_RESPONSE_DESTINATION = "prewarm_response";
+
+    private final JmsTemplate jmsTemplate;
+    private final MojServerProperties mojServerProperties;
+
+    private final Map<String, JMSPrewarmResponse> responses = new ConcurrentHashMap<>();
+    private volatile Request current;
+
+    public void prewarm(Assignment assignment) {
+        if (!mojServerProperties.getRuntime().isPrewarmAssignments()) {
+            return;
+        }
+        if (current != null && current.assignment().equals(assignment.getUuid())) {
+            log.debug("Prewarm of assignment {} already requested.", assignment.getName());
+            return;
+        }
+        current = new Request(assignment.getUuid(), assignment.getName(), Instant.now());
+        responses.clear();
+        JMSPrewarmRequest request = JMSPrewarmRequest.builder().assignment(assignment.getUuid()).build();
+        jmsTemplate.execute(session -> {
+            try (MessageProducer producer = session.createProducer(session.createTopic(PREWARM_DESTINATION))) {
+                producer.send(jmsTemplate.getMessageConverter().toMessage(request, session));
+            }
+            return null;
+        });
+        log.info("Requested workers to prewarm assignment {}.", assignment.getName());
+    }
+
+    @JmsListener(destination = PREWARM_RESPONSE_DESTINATION)
+    public void receivePrewarmResponse(JMSPrewarmResponse response) {
+        Request request = current;
+        if (request != null && request.assignment().equals(response.getAssignment())) {
+            responses.put(response.getWorker(), response);
+        }
+        log.info("Worker {} prewarmed assignment {}, success {}.", response.getWorker(), response.getAssignment(),
+                response.isSuccess());
+    }
+
+    public Optional<Request> getCurrent() {
+        return Optional.ofNullable(current);
+    }
+
+    /**
+     * @return the responses of the workers to the current request, ordered by worker
+     */
+    public List<JMSPrewarmResponse> getResponses() {
+        return responses.values().stream().sorted(Comparator.comparing(JMSPrewarmResponse::getWorker)).toList();
+    }
+
+    public record Request(UUID assignment, String name, Instant requested) {
+    }
+}
@@ -16,6 +16,8 @@ import javax.annotation.PostConstruct;
 
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.Measurement;
 import io.micrometer.core.instrument.Meter;
@@ -23,7 +25,9 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.distribution.HistogramSnapshot;
 import lombok.RequiredArgsConstructor;
+import nl.moj.common.messages.Operation;
 import nl.moj.server.compiler.model.CompileAttempt;
+import nl.moj.server.runtime.model.TeamAssignmentStatus;
 import nl.moj.server.submit.model.SubmitAttempt;
 import nl.moj.server.test.model.TestAttempt;
 
@@ -31,6 +35,14 @@ import nl.moj.server.test.model.TestAttempt;
 @RequiredArgsConstructor
 public class MetricsService {
 
+    // per assignment CPU time and peak memory of compile and test runs, reported by the workers
+    private static final String COMPILE_CPU = "moj.compile.cpu";
+    private static final String COMPILE_PEAK_RSS = "moj.compile.peak-rss";
+    private static final String TEST_CPU = "moj.test.cpu";
+    private static final String TEST_PEAK_RSS = "moj.test.peak-rss";
+    private static final List<String> RESOURCE_METERS = List.of(COMPILE_CPU, COMPILE_PEAK_RSS, TEST_CPU,
+            TEST_PEAK_RSS);
+
     private final MeterRegistry meterRegistry;
 
     private Timer compileDuration;
@@ -57,6 +69,10 @@ public class MetricsService {
         meterRegistry.remove(testDuration.getId());
         meterRegistry.remove(submitRoundTrip.getId());
         meterRegistry.remove(submitDuration.getId());
+        meterRegistry.getMeters().stream()
+                .filter(m -> RESOURCE_METERS.contains(m.getId().getName()))
+                .toList()
+                .forEach(meterRegistry::remove);
         init();
     }
 
@@ -68,6 +84,8 @@ public class MetricsService {
             if (compileRoundTrip != null) {
                 compileRoundTrip.record(Duration.between(ca.getDateTimeRegister(), ca.getDateTimeEnd()));
             }
+            registerResourceUsage(COMPILE_CPU, COMPILE_PEAK_RSS, ca.getAssignmentStatus(), ca.getCpuUser(),
+                    ca.getCpuSystem(), ca.getPeakRss());
         }
     }
 
@@ -80,6 +98,10 @@ public class MetricsService {
             if (testRoundTrip != null) {
                 testRoundTrip.record(Duration.between(ta.getDateTimeRegister(), ta.getDateTimeEnd()));
             }
+            if (ta.getTestCases() != null) {
+                ta.getTestCases().forEach(tc -> registerResourceUsage(TEST_CPU, TEST_PEAK_RSS, ta.getAssignmentStatus(),
+                        tc.getCpuUser(), tc.getCpuSystem(), tc.getPeakRss()));
+            }
         }
     }
 
@@ -95,6 +117,54 @@ public class MetricsService {
         }
     }
 
+    /**
+     * Counts attempts finished by the controller because the team started a newer
+     * one, these are stored as aborted but were not aborted by a worker.
+     */
+    public void registerSupersededAttempts(Operation operation, int count) {
+        if (meterRegistry != null && count > 0) {
+            Counter.builder("moj.attempt.superseded")
+                    .tag("operation", operation.getName())
+                    .description("Pending attempts finished because the team started a newer attempt")
+                    .register(meterRegistry)
+                    .increment(count);
+        }
+    }
+
+    private void registerResourceUsage(String cpuMetric, String peakRssMetric, TeamAssignmentStatus status,
+            Duration cpuUser, Duration cpuSystem, Long peakRss) {
+        if (meterRegistry == null || status == null || status.getAssignment() == null) {
+            return;
+        }
+        String assignment = status.getAssignment().getName();
+        if (cpuUser != null) {
+            cpuTimer(cpuMetric, assignment, "user").record(cpuUser);
+        }
+        if (cpuSystem != null) {
+            cpuTimer(cpuMetric, assignment, "system").record(cpuSystem);
+        }
+        if (peakRss != null) {
+            DistributionSummary.builder(peakRssMetric)
+                    .tag("assignment", assignment)
+                    .baseUnit("bytes")
+                    .description("Peak resident memory of the process running the compile or test")
+                    .distributionStatisticExpiry(Duration.ofHours(24))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(peakRss);
+        }
+    }
+
+    private Timer cpuTimer(String metricName, String assignment, String mode) {
+        return Timer.builder(metricName)
+                .tag("assignment", assignment)
+                .tag("mode", mode)
+                .description("CPU time used by the compile or test")
+                .distributionStatisticExpiry(Duration.ofHours(24))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
     private Timer registerTimer(String metricName) {
         if (meterRegistry != null) {
             return Timer.builder(metricName)
@@ -32,7 +32,7 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
-import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
 import nl.moj.server.assignment.model.Assignment;
 import nl.moj.server.assignment.repository.AssignmentRepository;
 import nl.moj.server.assignment.service.AssignmentService;
@@ -41,6 +41,7 @@ import nl.moj.server.competition.model.CompetitionSession;
 import nl.moj.server.competition.model.CompetitionSession.SessionType;
 import nl.moj.server.competition.repository.CompetitionSessionRepository;
 import nl.moj.server.message.service.MessageService;
+import nl.moj.server.message.service.PrewarmService;
 import nl.moj.server.runtime.model.ActiveAssignment;
 import nl.moj.server.runtime.model.ActiveAssignment.ActiveAssignmentBuilder;
 import nl.moj.server.runtime.model.AssignmentFile;
@@ -52,7 +53,6 @@ import nl.moj.server.runtime.service.AssignmentStatusService;
 import nl.moj.server.submit.repository.SubmitAttemptRepository;
 import nl.moj.server.teams.model.Team;
 import nl.moj.server.teams.service.TeamService;
-import nl.moj.server.util.PathUtil;
 import nl.moj.server.util.TransactionHelper;
 
 @Component
@@ -60,9 +60,10 @@ import nl.moj.server.util.TransactionHelper;
 @Slf4j
 public class AssignmentRuntime {
 
-    private final MojServerProperties mojServerProperties;
+    private final JavaVersionRegistry javaVersionRegistry;
     private final AssignmentService assignmentService;
     private final MessageService messageService;
+    private final PrewarmService prewarmService;
     private final TeamService teamService;
     private final ScoreService scoreService;
     private final TeamAssignmentStatusRepository teamAssignmentStatusRepository;
@@ -128,6 +129,9 @@ public class AssignmentRuntime {
             return assignmentStatus;
         });
 
+        // let the workers prepare before the teams start compiling
+        prewarmService.prewarm(assignment);
+
         // start the timers
 
         // mark assignment as running
@@ -206,6 +210,7 @@ public class AssignmentRuntime {
             log.warn("Could not finalize score for team {}@{}, no assignment status found.", t.getName(),
                     t.getUuid());
         }
+        teamService.releaseAssignment(t.getUuid(), competitionSession.getUuid(), assignment.getName());
     }
 
     /**
@@ -257,7 +262,7 @@ public class AssignmentRuntime {
     private void verifyAssignment(AssignmentDescriptor ad) throws AssignmentStartException {
         // verify we have a correct runtime available.
         try {
-            mojServerProperties.getLanguages().getJavaVersion(ad.getJavaVersion());
+            javaVersionRegistry.getJavaVersion(ad.getJavaVersion());
         } catch (IllegalArgumentException iae) {
             throw new AssignmentStartException("Cannot start assignment " + ad.getName()
                     + ", requested Java runtime version " + ad.getJavaVersion() + " not available.", iae);
@@ -359,9 +364,7 @@ public class AssignmentRuntime {
         Path assignmentDirectory = teamService.getTeamAssignmentDirectory(team.getUuid(), competitionSession.getUuid(),
                 assignment.getName());
         try {
-            if (Files.exists(assignmentDirectory)) {
-                PathUtil.delete(assignmentDirectory);
-            }
+            teamService.deleteTeamAssignmentDirectory(assignmentDirectory);
         } catch (IOException e) {
             throw new RuntimeException("Unable to delete team assignment directory " + assignmentDirectory, e);
         }
@@ -38,6 +38,7 @@ import nl.moj.server.competition.model.CompetitionSession;
 import nl.moj.server.competition.repository.CompetitionRepository;
 import nl.moj.server.competition.repository.CompetitionSessionRepository;
 import nl.moj.server.competition.service.CompetitionServiceException;
+import nl.moj.server.message.service.PrewarmService;
 import nl.moj.server.metrics.MetricsService;
 import nl.moj.server.runtime.model.ActiveAssignment;
 import nl.moj.server.runtime.model.AssignmentFile;
@@ -72,6 +73,8 @@ public class CompetitionRuntime {
 
     private final MetricsService metricsService;
 
+    private final PrewarmService prewarmService;
+
     //TODO this is state we should not have
     @Getter
     private Competition competition;
@@ -107,6 +110,16 @@ public class CompetitionRuntime {
         log.info("Continuing session {} for competition {}", session.getUuid(), this.competition.getName());
 
         restoreSession(session.getUuid());
+        prewarmNextAssignment(session);
+    }
+
+    private void prewarmNextAssignment(CompetitionSession session) {
+        session.getCompetition().getAssignmentsInOrder().stream()
+                .map(CompetitionAssignment::getAssignment)
+                .filter(a -> session.getAssignmentStatuses().stream()
+                        .noneMatch(as -> as.getAssignment().equals(a) && as.getDateTimeEnd() != null))
+                .findFirst()
+                .ifPresent(prewarmService::prewarm);
     }
 
     // TODO do we really need this?
@@ -18,29 +18,63 @@ package nl.moj.server.runtime;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.detect.Detector;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaCoreProperties;
 import org.apache.tika.mime.MediaType;
+import org.springframework.stereotype.Component;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.*;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.AssignmentFiles;
 import nl.moj.server.runtime.model.AssignmentFile;
 import nl.moj.server.runtime.model.AssignmentFileType;
 
+/**
+ * Lists the files of an assignment. The media type of a file is detected once per
+ * version of the file and kept for its latest version only, its content is read when used and kept in a cache bounded
+ * by size, least recently used content is evicted first.
+ */
+@Component
 @Slf4j
 public class JavaAssignmentFileResolver {
 
+    // detectors are thread safe, loading the configuration is expensive
+    private static final Detector DETECTOR = TikaConfig.getDefaultConfig().getDetector();
+
+    private final MojServerProperties mojServerProperties;
+    private final Map<Path, DetectedMediaType> mediaTypes = new ConcurrentHashMap<>();
+    // access ordered, eldest entry is the least recently used
+    private final LinkedHashMap<FileVersion, byte[]> contents = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong size = new AtomicLong();
+    private final Counter hits;
+    private final Counter misses;
+
+    public JavaAssignmentFileResolver(MojServerProperties mojServerProperties, MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.hits = meterRegistry.counter("moj.assignment.file.cache", "result", "hit");
+        this.misses = meterRegistry.counter("moj.assignment.file.cache", "result", "miss");
+        meterRegistry.gauge("moj.assignment.file.cache.size", size);
+    }
+
     public List<AssignmentFile> resolve(AssignmentDescriptor ad) {
         List<AssignmentFile> originalAssignmentFiles = new ArrayList<>();
 
@@ -110,7 +144,9 @@ public class JavaAssignmentFileResolver {
 
     public AssignmentFile convertToAssignmentFile(String assignment, Path assignmentBase, Path prefix, Path file,
             AssignmentFileType type, boolean readOnly) {
-        return convertToAssignmentFile(assignment, assignmentBase, prefix, file, type, readOnly, UUID.randomUUID());
+        // derived from the file, so the file keeps its uuid when the listing is resolved again
+        UUID uuid = UUID.nameUUIDFromBytes((assignment + ":" + type + ":" + file).getBytes(StandardCharsets.UTF_8));
+        return convertToAssignmentFile(assignment, assignmentBase, prefix, file, type, readOnly, uuid);
     }
 
     public AssignmentFile convertToAssignmentFile(String assignment, Path assignmentBase, Path prefix, Path file,
@@ -121,9 +157,11 @@ public class JavaAssignmentFileResolver {
             bp = ap.resolve(prefix);
         }
         ap = bp.resolve(file);
+        Path absoluteFile = ap;
+        FileVersion version = FileVersion.of(absoluteFile);
         return AssignmentFile.builder()
                 .assignment(assignment)
-                .content(readPathContent(ap))
+                .contentLoader(() -> readContent(absoluteFile))
                 .absoluteFile(ap)
                 .base(bp)
                 .file(file)
@@ -132,26 +170,55 @@ public class JavaAssignmentFileResolver {
                 .fileType(type)
                 .readOnly(readOnly)
                 .uuid(uuid)
-                .mediaType(resolveMediaType(ap))
+                .mediaType(mediaTypes.compute(absoluteFile, (f, detected) -> detected != null && detected.version()
+                        .equals(version) ? detected : new DetectedMediaType(version, detectMediaType(f))).type())
                 .build();
     }
 
-    private MediaType resolveMediaType(Path file) {
-        try {
-            TikaConfig config = TikaConfig.getDefaultConfig();
-            Detector detector = config.getDetector();
-
-            TikaInputStream stream = TikaInputStream.get(file);
-
+    private MediaType detectMediaType(Path file) {
+        try (TikaInputStream stream = TikaInputStream.get(file)) {
             Metadata metadata = new Metadata();
             metadata.add(TikaCoreProperties.RESOURCE_NAME_KEY, file.getFileName().toString());
-            return detector.detect(stream, metadata);
+            return DETECTOR.detect(stream, metadata);
         } catch (Exception e) {
-            log.warn("Unable to determine MediaType for {}, assuming text/plain.", e);
+            log.warn("Unable to determine MediaType for {}, assuming text/plain.", file, e);
             return MediaType.TEXT_PLAIN;
         }
     }
 
+    /**
+     * Reads the content of an assignment file, from the cache unless it changed on
+     * disk since. Large files are not cached.
+     */
+    private byte[] readContent(Path file) {
+        AssignmentFiles config = mojServerProperties.getRuntime().getAssignmentFiles();
+        FileVersion version = FileVersion.of(file);
+        if (version.size() > config.getMaxCachedFileSize().toBytes()) {
+            misses.increment();
+            return read(file);
+        }
+        synchronized (contents) {
+            byte[] content = contents.get(version);
+            if (content != null) {
+                hits.increment();
+                return content;
+            }
+        }
+        misses.increment();
+        byte[] content = read(file);
+        long max = config.getContentCacheSize().toBytes();
+        synchronized (contents) {
+            byte[] previous = contents.put(version, content);
+            size.addAndGet(content.length - (previous == null ? 0 : previous.length));
+            var it = contents.entrySet().iterator();
+            while (size.get() > max && it.hasNext()) {
+                size.addAndGet(-it.next().getValue().length);
+                it.remove();
+            }
+        }
+        return content;
+    }
+
     private String getShortName(Path file) {
         return file.getFileName().toString().substring(0, file.getFileName().toString().indexOf("."));
     }
@@ -160,11 +227,26 @@ public class JavaAssignmentFileResolver {
         return file.toString().substring(0, file.toString().indexOf(".")).replace(File.separatorChar, '.');
     }
 
-    private byte[] readPathContent(Path p) {
+    private static byte[] read(Path p) {
         try {
-            return IOUtils.toByteArray(Files.newInputStream(p, StandardOpenOption.READ));
+            return Files.readAllBytes(p);
         } catch (IOException e) {
             throw new RuntimeException("Unable to read assignment file " + p, e);
         }
     }
+
+    private record DetectedMediaType(FileVersion version, MediaType type) {
+    }
+
+    private record FileVersion(Path path, FileTime modified, long size) {
+
+        static FileVersion of(Path file) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return new FileVersion(file, attributes.lastModifiedTime(), attributes.size());
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read assignment file " + file, e);
+            }
+        }
+    }
 }
@@ -19,6 +19,7 @@ package nl.moj.server.runtime.model;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import org.apache.tika.mime.MediaType;
 
@@ -26,9 +27,14 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 @Data
 @Builder(toBuilder = true)
+// compare and print the fields, the content getter would load lazily loaded content
+@EqualsAndHashCode(doNotUseGetters = true)
+@ToString(doNotUseGetters = true)
 public class AssignmentFile {
 
     private final UUID uuid;
@@ -39,6 +45,15 @@ public class AssignmentFile {
 
     private final byte[] content;
 
+    /**
+     * Reads the content when no content is set, so the content of assignment files
+     * is only held in memory while used.
+     */
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Supplier<byte[]> contentLoader;
+
     private final AssignmentFileType fileType;
 
     private final String assignment;
@@ -58,6 +73,13 @@ public class AssignmentFile {
         return mediaType.getBaseType().toString();
     }
 
+    public byte[] getContent() {
+        if (content == null && contentLoader != null) {
+            return contentLoader.get();
+        }
+        return content;
+    }
+
     public String getContentAsString() {
         return new String(getContent(), StandardCharsets.UTF_8);
     }
@@ -16,7 +16,7 @@
 */
 package nl.moj.server.submit.service;
 
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collections;
@@ -28,7 +28,6 @@ import java.util.stream.Collectors;
 import javax.transaction.Transactional;
 
 import org.springframework.cloud.sleuth.annotation.NewSpan;
-import org.springframework.jms.core.JmsTemplate;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
@@ -45,6 +44,7 @@ import nl.moj.common.messages.JMSTestResponse;
 import nl.moj.server.assignment.service.AssignmentService;
 import nl.moj.server.competition.model.CompetitionSession.SessionType;
 import nl.moj.server.message.service.MessageService;
+import nl.moj.server.message.service.OperationQueue;
 import nl.moj.server.metrics.MetricsService;
 import nl.moj.server.runtime.ScoreService;
 import nl.moj.server.runtime.TimersRuntime;
@@ -54,6 +54,8 @@ import nl.moj.server.runtime.repository.AssignmentStatusRepository;
 import nl.moj.server.runtime.repository.TeamAssignmentStatusRepository;
 import nl.moj.server.submit.model.SubmitAttempt;
 import nl.moj.server.submit.repository.SubmitAttemptRepository;
+import nl.moj.server.teams.model.SourceSnapshot;
+import nl.moj.server.teams.service.SourceSnapshotService;
 import nl.moj.server.teams.service.TeamService;
 import nl.moj.server.test.model.TestAttempt;
 import nl.moj.server.test.model.TestCase;
@@ -75,12 +77,13 @@ public class SubmitService {
     private final SubmitAttemptRepository submitAttemptRepository;
     private final ScoreService scoreService;
     private final AssignmentService assignmentService;
-    private final JmsTemplate jmsTemplate;
+    private final OperationQueue operationQueue;
     private final JMSResponseHelper responseHelper;
     private final TaskScheduler taskScheduler;
     private final TransactionHelper trx;
     private final TimersRuntime timersRuntime;
     private final MetricsService metricsService;
+    private final SourceSnapshotService sourceSnapshotService;
 
     @Transactional
     public void receiveSubmitResponse(JMSSubmitResponse submitResponse) {
@@ -223,8 +226,11 @@ public class SubmitService {
 
                     SubmitAttempt submitAttempt = prepareSubmitAttempt(submitRequest, registered,
                             Duration.ofSeconds(secondsRemaining));
+                    sourceSnapshotService.snapshot(teamService.getTeamAssignmentDirectory(submitRequest.getTeam()
+                            .getUuid(), submitRequest.getSession().getUuid(), submitRequest.getAssignment().getName()),
+                            submitAttempt.getUuid(), SourceSnapshot.Kind.SUBMIT, submitRequest.getSources());
 
-                    jmsTemplate.convertAndSend("operation_request",
+                    operationQueue.send(
                             JMSSubmitRequest.builder().attempt(submitAttempt.getUuid())
                                     .assignment(submitRequest.getAssignment().getUuid())
                                     .sources(submitRequest.getSources().entrySet().stream()
@@ -240,7 +246,8 @@ public class SubmitService {
                                                     .name(tc.getName())
                                                     .build())
                                             .collect(Collectors.toList()))
-                                    .build());
+                                    .build(),
+                            submitRequest.getAssignment().getUuid(), submitRequest.getTeam().getUuid());
 
                     // schedule controller abort
                     scheduleAbort(submitAttempt);
@@ -253,7 +260,7 @@ public class SubmitService {
                             submitRequest.getTeam().getUuid());
 
                     return submitAttempt;
-                } catch (IOException e) {
+                } catch (UncheckedIOException e) {
                     messageService.sendSubmitUnprocessable(submitRequest.getTeam());
                     throw new SubmitAttemptRegisterException(String.format(
                             "Failed to register submit attempt for assignment %s by team %s.", submitRequest.getAssignment()
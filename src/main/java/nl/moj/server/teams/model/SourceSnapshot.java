@@ -0,0 +1,47 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.teams.model;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/**
+ * The manifest of the sources a team sent with an attempt. The content of each
+ * file is kept once in the blob store, by the SHA-256 of its content.
+ */
+@Value
+@Builder
+@Jacksonized
+public class SourceSnapshot {
+
+    public enum Kind {
+        COMPILE,
+        TEST,
+        SUBMIT
+    }
+
+    UUID attempt;
+    Kind kind;
+    Instant created;
+    // content hash by file, relative to the assignment sources
+    Map<String, String> files;
+}
@@ -0,0 +1,236 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.teams.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.teams.model.SourceSnapshot;
+import nl.moj.server.util.NamedThreadFactory;
+
+/**
+ * Keeps the sources of every compile, test and submit attempt of a team. File
+ * content is stored deflated under the SHA-256 of the content and shared by all
+ * attempts, teams and sessions, only content never seen before takes space. Each
+ * attempt gets a small manifest in the team assignment directory linking its files
+ * to their content.
+ * <p>
+ * Snapshots are written in the background, shortly after the attempt is registered.
+ */
+@Service
+@Slf4j
+public class SourceSnapshotService {
+
+    private static final String SNAPSHOTS = "snapshots";
+
+    private final StorageService storageService;
+    private final ObjectMapper objectMapper;
+    private final ExecutorService writer;
+    private final Counter storedFiles;
+    private final Counter deduplicatedFiles;
+    private final Counter storedBytes;
+
+    public SourceSnapshotService(StorageService storageService, @Qualifier("objectMapper") ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.storageService = storageService;
+        this.objectMapper = objectMapper;
+        this.writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("source-snapshots"));
+        this.storedFiles = meterRegistry.counter("moj.source.snapshots.files", "result", "stored");
+        this.deduplicatedFiles = meterRegistry.counter("moj.source.snapshots.files", "result", "deduplicated");
+        this.storedBytes = meterRegistry.counter("moj.source.snapshots.stored.bytes");
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("Source snapshots not written within 10 seconds of shutdown, dropping them.");
+            writer.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until the snapshots taken before are written.
+     */
+    public void awaitWrites() throws InterruptedException, ExecutionException {
+        writer.submit(() -> {
+        }).get();
+    }
+
+    /**
+     * Snapshots the sources of an attempt in the background.
+     *
+     * @param directory the team assignment directory.
+     */
+    public void snapshot(Path directory, UUID attempt, SourceSnapshot.Kind kind, Map<Path, String> sources) {
+        Instant created = Instant.now();
+        Map<Path, String> copy = new HashMap<>(sources);
+        writer.execute(() -> {
+            try {
+                write(directory, attempt, kind, created, copy);
+            } catch (IOException | RuntimeException e) {
+                log.error("Unable to snapshot the sources of attempt {}.", attempt, e);
+            }
+        });
+    }
+
+    /**
+     * Snapshots the sources of an attempt.
+     */
+    public SourceSnapshot write(Path directory, UUID attempt, SourceSnapshot.Kind kind, Instant created,
+            Map<Path, String> sources) throws IOException {
+        Map<String, String> files = new TreeMap<>();
+        for (Map.Entry<Path, String> entry : sources.entrySet()) {
+            files.put(entry.getKey().toString(), storeBlob(entry.getValue().getBytes(StandardCharsets.UTF_8)));
+        }
+        SourceSnapshot snapshot = SourceSnapshot.builder()
+                .attempt(attempt)
+                .kind(kind)
+                .created(created)
+                .files(files)
+                .build();
+        Path manifest = manifest(directory, attempt);
+        Files.createDirectories(manifest.getParent());
+        objectMapper.writeValue(manifest.toFile(), snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshots of a team assignment, oldest first.
+     */
+    public List<SourceSnapshot> getSnapshots(Path directory) {
+        Path snapshots = directory.resolve(SNAPSHOTS);
+        if (!Files.isDirectory(snapshots)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> manifests = Files.list(snapshots)) {
+            return manifests.filter(p -> p.getFileName().toString().endsWith(".json"))
+                    .map(this::readManifest)
+                    .sorted(Comparator.comparing(SourceSnapshot::getCreated))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list source snapshots in " + snapshots, e);
+        }
+    }
+
+    public Optional<SourceSnapshot> getSnapshot(Path directory, UUID attempt) {
+        Path manifest = manifest(directory, attempt);
+        if (!Files.exists(manifest)) {
+            return Optional.empty();
+        }
+        return Optional.of(readManifest(manifest));
+    }
+
+    /**
+     * @return the sources of a snapshot exactly as sent, by file.
+     */
+    public Map<Path, String> getSources(SourceSnapshot snapshot) {
+        Map<Path, String> sources = new TreeMap<>();
+        snapshot.getFiles().forEach((file, hash) -> sources.put(Paths.get(file),
+                new String(readBlob(hash), StandardCharsets.UTF_8)));
+        return sources;
+    }
+
+    private String storeBlob(byte[] content) throws IOException {
+        String hash = sha256(content);
+        Path blob = blob(hash);
+        if (Files.exists(blob)) {
+            deduplicatedFiles.increment();
+        } else {
+            Files.createDirectories(blob.getParent());
+            // written aside and moved in place, a blob is either complete or absent
+            Path temp = Files.createTempFile(blob.getParent(), hash, ".tmp");
+            try {
+                try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(temp))) {
+                    out.write(content);
+                }
+                long size = Files.size(temp);
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+                storedFiles.increment();
+                storedBytes.increment(size);
+            } catch (FileAlreadyExistsException e) {
+                deduplicatedFiles.increment();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return hash;
+    }
+
+    private byte[] readBlob(String hash) {
+        try (InputStream in = new InflaterInputStream(Files.newInputStream(blob(hash)))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read source snapshot blob " + hash, e);
+        }
+    }
+
+    private SourceSnapshot readManifest(Path manifest) {
+        try {
+            return objectMapper.readValue(manifest.toFile(), SourceSnapshot.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read source snapshot " + manifest, e);
+        }
+    }
+
+    private Path blob(String hash) {
+        // fanned out over subdirectories to keep directories small
+        return storageService.getSnapshotBlobsFolder().resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private static Path manifest(Path directory, UUID attempt) {
+        return directory.resolve(SNAPSHOTS).resolve(attempt + ".json");
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+}
@@ -16,20 +16,13 @@
 */
 package nl.moj.server.teams.service;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Stream;
 
 import javax.transaction.Transactional;
 
-import org.apache.commons.io.IOUtils;
 import org.springframework.stereotype.Service;
 
 import lombok.RequiredArgsConstructor;
@@ -54,42 +47,48 @@ public class TeamService {
     private final TeamAssignmentStatusRepository teamAssignmentStatusRepository;
     private final UserRepository userRepository;
     private final StorageService storageService;
+    private final TeamSourceStore teamSourceStore;
 
     public Path getTeamAssignmentDirectory(UUID teamId, UUID sessionId, String assignmentName) {
         return storageService.getSessionTeamFolder(sessionId, teamId).resolve(assignmentName);
     }
 
+    public Path getTeamAssignmentDirectory(UUID teamId, UUID sessionId, UUID assignmentId) {
+        return getTeamAssignmentDirectory(teamId, sessionId, assignmentRepository.findByUuid(assignmentId).getName());
+    }
+
     public List<Team> getTeams() {
         return teamRepository.findAll();
     }
 
-    public void updateAssignment(UUID teamId, UUID sessionId, UUID assignmentId, Map<Path, String> content) throws IOException {
+    /**
+     * Saves the sources of a team in memory, they are written to the team assignment
+     * directory in the background.
+     */
+    public void updateAssignment(UUID teamId, UUID sessionId, UUID assignmentId, Map<Path, String> content) {
         // TODO assignment directory is based on name, files are stored based on UUID need to resolve this
         Path teamAssignmentBase = getTeamAssignmentDirectory(teamId, sessionId, assignmentRepository.findByUuid(assignmentId)
                 .getName()).resolve("sources");
 
-        for (Map.Entry<Path, String> entry : content.entrySet()) {
-            Path taf = teamAssignmentBase.resolve(entry.getKey());
-            Files.createDirectories(taf.getParent());
-            Files.copy(new ByteArrayInputStream(entry.getValue()
-                    .getBytes(StandardCharsets.UTF_8)), taf, StandardCopyOption.REPLACE_EXISTING);
-        }
+        teamSourceStore.write(teamAssignmentBase, content);
     }
 
     public void cleanAssignment(UUID teamId, UUID sessionId, UUID assignmentId) throws IOException {
         Path teamAssignmentBase = getTeamAssignmentDirectory(teamId, sessionId, assignmentRepository.findByUuid(assignmentId)
                 .getName()).resolve("sources");
-        if (Files.exists(teamAssignmentBase)) {
-            try (Stream<Path> walk = Files.walk(teamAssignmentBase)) {
-                walk.sorted(Comparator.reverseOrder()).forEach(f -> {
-                    try {
-                        Files.delete(f);
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                });
-            }
-        }
+        teamSourceStore.delete(teamAssignmentBase);
+    }
+
+    /**
+     * Drops the sources of a team assignment that ended from memory, once they are
+     * written to disk.
+     */
+    public void releaseAssignment(UUID teamId, UUID sessionId, String assignmentName) {
+        teamSourceStore.release(getTeamAssignmentDirectory(teamId, sessionId, assignmentName));
+    }
+
+    public void deleteTeamAssignmentDirectory(Path teamAssignmentDirectory) throws IOException {
+        teamSourceStore.delete(teamAssignmentDirectory);
     }
 
     @Transactional(Transactional.TxType.REQUIRED)
@@ -103,11 +102,10 @@ public class TeamService {
         assignmentService.getAssignmentFiles(assignmentId).stream()
                 .filter(f -> f.getFileType().isVisible())
                 .forEach(f -> {
-                    Path resolvedFile = teamAssignmentBase.resolve(f.getFile());
-                    log.info("resolvedFile " + resolvedFile.toFile().getAbsoluteFile());
-                    if (resolvedFile.toFile().exists() && Files.isReadable(resolvedFile)) {
+                    String content = teamSourceStore.read(teamAssignmentBase, f.getFile());
+                    if (content != null) {
                         teamFiles.add(f.toBuilder()
-                                .content(readPathContent(resolvedFile))
+                                .content(content.getBytes(StandardCharsets.UTF_8))
                                 .build());
                     } else if (f.getFileType().isContentHidden()) {
                         teamFiles.add(f.toBuilder()
@@ -134,14 +132,6 @@ public class TeamService {
         return t;
     }
 
-    private byte[] readPathContent(Path p) {
-        try {
-            return IOUtils.toByteArray(Files.newInputStream(p, StandardOpenOption.READ));
-        } catch (IOException e) {
-            throw new RuntimeException(String.format("Unable to read file '%s'.", p), e);
-        }
-    }
-
     @Transactional
     public boolean deleteTeam(String name) {
         Team team = teamRepository.findByName(name);
@@ -0,0 +1,490 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.teams.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.FsyncPolicy;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.util.NamedThreadFactory;
+import nl.moj.server.util.PathUtil;
+
+/**
+ * The sources saved by teams, by team assignment directory. Sources are read from
+ * and written to memory, a directory is read from disk once on first use.
+ * <p>
+ * Every save is appended to a journal before it is accepted, forced to disk as the
+ * fsync policy says. Saves of different teams are journaled concurrently, a single
+ * force covers all saves appended before it. Saved sources are written to their
+ * files in batches at the configured flush interval, only the latest content of a
+ * file is written. A flush sets the journal aside before writing the batch and
+ * removes it once all files of the batch are written. Journals left behind by a
+ * crash are replayed on startup.
+ * <p>
+ * The sources of a released team assignment are dropped from memory once they are
+ * written to disk, they are read from disk again when used after that.
+ */
+@Component
+@Slf4j
+public class TeamSourceStore {
+
+    // marks a deleted directory in the journal, instead of the length of the content
+    private static final int DELETED = -1;
+
+    private final MojServerProperties mojServerProperties;
+    private final StorageService storageService;
+    private final Map<Path, Map<Path, String>> sources = new ConcurrentHashMap<>();
+    // latest content not written to disk yet, by absolute file
+    private Map<Path, String> pending = new ConcurrentHashMap<>();
+    // team assignment directories to drop from memory once written
+    private final Set<Path> released = ConcurrentHashMap.newKeySet();
+    // read locked by saves, write locked to take a batch or change directories, so a
+    // batch holds exactly the saves in the journal it sets aside
+    private final ReadWriteLock saveLock = new ReentrantReadWriteLock();
+    // held while a batch is written, so a deleted directory is not written again
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Journal journal = new Journal();
+    private final ScheduledExecutorService flusher;
+    private final Counter writes;
+    private final Counter diskWrites;
+    private final Counter memoryReads;
+    private final Counter diskReads;
+    private final Timer saves;
+    private final Timer flushes;
+
+    public TeamSourceStore(MojServerProperties mojServerProperties, StorageService storageService,
+            MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.storageService = storageService;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("team-sources-flush"));
+        this.writes = meterRegistry.counter("moj.team.sources.writes");
+        this.diskWrites = meterRegistry.counter("moj.team.sources.disk.writes");
+        this.memoryReads = meterRegistry.counter("moj.team.sources.reads", "source", "memory");
+        this.diskReads = meterRegistry.counter("moj.team.sources.reads", "source", "disk");
+        this.saves = meterRegistry.timer("moj.team.sources.save");
+        this.flushes = meterRegistry.timer("moj.team.sources.flush");
+    }
+
+    @PostConstruct
+    public void start() {
+        recover();
+        long interval = mojServerProperties.getRuntime().getTeamSources().getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        flushSafely();
+        journal.close();
+    }
+
+    /**
+     * Saves sources in a team assignment directory, the save is journaled before
+     * this returns.
+     *
+     * @throws UncheckedIOException when the save could not be journaled.
+     */
+    public void write(Path directory, Map<Path, String> content) {
+        long start = System.nanoTime();
+        Map<Path, String> batch = new LinkedHashMap<>();
+        content.forEach((file, c) -> batch.put(directory.resolve(file), c));
+        boolean saved = false;
+        while (!saved) {
+            // read from disk on first use, outside the lock
+            Map<Path, String> files = load(directory);
+            saveLock.readLock().lock();
+            try {
+                // dropped from memory in between, read again
+                if (sources.get(directory) == files) {
+                    // one save per directory at a time, so the journal has the order of the saves
+                    synchronized (files) {
+                        journal.append(batch, fsync() != FsyncPolicy.NONE);
+                        files.putAll(content);
+                        pending.putAll(batch);
+                    }
+                    saved = true;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to journal team sources in " + directory, e);
+            } finally {
+                saveLock.readLock().unlock();
+            }
+        }
+        writes.increment(content.size());
+        saves.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the content of a file in a team assignment directory, null if the
+     *         team never saved it.
+     */
+    public String read(Path directory, Path file) {
+        String content = load(directory).get(file);
+        if (content != null) {
+            memoryReads.increment();
+        }
+        return content;
+    }
+
+    /**
+     * Drops the sources of a team assignment directory from memory once they are
+     * written to disk, for team assignments that ended.
+     */
+    public void release(Path directory) {
+        released.add(directory);
+        saveLock.writeLock().lock();
+        try {
+            evictReleased();
+        } finally {
+            saveLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a directory with all sources in it from memory and from disk.
+     */
+    public void delete(Path directory) throws IOException {
+        flushLock.lock();
+        try {
+            saveLock.writeLock().lock();
+            try {
+                // saves journaled before are not written again on recovery
+                journal.append(Collections.singletonMap(directory, null), fsync() != FsyncPolicy.NONE);
+                sources.keySet().removeIf(d -> d.startsWith(directory));
+                pending.keySet().removeIf(f -> f.startsWith(directory));
+                released.removeIf(d -> d.startsWith(directory));
+            } finally {
+                saveLock.writeLock().unlock();
+            }
+            if (Files.exists(directory)) {
+                PathUtil.delete(directory);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all saved sources to disk, waits for a flush in progress first.
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            Map<Path, String> batch;
+            Path flushing;
+            saveLock.writeLock().lock();
+            try {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ConcurrentHashMap<>();
+                // saves from now on go to a new journal
+                flushing = setJournalAside();
+            } finally {
+                saveLock.writeLock().unlock();
+            }
+            long start = System.nanoTime();
+            try {
+                for (Map.Entry<Path, String> entry : batch.entrySet()) {
+                    writeFile(entry.getKey(), entry.getValue(), fsync() == FsyncPolicy.ALL);
+                }
+                Files.deleteIfExists(flushing);
+                diskWrites.increment(batch.size());
+            } catch (IOException | RuntimeException e) {
+                // retried on the next flush, unless saved again since, the journal set aside stays
+                saveLock.writeLock().lock();
+                try {
+                    batch.forEach(pending::putIfAbsent);
+                } finally {
+                    saveLock.writeLock().unlock();
+                }
+                throw e;
+            } finally {
+                flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            if (!released.isEmpty()) {
+                saveLock.writeLock().lock();
+                try {
+                    evictReleased();
+                } finally {
+                    saveLock.writeLock().unlock();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to write team sources to disk.", e);
+        }
+    }
+
+    private FsyncPolicy fsync() {
+        return mojServerProperties.getRuntime().getTeamSources().getFsync();
+    }
+
+    // called holding the save write lock
+    private void evictReleased() {
+        released.removeIf(d -> {
+            if (pending.keySet().stream().anyMatch(f -> f.startsWith(d))) {
+                return false;
+            }
+            sources.keySet().removeIf(s -> s.startsWith(d));
+            return true;
+        });
+    }
+
+    /**
+     * Moves the journal aside, appended to the journal of an earlier flush that
+     * failed, so it holds all saves not written to their files yet. Called holding
+     * the save write lock.
+     */
+    private Path setJournalAside() throws IOException {
+        journal.close();
+        Path current = storageService.getTeamSourcesJournal();
+        Path flushing = flushingJournal(current);
+        if (Files.exists(current)) {
+            if (Files.exists(flushing)) {
+                try (FileChannel channel = FileChannel.open(flushing, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+                    channel.write(ByteBuffer.wrap(Files.readAllBytes(current)));
+                    channel.force(false);
+                }
+                Files.delete(current);
+            } else {
+                Files.move(current, flushing, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        return flushing;
+    }
+
+    private void recover() {
+        Path current = storageService.getTeamSourcesJournal();
+        Path flushing = flushingJournal(current);
+        if (!Files.exists(current) && !Files.exists(flushing)) {
+            return;
+        }
+        try {
+            // oldest saves first
+            Map<Path, String> batch = new LinkedHashMap<>();
+            readJournal(flushing, batch);
+            readJournal(current, batch);
+            log.info("Recovering {} team source files from journal {}.", batch.size(), current);
+            for (Map.Entry<Path, String> entry : batch.entrySet()) {
+                writeFile(entry.getKey(), entry.getValue(), fsync() == FsyncPolicy.ALL);
+            }
+            Files.deleteIfExists(flushing);
+            Files.deleteIfExists(current);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to recover team sources from journal " + current, e);
+        }
+    }
+
+    private Map<Path, String> load(Path directory) {
+        return sources.computeIfAbsent(directory, d -> {
+            Map<Path, String> files = new ConcurrentHashMap<>();
+            if (Files.isDirectory(d)) {
+                try (Stream<Path> walk = Files.walk(d)) {
+                    walk.filter(Files::isRegularFile).forEach(f -> {
+                        try {
+                            files.put(d.relativize(f), Files.readString(f));
+                            diskReads.increment();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(String.format("Unable to read file '%s'.", f), e);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(String.format("Unable to read directory '%s'.", d), e);
+                }
+            }
+            return files;
+        });
+    }
+
+    private static Path flushingJournal(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + ".flushing");
+    }
+
+    /**
+     * The journal, kept open between saves. Saves are appended one at a time and
+     * forced in groups, a save waiting for a force in progress is covered by the
+     * next force together with all saves appended meanwhile.
+     */
+    private final class Journal {
+
+        private final Object appendLock = new Object();
+        private final Object forceLock = new Object();
+        // guarded by appendLock
+        private FileChannel channel;
+        private long appended;
+        // guarded by forceLock
+        private long forced;
+
+        /**
+         * Appends saves to the journal, a file without content is a deleted directory.
+         */
+        void append(Map<Path, String> batch, boolean force) throws IOException {
+            ByteBuffer records = ByteBuffer.wrap(records(batch));
+            FileChannel target;
+            long position;
+            synchronized (appendLock) {
+                if (channel == null) {
+                    Path path = storageService.getTeamSourcesJournal();
+                    Files.createDirectories(path.getParent());
+                    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                }
+                while (records.hasRemaining()) {
+                    channel.write(records);
+                }
+                target = channel;
+                position = ++appended;
+            }
+            if (force) {
+                synchronized (forceLock) {
+                    if (forced < position) {
+                        long upTo;
+                        synchronized (appendLock) {
+                            upTo = appended;
+                        }
+                        target.force(false);
+                        forced = upTo;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Closes the journal, called with no saves in progress.
+         */
+        void close() {
+            synchronized (appendLock) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        log.warn("Unable to close team sources journal.", e);
+                    }
+                    channel = null;
+                }
+            }
+        }
+
+        private static byte[] records(Map<Path, String> batch) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Map.Entry<Path, String> entry : batch.entrySet()) {
+                writeBytes(out, entry.getKey().toString().getBytes(StandardCharsets.UTF_8));
+                if (entry.getValue() == null) {
+                    out.writeInt(DELETED);
+                } else {
+                    writeBytes(out, entry.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Reads the saves in a journal into the batch, a deleted directory drops the
+     * files in it saved before. The directory itself was deleted right after it
+     * was journaled, files created in it since are kept.
+     */
+    private static void readJournal(Path journal, Map<Path, String> batch) throws IOException {
+        if (!Files.exists(journal)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+            while (true) {
+                Path file = Paths.get(new String(readBytes(in), StandardCharsets.UTF_8));
+                int length = in.readInt();
+                if (length == DELETED) {
+                    batch.keySet().removeIf(f -> f.startsWith(file));
+                } else {
+                    byte[] content = new byte[length];
+                    in.readFully(content);
+                    batch.put(file, new String(content, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (EOFException e) {
+            // end of the journal, a record cut off by the crash was never accepted
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeFile(Path file, String content, boolean force) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        if (force) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+}
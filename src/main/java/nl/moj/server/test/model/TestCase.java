@@ -16,6 +16,7 @@
 */
 package nl.moj.server.test.model;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.UUID;
 
@@ -77,7 +78,19 @@ public class TestCase {
     @Column(name = "reason", columnDefinition = "TEXT")
     private String reason;
 
+    @Column(name = "cached")
+    private Boolean cached;
+
     @Column(name = "test_output", columnDefinition = "TEXT")
     private String testOutput;
 
+    @Column(name = "cpu_user")
+    private Duration cpuUser;
+
+    @Column(name = "cpu_system")
+    private Duration cpuSystem;
+
+    @Column(name = "peak_rss")
+    private Long peakRss;
+
 }
@@ -20,7 +20,10 @@ import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
 
+import javax.persistence.LockModeType;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
@@ -31,6 +34,14 @@ import nl.moj.server.test.model.TestAttempt;
 public interface TestAttemptRepository extends JpaRepository<TestAttempt, Long> {
     TestAttempt findByUuid(UUID testAttemptUuid);
 
+    /**
+     * Finds the test attempt and locks it until the transaction ends, so responses
+     * for the same attempt received in parallel are processed one after the other.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select ta from TestAttempt ta where ta.uuid = ?1")
+    TestAttempt findByUuidForUpdate(UUID testAttemptUuid);
+
     List<TestAttempt> findByAssignmentStatus(TeamAssignmentStatus assignment);
 
     @Query(value = "select count(ca) from TestAttempt ca " +
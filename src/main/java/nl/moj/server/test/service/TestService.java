@@ -16,32 +16,39 @@
 */
 package nl.moj.server.test.service;
 
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 import javax.transaction.Transactional;
 
 import org.springframework.cloud.sleuth.annotation.NewSpan;
-import org.springframework.jms.core.JmsTemplate;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.MojServerProperties;
 import nl.moj.common.messages.*;
 import nl.moj.server.assignment.service.AssignmentService;
 import nl.moj.server.compiler.model.CompileAttempt;
 import nl.moj.server.compiler.service.CompileRequest;
 import nl.moj.server.compiler.service.CompileService;
 import nl.moj.server.message.service.MessageService;
+import nl.moj.server.message.service.OperationQueue;
 import nl.moj.server.metrics.MetricsService;
 import nl.moj.server.runtime.model.AssignmentFile;
 import nl.moj.server.runtime.model.TeamAssignmentStatus;
 import nl.moj.server.runtime.repository.TeamAssignmentStatusRepository;
+import nl.moj.server.submit.model.SubmitAttempt;
+import nl.moj.server.teams.model.SourceSnapshot;
+import nl.moj.server.teams.service.SourceSnapshotService;
 import nl.moj.server.teams.service.TeamService;
 import nl.moj.server.test.model.TestAttempt;
 import nl.moj.server.test.model.TestCase;
@@ -60,23 +67,31 @@ public class TestService {
     private final TestAttemptRepository testAttemptRepository;
     private final TeamAssignmentStatusRepository teamAssignmentStatusRepository;
     private final TeamService teamService;
-    private final JmsTemplate jmsTemplate;
+    private final OperationQueue operationQueue;
     private final MessageService messageService;
     private final JMSResponseHelper responseHelper;
     private final AssignmentService assignmentService;
     private final TaskScheduler taskScheduler;
     private final TransactionHelper trx;
     private final MetricsService metricsService;
+    private final MojServerProperties mojServerProperties;
+    private final SourceSnapshotService sourceSnapshotService;
 
     @Transactional
     public void receiveTestResponse(JMSTestResponse testResponse) {
         log.info("Received test attempt response {}", testResponse.getAttempt());
-        TestAttempt testAttempt = testAttemptRepository.findByUuid(testResponse.getAttempt());
+        // test case responses of the attempt may be received in parallel
+        TestAttempt testAttempt = testAttemptRepository.findByUuidForUpdate(testResponse.getAttempt());
 
         if (testAttempt.getDateTimeEnd() == null) {
+            // results of streamed test cases were sent to the team already
+            Set<UUID> streamed = testAttempt.getTestCases().stream()
+                    .filter(tc -> tc.getDateTimeEnd() != null)
+                    .map(TestCase::getUuid)
+                    .collect(Collectors.toSet());
             testAttempt = update(testAttempt, testResponse);
             if (isMostRecent(testAttempt)) {
-                messageService.sendTestFeedback(testAttempt);
+                messageService.sendRemainingTestFeedback(testAttempt, streamed);
             } else {
                 log.info("Ignoring test feedback for test attempt {}, already a newer test attempt pending.",
                         testAttempt.getUuid());
@@ -87,6 +102,35 @@ public class TestService {
         }
     }
 
+    /**
+     * Stores the result of a single test case as soon as the worker finished it and
+     * sends it to the team. Results of finished attempts and test cases that already
+     * have a result are ignored.
+     */
+    @Transactional
+    public void receiveTestCaseResponse(JMSTestCaseResponse testCaseResponse) {
+        JMSTestCaseResult tcr = testCaseResponse.getTestCaseResult();
+        TestAttempt testAttempt = testAttemptRepository.findByUuidForUpdate(testCaseResponse.getAttempt());
+        if (testAttempt == null || testAttempt.getDateTimeEnd() != null) {
+            log.info("Ignoring test case {} response for test attempt {}, already have a response.",
+                    tcr.getTestCase(), testCaseResponse.getAttempt());
+            return;
+        }
+        TestCase testCase = testAttempt.getTestCases().stream()
+                .filter(tc -> tc.getUuid().equals(tcr.getTestCase()) && tc.getDateTimeEnd() == null)
+                .findFirst()
+                .orElse(null);
+        if (testCase == null) {
+            log.info("Ignoring test case {} response for test attempt {}, already have a response.",
+                    tcr.getTestCase(), testAttempt.getUuid());
+            return;
+        }
+        update(testCase, tcr);
+        if (isMostRecent(testAttempt)) {
+            messageService.sendTestFeedback(testAttempt, testCase);
+        }
+    }
+
     private boolean isMostRecent(TestAttempt testAttempt) {
         return testAttemptRepository.countNewerAttempts(testAttempt.getAssignmentStatus(),
                 testAttempt.getDateTimeRegister()) == 0;
@@ -105,8 +149,12 @@ public class TestService {
                     testRequest.getAssignment().getUuid(), testRequest.getSources());
 
             TestAttempt testAttempt = prepareTestAttempt(testRequest);
+            supersedePendingAttempts(testAttempt);
+            sourceSnapshotService.snapshot(teamService.getTeamAssignmentDirectory(testRequest.getTeam().getUuid(),
+                    testRequest.getSession().getUuid(), testRequest.getAssignment().getName()),
+                    testAttempt.getUuid(), SourceSnapshot.Kind.TEST, testRequest.getSources());
             // send JMS test request
-            jmsTemplate.convertAndSend("operation_request", JMSTestRequest.builder()
+            operationQueue.send(JMSTestRequest.builder()
                     .attempt(testAttempt.getUuid())
                     .assignment(testRequest.getAssignment().getUuid())
                     .sources(testRequest.getSources().entrySet().stream().map(e -> JMSFile.builder()
@@ -118,7 +166,8 @@ public class TestService {
                             .stream()
                             .map(tc -> JMSTestCase.builder().testCase(tc.getUuid()).name(tc.getName()).build())
                             .collect(Collectors.toList()))
-                    .build());
+                    .build(),
+                    testRequest.getAssignment().getUuid(), testRequest.getTeam().getUuid());
 
             // schedule controller abort
             scheduleAbort(testAttempt);
@@ -131,7 +180,7 @@ public class TestService {
                     testRequest.getTeam().getUuid());
             return testAttempt;
 
-        } catch (IOException e) {
+        } catch (UncheckedIOException e) {
             messageService.sendTestUnprocessable(testRequest.getTeam());
             throw new TestAttemptRegisterException(
                     String.format("Unable to register test attempt for assignment %s by team %s.", testRequest.getAssignment()
@@ -140,6 +189,32 @@ public class TestService {
         }
     }
 
+    /**
+     * Finishes the pending test attempts of the team that are not part of a submit
+     * attempt, their feedback would be ignored anyway.
+     */
+    private void supersedePendingAttempts(TestAttempt testAttempt) {
+        if (!mojServerProperties.getRuntime().isSupersedeAttempts()) {
+            return;
+        }
+        TeamAssignmentStatus as = testAttempt.getAssignmentStatus();
+        Set<TestAttempt> submitTests = as.getSubmitAttempts().stream()
+                .map(SubmitAttempt::getTestAttempt)
+                .collect(Collectors.toSet());
+        List<UUID> superseded = new ArrayList<>();
+        for (TestAttempt ta : as.getTestAttempts()) {
+            if (!ta.equals(testAttempt) && ta.getDateTimeEnd() == null && !submitTests.contains(ta)) {
+                update(ta, responseHelper.supersededResponse(ta));
+                superseded.add(ta.getUuid());
+            }
+        }
+        if (!superseded.isEmpty()) {
+            log.info("Test attempts {} superseded by test attempt {}.", superseded, testAttempt.getUuid());
+            operationQueue.cancel(superseded, JMSResponseHelper.SUPERSEDED);
+            metricsService.registerSupersededAttempts(Operation.TEST, superseded.size());
+        }
+    }
+
     @Transactional
     public TestAttempt prepareTestAttempt(TestRequest testRequest) {
         TeamAssignmentStatus as = teamAssignmentStatusRepository.findByAssignment_IdAndCompetitionSession_IdAndTeam_Id(
@@ -178,7 +253,7 @@ public class TestService {
 
     @Transactional
     public TestAttempt registerTestResponse(JMSTestResponse testResponse) {
-        TestAttempt testAttempt = testAttemptRepository.findByUuid(testResponse.getAttempt());
+        TestAttempt testAttempt = testAttemptRepository.findByUuidForUpdate(testResponse.getAttempt());
 
         if (testAttempt.getDateTimeEnd() != null) {
             log.info("Ignoring response for test attempt {}, already have a response.", testAttempt.getUuid());
@@ -210,18 +285,9 @@ public class TestService {
 
         if (testAttempt.getTestCases() != null) {
             for (TestCase tc : testAttempt.getTestCases()) {
-                if (testCaseResults.containsKey(tc.getUuid())) {
-                    JMSTestCaseResult tcr = testCaseResults.get(tc.getUuid());
-                    tc.setWorker(tcr.getWorker());
-                    tc.setTrace(tcr.getTraceId());
-                    tc.setTestOutput(tcr.getOutput());
-                    tc.setDateTimeStart(tcr.getStarted());
-                    tc.setDateTimeEnd(tcr.getEnded());
-                    tc.setSuccess(tcr.isSuccess());
-                    tc.setTimeout(tcr.isTimeout());
-                    tc.setAborted(tcr.isAborted());
-                    tc.setReason(tcr.getReason());
-                    testCaseRepository.save(tc);
+                // test cases streamed earlier keep their result
+                if (testCaseResults.containsKey(tc.getUuid()) && tc.getDateTimeEnd() == null) {
+                    update(tc, testCaseResults.get(tc.getUuid()));
                 }
             }
         }
@@ -229,12 +295,29 @@ public class TestService {
         return testAttemptRepository.save(testAttempt);
     }
 
+    private void update(TestCase tc, JMSTestCaseResult tcr) {
+        tc.setWorker(tcr.getWorker());
+        tc.setTrace(tcr.getTraceId());
+        tc.setTestOutput(tcr.getOutput());
+        tc.setDateTimeStart(tcr.getStarted());
+        tc.setDateTimeEnd(tcr.getEnded());
+        tc.setSuccess(tcr.isSuccess());
+        tc.setTimeout(tcr.isTimeout());
+        tc.setAborted(tcr.isAborted());
+        tc.setReason(tcr.getReason());
+        tc.setCached(tcr.isCached());
+        tc.setCpuUser(tcr.getCpuUser());
+        tc.setCpuSystem(tcr.getCpuSystem());
+        tc.setPeakRss(tcr.getPeakRss());
+        testCaseRepository.save(tc);
+    }
+
     private void scheduleAbort(TestAttempt testAttempt) {
         Duration timeout = assignmentService.resolveTestAbortTimout(testAttempt.getAssignmentStatus().getAssignment(),
                 testAttempt.getTestCases().size());
         taskScheduler.schedule(() -> {
             trx.required(() -> {
-                TestAttempt ta = testAttemptRepository.findByUuid(testAttempt.getUuid());
+                TestAttempt ta = testAttemptRepository.findByUuidForUpdate(testAttempt.getUuid());
                 if (ta != null && ta.getDateTimeEnd() == null && ta.getAssignmentStatus().getDateTimeEnd() == null) {
                     log.info("Aborting test attempt {}, response took too long.", ta.getUuid());
                     receiveTestResponse(responseHelper.abortResponse(ta));
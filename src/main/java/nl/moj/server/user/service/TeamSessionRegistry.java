@@ -0,0 +1,103 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.user.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * The websocket sessions connected by team members, by team. The team of a user
+ * is resolved once when the session connects, looking up the connected users of
+ * a team or the team of a session does not touch the database.
+ * <p>
+ * Messages for a team are sent to the team destination, the broker delivers them
+ * to every session of the team subscribed to it. Only sessions of team members
+ * may subscribe to it. The broker treats subscription destinations as patterns,
+ * a pattern could match the destinations of all teams, so patterns are refused.
+ */
+@Component
+public class TeamSessionRegistry {
+
+    public static final String TEAM_DESTINATION_PREFIX = "/topic/team/";
+
+    // the wildcards and variables of the ant style destination patterns the broker matches with
+    private static final Pattern PATTERN = Pattern.compile("[*?{}]");
+
+    private final Map<String, Member> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, String>> teams = new ConcurrentHashMap<>();
+
+    public static String destination(UUID team) {
+        return TEAM_DESTINATION_PREFIX + team;
+    }
+
+    public void connected(String sessionId, UUID team, String user) {
+        sessions.put(sessionId, new Member(team, user));
+        // added and removed within compute, a team is never dropped while a session joins
+        teams.compute(team, (t, members) -> {
+            Map<String, String> m = members == null ? new ConcurrentHashMap<>() : members;
+            m.put(sessionId, user);
+            return m;
+        });
+    }
+
+    public void disconnected(String sessionId) {
+        Member member = sessions.remove(sessionId);
+        if (member != null) {
+            teams.computeIfPresent(member.team(), (t, members) -> {
+                members.remove(sessionId);
+                return members.isEmpty() ? null : members;
+            });
+        }
+    }
+
+    /**
+     * @return the names of the team members with at least one connected session.
+     */
+    public Set<String> getConnectedUsers(UUID team) {
+        Map<String, String> members = teams.get(team);
+        return members == null ? Set.of() : Set.copyOf(members.values());
+    }
+
+    public boolean hasConnectedUsers(UUID team) {
+        return teams.containsKey(team);
+    }
+
+    /**
+     * @return true unless the destination is a pattern or belongs to a team the session is not a member of.
+     */
+    public boolean maySubscribe(String sessionId, String destination) {
+        if (destination == null) {
+            return true;
+        }
+        if (PATTERN.matcher(destination).find()) {
+            return false;
+        }
+        if (!destination.startsWith(TEAM_DESTINATION_PREFIX)) {
+            return true;
+        }
+        Member member = sessions.get(sessionId);
+        return member != null && destination.equals(destination(member.team()));
+    }
+
+    private record Member(UUID team, String user) {
+    }
+}
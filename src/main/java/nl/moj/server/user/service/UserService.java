@@ -1,11 +1,8 @@
 package nl.moj.server.user.service;
 
 import java.security.Principal;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.transaction.Transactional;
 
@@ -13,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.core.ClaimAccessor;
 import org.springframework.security.oauth2.core.OAuth2AuthenticatedPrincipal;
@@ -38,8 +36,7 @@ public class UserService implements ApplicationListener<ApplicationEvent> {
 
     private final TeamRepository teamRepository;
 
-    // TODO this should probably be persisted somewhere in the future.
-    private static final Set<User> ACTIVE_USERS = new CopyOnWriteArraySet<>();
+    private final TeamSessionRegistry teamSessionRegistry;
 
     @Transactional
     public User createOrUpdate(Principal principal) {
@@ -89,11 +86,6 @@ public class UserService implements ApplicationListener<ApplicationEvent> {
         return u;
     }
 
-    public Set<User> getActiveUsers() {
-        // TODO check if we cannot use the SessionRegistry for this.
-        return Collections.unmodifiableSet(ACTIVE_USERS);
-    }
-
     @Override
     public void onApplicationEvent(ApplicationEvent applicationEvent) {
         if (applicationEvent instanceof SessionDisconnectEvent) {
@@ -111,19 +103,18 @@ public class UserService implements ApplicationListener<ApplicationEvent> {
                 user = createOrUpdate(evt.getUser());
             }
             log.info("User {} connected.", user.getName());
-            ACTIVE_USERS.add(user);
+            if (user.getTeam() != null) {
+                teamSessionRegistry.connected(SimpMessageHeaderAccessor.getSessionId(evt.getMessage().getHeaders()),
+                        user.getTeam().getUuid(), user.getName());
+            }
         }
     }
 
     private void userDisconnected(SessionDisconnectEvent evt) {
         if (evt.getUser() != null) {
-            User user = findUser(evt.getUser());
-            if (user == null) {
-                user = createOrUpdate(evt.getUser());
-            }
-            log.info("User {} disconnected.", user.getName());
-            ACTIVE_USERS.remove(user);
+            log.info("User {} disconnected.", evt.getUser().getName());
         }
+        teamSessionRegistry.disconnected(evt.getSessionId());
     }
 
     @Transactional
@@ -17,6 +17,8 @@ import nl.moj.server.test.model.TestAttempt;
 public class JMSResponseHelper {
 
     private static final String ABORT_WORKER = "<abort-worker>";
+    private static final String SUPERSEDED_WORKER = "<superseded>";
+    public static final String SUPERSEDED = "Superseded by a newer attempt.";
 
     @Transactional(Transactional.TxType.MANDATORY)
     public JMSCompileResponse abortResponse(CompileAttempt ca) {
@@ -74,4 +76,48 @@ public class JMSResponseHelper {
                 .testResponse(abortResponse(sa.getTestAttempt()))
                 .build();
     }
+
+    @Transactional(Transactional.TxType.MANDATORY)
+    public JMSCompileResponse supersededResponse(CompileAttempt ca) {
+        return JMSCompileResponse.builder()
+                .attempt(ca.getUuid())
+                .worker(SUPERSEDED_WORKER)
+                .timeout(false)
+                .success(false)
+                .aborted(true)
+                .started(ca.getDateTimeRegister())
+                .ended(Instant.now())
+                .output(SUPERSEDED)
+                .reason(SUPERSEDED)
+                .build();
+    }
+
+    @Transactional(Transactional.TxType.MANDATORY)
+    public JMSTestResponse supersededResponse(TestAttempt ta) {
+        List<JMSTestCaseResult> tcs = new ArrayList<>();
+        ta.getTestCases().forEach(tc -> {
+            tcs.add(JMSTestCaseResult.builder()
+                    .testCase(tc.getUuid())
+                    .worker(SUPERSEDED_WORKER)
+                    .aborted(true)
+                    .success(false)
+                    .timeout(false)
+                    .started(tc.getDateTimeRegister())
+                    .ended(Instant.now())
+                    .output(SUPERSEDED)
+                    .reason(SUPERSEDED)
+                    .build());
+        });
+
+        return JMSTestResponse.builder()
+                .attempt(ta.getUuid())
+                .worker(SUPERSEDED_WORKER)
+                .aborted(true)
+                .started(ta.getDateTimeRegister())
+                .ended(Instant.now())
+                .reason(SUPERSEDED)
+                .testCaseResults(tcs)
+                .compileResponse(supersededResponse(ta.getCompileAttempt()))
+                .build();
+    }
 }
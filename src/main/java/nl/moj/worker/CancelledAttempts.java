@@ -0,0 +1,57 @@
+package nl.moj.worker;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.messages.JMSCancel;
+
+/**
+ * Keeps track of the attempts the controller no longer needs a result for, as
+ * broadcast on the cancel topic. Requests for cancelled attempts are dropped
+ * before they are started, or between compiling and running the tests.
+ */
+@Component
+@Slf4j
+public class CancelledAttempts {
+
+    private static final String CANCEL_DESTINATION = "operation_cancel";
+
+    // a request for an attempt cancelled this long ago is not expected anymore
+    private static final Duration EXPIRE = Duration.ofMinutes(15);
+
+    private final Map<UUID, Cancellation> cancelled = new ConcurrentHashMap<>();
+
+    @JmsListener(destination = CANCEL_DESTINATION, containerFactory = "topicListenerFactory")
+    public void receiveCancel(JMSCancel cancel) {
+        expire();
+        Instant now = Instant.now();
+        cancel.getAttempts().forEach(a -> cancelled.put(a, new Cancellation(cancel.getReason(), now)));
+        log.debug("Cancelled attempts {}: {}", cancel.getAttempts(), cancel.getReason());
+    }
+
+    /**
+     * @return the reason the attempt was cancelled, empty if it was not cancelled.
+     */
+    public Optional<String> getCancellation(UUID attempt) {
+        if (attempt == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cancelled.get(attempt)).map(Cancellation::reason);
+    }
+
+    private void expire() {
+        Instant expired = Instant.now().minus(EXPIRE);
+        cancelled.values().removeIf(c -> c.received().isBefore(expired));
+    }
+
+    private record Cancellation(String reason, Instant received) {
+    }
+}
@@ -1,14 +1,21 @@
 package nl.moj.worker;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 import org.springframework.cloud.sleuth.Tracer;
 import org.springframework.cloud.sleuth.annotation.NewSpan;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.JmsHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.messages.JMSCompileRequest;
@@ -16,130 +23,159 @@ import nl.moj.common.messages.JMSCompileResponse;
 import nl.moj.common.messages.JMSRequest;
 import nl.moj.common.messages.JMSSubmitRequest;
 import nl.moj.common.messages.JMSSubmitResponse;
+import nl.moj.common.messages.JMSTestCaseResponse;
 import nl.moj.common.messages.JMSTestRequest;
 import nl.moj.common.messages.JMSTestResponse;
+import nl.moj.common.messages.Operation;
 import nl.moj.worker.java.JavaService;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class OperationListener {
+    public static final String LISTENER_ID = "operation-listener";
     private static final String REQUEST_DESTINATION = "operation_request";
     private static final String RESPONSE_DESTINATION = "operation_response";
 
     private final JmsTemplate jmsTemplate;
     private final JavaService javaService;
     private final WorkerService workerService;
+    private final WorkerCredits workerCredits;
+    private final CancelledAttempts cancelledAttempts;
+    private final MeterRegistry meterRegistry;
 
     private final Tracer tracer;
 
-    @JmsListener(destination = REQUEST_DESTINATION)
+    /**
+     * Hands the request off to the {@link JavaService} without waiting for it to
+     * finish, the listener keeps receiving requests as long as {@link WorkerCredits}
+     * are available.
+     */
+    @JmsListener(id = LISTENER_ID, destination = REQUEST_DESTINATION)
     @NewSpan
-    public void receiveOperationRequest(JMSRequest request) {
+    public void receiveOperationRequest(JMSRequest request, @Header(JmsHeaders.TIMESTAMP) long sent)
+            throws InterruptedException {
         log.info("On-Thread: {}-{}", workerService.getWorkerIdentification(), Thread.currentThread().getName());
+        meterRegistry.timer("moj.operation.wait", "operation", Operation.of(request).getName())
+                .record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - sent)));
+        if (cancelledAttempts.getCancellation(request.getAttempt()).isPresent()) {
+            // the controller already finished the attempt, no response expected
+            log.info("Dropping cancelled attempt {}", request.getAttempt());
+            return;
+        }
+        workerCredits.acquire();
+        CompletableFuture<?> result;
         if (request instanceof JMSCompileRequest r) {
-            receiveCompileRequest(r);
+            result = receiveCompileRequest(r);
         } else if (request instanceof JMSTestRequest r) {
-            receiveTestRequest(r);
+            result = receiveTestRequest(r);
         } else if (request instanceof JMSSubmitRequest r) {
-            receiveSubmitRequest(r);
+            result = receiveSubmitRequest(r);
         } else {
             log.warn("Unable to receive operation request of type {}, ignoring.", request.getClass().getName());
+            result = CompletableFuture.completedFuture(null);
         }
+        result.whenComplete((r, t) -> workerCredits.release());
     }
 
-    private void receiveCompileRequest(JMSCompileRequest compileRequest) {
+    private CompletableFuture<?> receiveCompileRequest(JMSCompileRequest compileRequest) {
         String traceId = traceId();
-        try {
-            log.info("Received compile attempt {}", compileRequest.getAttempt());
-            javaService.compile(compileRequest, traceId).thenApply(cr -> {
-                log.info("Compile attempt {} finished with {}", cr.getAttempt(), cr);
-                try {
-                    jmsTemplate.convertAndSend(RESPONSE_DESTINATION, cr);
-                } catch (Throwable t) {
-                    log.error("FAIL", t);
-                }
-                return cr;
-            }).join();
-        } catch (Exception e) {
-            log.error("Compile failed for attempt {}", compileRequest.getAttempt(), e);
-            try {
-                jmsTemplate.convertAndSend(RESPONSE_DESTINATION, JMSCompileResponse.builder()
+        log.info("Received compile attempt {}", compileRequest.getAttempt());
+        return start(() -> javaService.compile(compileRequest, traceId)).handle((cr, t) -> {
+            if (t != null) {
+                log.error("Compile failed for attempt {}", compileRequest.getAttempt(), t);
+                cr = JMSCompileResponse.builder()
                         .attempt(compileRequest.getAttempt())
                         .ended(Instant.now())
                         .started(Instant.now())
                         .aborted(true)
-                        .reason(e.getMessage())
+                        .reason(cause(t).getMessage())
                         .success(false)
                         .timeout(false)
                         .worker(workerService.getWorkerIdentification())
                         .traceId(traceId)
-                        .build());
-            } catch (Throwable t) {
-                log.error("FAIL", t);
+                        .build();
             }
-        }
+            log.info("Compile attempt {} finished with {}", cr.getAttempt(), cr);
+            send(cr);
+            return cr;
+        });
     }
 
-    private void receiveTestRequest(JMSTestRequest testRequest) {
+    private CompletableFuture<?> receiveTestRequest(JMSTestRequest testRequest) {
         String traceId = traceId();
-        try {
-            log.info("Received test attempt {}", testRequest.getAttempt());
-            javaService.test(testRequest, traceId).thenApply(tr -> {
-                log.info("Test attempt {} finished with {}", tr.getAttempt(), tr);
-                try {
-                    jmsTemplate.convertAndSend(RESPONSE_DESTINATION, tr);
-                } catch (Throwable t) {
-                    log.error("FAIL", t);
-                }
-                return tr;
-            }).join();
-        } catch (Exception e) {
-            log.error("Test failed for attempt {}", testRequest.getAttempt(), e);
-            try {
-                jmsTemplate.convertAndSend(RESPONSE_DESTINATION, JMSTestResponse.builder()
+        log.info("Received test attempt {}", testRequest.getAttempt());
+        return start(() -> javaService.test(testRequest, traceId, tcr -> {
+            log.info("Test case {} of test attempt {} finished with {}", tcr.getTestCase(),
+                    testRequest.getAttempt(), tcr);
+            send(JMSTestCaseResponse.builder()
+                    .attempt(testRequest.getAttempt())
+                    .traceId(traceId)
+                    .worker(workerService.getWorkerIdentification())
+                    .testCaseResult(tcr)
+                    .build());
+        })).handle((tr, t) -> {
+            if (t != null) {
+                log.error("Test failed for attempt {}", testRequest.getAttempt(), t);
+                tr = JMSTestResponse.builder()
                         .attempt(testRequest.getAttempt())
                         .ended(Instant.now())
                         .started(Instant.now())
                         .aborted(true)
-                        .reason(e.getMessage())
+                        .reason(cause(t).getMessage())
                         .traceId(traceId)
                         .worker(workerService.getWorkerIdentification())
-                        .build());
-            } catch (Throwable t) {
-                log.error("FAIL", t);
+                        .build();
             }
-        }
+            log.info("Test attempt {} finished with {}", tr.getAttempt(), tr);
+            send(tr);
+            return tr;
+        });
     }
 
-    private void receiveSubmitRequest(JMSSubmitRequest submitRequest) {
+    private CompletableFuture<?> receiveSubmitRequest(JMSSubmitRequest submitRequest) {
         String traceId = traceId();
-        try {
-            log.info("Received submit attempt {}", submitRequest.getAttempt());
-            javaService.submit(submitRequest, traceId).thenApply(tr -> {
-                log.info("Submit attempt {} finished with {}", tr.getAttempt(), tr);
-                try {
-                    jmsTemplate.convertAndSend(RESPONSE_DESTINATION, tr);
-                } catch (Throwable t) {
-                    log.error("FAIL", t);
-                }
-                return tr;
-            }).join();
-        } catch (Exception e) {
-            log.error("Submit failed for attempt {}", submitRequest.getAttempt(), e);
-            try {
-                jmsTemplate.convertAndSend(RESPONSE_DESTINATION, JMSSubmitResponse.builder()
+        log.info("Received submit attempt {}", submitRequest.getAttempt());
+        return start(() -> javaService.submit(submitRequest, traceId)).handle((sr, t) -> {
+            if (t != null) {
+                log.error("Submit failed for attempt {}", submitRequest.getAttempt(), t);
+                sr = JMSSubmitResponse.builder()
                         .attempt(submitRequest.getAttempt())
                         .ended(Instant.now())
                         .started(Instant.now())
                         .aborted(true)
-                        .reason(e.getMessage())
+                        .reason(cause(t).getMessage())
                         .traceId(traceId)
                         .worker(workerService.getWorkerIdentification())
-                        .build());
-            } catch (Throwable t) {
-                log.error("FAIL", t);
+                        .build();
             }
+            log.info("Submit attempt {} finished with {}", sr.getAttempt(), sr);
+            send(sr);
+            return sr;
+        });
+    }
+
+    /**
+     * @return the started operation, failed when it could not be started, so
+     *         the team always gets a response.
+     */
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> operation) {
+        try {
+            return operation.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static Throwable cause(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    private void send(Object response) {
+        try {
+            jmsTemplate.convertAndSend(RESPONSE_DESTINATION, response);
+        } catch (Throwable t) {
+            log.error("FAIL", t);
         }
     }
 
@@ -0,0 +1,40 @@
+package nl.moj.worker;
+
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.messages.JMSPrewarmRequest;
+import nl.moj.worker.java.JavaService;
+
+/**
+ * Prepares assignments announced on the prewarm topic, so the first attempts
+ * for it do not all pay for downloading and preparing it at the same time.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class PrewarmListener {
+
+    private static final String PREWARM_DESTINATION = "operation_prewarm";
+    private static final String PREWARM_RESPONSE_DESTINATION = "prewarm_response";
+
+    private final JmsTemplate jmsTemplate;
+    private final JavaService javaService;
+
+    @JmsListener(destination = PREWARM_DESTINATION, containerFactory = "topicListenerFactory")
+    public void receivePrewarmRequest(JMSPrewarmRequest request) {
+        log.info("Prewarming assignment {}", request.getAssignment());
+        javaService.prewarm(request).thenAccept(pr -> {
+            log.info("Prewarmed assignment {} in {} ms, success {}", pr.getAssignment(),
+                    pr.getEnded().toEpochMilli() - pr.getStarted().toEpochMilli(), pr.isSuccess());
+            try {
+                jmsTemplate.convertAndSend(PREWARM_RESPONSE_DESTINATION, pr);
+            } catch (Throwable t) {
+                log.error("FAIL", t);
+            }
+        });
+    }
+}
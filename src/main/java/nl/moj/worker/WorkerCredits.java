@@ -0,0 +1,103 @@
+package nl.moj.worker;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.Credits;
+import nl.moj.server.util.NamedThreadFactory;
+
+/**
+ * Limits the number of attempts a worker has in flight. Every attempt takes a
+ * credit when received and returns it when its response is sent. While no
+ * credits are left the operation listener is stopped, so requests stay on the
+ * queue for other workers, and it is started again once a credit is returned.
+ */
+@Component
+@Slf4j
+public class WorkerCredits {
+
+    private final JmsListenerEndpointRegistry registry;
+
+    @Getter
+    private final int limit;
+    private final Semaphore credits;
+    private final ExecutorService control = Executors.newSingleThreadExecutor(new NamedThreadFactory("credits"));
+
+    public WorkerCredits(MojServerProperties mojServerProperties, JmsListenerEndpointRegistry registry,
+            MeterRegistry meterRegistry) {
+        this.registry = registry;
+        this.limit = limit(mojServerProperties.getRuntime().getCredits());
+        this.credits = new Semaphore(limit);
+        Gauge.builder("moj.worker.inflight", this, WorkerCredits::getInFlight)
+                .description("Attempts in flight on this worker")
+                .register(meterRegistry);
+        Gauge.builder("moj.worker.credits", this, WorkerCredits::getLimit)
+                .description("Maximum attempts in flight on this worker")
+                .register(meterRegistry);
+        log.info("Worker accepts {} attempts in flight.", limit);
+    }
+
+    public int getInFlight() {
+        return limit - credits.availablePermits();
+    }
+
+    /**
+     * Takes a credit, waiting for one if a request was received just before the
+     * listener could be stopped.
+     */
+    public void acquire() throws InterruptedException {
+        credits.acquire();
+        if (credits.availablePermits() == 0) {
+            control.execute(() -> {
+                MessageListenerContainer container = container();
+                if (credits.availablePermits() == 0 && container != null && container.isRunning()) {
+                    log.info("No credits left, pausing operation listener.");
+                    container.stop();
+                }
+            });
+        }
+    }
+
+    public void release() {
+        credits.release();
+        control.execute(() -> {
+            MessageListenerContainer container = container();
+            if (credits.availablePermits() > 0 && container != null && !container.isRunning()) {
+                log.info("Credits available, resuming operation listener.");
+                container.start();
+            }
+        });
+    }
+
+    private MessageListenerContainer container() {
+        return registry.getListenerContainer(OperationListener.LISTENER_ID);
+    }
+
+    static int limit(Credits config) {
+        if (config.getMax() != null) {
+            return config.getMax();
+        }
+        int cpu = (int) Math.ceil(java.lang.Runtime.getRuntime().availableProcessors() * config.getPerCpu());
+        long memory = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getTotalMemorySize() / config.getMemoryPerAttempt().toBytes();
+        return (int) Math.max(1, Math.min(cpu, memory));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        control.shutdownNow();
+    }
+}
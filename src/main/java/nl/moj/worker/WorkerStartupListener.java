@@ -25,6 +25,7 @@ import org.springframework.stereotype.Component;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.bootstrap.BootstrapService;
+import nl.moj.worker.java.ClassDataSharingService;
 
 @Component
 @AllArgsConstructor
@@ -32,9 +33,11 @@ import nl.moj.common.bootstrap.BootstrapService;
 public class WorkerStartupListener implements ApplicationListener<ContextRefreshedEvent> {
 
     private final BootstrapService bootstrapService;
+    private final ClassDataSharingService classDataSharingService;
 
     public void onApplicationEvent(ContextRefreshedEvent event) {
         bootstrap();
+        classDataSharingService.prepare();
     }
 
     private void bootstrap() {
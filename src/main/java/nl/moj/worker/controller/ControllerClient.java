@@ -7,4 +7,18 @@ import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
 
 public interface ControllerClient {
     AssignmentDescriptor getAssignmentDescriptor(UUID assignmentUuid) throws IOException;
+
+    /**
+     * Gets the assignment descriptor like {@link #getAssignmentDescriptor(UUID)}, keeping
+     * the assignment content it points to available until it is released.
+     */
+    default AssignmentDescriptor acquireAssignmentDescriptor(UUID assignmentUuid) throws IOException {
+        return getAssignmentDescriptor(assignmentUuid);
+    }
+
+    /**
+     * Releases an assignment descriptor acquired with {@link #acquireAssignmentDescriptor(UUID)}.
+     */
+    default void release(AssignmentDescriptor descriptor) {
+    }
 }
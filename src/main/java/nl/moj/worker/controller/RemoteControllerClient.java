@@ -1,76 +1,344 @@
 package nl.moj.worker.controller;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
 import nl.moj.common.assignment.service.AssignmentDescriptorService;
 import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.AssignmentCache;
+import nl.moj.common.storage.StorageService;
 import nl.moj.common.util.ZipUtils;
 
-@RequiredArgsConstructor
+/**
+ * Fetches assignment content from the controller and keeps it extracted in the
+ * assignment cache folder, one directory per assignment version.
+ * <p>
+ * Concurrent requests for an assignment share a single download. Cached content
+ * is revalidated against the ETag of the controller once the configured interval
+ * passed, an updated assignment is extracted next to the old version. Versions
+ * that are no longer used are evicted, least recently used first, once the cache
+ * exceeds its disk budget. A version is in use while it is the current version of
+ * an assignment or while a descriptor acquired for it is not released.
+ */
 @Slf4j
 public class RemoteControllerClient implements ControllerClient {
 
-    private final Map<UUID, AssignmentDescriptor> cachedDescriptors = new ConcurrentHashMap<>();
-
     private final MojServerProperties mojServerProperties;
 
     private final AssignmentDescriptorService assignmentDescriptorService;
 
     private final RestTemplate restTemplate;
 
+    private final StorageService storageService;
+
+    private final Map<UUID, Cached> cachedDescriptors = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<AssignmentDescriptor>> loading = new ConcurrentHashMap<>();
+    // extracted versions by directory name, access ordered, eldest entry is the least recently used
+    private final LinkedHashMap<String, Long> versions = new LinkedHashMap<>(16, 0.75f, true);
+    // acquired descriptors per version, guarded by versions
+    private final Map<String, Integer> references = new HashMap<>();
+    private final AtomicLong size = new AtomicLong();
+
+    private final Timer downloaded;
+    private final Timer notModified;
+    private final DistributionSummary downloadSize;
+
+    public RemoteControllerClient(MojServerProperties mojServerProperties,
+            AssignmentDescriptorService assignmentDescriptorService, RestTemplate restTemplate,
+            StorageService storageService, MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.assignmentDescriptorService = assignmentDescriptorService;
+        this.restTemplate = restTemplate;
+        this.storageService = storageService;
+        this.downloaded = meterRegistry.timer("moj.assignment.download", "result", "downloaded");
+        this.notModified = meterRegistry.timer("moj.assignment.download", "result", "not-modified");
+        this.downloadSize = DistributionSummary.builder("moj.assignment.download.size")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        meterRegistry.gauge("moj.assignment.cache.size", size);
+        clean();
+    }
+
     public AssignmentDescriptor getAssignmentDescriptor(UUID assignmentUuid) throws IOException {
-        if (!cachedDescriptors.containsKey(assignmentUuid)) {
-            // download zip
-            Path zipFile = fetchAssignmentZip(assignmentUuid);
-            if (zipFile == null) {
-                throw new IOException("Assignment " + assignmentUuid + " content not found.");
+        Cached cached = cachedDescriptors.get(assignmentUuid);
+        if (cached != null) {
+            synchronized (versions) {
+                versions.get(cached.version());
+            }
+            if (!isStale(cached)) {
+                return cached.descriptor();
             }
+        }
 
-            // extract to temp directory
-            Path assignmentDir = Files.createTempDirectory("assignment");
-            ZipUtils.unzip(zipFile, assignmentDir);
+        CompletableFuture<AssignmentDescriptor> load = new CompletableFuture<>();
+        CompletableFuture<AssignmentDescriptor> existing = loading.putIfAbsent(assignmentUuid, load);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            load.complete(load(assignmentUuid, cached));
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+        } finally {
+            loading.remove(assignmentUuid, load);
+        }
+        return await(load);
+    }
 
-            // read descriptor
-            AssignmentDescriptor descriptor = assignmentDescriptorService.findInFolder(assignmentDir);
-            if (descriptor == null) {
-                throw new IOException("Assignment " + assignmentUuid + " descriptor not found.");
+    @Override
+    public AssignmentDescriptor acquireAssignmentDescriptor(UUID assignmentUuid) throws IOException {
+        while (true) {
+            AssignmentDescriptor descriptor = getAssignmentDescriptor(assignmentUuid);
+            String version = version(descriptor);
+            synchronized (versions) {
+                // evicted in between when no longer known, fetched again
+                if (versions.containsKey(version)) {
+                    references.merge(version, 1, Integer::sum);
+                    return descriptor;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void release(AssignmentDescriptor descriptor) {
+        List<String> evicted;
+        synchronized (versions) {
+            references.computeIfPresent(version(descriptor), (v, n) -> n == 1 ? null : n - 1);
+            evicted = evict(null);
+        }
+        delete(evicted);
+    }
+
+    private AssignmentDescriptor load(UUID assignmentUuid, Cached cached) throws IOException {
+        Path folder = storageService.getAssignmentCacheFolder();
+        Files.createDirectories(folder);
+        long started = System.nanoTime();
+        Download download;
+        try {
+            download = fetchAssignmentZip(assignmentUuid, folder, cached == null ? null : cached.etag());
+        } catch (RestClientException | UncheckedIOException e) {
+            if (cached != null) {
+                log.warn("Unable to revalidate assignment {}, using cached version.", assignmentUuid, e);
+                return cached.descriptor();
             }
+            throw new IOException("Assignment " + assignmentUuid + " content could not be fetched.", e);
+        }
+        if (download == null) {
+            throw new IOException("Assignment " + assignmentUuid + " content not found.");
+        }
 
-            // add to map
-            cachedDescriptors.put(assignmentUuid, descriptor);
+        if (download.zip() == null) {
+            notModified.record(Duration.ofNanos(System.nanoTime() - started));
+            cachedDescriptors.put(assignmentUuid, cached.revalidated(Instant.now()));
+            return cached.descriptor();
+        }
+
+        try {
+            downloaded.record(Duration.ofNanos(System.nanoTime() - started));
+            downloadSize.record(download.bytes());
+            String version = version(assignmentUuid, download.etag());
+            Path dir = folder.resolve(version);
+            extract(download.zip(), folder, dir);
 
+            AssignmentDescriptor descriptor = assignmentDescriptorService.findInFolder(dir);
+            if (descriptor == null) {
+                throw new IOException("Assignment " + assignmentUuid + " descriptor not found.");
+            }
+            cachedDescriptors.put(assignmentUuid, new Cached(version, download.etag(), descriptor, Instant.now()));
+            log.info("Cached assignment {} version {}.", assignmentUuid, version);
+            add(version, dir);
+            return descriptor;
+        } finally {
+            Files.deleteIfExists(download.zip());
         }
-        return cachedDescriptors.get(assignmentUuid);
     }
 
-    private Path fetchAssignmentZip(UUID uuid) {
-        return restTemplate.execute(resolveEndpoint(uuid), HttpMethod.GET, null, clientHttpResponse -> {
+    private Download fetchAssignmentZip(UUID uuid, Path folder, String etag) {
+        return restTemplate.execute(resolveEndpoint(uuid), HttpMethod.GET, request -> {
+            if (etag != null) {
+                request.getHeaders().setIfNoneMatch(etag);
+            }
+        }, clientHttpResponse -> {
+            if (clientHttpResponse.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                return new Download(null, etag, 0);
+            }
             if (clientHttpResponse.getStatusCode() == HttpStatus.OK) {
-                Path dst = Files.createTempFile("assignment", "zip");
-                StreamUtils.copy(clientHttpResponse.getBody(), Files.newOutputStream(dst, StandardOpenOption.WRITE));
-                return dst;
+                Path dst = Files.createTempFile(folder, "assignment", ".zip");
+                long bytes;
+                try (InputStream in = clientHttpResponse.getBody(); OutputStream out = Files.newOutputStream(dst)) {
+                    bytes = StreamUtils.copy(in, out);
+                }
+                return new Download(dst, clientHttpResponse.getHeaders().getETag(), bytes);
             }
             return null;
         });
     }
 
+    /**
+     * Extracts next to the cache entries and moves the result in place, so a
+     * version directory is either complete or missing.
+     */
+    private void extract(Path zip, Path folder, Path dir) throws IOException {
+        if (Files.isDirectory(dir)) {
+            return;
+        }
+        Path tmp = Files.createTempDirectory(folder, "extract");
+        try {
+            ZipUtils.unzip(zip, tmp);
+            Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // extracted by an earlier download of the same version
+        } finally {
+            FileSystemUtils.deleteRecursively(tmp);
+        }
+    }
+
+    private void add(String version, Path dir) throws IOException {
+        long bytes = sizeOf(dir);
+        List<String> evicted;
+        synchronized (versions) {
+            Long previous = versions.put(version, bytes);
+            size.addAndGet(bytes - (previous == null ? 0 : previous));
+            evicted = evict(version);
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Removes versions not in use, least recently used first, until the cache fits its budget.
+     *
+     * @param added the version just added, never evicted
+     * @return the evicted versions, to delete outside the lock
+     */
+    private List<String> evict(String added) {
+        long max = config().getMaxSize().toBytes();
+        List<String> evicted = new ArrayList<>();
+        Set<String> current = cachedDescriptors.values().stream().map(Cached::version).collect(Collectors.toSet());
+        var it = versions.entrySet().iterator();
+        while (size.get() > max && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (!e.getKey().equals(added) && !current.contains(e.getKey())
+                    && !references.containsKey(e.getKey())) {
+                size.addAndGet(-e.getValue());
+                evicted.add(e.getKey());
+                it.remove();
+            }
+        }
+        return evicted;
+    }
+
+    private void delete(List<String> evicted) {
+        for (String e : evicted) {
+            log.info("Evicting assignment version {} from the cache.", e);
+            try {
+                FileSystemUtils.deleteRecursively(storageService.getAssignmentCacheFolder().resolve(e));
+            } catch (IOException ex) {
+                log.warn("Unable to delete assignment version {}.", e, ex);
+            }
+        }
+    }
+
+    /**
+     * @return the version directory the descriptor was found in
+     */
+    private String version(AssignmentDescriptor descriptor) {
+        return storageService.getAssignmentCacheFolder().relativize(descriptor.getDirectory()).getName(0).toString();
+    }
+
+    private boolean isStale(Cached cached) {
+        return cached.etag() != null
+                && cached.validated().plus(config().getRevalidateAfter()).isBefore(Instant.now());
+    }
+
+    private AssignmentCache config() {
+        return mojServerProperties.getRuntime().getAssignmentCache();
+    }
+
+    /**
+     * Removes what was left behind by an earlier run, the controller might have
+     * updated assignments since.
+     */
+    private void clean() {
+        try {
+            FileSystemUtils.deleteRecursively(storageService.getAssignmentCacheFolder());
+        } catch (IOException e) {
+            log.warn("Unable to clean assignment cache {}.", storageService.getAssignmentCacheFolder(), e);
+        }
+    }
+
     private URI resolveEndpoint(UUID uuid) {
         return mojServerProperties.getControllerEndpoint().resolve("/api/assignment/" + uuid + "/content");
     }
 
+    private static String version(UUID uuid, String etag) {
+        if (etag == null) {
+            return uuid.toString();
+        }
+        return uuid + "-" + etag.replaceAll("[^A-Za-z0-9]", "");
+    }
+
+    private static AssignmentDescriptor await(CompletableFuture<AssignmentDescriptor> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    private record Cached(String version, String etag, AssignmentDescriptor descriptor, Instant validated) {
+
+        Cached revalidated(Instant at) {
+            return new Cached(version, etag, descriptor, at);
+        }
+    }
+
+    private record Download(Path zip, String etag, long bytes) {
+    }
 }
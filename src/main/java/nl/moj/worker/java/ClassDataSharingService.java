@@ -0,0 +1,250 @@
+package nl.moj.worker.java;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.ProcessResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.Languages.JavaVersion;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.util.NamedThreadFactory;
+import nl.moj.worker.java.test.TestRunnerService;
+import nl.moj.worker.java.test.runner.BatchTestRunner;
+import nl.moj.worker.java.test.runner.Warmup;
+
+/**
+ * Maintains AppCDS archives per java version so forked test JVMs and javac
+ * processes map the JUnit, Hamcrest, asciiart, runner and JDK classes they need
+ * instead of loading and verifying them on every start.
+ * <p>
+ * Archives are created with {@code -XX:ArchiveClassesAtExit}, which needs java 13
+ * or newer, when the worker starts or the first time they are needed, and stored
+ * in the {@value #CDS} folder next to the libs. Each archive has a key file
+ * describing the JDK and class path it was created for, an archive whose key no
+ * longer matches is recreated. Until an archive is available processes start
+ * without one.
+ */
+@Service
+@Slf4j
+public class ClassDataSharingService {
+
+    private static final String CDS = "cds";
+    private static final int MIN_VERSION = 13;
+
+    private final MojServerProperties mojServerProperties;
+    private final JavaVersionRegistry javaVersionRegistry;
+    private final ClasspathService classpathService;
+    private final StorageService storageService;
+    private final MeterRegistry meterRegistry;
+
+    private final ExecutorService executor;
+    private final Map<Path, CompletableFuture<Void>> creating = new ConcurrentHashMap<>();
+
+    public ClassDataSharingService(MojServerProperties mojServerProperties, JavaVersionRegistry javaVersionRegistry,
+            ClasspathService classpathService, StorageService storageService, MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.javaVersionRegistry = javaVersionRegistry;
+        this.classpathService = classpathService;
+        this.storageService = storageService;
+        this.meterRegistry = meterRegistry;
+        this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("cds"));
+    }
+
+    /**
+     * Starts creating the missing or outdated archives of all available java versions.
+     */
+    public void prepare() {
+        if (!isEnabled()) {
+            return;
+        }
+        javaVersionRegistry.getResolvedJavaVersions().stream()
+                .filter(JavaVersionRegistry.ResolvedJavaVersion::available)
+                .forEach(r -> {
+                    resolveRuntimeOptions(r.javaVersion());
+                    resolveCompilerOptions(r.javaVersion());
+                });
+    }
+
+    /**
+     * Resolves the options for a test JVM of the given java version, the class
+     * path of the JVM must start with the {@link ClasspathService#resolveRunnerLibraries()}.
+     *
+     * @return the options to use the archive, empty if no archive is available yet
+     */
+    public List<String> resolveRuntimeOptions(JavaVersion javaVersion) {
+        return resolve(archive(javaVersion, Kind.RUNTIME)).stream().toList();
+    }
+
+    /**
+     * Resolves the options for a javac process of the given java version.
+     *
+     * @return the options to use the archive, empty if no archive is available yet
+     */
+    public List<String> resolveCompilerOptions(JavaVersion javaVersion) {
+        return resolve(archive(javaVersion, Kind.COMPILER)).stream().map(o -> "-J" + o).toList();
+    }
+
+    private Archive archive(JavaVersion javaVersion, Kind kind) {
+        return new Archive(javaVersion, kind, storageService.getLibsFolder().resolve(CDS));
+    }
+
+    private List<String> resolve(Archive archive) {
+        if (!isEnabled() || archive.javaVersion().getVersion() == null
+                || archive.javaVersion().getVersion() < MIN_VERSION) {
+            return List.of();
+        }
+        try {
+            String key = key(archive);
+            Path jsa = archive.jsa();
+            Path keyFile = archive.keyFile();
+            if (Files.exists(jsa) && Files.exists(keyFile) && key.equals(Files.readString(keyFile))) {
+                // never let the JVM report an unusable archive in the output of a test
+                return List.of("-XX:SharedArchiveFile=" + jsa.toAbsolutePath(), "-Xlog:cds*=off");
+            }
+            creating.computeIfAbsent(jsa, k -> CompletableFuture.runAsync(() -> create(archive, key), executor)
+                    .whenComplete((v, t) -> creating.remove(k)));
+        } catch (IOException e) {
+            log.warn("Unable to check class data sharing archive for {}.", archive.javaVersion().getName(), e);
+        }
+        return List.of();
+    }
+
+    private void create(Archive archive, String key) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Path work = null;
+        try {
+            Files.createDirectories(archive.jsa().getParent());
+            work = Files.createTempDirectory(archive.jsa().getParent(), "create");
+            Path tmp = work.resolve(archive.jsa().getFileName());
+
+            List<String> cmd = new ArrayList<>();
+            if (archive.kind() == Kind.RUNTIME) {
+                // run the warmup test exactly like the test runners run tests
+                cmd.add(archive.javaVersion().getRuntime().toString());
+                cmd.add("-XX:ArchiveClassesAtExit=" + tmp.toAbsolutePath());
+                cmd.add("-Djava.security.manager=allow");
+                cmd.add("-Djava.security.policy=" + storageService.getLibsFolder()
+                        .resolve(TestRunnerService.SECURITY_POLICY_FOR_UNIT_TESTS).toAbsolutePath());
+                cmd.add("-cp");
+                cmd.add(classpathService.resolveRunnerClasspath());
+                cmd.add(BatchTestRunner.class.getName());
+                cmd.add("60000");
+                cmd.add(Warmup.class.getName());
+            } else {
+                Path source = Files.writeString(work.resolve("WarmupTest.java"), """
+                        import org.junit.Assert;
+                        import org.junit.Test;
+
+                        public class WarmupTest {
+                            @Test
+                            public void warmup() {
+                                Assert.assertEquals("moj", String.join("", java.util.List.of("m", "o", "j")));
+                            }
+                        }
+                        """);
+                cmd.add(archive.javaVersion().getCompiler().toString());
+                cmd.add("-J-XX:ArchiveClassesAtExit=" + tmp.toAbsolutePath());
+                cmd.add("-cp");
+                cmd.add(classpathService.resolveRunnerClasspath());
+                cmd.add("-d");
+                cmd.add(work.toAbsolutePath().toString());
+                cmd.add(source.toAbsolutePath().toString());
+            }
+
+            ProcessResult pr = new ProcessExecutor(cmd)
+                    .directory(work.toFile())
+                    .timeout(1, TimeUnit.MINUTES)
+                    .redirectErrorStream(true)
+                    .readOutput(true)
+                    .execute();
+            if (pr.getExitValue() != 0 || !Files.exists(tmp)) {
+                log.warn("Unable to create class data sharing archive {}, exit code {}.", archive.jsa(),
+                        pr.getExitValue());
+                log.debug("Output: {}", pr.outputUTF8());
+                return;
+            }
+            Files.move(tmp, archive.jsa(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.writeString(archive.keyFile(), key);
+            sample.stop(meterRegistry.timer("moj.cds.create", "jdk", archive.javaVersion().getName(), "kind",
+                    archive.kind().name().toLowerCase()));
+            log.info("Created class data sharing archive {}.", archive.jsa());
+        } catch (Exception e) {
+            log.warn("Unable to create class data sharing archive {}.", archive.jsa(), e);
+        } finally {
+            if (work != null) {
+                try {
+                    FileSystemUtils.deleteRecursively(work);
+                } catch (IOException e) {
+                    log.debug("Unable to remove {}.", work, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * An archive is only valid for the exact JDK and, for test JVMs, the exact jars
+     * on the class path it was created with.
+     */
+    private String key(Archive archive) throws IOException {
+        JavaVersion jv = archive.javaVersion();
+        Path binary = archive.kind() == Kind.RUNTIME ? jv.getRuntime() : jv.getCompiler();
+        List<String> key = new ArrayList<>();
+        key.add(JavaVersionRegistry.fingerprint(binary));
+        key.add(JavaVersionRegistry.fingerprint(binary.toRealPath().getParent().getParent()
+                .resolve("lib").resolve("modules")));
+        if (archive.kind() == Kind.RUNTIME) {
+            classpathService.resolveRunnerLibraries().forEach(p -> key.add(JavaVersionRegistry.fingerprint(p)));
+        }
+        return String.join("\n", key);
+    }
+
+    private boolean isEnabled() {
+        return mojServerProperties.getRuntime().isClassDataSharing();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private enum Kind {
+        RUNTIME,
+        COMPILER
+    }
+
+    private record Archive(JavaVersion javaVersion, Kind kind, Path folder) {
+
+        Path jsa() {
+            return folder().resolve(name() + ".jsa");
+        }
+
+        Path keyFile() {
+            return folder().resolve(name() + ".key");
+        }
+
+        private String name() {
+            return (javaVersion.getName() + "-" + javaVersion.getVersion()).replaceAll("[^A-Za-z0-9.-]", "_")
+                    + "-" + kind.name().toLowerCase();
+        }
+    }
+}
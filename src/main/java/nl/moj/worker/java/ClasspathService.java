@@ -1,13 +1,20 @@
 package nl.moj.worker.java;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.stereotype.Service;
 
 import lombok.RequiredArgsConstructor;
@@ -19,16 +26,50 @@ import nl.moj.common.storage.StorageService;
 @RequiredArgsConstructor
 public class ClasspathService {
 
+    private static final String RUNNER_LIBRARY = "moj-test-runner.jar";
+    private static final String RUNNER_PACKAGE = "nl/moj/worker/java/test/runner/";
+    private static final long ENTRY_TIME = 946684800000L; // 2000-01-01, keeps the jar the same between starts
+
     private final StorageService storageService;
 
+    private Path runnerLibrary;
+
+    /**
+     * Resolves the libraries every test may use and the runner itself. Every test
+     * JVM class path starts with these, in this order, so they can be shared using
+     * class data sharing.
+     */
+    public List<Path> resolveRunnerLibraries() throws IOException {
+        List<Path> libraries = new ArrayList<>(resolveLibraries());
+        libraries.add(resolveRunnerLibrary());
+        return libraries;
+    }
+
+    /**
+     * Resolves the classpath of a runner JVM, that is the libraries every test may
+     * use and the runner itself, the classes under test are loaded by the runner.
+     */
+    public String resolveRunnerClasspath() throws IOException {
+        return resolveRunnerClasspath(List.of());
+    }
+
+    /**
+     * Resolves the classpath of a test JVM loading the given paths from the class
+     * path, after the runner libraries.
+     */
+    public String resolveRunnerClasspath(Collection<Path> paths) throws IOException {
+        List<Path> classPath = resolveRunnerLibraries();
+        classPath.addAll(paths);
+        return classPath.stream().map(p -> p.toAbsolutePath().toString())
+                .collect(Collectors.joining(File.pathSeparator));
+    }
+
     public String resolveClasspath(Collection<Path> paths) {
         final List<Path> classPath = new ArrayList<>();
         if (paths != null && !paths.isEmpty()) {
             classPath.addAll(paths);
         }
-        classPath.add(resolveLibrary("junit-4.12.jar"));
-        classPath.add(resolveLibrary("hamcrest-all-1.3.jar"));
-        classPath.add(resolveLibrary("asciiart-core-1.1.0.jar"));
+        classPath.addAll(resolveLibraries());
 
         for (Path file : classPath) {
             if (Files.exists(file)) {
@@ -41,6 +82,46 @@ public class ClasspathService {
                 .collect(Collectors.joining(File.pathSeparator));
     }
 
+    private List<Path> resolveLibraries() {
+        return List.of(resolveLibrary("junit-4.12.jar"),
+                resolveLibrary("hamcrest-all-1.3.jar"),
+                resolveLibrary("asciiart-core-1.1.0.jar"));
+    }
+
+    /**
+     * Packages the classes of the runner package into a jar in the libs folder,
+     * once per worker start so the jar always matches the running worker, or again
+     * when the libs folder was reset. An unchanged jar is left alone, class data
+     * sharing archives depend on it.
+     */
+    private synchronized Path resolveRunnerLibrary() throws IOException {
+        if (runnerLibrary == null || !Files.exists(runnerLibrary)) {
+            Path jar = resolveLibrary(RUNNER_LIBRARY);
+            Path tmp = Files.createTempFile(jar.getParent(), RUNNER_LIBRARY, ".tmp");
+            Resource[] classes = new PathMatchingResourcePatternResolver(getClass().getClassLoader())
+                    .getResources("classpath*:" + RUNNER_PACKAGE + "*.class");
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(tmp))) {
+                for (Resource r : classes) {
+                    JarEntry entry = new JarEntry(RUNNER_PACKAGE + r.getFilename());
+                    entry.setTime(ENTRY_TIME);
+                    out.putNextEntry(entry);
+                    try (InputStream in = r.getInputStream()) {
+                        in.transferTo(out);
+                    }
+                    out.closeEntry();
+                }
+            }
+            if (Files.exists(jar) && Files.mismatch(tmp, jar) == -1) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("Created test runner library {} with {} classes.", jar, classes.length);
+            }
+            runnerLibrary = jar;
+        }
+        return runnerLibrary;
+    }
+
     private Path resolveLibrary(String library) {
         return storageService.getLibsFolder().resolve(library);
     }
@@ -1,26 +1,33 @@
 package nl.moj.worker.java;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import org.springframework.stereotype.Service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.assignment.descriptor.TestExecution;
 import nl.moj.common.messages.*;
 import nl.moj.server.util.CompletableFutures;
+import nl.moj.worker.CancelledAttempts;
 import nl.moj.worker.ExecutionService;
 import nl.moj.worker.WorkerService;
 import nl.moj.worker.controller.ControllerClient;
 import nl.moj.worker.java.compile.CompileOutput;
 import nl.moj.worker.java.compile.CompileRunnerService;
+import nl.moj.worker.java.test.BatchTestRunnerService;
 import nl.moj.worker.java.test.TestCaseOutput;
 import nl.moj.worker.java.test.TestOutput;
+import nl.moj.worker.java.test.TestResultCache;
 import nl.moj.worker.java.test.TestRunnerService;
+import nl.moj.worker.util.ResourceUsage;
 import nl.moj.worker.workspace.Workspace;
 import nl.moj.worker.workspace.WorkspaceService;
 
@@ -31,20 +38,20 @@ public class JavaService {
 
     private final CompileRunnerService compileRunnerService;
     private final TestRunnerService testRunnerService;
+    private final BatchTestRunnerService batchTestRunnerService;
     private final ControllerClient controllerClient;
     private final WorkspaceService workspaceService;
     private final ExecutionService executionService;
     private final WorkerService workerService;
+    private final CancelledAttempts cancelledAttempts;
+    private final TestResultCache testResultCache;
 
     public CompletableFuture<JMSCompileResponse> compile(JMSCompileRequest compileRequest, String traceId) {
         try {
-            AssignmentDescriptor ad = controllerClient.getAssignmentDescriptor(compileRequest.getAssignment());
-            Workspace workspace = workspaceService.getWorkspace(ad, compileRequest.getSources());
-            return compile(workspace)
-                    .thenApply(co -> {
-                        closeWorkspace(workspace);
-                        return toCompileResponse(compileRequest.getAttempt(), traceId, co);
-                    });
+            Workspace workspace = getWorkspace(compileRequest.getAssignment(), compileRequest.getSources());
+            return compile(workspace, compileRequest.getAttempt())
+                    .whenComplete((co, t) -> closeWorkspace(workspace))
+                    .thenApply(co -> toCompileResponse(compileRequest.getAttempt(), traceId, co));
 
         } catch (Exception e) {
             return CompletableFuture.completedFuture(JMSCompileResponse.builder()
@@ -59,15 +66,18 @@ public class JavaService {
         }
     }
 
-    public CompletableFuture<JMSTestResponse> test(JMSTestRequest testRequest, String traceId) {
+    /**
+     * @param testCaseFinished called with the result of each test case as soon as it
+     *        finished, before the response completing the attempt
+     */
+    public CompletableFuture<JMSTestResponse> test(JMSTestRequest testRequest, String traceId,
+            Consumer<JMSTestCaseResult> testCaseFinished) {
         try {
-            AssignmentDescriptor ad = controllerClient.getAssignmentDescriptor(testRequest.getAssignment());
-            Workspace workspace = workspaceService.getWorkspace(ad, testRequest.getSources());
-            return test(workspace, testRequest.getTests())
-                    .thenApply(to -> {
-                        closeWorkspace(workspace);
-                        return toTestResponse(testRequest.getAttempt(), traceId, to);
-                    });
+            Workspace workspace = getWorkspace(testRequest.getAssignment(), testRequest.getSources());
+            return test(workspace, testRequest.getAttempt(), testRequest.getTests(),
+                    to -> testCaseFinished.accept(toTestCaseResult(to, traceId)))
+                    .whenComplete((to, t) -> closeWorkspace(workspace))
+                    .thenApply(to -> toTestResponse(testRequest.getAttempt(), traceId, to));
         } catch (Exception e) {
             return CompletableFuture.completedFuture(JMSTestResponse.builder()
                     .traceId(traceId)
@@ -84,13 +94,11 @@ public class JavaService {
 
     public CompletableFuture<JMSSubmitResponse> submit(JMSSubmitRequest submitRequest, String traceId) {
         try {
-            AssignmentDescriptor ad = controllerClient.getAssignmentDescriptor(submitRequest.getAssignment());
-            Workspace workspace = workspaceService.getWorkspace(ad, submitRequest.getSources());
-            return test(workspace, submitRequest.getTests())
-                    .thenApply(to -> {
-                        closeWorkspace(workspace);
-                        return toSubmitResponse(submitRequest.getAttempt(), traceId, to);
-                    });
+            Workspace workspace = getWorkspace(submitRequest.getAssignment(), submitRequest.getSources());
+            return test(workspace, submitRequest.getAttempt(), submitRequest.getTests(), to -> {
+            })
+                    .whenComplete((to, t) -> closeWorkspace(workspace))
+                    .thenApply(to -> toSubmitResponse(submitRequest.getAttempt(), traceId, to));
         } catch (Exception e) {
             return CompletableFuture.completedFuture(JMSSubmitResponse.builder()
                     .traceId(traceId)
@@ -104,7 +112,44 @@ public class JavaService {
         }
     }
 
+    /**
+     * Fetches the assignment, prepares its workspace template and pooled runner JVMs
+     * and compiles the unchanged sources, filling the compile caches.
+     */
+    public CompletableFuture<JMSPrewarmResponse> prewarm(JMSPrewarmRequest prewarmRequest) {
+        Instant started = Instant.now();
+        try {
+            Workspace workspace = getWorkspace(prewarmRequest.getAssignment(), List.of());
+            try {
+                testRunnerService.prewarm(workspace.getAssignmentDescriptor());
+            } catch (RuntimeException e) {
+                closeWorkspace(workspace);
+                throw e;
+            }
+            return compile(workspace, null)
+                    .whenComplete((co, t) -> closeWorkspace(workspace))
+                    .thenApply(co -> JMSPrewarmResponse.builder()
+                            .worker(workerService.getWorkerIdentification())
+                            .assignment(prewarmRequest.getAssignment())
+                            .started(started)
+                            .ended(Instant.now())
+                            .success(!co.isAborted() && !co.isTimedOut())
+                            .reason(co.getReason())
+                            .build());
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(JMSPrewarmResponse.builder()
+                    .worker(workerService.getWorkerIdentification())
+                    .assignment(prewarmRequest.getAssignment())
+                    .started(started)
+                    .ended(Instant.now())
+                    .success(false)
+                    .reason(e.getMessage())
+                    .build());
+        }
+    }
+
     private JMSCompileResponse toCompileResponse(UUID attempt, String traceId, CompileOutput co) {
+        ResourceUsage usage = co.getUsage();
         return JMSCompileResponse.builder()
                 .traceId(traceId)
                 .worker(workerService.getWorkerIdentification())
@@ -116,6 +161,9 @@ public class JavaService {
                 .timeout(co.isTimedOut())
                 .aborted(co.isAborted())
                 .reason(co.getReason())
+                .cpuUser(usage == null ? null : usage.cpuUser())
+                .cpuSystem(usage == null ? null : usage.cpuSystem())
+                .peakRss(usage == null || usage.peakRss() == 0 ? null : usage.peakRss())
                 .build();
     }
 
@@ -133,6 +181,7 @@ public class JavaService {
     }
 
     private JMSTestCaseResult toTestCaseResult(TestCaseOutput to, String traceId) {
+        ResourceUsage usage = to.getUsage();
         return JMSTestCaseResult.builder()
                 .traceId(traceId)
                 .worker(workerService.getWorkerIdentification())
@@ -143,7 +192,11 @@ public class JavaService {
                 .started(to.getDateTimeStart())
                 .ended(to.getDateTimeEnd())
                 .timeout(to.isTimedOut())
+                .cached(to.isCached())
                 .output(concat(to.getOutput(), to.getErrorOutput()))
+                .cpuUser(usage == null ? null : usage.cpuUser())
+                .cpuSystem(usage == null ? null : usage.cpuSystem())
+                .peakRss(usage == null || usage.peakRss() == 0 ? null : usage.peakRss())
                 .build();
     }
 
@@ -159,24 +212,37 @@ public class JavaService {
                 .build();
     }
 
-    private static void closeWorkspace(Workspace workspace) {
+    /**
+     * Creates a workspace for the assignment, its content is kept until the workspace is closed.
+     */
+    private Workspace getWorkspace(UUID assignment, List<JMSFile> sources) throws IOException {
+        AssignmentDescriptor ad = controllerClient.acquireAssignmentDescriptor(assignment);
+        try {
+            return workspaceService.getWorkspace(ad, sources);
+        } catch (IOException | RuntimeException e) {
+            controllerClient.release(ad);
+            throw e;
+        }
+    }
+
+    private void closeWorkspace(Workspace workspace) {
         try {
             workspace.close();
         } catch (Exception ex) {
             log.error("Failed to close workspace {}, ignoring.", workspace.getRoot());
+        } finally {
+            controllerClient.release(workspace.getAssignmentDescriptor());
         }
     }
 
-    private CompletableFuture<TestOutput> test(Workspace workspace, List<JMSTestCase> testCases) {
-        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
-        return compile(workspace)
+    private CompletableFuture<TestOutput> test(Workspace workspace, UUID attempt, List<JMSTestCase> testCases,
+            Consumer<TestCaseOutput> finished) {
+        return compile(workspace, attempt)
                 .thenCompose(co -> {
-                    if (co.isSuccess()) {
-                        List<CompletableFuture<TestCaseOutput>> tests = new ArrayList<>();
-                        testCases.forEach(
-                                tc -> tests.add(CompletableFuture.supplyAsync(() -> testRunnerService.test(workspace, tc),
-                                        executionService.getExecutor(ad))));
-                        return CompletableFutures.allOf(tests).thenApply(tcs -> TestOutput.builder()
+                    String abort = cancelledAttempts.getCancellation(attempt)
+                            .orElse(co.isSuccess() ? null : "Compile failed, test aborted.");
+                    if (abort == null) {
+                        return runTests(workspace, testCases, finished).thenApply(tcs -> TestOutput.builder()
                                 .compileOutput(co)
                                 .testCases(tcs)
                                 .dateTimeStart(co.getDateTimeStart())
@@ -187,8 +253,8 @@ public class JavaService {
                                 .builder()
                                 .aborted(true)
                                 .testCase(tc.getTestCase())
-                                .reason("Compile failed, test aborted.")
-                                .errorOutput("Compile failed, test aborted.")
+                                .reason(abort)
+                                .errorOutput(abort)
                                 .success(false)
                                 .dateTimeStart(Instant.now())
                                 .dateTimeEnd(Instant.now())
@@ -205,8 +271,66 @@ public class JavaService {
                 });
     }
 
-    private CompletableFuture<CompileOutput> compile(Workspace workspace) {
-        return CompletableFuture.supplyAsync(() -> compileRunnerService.compile(workspace),
+    private CompletableFuture<List<TestCaseOutput>> runTests(Workspace workspace, List<JMSTestCase> testCases,
+            Consumer<TestCaseOutput> finished) {
+        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
+        if (!testResultCache.isEnabled(ad)) {
+            return executeTests(workspace, testCases, finished);
+        }
+        List<String> keys;
+        try {
+            keys = testResultCache.keys(workspace, testCases);
+        } catch (IOException e) {
+            log.warn("Unable to compute test result cache keys, running all tests.", e);
+            return executeTests(workspace, testCases, finished);
+        }
+        TestCaseOutput[] results = new TestCaseOutput[testCases.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < testCases.size(); i++) {
+            int idx = i;
+            testResultCache.get(keys.get(i), testCases.get(i))
+                    .ifPresentOrElse(to -> {
+                        results[idx] = to;
+                        finished.accept(to);
+                    }, () -> missing.add(idx));
+        }
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of(results));
+        }
+        return executeTests(workspace, missing.stream().map(testCases::get).toList(), finished).thenApply(tcs -> {
+            for (int i = 0; i < tcs.size(); i++) {
+                results[missing.get(i)] = tcs.get(i);
+                testResultCache.put(keys.get(missing.get(i)), tcs.get(i));
+            }
+            return List.of(results);
+        });
+    }
+
+    private CompletableFuture<List<TestCaseOutput>> executeTests(Workspace workspace, List<JMSTestCase> testCases,
+            Consumer<TestCaseOutput> finished) {
+        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
+        if (ad.getTestExecution() == TestExecution.BATCH) {
+            return CompletableFuture.supplyAsync(() -> batchTestRunnerService.test(workspace, testCases, finished),
+                    executionService.getExecutor(ad));
+        }
+        List<CompletableFuture<TestCaseOutput>> tests = new ArrayList<>();
+        testCases.forEach(tc -> tests.add(CompletableFuture.supplyAsync(() -> {
+            TestCaseOutput to = testRunnerService.test(workspace, tc);
+            finished.accept(to);
+            return to;
+        }, executionService.getExecutor(ad))));
+        return CompletableFutures.allOf(tests);
+    }
+
+    private CompletableFuture<CompileOutput> compile(Workspace workspace, UUID attempt) {
+        return CompletableFuture.supplyAsync(() -> cancelledAttempts.getCancellation(attempt)
+                .map(reason -> CompileOutput.builder()
+                        .aborted(true)
+                        .reason(reason)
+                        .dateTimeStart(Instant.now())
+                        .dateTimeEnd(Instant.now())
+                        .build())
+                .orElseGet(() -> compileRunnerService.compile(workspace)),
                 executionService.getExecutor(workspace.getAssignmentDescriptor()));
     }
 
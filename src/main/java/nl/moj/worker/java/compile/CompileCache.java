@@ -0,0 +1,282 @@
+package nl.moj.worker.java.compile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.storage.StorageService;
+import nl.moj.worker.workspace.Workspace;
+
+/**
+ * Disk backed cache of compile results, keyed by a hash of everything that goes
+ * into a compilation: the assignment, the JDK, the compiler options and every
+ * source file in the workspace. Teams very often compile, test and submit the
+ * same code, the later ones can reuse the classes of the first.
+ * <p>
+ * The cache is bounded by size, the least recently used results are evicted
+ * first. Cached class files are read only and linked into workspaces where the
+ * file system allows it.
+ */
+@Component
+@Slf4j
+public class CompileCache {
+
+    private static final String CLASSES = "classes";
+    private static final String RESULT = "result.json";
+
+    private final MojServerProperties mojServerProperties;
+    private final StorageService storageService;
+    private final ObjectMapper objectMapper;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final AtomicLong size = new AtomicLong();
+    // access ordered, eldest entry is the least recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public CompileCache(MojServerProperties mojServerProperties, StorageService storageService,
+            @Qualifier("objectMapper") ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.storageService = storageService;
+        this.objectMapper = objectMapper;
+        this.hits = meterRegistry.counter("moj.compile.cache", "result", "hit");
+        this.misses = meterRegistry.counter("moj.compile.cache", "result", "miss");
+        meterRegistry.gauge("moj.compile.cache.size", size);
+    }
+
+    /**
+     * Picks up the results cached before the worker was started, oldest first.
+     */
+    @PostConstruct
+    public void init() {
+        Path folder = storageService.getCompileCacheFolder();
+        if (!isEnabled() || !Files.isDirectory(folder)) {
+            return;
+        }
+        try (Stream<Path> dirs = Files.list(folder)) {
+            List<Path> existing = dirs.filter(d -> Files.exists(d.resolve(RESULT)))
+                    .sorted(Comparator.comparing(d -> d.toFile().lastModified()))
+                    .toList();
+            synchronized (entries) {
+                for (Path d : existing) {
+                    long bytes = sizeOf(d);
+                    entries.put(d.getFileName().toString(), bytes);
+                    size.addAndGet(bytes);
+                }
+            }
+            evict();
+            log.info("Compile cache contains {} results, {} bytes.", entries.size(), size.get());
+        } catch (IOException e) {
+            log.warn("Unable to read compile cache {}, starting empty.", folder, e);
+        }
+    }
+
+    /**
+     * Computes the cache key of compiling the sources in the workspace.
+     *
+     * @param options the compiler options, paths into the workspace are ignored
+     */
+    public String key(Workspace workspace, Languages.JavaVersion javaVersion, List<String> options)
+            throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, workspace.getAssignmentDescriptor().getDirectory().toAbsolutePath().toString());
+        update(digest, javaVersion.getName() + ":" + javaVersion.getVersion());
+        update(digest, JavaVersionRegistry.fingerprint(javaVersion.getCompiler()));
+        String root = workspace.getRoot().toAbsolutePath().toString();
+        options.forEach(o -> update(digest, o.replace(root, "<workspace>")));
+
+        Path sources = workspace.getSourcesRoot();
+        try (Stream<Path> files = workspace.getSources()) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                update(digest, sources.relativize(file).toString());
+                update(digest, Files.readAllBytes(file));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copies the cached classes for the key into the target folder.
+     *
+     * @return the cached compile result, empty on a cache miss
+     */
+    public Optional<CompileOutput> restore(String key, Path target) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        Path entry = storageService.getCompileCacheFolder().resolve(key);
+        synchronized (entries) {
+            if (entries.get(key) == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+        }
+        try {
+            Result result = objectMapper.readValue(entry.resolve(RESULT).toFile(), Result.class);
+            Path classes = entry.resolve(CLASSES);
+            try (Stream<Path> files = Files.walk(classes)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    link(file, target.resolve(classes.relativize(file).toString()));
+                }
+            }
+            entry.toFile().setLastModified(System.currentTimeMillis());
+            hits.increment();
+            return Optional.of(CompileOutput.builder()
+                    .success(result.success())
+                    .output(result.output())
+                    .errorOutput(result.errorOutput())
+                    .build());
+        } catch (IOException | UncheckedIOException e) {
+            // most likely evicted or removed underneath us
+            log.debug("Unable to restore compile result {}, compiling.", key, e);
+            remove(key);
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the classes compiled into the target folder together with the
+     * compile result.
+     */
+    public void store(String key, Path target, CompileOutput co) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path folder = storageService.getCompileCacheFolder();
+        Path tmp = null;
+        try {
+            Files.createDirectories(folder);
+            tmp = Files.createTempDirectory(folder, "store");
+            Path classes = tmp.resolve(CLASSES);
+            try (Stream<Path> files = Files.walk(target)) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".class")).toList()) {
+                    Path cached = classes.resolve(target.relativize(file).toString());
+                    Files.createDirectories(cached.getParent());
+                    Files.copy(file, cached);
+                    cached.toFile().setReadOnly();
+                }
+            }
+            objectMapper.writeValue(tmp.resolve(RESULT).toFile(),
+                    new Result(co.isSuccess(), co.getOutput(), co.getErrorOutput()));
+            long bytes = sizeOf(tmp);
+            Files.move(tmp, folder.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+            synchronized (entries) {
+                entries.put(key, bytes);
+                size.addAndGet(bytes);
+            }
+            evict();
+        } catch (FileAlreadyExistsException e) {
+            // stored by a concurrent compile of the same sources
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Unable to cache compile result {}.", key, e);
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    private void evict() {
+        long max = mojServerProperties.getRuntime().getCompileCache().getMaxSize().toBytes();
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            var it = entries.entrySet().iterator();
+            while (size.get() > max && it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                size.addAndGet(-e.getValue());
+                evicted.add(e.getKey());
+                it.remove();
+            }
+        }
+        evicted.forEach(k -> delete(storageService.getCompileCacheFolder().resolve(k)));
+    }
+
+    private void remove(String key) {
+        synchronized (entries) {
+            Long bytes = entries.remove(key);
+            if (bytes != null) {
+                size.addAndGet(-bytes);
+            }
+        }
+        delete(storageService.getCompileCacheFolder().resolve(key));
+    }
+
+    private void link(Path cached, Path dest) throws IOException {
+        Files.createDirectories(dest.getParent());
+        try {
+            Files.createLink(dest, cached);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(cached, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private boolean isEnabled() {
+        return mojServerProperties.getRuntime().getCompileCache().isEnabled();
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path dir) {
+        if (dir != null) {
+            try {
+                FileSystemUtils.deleteRecursively(dir);
+            } catch (IOException e) {
+                log.debug("Unable to remove {}.", dir, e);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void update(MessageDigest digest, byte[] value) {
+        // length prefix so concatenated values can not collide
+        digest.update(HexFormat.of().toHexDigits(value.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update(value);
+    }
+
+    record Result(boolean success, String output, String errorOutput) {
+    }
+}
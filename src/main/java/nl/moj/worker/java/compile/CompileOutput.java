@@ -4,6 +4,7 @@ import java.time.Instant;
 
 import lombok.Builder;
 import lombok.Data;
+import nl.moj.worker.util.ResourceUsage;
 
 @Data
 @Builder(toBuilder = true)
@@ -21,4 +22,6 @@ public class CompileOutput {
 
     private Instant dateTimeStart;
     private Instant dateTimeEnd;
+
+    private ResourceUsage usage;
 }
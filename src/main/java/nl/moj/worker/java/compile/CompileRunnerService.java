@@ -7,9 +7,11 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import org.springframework.stereotype.Service;
@@ -20,9 +22,16 @@ import org.zeroturnaround.exec.listener.ProcessListener;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.Languages;
 import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.worker.java.ClassDataSharingService;
 import nl.moj.worker.java.ClasspathService;
 import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.util.ProcessTimeoutException;
+import nl.moj.worker.util.ProcessUsageMonitor;
+import nl.moj.worker.util.ProcessWatchdog;
+import nl.moj.worker.util.ResourceUsage;
 import nl.moj.worker.workspace.Workspace;
 
 @Service
@@ -32,6 +41,13 @@ public class CompileRunnerService {
 
     private final MojServerProperties mojServerProperties;
     private final ClasspathService classpathService;
+    private final JavaVersionRegistry javaVersionRegistry;
+    private final InProcessJavaCompiler inProcessJavaCompiler;
+    private final ClassDataSharingService classDataSharingService;
+    private final CompileCache compileCache;
+    private final PrecompiledSources precompiledSources;
+    private final ProcessUsageMonitor processUsageMonitor;
+    private final ProcessWatchdog processWatchdog;
 
     public CompileOutput compile(Workspace workspace) {
 
@@ -44,7 +60,7 @@ public class CompileRunnerService {
         try {
             // find java compiler
             AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
-            var javaVersion = mojServerProperties.getLanguages().getJavaVersion(ad.getJavaVersion());
+            var javaVersion = javaVersionRegistry.getJavaVersion(ad.getJavaVersion());
 
             // configure output limits
             final LengthLimitedOutputCatcher compileOutput = new LengthLimitedOutputCatcher(
@@ -55,25 +71,27 @@ public class CompileRunnerService {
                     : mojServerProperties.getLimits().getCompileTimeout();
 
             // build and run javac command
+            String cacheKey = null;
             try {
-                List<String> cmd = new ArrayList<>();
-                cmd.add(javaVersion.getCompiler().toString());
-                cmd.add("-Xlint:all");
+                List<String> options = new ArrayList<>();
+                options.add("-Xlint:all");
 
                 boolean enablePreviewFeatures = ad.isJavaPreviewEnabled();
                 if (javaVersion.getVersion() >= 11 && enablePreviewFeatures) {
-                    cmd.add("--enable-preview");
-                    cmd.add("--release");
-                    cmd.add("" + javaVersion.getVersion());
+                    options.add("--enable-preview");
+                    options.add("--release");
+                    options.add("" + javaVersion.getVersion());
                 }
 
-                cmd.add("-encoding");
-                cmd.add("UTF8");
-                cmd.add("-g:source,lines,vars");
-                cmd.add("-cp");
-                cmd.add(classpathService.resolveClasspath(Set.of(workspace.getTargetRoot())));
-                cmd.add("-d");
-                cmd.add(workspace.getTargetRoot().toAbsolutePath().toString());
+                options.add("-encoding");
+                options.add("UTF8");
+                options.add("-g:source,lines,vars");
+                options.add("-cp");
+                options.add(classpathService.resolveClasspath(Set.of(workspace.getTargetRoot())));
+                options.add("-d");
+                options.add(workspace.getTargetRoot().toAbsolutePath().toString());
+
+                List<Path> sourceFiles = new ArrayList<>();
                 try (Stream<Path> sources = workspace.getSources()) {
                     sources.forEach(s -> {
                         if (!Files.isDirectory(s)) {
@@ -81,48 +99,44 @@ public class CompileRunnerService {
                                 throw new IllegalStateException(
                                         "Source file " + s + " does not exist in workspace, though was found listing it.");
                             }
-                            cmd.add(s.toAbsolutePath().toString());
+                            sourceFiles.add(s.toAbsolutePath());
                         }
                     });
                 }
 
-                long closeTimeout = timeout.toSeconds() + 4;
-
-                final ProcessResult processResult = new ProcessExecutor(cmd)
-                        .destroyOnExit().closeTimeout(closeTimeout, TimeUnit.SECONDS)
-                        .directory(workspace.getRoot().toFile())
-                        .timeout(timeout.toSeconds(), TimeUnit.SECONDS).redirectOutput(compileOutput)
-                        .redirectError(compileErrorOutput)
-                        .addListener(new ProcessListener() {
-                            @Override
-                            public void afterStart(Process process, ProcessExecutor executor) {
-                                log.info("Executed: {}", process.info().commandLine().orElse("<none>"));
-                            }
-                        }).execute();
-                co.setSuccess(processResult.getExitValue() == 0);
-
-                //                InputStream is = commandExecutor.pumps().getInput();
-                //                OutputStream error = commandExecutor.pumps().getErr();
-                //                OutputStream out = commandExecutor.pumps().getOut();
-                //                commandExecutor.pumps().flush();
-                //
-                //                if (is != null) {
-                //                    is.close();
-                //                }
-                //                if (error != null) {
-                //                    error.close();
-                //                }
-                //                if (out != null) {
-                //                    out.close();
-                //                }
-                //                commandExecutor.pumps().stop();
+                cacheKey = compileCache.key(workspace, javaVersion, options);
+                Optional<CompileOutput> cached = compileCache.restore(cacheKey, workspace.getTargetRoot());
+                if (cached.isPresent()) {
+                    log.info("Compile finished, result taken from cache.");
+                    return cached.get().toBuilder()
+                            .dateTimeStart(co.getDateTimeStart())
+                            .dateTimeEnd(Instant.now())
+                            .usage(null)
+                            .build();
+                }
+
+                Optional<List<Path>> remaining = precompiledSources.prepare(workspace, javaVersion, options);
+                boolean success = javac(workspace, javaVersion, options, remaining.orElse(sourceFiles), timeout,
+                        compileOutput, compileErrorOutput, co);
+                if (!success && remaining.isPresent()) {
+                    // report exactly what compiling all sources reports
+                    log.info("Compile against precompiled classes failed, compiling all sources.");
+                    precompiledSources.clean(workspace.getTargetRoot());
+                    compileOutput.reset();
+                    compileErrorOutput.reset();
+                    success = javac(workspace, javaVersion, options, sourceFiles, timeout, compileOutput,
+                            compileErrorOutput, co);
+                }
+                co.setSuccess(success);
                 co.setDateTimeEnd(Instant.now());
 
             } catch (TimeoutException e) {
                 // process is automatically destroyed
                 co.setTimedOut(true);
                 co.setDateTimeEnd(Instant.now());
-                co.setReason("Compiling timed out.");
+                co.setReason(e instanceof ProcessTimeoutException pte
+                        ? "Compiling timed out after " + pte.getMessage() + "."
+                        : "Compiling timed out.");
                 compileOutput.getBuffer()
                         .append(mojServerProperties.getLimits().getCompileOutputLimits().getTimeoutMessage());
             }
@@ -130,6 +144,10 @@ public class CompileRunnerService {
             co.setOutput(stripTeamPathInfo(compileOutput.getBuffer(), workspace.getSourcesRoot()));
             co.setErrorOutput(stripTeamPathInfo(compileErrorOutput.getBuffer(), workspace.getSourcesRoot()));
 
+            if (cacheKey != null && !co.isTimedOut()) {
+                compileCache.store(cacheKey, workspace.getTargetRoot(), co);
+            }
+
             log.info("Compile finished.");
 
             return co;
@@ -141,10 +159,69 @@ public class CompileRunnerService {
                     .dateTimeEnd(Instant.now())
                     .aborted(true)
                     .reason(e.getMessage())
+                    .usage(co.getUsage())
                     .build();
         }
     }
 
+    /**
+     * Runs javac, adding the resources it used to those recorded in the compile output.
+     */
+    private boolean javac(Workspace workspace, Languages.JavaVersion javaVersion, List<String> options,
+            List<Path> sourceFiles, Duration timeout, LengthLimitedOutputCatcher compileOutput,
+            LengthLimitedOutputCatcher compileErrorOutput, CompileOutput co) throws Exception {
+        if (inProcessJavaCompiler.supports(javaVersion)) {
+            log.info("Compiling in-process with {}.", javaVersion.getName());
+            return inProcessJavaCompiler.compile(options, sourceFiles, timeout, compileErrorOutput,
+                    u -> co.setUsage(ResourceUsage.combine(co.getUsage(), u)));
+        }
+        return forkJavac(workspace, javaVersion, options, sourceFiles, timeout, compileOutput,
+                compileErrorOutput, co);
+    }
+
+    private boolean forkJavac(Workspace workspace, Languages.JavaVersion javaVersion, List<String> options,
+            List<Path> sourceFiles, Duration timeout, LengthLimitedOutputCatcher compileOutput,
+            LengthLimitedOutputCatcher compileErrorOutput, CompileOutput co) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(javaVersion.getCompiler().toString());
+        cmd.addAll(classDataSharingService.resolveCompilerOptions(javaVersion));
+        cmd.addAll(options);
+        sourceFiles.forEach(s -> cmd.add(s.toString()));
+
+        long closeTimeout = timeout.toMillis() + 4000;
+
+        AtomicReference<ProcessWatchdog.Watch> watch = new AtomicReference<>();
+        final ProcessResult processResult = new ProcessExecutor(cmd)
+                .destroyOnExit().closeTimeout(closeTimeout, TimeUnit.MILLISECONDS)
+                .directory(workspace.getRoot().toFile())
+                .redirectOutput(compileOutput)
+                .redirectError(compileErrorOutput)
+                .addListener(new ProcessListener() {
+                    private ProcessUsageMonitor.Tracker usage;
+
+                    @Override
+                    public void afterStart(Process process, ProcessExecutor executor) {
+                        usage = processUsageMonitor.track(process.pid());
+                        watch.set(processWatchdog.watch(process, timeout, null));
+                        log.info("Executed: {}", process.info().commandLine().orElse("<none>"));
+                    }
+
+                    @Override
+                    public void afterStop(Process process) {
+                        if (watch.get() != null) {
+                            watch.get().cancel();
+                        }
+                        if (usage != null) {
+                            co.setUsage(ResourceUsage.combine(co.getUsage(), usage.stop()));
+                        }
+                    }
+                }).execute();
+        if (watch.get() != null && watch.get().getTimeout().isPresent()) {
+            throw watch.get().getTimeout().get();
+        }
+        return processResult.getExitValue() == 0;
+    }
+
     private String stripTeamPathInfo(StringBuilder result, Path prefix) {
         if (result != null) {
             return result.toString().replace(prefix.toAbsolutePath() + File.separator, "");
@@ -0,0 +1,211 @@
+package nl.moj.worker.java.compile;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.server.util.NamedThreadFactory;
+import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.util.ProcessUsageMonitor;
+import nl.moj.worker.util.ResourceUsage;
+
+/**
+ * Runs javac inside the worker JVM through the {@link JavaCompiler} API. Only
+ * usable when the requested JDK is the JDK the worker itself runs on, otherwise
+ * the forked javac of the configured JDK must be used.
+ * <p>
+ * javac does not respond to interrupts, a compilation that times out keeps its
+ * thread busy until it finishes by itself. While any compile thread is stuck like
+ * that this compiler reports it is not supported, so compiles fork javac which
+ * can be killed, and no more threads get stuck. The same happens while all compile
+ * threads are busy, rather than queueing compiles behind each other.
+ */
+@Component
+@Slf4j
+public class InProcessJavaCompiler {
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int ABANDONED = 3;
+
+    private final MojServerProperties mojServerProperties;
+
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    private final int threads;
+    private final ExecutorService executor;
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger stuck = new AtomicInteger();
+
+    public InProcessJavaCompiler(MojServerProperties mojServerProperties) {
+        this.mojServerProperties = mojServerProperties;
+        this.threads = Math.max(1, mojServerProperties.getRuntime().getInProcessCompileThreads());
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("javac"));
+    }
+
+    public boolean supports(Languages.JavaVersion javaVersion) {
+        return mojServerProperties.getRuntime().isInProcessCompile()
+                && compiler != null
+                && javaVersion.getVersion() != null
+                && javaVersion.getVersion() == Runtime.version().feature()
+                && stuck.get() == 0
+                && busy.get() < threads;
+    }
+
+    /**
+     * Compiles the given sources writing the diagnostics exactly like a forked javac
+     * would write them to its error stream.
+     *
+     * @param options the javac options, including class path and output directory
+     * @param sources the source files to compile
+     * @param timeout the maximum time the compilation may take, not counting the time it waited for a thread
+     * @param diagnostics the output receiving the compiler diagnostics
+     * @return true if compilation succeeded
+     * @throws TimeoutException if compilation did not finish in time
+     */
+    public boolean compile(List<String> options, List<Path> sources, Duration timeout,
+            LengthLimitedOutputCatcher diagnostics) throws TimeoutException, InterruptedException {
+        return compile(options, sources, timeout, diagnostics, null, null);
+    }
+
+    /**
+     * Compiles the given sources like {@link #compile(List, List, Duration, LengthLimitedOutputCatcher)},
+     * additionally reporting the CPU time the compilation took.
+     *
+     * @param usage receives the CPU time used by the compiler thread, if the compilation finished
+     */
+    public boolean compile(List<String> options, List<Path> sources, Duration timeout,
+            LengthLimitedOutputCatcher diagnostics, Consumer<ResourceUsage> usage)
+            throws TimeoutException, InterruptedException {
+        return compile(options, sources, timeout, diagnostics, null, usage);
+    }
+
+    /**
+     * Compiles the given sources like {@link #compile(List, List, Duration, LengthLimitedOutputCatcher)},
+     * additionally recording which class files were generated from which source file.
+     *
+     * @param generated receives the binary names of the classes generated per source file, may be null
+     */
+    public boolean compile(List<String> options, List<Path> sources, Duration timeout,
+            LengthLimitedOutputCatcher diagnostics, Map<Path, List<String>> generated)
+            throws TimeoutException, InterruptedException {
+        return compile(options, sources, timeout, diagnostics, generated, null);
+    }
+
+    private boolean compile(List<String> options, List<Path> sources, Duration timeout,
+            LengthLimitedOutputCatcher diagnostics, Map<Path, List<String>> generated, Consumer<ResourceUsage> usage)
+            throws TimeoutException, InterruptedException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(diagnostics, StandardCharsets.UTF_8), true);
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, Locale.ROOT,
+                StandardCharsets.UTF_8);
+        JavaFileManager files = generated == null ? fileManager : new RecordingFileManager(fileManager, generated);
+        AtomicInteger state = new AtomicInteger(QUEUED);
+        CountDownLatch running = new CountDownLatch(1);
+        busy.incrementAndGet();
+        Future<Boolean> result = executor.submit(() -> {
+            if (!state.compareAndSet(QUEUED, RUNNING)) {
+                busy.decrementAndGet();
+                files.close();
+                return false;
+            }
+            running.countDown();
+            ResourceUsage started = ProcessUsageMonitor.currentThread();
+            try (files) {
+                // never run annotation processors found on the team controlled class path
+                List<String> opts = new ArrayList<>(options);
+                opts.add("-proc:none");
+                return compiler.getTask(out, files, null, opts, null,
+                        fileManager.getJavaFileObjectsFromPaths(sources)).call();
+            } finally {
+                out.flush();
+                diagnostics.flush();
+                ResourceUsage ended = ProcessUsageMonitor.currentThread();
+                if (usage != null && ended != null) {
+                    usage.accept(ended.since(started));
+                }
+                busy.decrementAndGet();
+                if (!state.compareAndSet(RUNNING, DONE)) {
+                    log.info("Timed out in-process compilation finished, {} compile threads still stuck.",
+                            stuck.decrementAndGet());
+                }
+            }
+        });
+        try {
+            // the timeout is for compiling, not for waiting behind the other compilations
+            running.await();
+            return result.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("In-process compilation failed: " + e.getCause().getMessage(),
+                    e.getCause());
+        } catch (TimeoutException e) {
+            // not started compilations never start, started ones cannot be stopped
+            if (!state.compareAndSet(QUEUED, ABANDONED) && state.compareAndSet(RUNNING, ABANDONED)) {
+                log.warn("In-process compilation timed out, forking javac until its thread finished, "
+                        + "{} compile threads stuck.", stuck.incrementAndGet());
+            }
+            result.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            state.compareAndSet(QUEUED, ABANDONED);
+            result.cancel(true);
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class RecordingFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+
+        private final Map<Path, List<String>> generated;
+
+        RecordingFileManager(JavaFileManager fileManager, Map<Path, List<String>> generated) {
+            super(fileManager);
+            this.generated = generated;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                FileObject sibling) throws IOException {
+            if (kind == JavaFileObject.Kind.CLASS && sibling != null) {
+                generated.computeIfAbsent(Paths.get(sibling.toUri()), p -> new ArrayList<>()).add(className);
+            }
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package nl.moj.worker.java.compile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.util.NamedThreadFactory;
+import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.workspace.BasicWorkspace;
+import nl.moj.worker.workspace.Workspace;
+
+/**
+ * Compiles the sources of an assignment as shipped once per JDK and compiler
+ * options, so an attempt only has to compile the team's editable sources and the
+ * fixed sources depending on them. All other classes are copied from the
+ * precompiled output into the workspace.
+ * <p>
+ * Dependencies are found conservatively: a fixed source has to be recompiled when
+ * it mentions the name of any class declared in a source that is recompiled, and
+ * any fixed source that differs from the source it was precompiled from is
+ * recompiled as well. The names declared in a recompiled source are taken from
+ * both its precompiled classes and its current text, a team may declare new types.
+ * Precompiling happens in the background on first use of an assignment, attempts
+ * compile all sources until it is done.
+ * <p>
+ * The precompiled output is bounded by size, the least recently used is removed first.
+ */
+@Component
+@Slf4j
+public class PrecompiledSources {
+
+    private static final String CLASSES = "classes";
+    private static final String MANIFEST = "manifest.json";
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*");
+    private static final Pattern DECLARATION = Pattern.compile(
+            "\\b(?:class|interface|enum|record)\\s+([\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*)");
+
+    private final MojServerProperties mojServerProperties;
+    private final StorageService storageService;
+    private final InProcessJavaCompiler inProcessJavaCompiler;
+    private final ObjectMapper objectMapper;
+
+    private final Counter used;
+    private final Counter unused;
+    private final Map<String, CompletableFuture<Optional<Manifest>>> manifests = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    // access ordered, eldest entry is the least recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("precompile"));
+
+    public PrecompiledSources(MojServerProperties mojServerProperties, StorageService storageService,
+            InProcessJavaCompiler inProcessJavaCompiler, @Qualifier("objectMapper") ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.storageService = storageService;
+        this.inProcessJavaCompiler = inProcessJavaCompiler;
+        this.objectMapper = objectMapper;
+        this.used = meterRegistry.counter("moj.compile.precompiled", "result", "used");
+        this.unused = meterRegistry.counter("moj.compile.precompiled", "result", "unused");
+        meterRegistry.gauge("moj.compile.precompiled.size", size);
+    }
+
+    /**
+     * Picks up the sources precompiled before the worker was started, oldest first.
+     */
+    @PostConstruct
+    public void init() {
+        Path folder = storageService.getPrecompiledFolder();
+        if (!mojServerProperties.getRuntime().isPrecompileFixedSources() || !Files.isDirectory(folder)) {
+            return;
+        }
+        try (Stream<Path> dirs = Files.list(folder)) {
+            List<Path> existing = dirs.filter(d -> Files.exists(d.resolve(MANIFEST)))
+                    .sorted(Comparator.comparing(d -> d.toFile().lastModified()))
+                    .toList();
+            for (Path d : existing) {
+                register(d.getFileName().toString());
+            }
+            evict();
+        } catch (IOException e) {
+            log.warn("Unable to read precompiled sources {}, starting empty.", folder, e);
+        }
+    }
+
+    /**
+     * Copies the precompiled classes the sources in the workspace can use into the
+     * target folder, starting the precompilation of the assignment if needed.
+     *
+     * @param options the compiler options of the attempt, paths into the workspace are ignored
+     * @return the sources that still need compiling, empty if all sources need compiling
+     */
+    public Optional<List<Path>> prepare(Workspace workspace, Languages.JavaVersion javaVersion, List<String> options)
+            throws IOException {
+        if (!mojServerProperties.getRuntime().isPrecompileFixedSources()
+                || !inProcessJavaCompiler.supports(javaVersion)) {
+            return Optional.empty();
+        }
+        String key = key(workspace, javaVersion, options);
+        CompletableFuture<Optional<Manifest>> manifest = manifests.computeIfAbsent(key,
+                k -> load(k).map(m -> CompletableFuture.completedFuture(Optional.of(m)))
+                        .orElseGet(() -> precompile(k, workspace, javaVersion, options)));
+        if (!manifest.isDone() || manifest.join().isEmpty()) {
+            unused.increment();
+            return Optional.empty();
+        }
+
+        Path entry = storageService.getPrecompiledFolder().resolve(key);
+        synchronized (entries) {
+            entries.get(key);
+        }
+        Map<String, Path> sources = new LinkedHashMap<>();
+        try (Stream<Path> files = workspace.getSources()) {
+            files.filter(Files::isRegularFile).sorted()
+                    .forEach(f -> sources.put(workspace.getSourcesRoot().relativize(f).toString(), f.toAbsolutePath()));
+        }
+        Set<String> recompile = recompile(manifest.join().get(), sources);
+        if (recompile.size() == sources.size()) {
+            unused.increment();
+            return Optional.empty();
+        }
+        try {
+            for (Map.Entry<String, Source> s : manifest.join().get().sources().entrySet()) {
+                if (sources.containsKey(s.getKey()) && !recompile.contains(s.getKey())) {
+                    for (String c : s.getValue().classes()) {
+                        copy(entry.resolve(CLASSES).resolve(c), workspace.getTargetRoot().resolve(c));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // most likely removed underneath us, precompile again on the next attempt
+            log.debug("Unable to use precompiled sources {}, compiling all sources.", key, e);
+            manifests.remove(key);
+            clean(workspace.getTargetRoot());
+            unused.increment();
+            return Optional.empty();
+        }
+        used.increment();
+        log.info("Using precompiled classes, compiling {} of {} sources.", recompile.size(), sources.size());
+        return Optional.of(recompile.stream().sorted().map(sources::get).toList());
+    }
+
+    /**
+     * Removes all classes from the target folder, used before falling back to
+     * compiling all sources.
+     */
+    public void clean(Path target) throws IOException {
+        try (Stream<Path> files = Files.walk(target)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(".class")).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Finds the sources to compile: editable sources, sources not precompiled as is
+     * and, transitively, the sources mentioning a class declared in any of those.
+     */
+    Set<String> recompile(Manifest manifest, Map<String, Path> sources) throws IOException {
+        Set<String> recompile = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (Map.Entry<String, Path> s : sources.entrySet()) {
+            Source precompiled = manifest.sources().get(s.getKey());
+            if (precompiled == null || precompiled.editable() || !precompiled.hash().equals(hash(s.getValue()))) {
+                recompile.add(s.getKey());
+                names.addAll(names(s.getKey(), precompiled));
+                names.addAll(declarations(Files.readString(s.getValue())));
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String s : sources.keySet()) {
+                Source precompiled = manifest.sources().get(s);
+                if (!recompile.contains(s) && precompiled.identifiers().stream().anyMatch(names::contains)) {
+                    recompile.add(s);
+                    names.addAll(names(s, precompiled));
+                    changed = true;
+                }
+            }
+        }
+        return recompile;
+    }
+
+    private CompletableFuture<Optional<Manifest>> precompile(String key, Workspace workspace,
+            Languages.JavaVersion javaVersion, List<String> options) {
+        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
+        String root = workspace.getRoot().toAbsolutePath().toString();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Optional.of(precompile(key, ad, root, options));
+            } catch (Exception e) {
+                log.warn("Unable to precompile assignment {} for {}, compiling all sources.", ad.getName(),
+                        javaVersion.getName(), e);
+                return Optional.empty();
+            }
+        }, executor);
+    }
+
+    private Manifest precompile(String key, AssignmentDescriptor ad, String root, List<String> options)
+            throws Exception {
+        Path folder = storageService.getPrecompiledFolder();
+        Files.createDirectories(folder);
+        Path tmp = Files.createTempDirectory(folder, "precompile");
+        try (BasicWorkspace workspace = new BasicWorkspace(ad, null)) {
+            String precompileRoot = workspace.getRoot().toAbsolutePath().toString();
+            List<String> opts = options.stream().map(o -> o.replace(root, precompileRoot)).toList();
+            List<Path> sources;
+            try (Stream<Path> files = workspace.getSources()) {
+                sources = files.filter(Files::isRegularFile).map(Path::toAbsolutePath).sorted().toList();
+            }
+            Duration timeout = ad.getCompileTimeout() != null ? ad.getCompileTimeout()
+                    : mojServerProperties.getLimits().getCompileTimeout();
+            LengthLimitedOutputCatcher diagnostics = new LengthLimitedOutputCatcher(
+                    mojServerProperties.getLimits().getCompileOutputLimits());
+            Map<Path, List<String>> generated = new HashMap<>();
+            if (!inProcessJavaCompiler.compile(opts, sources, timeout, diagnostics, generated)) {
+                throw new IllegalStateException("Assignment sources do not compile: " + diagnostics);
+            }
+
+            Set<String> editable = new HashSet<>();
+            ad.getAssignmentFiles().getSources().getEditable().forEach(p -> editable.add(p.toString()));
+            Map<String, Source> manifest = new HashMap<>();
+            for (Path source : sources) {
+                String path = workspace.getSourcesRoot().toAbsolutePath().relativize(source).toString();
+                List<String> classes = new ArrayList<>();
+                for (String c : generated.getOrDefault(source, List.of())) {
+                    String file = c.replace('.', '/') + ".class";
+                    copy(workspace.getTargetRoot().resolve(file), tmp.resolve(CLASSES).resolve(file));
+                    classes.add(file);
+                }
+                manifest.put(path, new Source(hash(source), editable.contains(path), classes,
+                        identifiers(Files.readString(source))));
+            }
+            Manifest m = new Manifest(manifest);
+            objectMapper.writeValue(tmp.resolve(MANIFEST).toFile(), m);
+            try {
+                Files.move(tmp, folder.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // precompiled by another worker sharing the data directory
+            }
+            register(key);
+            evict();
+            log.info("Precompiled {} sources of assignment {}.", sources.size(), ad.getName());
+            return m;
+        } finally {
+            delete(tmp);
+        }
+    }
+
+    private Optional<Manifest> load(String key) {
+        Path manifest = storageService.getPrecompiledFolder().resolve(key).resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            try {
+                Manifest m = objectMapper.readValue(manifest.toFile(), Manifest.class);
+                register(key);
+                return Optional.of(m);
+            } catch (IOException e) {
+                log.debug("Unable to read precompiled sources {}, precompiling again.", key, e);
+                delete(manifest.getParent());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void register(String key) throws IOException {
+        long bytes = sizeOf(storageService.getPrecompiledFolder().resolve(key));
+        synchronized (entries) {
+            if (entries.putIfAbsent(key, bytes) == null) {
+                size.addAndGet(bytes);
+            }
+        }
+    }
+
+    private void evict() {
+        long max = mojServerProperties.getRuntime().getPrecompiledSourcesMaxSize().toBytes();
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            var it = entries.entrySet().iterator();
+            while (size.get() > max && it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                size.addAndGet(-e.getValue());
+                evicted.add(e.getKey());
+                it.remove();
+            }
+        }
+        for (String key : evicted) {
+            // workspaces still copying from it fall back to compiling all sources
+            manifests.remove(key);
+            delete(storageService.getPrecompiledFolder().resolve(key));
+        }
+    }
+
+    private String key(Workspace workspace, Languages.JavaVersion javaVersion, List<String> options)
+            throws IOException {
+        MessageDigest digest = sha256();
+        String root = workspace.getRoot().toAbsolutePath().toString();
+        List<String> parts = new ArrayList<>();
+        parts.add(workspace.getAssignmentDescriptor().getDirectory().toAbsolutePath().toString());
+        parts.add(javaVersion.getName() + ":" + javaVersion.getVersion());
+        parts.add(JavaVersionRegistry.fingerprint(javaVersion.getCompiler()));
+        options.forEach(o -> parts.add(o.replace(root, "<workspace>")));
+        parts.forEach(p -> digest.update((p + "\n").getBytes(StandardCharsets.UTF_8)));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static Set<String> names(String source, Source precompiled) {
+        Set<String> names = new HashSet<>();
+        String file = Path.of(source).getFileName().toString();
+        names.add(file.substring(0, file.lastIndexOf('.') < 0 ? file.length() : file.lastIndexOf('.')));
+        if (precompiled != null) {
+            for (String c : precompiled.classes()) {
+                String name = Path.of(c).getFileName().toString().replace(".class", "");
+                names.addAll(List.of(name.split("\\$")));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the names of the types declared in the source, found by text like the identifiers
+     */
+    static Set<String> declarations(String source) {
+        Set<String> declarations = new HashSet<>();
+        Matcher m = DECLARATION.matcher(source);
+        while (m.find()) {
+            declarations.add(m.group(1));
+        }
+        return declarations;
+    }
+
+    static Set<String> identifiers(String source) {
+        Set<String> identifiers = new HashSet<>();
+        Matcher m = IDENTIFIER.matcher(source);
+        while (m.find()) {
+            identifiers.add(m.group());
+        }
+        return identifiers;
+    }
+
+    private static String hash(Path file) throws IOException {
+        return HexFormat.of().formatHex(sha256().digest(Files.readAllBytes(file)));
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        // copied, not linked, so a compile writing the same class can not change the precompiled one
+        Files.createDirectories(to.getParent());
+        Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void delete(Path dir) {
+        if (dir != null) {
+            try {
+                FileSystemUtils.deleteRecursively(dir);
+            } catch (IOException e) {
+                log.debug("Unable to remove {}.", dir, e);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    record Manifest(Map<String, Source> sources) {
+    }
+
+    /**
+     * A precompiled source, the class files generated from it and the identifiers
+     * it mentions.
+     */
+    record Source(String hash, boolean editable, List<String> classes, Set<String> identifiers) {
+    }
+}
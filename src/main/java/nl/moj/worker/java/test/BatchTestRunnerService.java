@@ -0,0 +1,243 @@
+package nl.moj.worker.java.test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.Limits.TimeoutMode;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.messages.JMSTestCase;
+import nl.moj.worker.java.ClassDataSharingService;
+import nl.moj.worker.java.ClasspathService;
+import nl.moj.worker.java.test.runner.BatchTestRunner;
+import nl.moj.worker.java.test.runner.RunnerProtocol;
+import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.util.ProcessTimeoutException;
+import nl.moj.worker.util.ProcessUsageMonitor;
+import nl.moj.worker.util.ProcessWatchdog;
+import nl.moj.worker.util.ResourceUsage;
+import nl.moj.worker.workspace.Workspace;
+
+/**
+ * Runs all test cases of an attempt one after the other in a single forked JVM
+ * using the {@link BatchTestRunner}, saving a JVM start per test case. Every test
+ * case keeps its own timeout and output limits. Test cases the batch did not get
+ * to, because a test case before them timed out or the JVM died, are forked one
+ * by one by the {@link TestRunnerService}.
+ */
+@Service
+@Slf4j
+public class BatchTestRunnerService {
+
+    private final MojServerProperties mojServerProperties;
+    private final ClasspathService classpathService;
+    private final JavaVersionRegistry javaVersionRegistry;
+    private final TestRunnerService testRunnerService;
+    private final ClassDataSharingService classDataSharingService;
+    private final ProcessUsageMonitor processUsageMonitor;
+    private final ProcessWatchdog processWatchdog;
+
+    public BatchTestRunnerService(MojServerProperties mojServerProperties, ClasspathService classpathService,
+            JavaVersionRegistry javaVersionRegistry, TestRunnerService testRunnerService,
+            ClassDataSharingService classDataSharingService, ProcessUsageMonitor processUsageMonitor,
+            ProcessWatchdog processWatchdog) {
+        this.mojServerProperties = mojServerProperties;
+        this.classpathService = classpathService;
+        this.javaVersionRegistry = javaVersionRegistry;
+        this.testRunnerService = testRunnerService;
+        this.classDataSharingService = classDataSharingService;
+        this.processUsageMonitor = processUsageMonitor;
+        this.processWatchdog = processWatchdog;
+    }
+
+    /**
+     * @param finished called with the result of each test case as soon as it finished
+     */
+    public List<TestCaseOutput> test(Workspace workspace, List<JMSTestCase> tests,
+            Consumer<TestCaseOutput> finished) {
+        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
+        List<TestCaseOutput> results = new ArrayList<>();
+        if (testRunnerService.resolveSecurityPolicy(ad).toFile().exists()) {
+            try {
+                runBatch(workspace, tests, results, finished);
+            } catch (Exception e) {
+                log.warn("Batch of {} test cases stopped after {} test cases, forking the remaining ones.",
+                        tests.size(), results.size(), e);
+            }
+        }
+        for (int i = results.size(); i < tests.size(); i++) {
+            add(results, testRunnerService.test(workspace, tests.get(i)), finished);
+        }
+        return results;
+    }
+
+    private void runBatch(Workspace workspace, List<JMSTestCase> tests, List<TestCaseOutput> results,
+            Consumer<TestCaseOutput> finished) throws IOException {
+        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
+        Languages.JavaVersion javaVersion = javaVersionRegistry.getJavaVersion(ad.getJavaVersion());
+        Path policy = testRunnerService.resolveSecurityPolicy(ad);
+        Duration timeout = testRunnerService.resolveTimeout(ad);
+        // limited in CPU time the runner only enforces the wall-clock limit, the watchdog the CPU time
+        boolean cpuTime = mojServerProperties.getLimits().getTestTimeoutMode() == TimeoutMode.CPU_TIME
+                && processUsageMonitor.isSupported();
+        Duration wallClock = cpuTime ? processWatchdog.wallClockFor(timeout) : timeout;
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(javaVersion.getRuntime().toString());
+        cmd.addAll(classDataSharingService.resolveRuntimeOptions(javaVersion));
+        if (ad.getJavaVersion() > 11) {
+            cmd.add("--enable-preview");
+        }
+        if (javaVersion.getVersion() != null && javaVersion.getVersion() >= 12) {
+            // the runner installs the security manager itself
+            cmd.add("-Djava.security.manager=allow");
+        }
+        cmd.add("-Djava.security.policy=" + policy.toAbsolutePath());
+        testRunnerService.resolveSystemProperties(ad).forEach((k, v) -> cmd.add(String.format("-D%s=%s", k, v)));
+        cmd.add("-cp");
+        cmd.add(classpathService.resolveRunnerClasspath(List.of(workspace.getTargetRoot())));
+        cmd.add(BatchTestRunner.class.getName());
+        cmd.add(Long.toString(wallClock.toMillis()));
+        tests.forEach(t -> cmd.add(t.getName()));
+
+        // output not written through the protocol, like that of the JVM itself, goes to the test case running
+        Path stray = Files.createTempFile(workspace.getRoot(), "batch", ".err");
+        Process process;
+        try {
+            process = new ProcessBuilder(cmd)
+                    .directory(workspace.getRoot().toFile())
+                    .redirectError(stray.toFile())
+                    .start();
+        } catch (IOException e) {
+            Files.deleteIfExists(stray);
+            throw e;
+        }
+        log.info("Batch of {} test cases executing: {}", tests.size(), process.info().commandLine().orElse("<none>"));
+
+        // the runner enforces the wall-clock time per test case, this only guards against a hanging runner
+        ProcessWatchdog.Watch batch = processWatchdog.watch(process, wallClock.multipliedBy(tests.size() + 1L),
+                null);
+        ProcessWatchdog.Watch testCase = null;
+
+        BatchTestCase current = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+                InputStream strayIn = Files.newInputStream(stray)) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] data = in.readNBytes(in.readInt());
+                switch (type) {
+                    case RunnerProtocol.CLASS_START -> {
+                        current = new BatchTestCase(tests.get(ByteBuffer.wrap(data).getInt()), Instant.now(),
+                                ProcessUsageMonitor.read(process.pid()).orElse(null));
+                        testCase = cpuTime ? processWatchdog.watch(process, null, timeout) : null;
+                    }
+                    case RunnerProtocol.STDOUT -> current.output.write(data);
+                    case RunnerProtocol.STDERR -> current.errorOutput.write(data);
+                    case RunnerProtocol.CLASS_RESULT -> {
+                        if (testCase != null) {
+                            testCase.cancel();
+                        }
+                        ByteBuffer result = ByteBuffer.wrap(data);
+                        strayIn.transferTo(current.errorOutput);
+                        add(results, current.finish(result.get(), result.getLong(),
+                                ProcessUsageMonitor.read(process.pid()).orElse(null),
+                                new ProcessTimeoutException(TimeoutMode.WALL_CLOCK, wallClock)), finished);
+                        current = null;
+                    }
+                    default -> throw new IOException("Batch runner sent unexpected frame " + (char) type);
+                }
+            }
+            ProcessWatchdog.Watch expired = testCase != null && testCase.getExpired().isPresent() ? testCase
+                    : batch;
+            if (current != null && expired.getTimeout().isPresent()) {
+                strayIn.transferTo(current.errorOutput);
+                add(results, current.finish(RunnerProtocol.STATUS_TIMEOUT,
+                        Duration.between(current.started, Instant.now()).toMillis(), expired.getUsage(),
+                        expired.getTimeout().get()), finished);
+            }
+        } finally {
+            batch.cancel();
+            if (testCase != null) {
+                testCase.cancel();
+            }
+            destroy(process);
+            Files.deleteIfExists(stray);
+        }
+    }
+
+    private static void add(List<TestCaseOutput> results, TestCaseOutput to, Consumer<TestCaseOutput> finished) {
+        results.add(to);
+        finished.accept(to);
+    }
+
+    private void destroy(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private class BatchTestCase {
+
+        private final JMSTestCase test;
+        private final Instant started;
+        private final ResourceUsage usage;
+        private final LengthLimitedOutputCatcher output = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getTestOutputLimits());
+        private final LengthLimitedOutputCatcher errorOutput = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getTestOutputLimits());
+
+        BatchTestCase(JMSTestCase test, Instant started, ResourceUsage usage) {
+            this.test = test;
+            this.started = started;
+            this.usage = usage;
+            log.info("Test case {} {} starting.", test.getTestCase(), test.getName());
+        }
+
+        /**
+         * @param ended the usage of the runner JVM at the end of the test case, the
+         *        peak memory reported is that of the runner JVM up to this test case
+         * @param timeout the limit the test case exceeded when timed out
+         */
+        TestCaseOutput finish(int status, long millis, ResourceUsage ended, ProcessTimeoutException timeout)
+                throws IOException {
+            output.close();
+            errorOutput.close();
+            TestCaseOutput.TestCaseOutputBuilder to = TestCaseOutput.builder()
+                    .testCase(test.getTestCase())
+                    .dateTimeStart(started)
+                    .dateTimeEnd(started.plusMillis(millis))
+                    .success(status == RunnerProtocol.STATUS_SUCCESS)
+                    .usage(ended == null || usage == null ? null : ended.since(usage));
+            if (status == RunnerProtocol.STATUS_TIMEOUT) {
+                log.info("Test case {} {} timed out after {}.", test.getTestCase(), test.getName(),
+                        timeout.getMessage());
+                output.getBuffer().append('\n').append(testRunnerService.timeoutMessage(timeout.getLimit()));
+                to.timedOut(true).reason("Testing timed out after " + timeout.getMessage() + ".");
+            }
+            log.info("Test case {} {} finished in {} ms.", test.getTestCase(), test.getName(), millis);
+            return to.output(testRunnerService.cleanupOutput(output.getBuffer()))
+                    .errorOutput(testRunnerService.cleanupOutput(errorOutput.getBuffer()))
+                    .build();
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.util.UUID;
 
 import lombok.Builder;
 import lombok.Data;
+import nl.moj.worker.util.ResourceUsage;
 
 @Data
 @Builder(toBuilder = true)
@@ -37,7 +38,11 @@ public class TestCaseOutput {
     @Builder.Default
     private boolean aborted = false;
     private String reason;
+    @Builder.Default
+    private boolean cached = false;
 
     private Instant dateTimeStart;
     private Instant dateTimeEnd;
+
+    private ResourceUsage usage;
 }
@@ -0,0 +1,202 @@
+package nl.moj.worker.java.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.messages.JMSTestCase;
+import nl.moj.worker.workspace.Workspace;
+
+/**
+ * In memory cache of test results, keyed by a hash of everything that goes into
+ * running a test: the JDK, every source and resource file in the workspace, the
+ * test class, the security policy and the system properties, including the
+ * content of assignment files they point to. Teams often test and submit the
+ * same code, and every team starts with the same sources.
+ * <p>
+ * Only used for assignments that enable it, tests depending on time or
+ * randomness should not be cached. Timed out and aborted results are never
+ * cached. The cache is bounded by size, the least recently used results are
+ * evicted first.
+ */
+@Component
+@Slf4j
+public class TestResultCache {
+
+    // rough per entry overhead of the key, the map entry and the output object
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final MojServerProperties mojServerProperties;
+    private final JavaVersionRegistry javaVersionRegistry;
+    private final TestRunnerService testRunnerService;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final AtomicLong size = new AtomicLong();
+    // access ordered, eldest entry is the least recently used
+    private final LinkedHashMap<String, TestCaseOutput> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public TestResultCache(MojServerProperties mojServerProperties, JavaVersionRegistry javaVersionRegistry,
+            TestRunnerService testRunnerService, MeterRegistry meterRegistry) {
+        this.mojServerProperties = mojServerProperties;
+        this.javaVersionRegistry = javaVersionRegistry;
+        this.testRunnerService = testRunnerService;
+        this.hits = meterRegistry.counter("moj.test.cache", "result", "hit");
+        this.misses = meterRegistry.counter("moj.test.cache", "result", "miss");
+        meterRegistry.gauge("moj.test.cache.size", size);
+    }
+
+    public boolean isEnabled(AssignmentDescriptor ad) {
+        return mojServerProperties.getRuntime().getTestResultCache().isEnabled() && ad.isCacheTestResults();
+    }
+
+    /**
+     * Computes the cache keys of running the tests against the sources in the workspace.
+     *
+     * @return the keys in the order of the tests
+     */
+    public List<String> keys(Workspace workspace, List<JMSTestCase> tests) throws IOException {
+        AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
+        Languages.JavaVersion javaVersion = javaVersionRegistry.getJavaVersion(ad.getJavaVersion());
+        MessageDigest digest = sha256();
+        update(digest, javaVersion.getName() + ":" + javaVersion.getVersion());
+        update(digest, JavaVersionRegistry.fingerprint(javaVersion.getRuntime()));
+
+        Path policy = testRunnerService.resolveSecurityPolicy(ad);
+        update(digest, Files.exists(policy) ? Files.readAllBytes(policy) : new byte[0]);
+        Path assignment = ad.getDirectory().toAbsolutePath();
+        for (var property : new TreeMap<>(testRunnerService.resolveSystemProperties(ad)).entrySet()) {
+            update(digest, property.getKey() + "=" + property.getValue());
+            // files of the assignment a property points to, their path does not change when they do
+            if (property.getValue().startsWith(assignment.toString())) {
+                Path file = Paths.get(property.getValue());
+                if (Files.isRegularFile(file)) {
+                    update(digest, Files.readAllBytes(file));
+                }
+            }
+        }
+
+        update(digest, workspace.getSourcesRoot(), workspace.getSources());
+        // resources of the assignment, its tests and the team, compiled classes follow from the sources
+        update(digest, workspace.getTargetRoot(),
+                Files.walk(workspace.getTargetRoot()).filter(f -> !f.toString().endsWith(".class")));
+
+        List<String> keys = new ArrayList<>();
+        for (JMSTestCase test : tests) {
+            MessageDigest d = clone(digest);
+            update(d, test.getName());
+            keys.add(HexFormat.of().formatHex(d.digest()));
+        }
+        return keys;
+    }
+
+    /**
+     * @return the cached result for the test case, flagged as cached and timed as the
+     *         lookup, empty on a cache miss
+     */
+    public Optional<TestCaseOutput> get(String key, JMSTestCase test) {
+        Instant started = Instant.now();
+        TestCaseOutput cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        log.info("Test case {} {} result reused.", test.getTestCase(), test.getName());
+        return Optional.of(cached.toBuilder()
+                .testCase(test.getTestCase())
+                .cached(true)
+                .usage(null)
+                .dateTimeStart(started)
+                .dateTimeEnd(Instant.now())
+                .build());
+    }
+
+    public void put(String key, TestCaseOutput to) {
+        if (to.isTimedOut() || to.isAborted() || to.getDateTimeStart() == null || to.getDateTimeEnd() == null) {
+            return;
+        }
+        long bytes = sizeOf(to);
+        long max = mojServerProperties.getRuntime().getTestResultCache().getMaxSize().toBytes();
+        synchronized (entries) {
+            TestCaseOutput previous = entries.put(key, to);
+            if (previous != null) {
+                size.addAndGet(-sizeOf(previous));
+            }
+            size.addAndGet(bytes);
+            var it = entries.entrySet().iterator();
+            while (size.get() > max && it.hasNext()) {
+                size.addAndGet(-sizeOf(it.next().getValue()));
+                it.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(TestCaseOutput to) {
+        return ENTRY_OVERHEAD + 2L * (length(to.getOutput()) + length(to.getErrorOutput()) + length(to.getReason()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static MessageDigest clone(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, Path root, Stream<Path> files) throws IOException {
+        try (files) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                update(digest, root.relativize(file).toString());
+                update(digest, Files.readAllBytes(file));
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void update(MessageDigest digest, byte[] value) {
+        // length prefix so concatenated values can not collide
+        digest.update(HexFormat.of().toHexDigits(value.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update(value);
+    }
+}
@@ -1,12 +1,16 @@
 package nl.moj.worker.java.test;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,11 +22,21 @@ import org.zeroturnaround.exec.listener.ProcessListener;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.Limits;
+import nl.moj.common.config.properties.Limits.TimeoutMode;
 import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
 import nl.moj.common.messages.JMSTestCase;
 import nl.moj.common.storage.StorageService;
+import nl.moj.worker.java.ClassDataSharingService;
 import nl.moj.worker.java.ClasspathService;
+import nl.moj.worker.java.test.pool.RunnerJvmPool;
+import nl.moj.worker.java.test.runner.RunRequest;
 import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.util.ProcessTimeoutException;
+import nl.moj.worker.util.ProcessUsageMonitor;
+import nl.moj.worker.util.ProcessWatchdog;
 import nl.moj.worker.workspace.Workspace;
 
 @Service
@@ -39,6 +53,11 @@ public class TestRunnerService {
 
     private final MojServerProperties mojServerProperties;
     private final ClasspathService classpathService;
+    private final JavaVersionRegistry javaVersionRegistry;
+    private final RunnerJvmPool runnerJvmPool;
+    private final ClassDataSharingService classDataSharingService;
+    private final ProcessUsageMonitor processUsageMonitor;
+    private final ProcessWatchdog processWatchdog;
 
     private final StorageService storageService;
 
@@ -54,8 +73,7 @@ public class TestRunnerService {
             AssignmentDescriptor ad = workspace.getAssignmentDescriptor();
             Path policy = resolveSecurityPolicy(ad);
 
-            Duration timeout = ad.getTestTimeout() != null ? ad.getTestTimeout()
-                    : mojServerProperties.getLimits().getTestTimeout();
+            Duration timeout = resolveTimeout(ad);
 
             if (!policy.toFile().exists()) {
                 log.info("Test case {} {} missing security policy, aborting.", test.getTestCase(), test.getName());
@@ -71,49 +89,40 @@ public class TestRunnerService {
                             mojServerProperties.getLimits().getTestOutputLimits())) {
 
                 try {
-                    List<String> cmd = new ArrayList<>();
-                    cmd.add(
-                            mojServerProperties.getLanguages()
-                                    .getJavaVersion(ad.getJavaVersion())
-                                    .getRuntime()
-                                    .toString());
-                    if (ad.getJavaVersion() > 11) {
-                        cmd.add("--enable-preview");
+                    Languages.JavaVersion javaVersion = javaVersionRegistry.getJavaVersion(ad.getJavaVersion());
+                    boolean preview = ad.getJavaVersion() > 11;
+                    Map<String, String> systemProperties = resolveSystemProperties(ad);
+
+                    boolean success;
+                    if (runnerJvmPool.isEnabled()) {
+                        try {
+                            success = runnerJvmPool.run(
+                                    new RunnerJvmPool.Key(javaVersion, policy, preview),
+                                    new RunRequest(workspace.getTargetRoot().toAbsolutePath().toString(),
+                                            test.getName(), systemProperties),
+                                    timeout, jUnitOutput, jUnitError, to::setUsage);
+                        } catch (IOException e) {
+                            log.warn("Test case {} {} could not use a pooled runner, forking instead.",
+                                    test.getTestCase(), test.getName(), e);
+                            success = fork(workspace, test, javaVersion, preview, policy, systemProperties, timeout,
+                                    jUnitOutput, jUnitError, to);
+                        }
+                    } else {
+                        success = fork(workspace, test, javaVersion, preview, policy, systemProperties, timeout,
+                                jUnitOutput, jUnitError, to);
                     }
-                    cmd.add("-cp");
-                    cmd.add(classpathService.resolveClasspath(List.of(workspace.getTargetRoot())));
-                    cmd.add("-Djava.security.manager");
-                    cmd.add("-Djava.security.policy=" + policy.toAbsolutePath());
-                    cmd.addAll(resolveSystemProperties(ad));
-                    cmd.add("org.junit.runner.JUnitCore");
-
-                    // this expects a class name
-                    cmd.add(test.getName());
-
-                    final ProcessResult pr = new ProcessExecutor()
-                            .command(cmd)
-                            .directory(workspace.getRoot().toFile())
-                            .timeout(timeout.toSeconds(), TimeUnit.SECONDS)
-                            .redirectOutput(jUnitOutput)
-                            .redirectError(jUnitError)
-                            .addListener(new ProcessListener() {
-                                @Override
-                                public void afterStart(Process process, ProcessExecutor executor) {
-                                    log.info("Test case {} {} executing: {}", test.getTestCase(), test.getName(), process.info()
-                                            .commandLine()
-                                            .orElse("<none>"));
-                                }
-                            }).execute();
-                    to.setSuccess(pr.getExitValue() == 0);
+                    to.setSuccess(success);
                     to.setDateTimeEnd(Instant.now());
 
                 } catch (TimeoutException e) {
-                    log.info("Test case {} {} timed out.", test.getTestCase(), test.getName());
+                    ProcessTimeoutException expired = e instanceof ProcessTimeoutException pte ? pte
+                            : new ProcessTimeoutException(TimeoutMode.WALL_CLOCK, timeout);
+                    log.info("Test case {} {} timed out after {}.", test.getTestCase(), test.getName(),
+                            expired.getMessage());
                     to.setTimedOut(true);
                     to.setDateTimeEnd(Instant.now());
-                    to.setReason("Compiling timed out.");
-                    jUnitOutput.getBuffer().append('\n')
-                            .append(mojServerProperties.getLimits().getTestOutputLimits().getTimeoutMessage());
+                    to.setReason("Testing timed out after " + expired.getMessage() + ".");
+                    jUnitOutput.getBuffer().append('\n').append(timeoutMessage(expired.getLimit()));
                 } catch (SecurityException se) {
                     log.info("Test case {} {} aborted.", test.getTestCase(), test.getName(), se);
                     to.setAborted(true);
@@ -136,25 +145,104 @@ public class TestRunnerService {
                     .dateTimeEnd(Instant.now())
                     .aborted(true)
                     .reason(e.getMessage())
+                    .usage(to.getUsage())
                     .build();
         }
     }
 
-    private List<String> resolveSystemProperties(AssignmentDescriptor ad) {
-        List<String> systemProperties = new ArrayList<>();
+    private boolean fork(Workspace workspace, JMSTestCase test, Languages.JavaVersion javaVersion, boolean preview,
+            Path policy, Map<String, String> systemProperties, Duration timeout, LengthLimitedOutputCatcher jUnitOutput,
+            LengthLimitedOutputCatcher jUnitError, TestCaseOutput to) throws Exception {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(javaVersion.getRuntime().toString());
+        cmd.addAll(classDataSharingService.resolveRuntimeOptions(javaVersion));
+        if (preview) {
+            cmd.add("--enable-preview");
+        }
+        cmd.add("-cp");
+        cmd.add(classpathService.resolveRunnerClasspath(List.of(workspace.getTargetRoot())));
+        cmd.add("-Djava.security.manager");
+        cmd.add("-Djava.security.policy=" + policy.toAbsolutePath());
+        systemProperties.forEach((k, v) -> cmd.add(String.format("-D%s=%s", k, v)));
+        cmd.add("org.junit.runner.JUnitCore");
+
+        // this expects a class name
+        cmd.add(test.getName());
+
+        AtomicReference<ProcessWatchdog.Watch> watch = new AtomicReference<>();
+        final ProcessResult pr = new ProcessExecutor()
+                .command(cmd)
+                .directory(workspace.getRoot().toFile())
+                .redirectOutput(jUnitOutput)
+                .redirectError(jUnitError)
+                .addListener(new ProcessListener() {
+                    private ProcessUsageMonitor.Tracker usage;
+
+                    @Override
+                    public void afterStart(Process process, ProcessExecutor executor) {
+                        usage = processUsageMonitor.track(process.pid());
+                        watch.set(processWatchdog.watchTest(process, timeout));
+                        log.info("Test case {} {} executing: {}", test.getTestCase(), test.getName(), process.info()
+                                .commandLine()
+                                .orElse("<none>"));
+                    }
+
+                    @Override
+                    public void afterStop(Process process) {
+                        if (watch.get() != null) {
+                            watch.get().cancel();
+                        }
+                        if (usage != null) {
+                            to.setUsage(usage.stop());
+                        }
+                    }
+                }).execute();
+        Optional<ProcessTimeoutException> timedOut = watch.get() == null ? Optional.empty()
+                : watch.get().getTimeout();
+        if (timedOut.isPresent()) {
+            throw timedOut.get();
+        }
+        return pr.getExitValue() == 0;
+    }
+
+    /**
+     * Starts the pooled runner JVMs the tests of the assignment will use.
+     */
+    public void prewarm(AssignmentDescriptor ad) {
+        Path policy = resolveSecurityPolicy(ad);
+        if (runnerJvmPool.isEnabled() && policy.toFile().exists()) {
+            runnerJvmPool.prewarm(new RunnerJvmPool.Key(javaVersionRegistry.getJavaVersion(ad.getJavaVersion()), policy,
+                    ad.getJavaVersion() > 11));
+        }
+    }
+
+    Duration resolveTimeout(AssignmentDescriptor ad) {
+        return ad.getTestTimeout() != null ? ad.getTestTimeout() : mojServerProperties.getLimits().getTestTimeout();
+    }
+
+    /**
+     * @return the message appended to the output of a test that exceeded the limit
+     */
+    String timeoutMessage(TimeoutMode limit) {
+        Limits.OutputLimits limits = mojServerProperties.getLimits().getTestOutputLimits();
+        return limit == TimeoutMode.CPU_TIME ? limits.getCpuTimeoutMessage() : limits.getTimeoutMessage();
+    }
+
+    Map<String, String> resolveSystemProperties(AssignmentDescriptor ad) {
+        Map<String, String> systemProperties = new LinkedHashMap<>();
         if (ad.getSystemProperties() != null) {
             ad.getSystemProperties().forEach((k, v) -> {
                 String rv = v;
                 if (rv.contains("${base}/")) {
                     rv = ad.getDirectory().resolve(v.replace("${base}/", "")).toAbsolutePath().toString();
                 }
-                systemProperties.add(String.format("-D%s=%s", k, rv));
+                systemProperties.put(k, rv);
             });
         }
         return systemProperties;
     }
 
-    private Path resolveSecurityPolicy(AssignmentDescriptor ad) {
+    Path resolveSecurityPolicy(AssignmentDescriptor ad) {
         Path policy = ad.getAssignmentFiles().getSecurityPolicy();
 
         if (policy != null) {
@@ -166,7 +254,7 @@ public class TestRunnerService {
         return policy;
     }
 
-    private String cleanupOutput(StringBuilder result) {
+    String cleanupOutput(StringBuilder result) {
         Matcher matcher = JUNIT_PREFIX_P.matcher(result);
         result = new StringBuilder();
         while (matcher.find()) {
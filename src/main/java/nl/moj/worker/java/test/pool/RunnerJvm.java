@@ -0,0 +1,165 @@
+package nl.moj.worker.java.test.pool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.worker.java.test.runner.RunRequest;
+import nl.moj.worker.java.test.runner.RunnerProtocol;
+import nl.moj.worker.util.ProcessTimeoutException;
+import nl.moj.worker.util.ProcessUsageMonitor;
+import nl.moj.worker.util.ProcessWatchdog;
+import nl.moj.worker.util.ResourceUsage;
+
+/**
+ * A started runner JVM and the worker side of the {@link RunnerProtocol}.
+ * Not thread safe, a runner JVM is used by one test at a time.
+ */
+@Slf4j
+public class RunnerJvm {
+
+    @Getter
+    private final RunnerJvmPool.Key key;
+    private final Process process;
+    private final DataOutputStream requests;
+    private final DataInputStream responses;
+    private final ScheduledExecutorService watchdog;
+    private final ProcessWatchdog processWatchdog;
+
+    @Getter
+    private int runs = 0;
+    @Getter
+    private boolean healthy = true;
+
+    RunnerJvm(RunnerJvmPool.Key key, List<String> cmd, ScheduledExecutorService watchdog,
+            ProcessWatchdog processWatchdog) throws IOException {
+        this.key = key;
+        this.watchdog = watchdog;
+        this.processWatchdog = processWatchdog;
+        this.process = new ProcessBuilder(cmd).start();
+        this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        drainStderr();
+    }
+
+    /**
+     * Waits until the runner JVM reports it is warmed up and ready to run tests.
+     */
+    void awaitReady(Duration timeout) throws IOException, TimeoutException {
+        AtomicBoolean expired = new AtomicBoolean(false);
+        ScheduledFuture<?> kill = watchdog.schedule(() -> {
+            expired.set(true);
+            destroy();
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            byte type = responses.readByte();
+            int len = responses.readInt();
+            responses.skipNBytes(len);
+            if (type != RunnerProtocol.READY) {
+                throw new IOException("Runner JVM " + process.pid() + " sent unexpected frame " + (char) type);
+            }
+        } catch (IOException e) {
+            healthy = false;
+            if (expired.get()) {
+                throw new TimeoutException("Runner JVM did not start within " + timeout);
+            }
+            throw e;
+        } finally {
+            kill.cancel(false);
+        }
+    }
+
+    /**
+     * Runs a test class, copying the test output to the given streams as it is
+     * produced.
+     *
+     * @param usage receives the CPU time used by the run and the peak memory of the
+     *        runner JVM so far, may be null
+     * @return true if all tests succeeded
+     * @throws TimeoutException if the run exceeded the wall-clock or CPU time limit of
+     *         the timeout, the runner JVM is destroyed in that case.
+     */
+    public boolean run(RunRequest request, Duration timeout, OutputStream out, OutputStream err,
+            Consumer<ResourceUsage> usage) throws IOException, TimeoutException {
+        runs++;
+        ResourceUsage before = ProcessUsageMonitor.read(process.pid()).orElse(null);
+        ProcessWatchdog.Watch watch = processWatchdog.watchTest(process, timeout);
+        try {
+            RunnerProtocol.writeRequest(requests, request);
+            while (true) {
+                byte type = responses.readByte();
+                byte[] data = responses.readNBytes(responses.readInt());
+                switch (type) {
+                    case RunnerProtocol.STDOUT -> out.write(data);
+                    case RunnerProtocol.STDERR -> err.write(data);
+                    case RunnerProtocol.DONE -> {
+                        if (data[1] != 0) {
+                            log.debug("Runner JVM {} requested to be recycled.", process.pid());
+                            healthy = false;
+                        }
+                        return data[0] == 0;
+                    }
+                    default -> throw new IOException(
+                            "Runner JVM " + process.pid() + " sent unexpected frame " + (char) type);
+                }
+            }
+        } catch (IOException e) {
+            healthy = false;
+            destroy();
+            Optional<ProcessTimeoutException> timedOut = watch.getTimeout();
+            if (timedOut.isPresent()) {
+                throw timedOut.get();
+            }
+            throw e;
+        } finally {
+            watch.cancel();
+            if (usage != null && before != null) {
+                Optional.ofNullable(watch.getUsage()).or(() -> ProcessUsageMonitor.read(process.pid()))
+                        .ifPresent(after -> usage.accept(after.since(before)));
+            }
+        }
+    }
+
+    public boolean isAlive() {
+        return healthy && process.isAlive();
+    }
+
+    public void destroy() {
+        healthy = false;
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private void drainStderr() {
+        Thread t = new Thread(() -> {
+            try (BufferedReader r = new BufferedReader(
+                    new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    log.debug("runner-{}: {}", process.pid(), line);
+                }
+            } catch (IOException e) {
+                // process is gone
+            }
+        }, "runner-" + process.pid() + "-stderr");
+        t.setDaemon(true);
+        t.start();
+    }
+}
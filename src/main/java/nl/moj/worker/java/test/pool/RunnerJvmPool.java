@@ -0,0 +1,188 @@
+package nl.moj.worker.java.test.pool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Service;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.TestRunnerPool;
+import nl.moj.server.util.NamedThreadFactory;
+import nl.moj.worker.java.ClassDataSharingService;
+import nl.moj.worker.java.ClasspathService;
+import nl.moj.worker.java.test.runner.PooledTestRunner;
+import nl.moj.worker.java.test.runner.RunRequest;
+import nl.moj.worker.util.ProcessWatchdog;
+import nl.moj.worker.util.ResourceUsage;
+
+/**
+ * Keeps pre-started, warmed up runner JVMs per java runtime and security policy
+ * so running a test does not have to pay for starting a JVM. Runner JVMs are
+ * replaced after a configured number of runs, after a timeout and whenever the
+ * runner itself asks to be recycled, for example after a security violation.
+ */
+@Service
+@Slf4j
+public class RunnerJvmPool {
+
+    private final MojServerProperties mojServerProperties;
+    private final ClasspathService classpathService;
+    private final ClassDataSharingService classDataSharingService;
+    private final ProcessWatchdog processWatchdog;
+
+    private final Map<Key, BlockingDeque<RunnerJvm>> idle = new ConcurrentHashMap<>();
+    private final Map<Key, AtomicInteger> starting = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog;
+    private final ExecutorService starter;
+
+    public RunnerJvmPool(MojServerProperties mojServerProperties, ClasspathService classpathService,
+            ClassDataSharingService classDataSharingService, ProcessWatchdog processWatchdog) {
+        this.mojServerProperties = mojServerProperties;
+        this.classpathService = classpathService;
+        this.classDataSharingService = classDataSharingService;
+        this.processWatchdog = processWatchdog;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("runner-watchdog"));
+        this.starter = Executors.newCachedThreadPool(new NamedThreadFactory("runner-starter"));
+    }
+
+    public boolean isEnabled() {
+        return config().isEnabled();
+    }
+
+    /**
+     * Runs a test class in a pooled runner JVM.
+     *
+     * @param usage receives the resources used by the run, may be null
+     * @return true if all tests succeeded
+     * @throws TimeoutException if the test did not finish in time
+     * @throws IOException if no runner JVM could be started or it failed unexpectedly
+     */
+    public boolean run(Key key, RunRequest request, Duration timeout, OutputStream out, OutputStream err,
+            Consumer<ResourceUsage> usage) throws IOException, TimeoutException {
+        RunnerJvm jvm = acquire(key);
+        try {
+            return jvm.run(request, timeout, out, err, usage);
+        } finally {
+            release(jvm);
+        }
+    }
+
+    /**
+     * Makes sure the configured number of runner JVMs is being started for the given key.
+     */
+    public void prewarm(Key key) {
+        replenish(key);
+    }
+
+    private RunnerJvm acquire(Key key) throws IOException {
+        BlockingDeque<RunnerJvm> queue = idle(key);
+        RunnerJvm jvm = queue.pollFirst();
+        while (jvm != null && !jvm.isAlive()) {
+            jvm.destroy();
+            jvm = queue.pollFirst();
+        }
+        replenish(key);
+        if (jvm == null) {
+            log.debug("No warm runner JVM available for {}, starting one.", key);
+            jvm = start(key);
+        }
+        return jvm;
+    }
+
+    private void release(RunnerJvm jvm) {
+        BlockingDeque<RunnerJvm> queue = idle(jvm.getKey());
+        if (jvm.isAlive() && jvm.getRuns() < config().getMaxRuns() && queue.size() < config().getSize()) {
+            queue.offerFirst(jvm);
+        } else {
+            jvm.destroy();
+            replenish(jvm.getKey());
+        }
+    }
+
+    private void replenish(Key key) {
+        BlockingDeque<RunnerJvm> queue = idle(key);
+        AtomicInteger pending = starting.computeIfAbsent(key, k -> new AtomicInteger());
+        synchronized (queue) {
+            int missing = config().getSize() - queue.size() - pending.get();
+            for (int i = 0; i < missing; i++) {
+                pending.incrementAndGet();
+                starter.execute(() -> {
+                    try {
+                        queue.offerLast(start(key));
+                    } catch (Exception e) {
+                        log.warn("Unable to start runner JVM for {}.", key, e);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    private RunnerJvm start(Key key) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(key.javaVersion().getRuntime().toString());
+        cmd.addAll(classDataSharingService.resolveRuntimeOptions(key.javaVersion()));
+        if (key.preview()) {
+            cmd.add("--enable-preview");
+        }
+        if (key.javaVersion().getVersion() != null && key.javaVersion().getVersion() >= 12) {
+            // the runner installs the security manager itself once warmed up
+            cmd.add("-Djava.security.manager=allow");
+        }
+        cmd.add("-Djava.security.policy=" + key.policy().toAbsolutePath());
+        cmd.add("-cp");
+        cmd.add(classpathService.resolveRunnerClasspath());
+        cmd.add(PooledTestRunner.class.getName());
+
+        RunnerJvm jvm = new RunnerJvm(key, cmd, watchdog, processWatchdog);
+        try {
+            jvm.awaitReady(config().getStartupTimeout());
+        } catch (TimeoutException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        log.debug("Started runner JVM for {}.", key);
+        return jvm;
+    }
+
+    private BlockingDeque<RunnerJvm> idle(Key key) {
+        return idle.computeIfAbsent(key, k -> new LinkedBlockingDeque<>());
+    }
+
+    private TestRunnerPool config() {
+        return mojServerProperties.getRuntime().getTestRunnerPool();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        starter.shutdownNow();
+        idle.values().forEach(q -> q.forEach(RunnerJvm::destroy));
+        idle.clear();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Runner JVMs can only be shared between tests using the same java version, preview
+     * setting and security policy.
+     */
+    public record Key(Languages.JavaVersion javaVersion, Path policy, boolean preview) {
+    }
+}
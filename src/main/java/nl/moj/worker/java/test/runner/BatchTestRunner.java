@@ -0,0 +1,87 @@
+package nl.moj.worker.java.test.runner;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.internal.TextListener;
+import org.junit.runner.JUnitCore;
+
+import junit.runner.Version;
+
+/**
+ * Entry point of a batch runner JVM. Runs the test classes given on the command
+ * line one after the other, exactly like {@code org.junit.runner.JUnitCore <class>}
+ * would in a forked JVM per class, and writes the output and outcome of every
+ * class using the {@link RunnerProtocol}.
+ * <p>
+ * Usage: {@code BatchTestRunner <timeout millis per class> <class>...}. A class not
+ * finishing within the timeout is reported as timed out and ends the batch, as its
+ * threads cannot be stopped safely the remaining classes are not run.
+ * <p>
+ * This class is loaded in the runner JVM and must only depend on the JDK and JUnit.
+ */
+public class BatchTestRunner {
+
+    public static void main(String[] args) throws Exception {
+        long timeout = Long.parseLong(args[0]);
+        DataOutputStream protocol = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        PrintStream stray = System.err;
+
+        // keep the protocol stream away from code under test
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+        System.setOut(stray);
+
+        RunnerPolicy.install(BatchTestRunner.class);
+
+        for (int i = 1; i < args.length; i++) {
+            RunnerProtocol.writeClassStart(protocol, i - 1);
+            if (!run(protocol, args[i], timeout, stray)) {
+                break;
+            }
+        }
+        protocol.flush();
+
+        // threads left behind by the tests must not keep this JVM alive
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static boolean run(DataOutputStream protocol, String testClass, long timeout, PrintStream stray)
+            throws InterruptedException {
+        PrintStream out = new PrintStream(new FrameOutputStream(protocol, RunnerProtocol.STDOUT), true,
+                StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new FrameOutputStream(protocol, RunnerProtocol.STDERR), true,
+                StandardCharsets.UTF_8);
+        ClassResultListener listener = new ClassResultListener(protocol);
+
+        System.setOut(out);
+        System.setErr(err);
+        Thread runner = new Thread(() -> {
+            out.println("JUnit version " + Version.id());
+            JUnitCore core = new JUnitCore();
+            core.addListener(new TextListener(out));
+            core.addListener(listener);
+            core.run(PooledTestRunner.createRequest(BatchTestRunner.class.getClassLoader(), testClass));
+        }, "test-" + testClass);
+        runner.setDaemon(true);
+        runner.start();
+        runner.join(timeout);
+
+        out.flush();
+        err.flush();
+        System.setOut(stray);
+        System.setErr(stray);
+
+        if (runner.isAlive() && listener.report(RunnerProtocol.STATUS_TIMEOUT)) {
+            return false;
+        }
+        // JUnit itself failed before finishing the run
+        listener.report(RunnerProtocol.STATUS_FAILURE);
+        return true;
+    }
+}
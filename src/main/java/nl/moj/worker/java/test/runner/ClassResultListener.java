@@ -0,0 +1,49 @@
+package nl.moj.worker.java.test.runner;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Reports the outcome of a single test class and the time it took as a
+ * {@link RunnerProtocol#CLASS_RESULT} frame. A class is reported exactly once,
+ * either by JUnit finishing the run or by the watchdog giving up on it.
+ * <p>
+ * This class is loaded in the runner JVM and must only depend on the JDK and JUnit.
+ */
+public class ClassResultListener extends RunListener {
+
+    private final DataOutputStream protocol;
+    private final long started = System.nanoTime();
+    private boolean reported = false;
+
+    public ClassResultListener(DataOutputStream protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public void testRunFinished(Result result) {
+        report(result.wasSuccessful() ? RunnerProtocol.STATUS_SUCCESS : RunnerProtocol.STATUS_FAILURE);
+    }
+
+    /**
+     * @return true if the status was reported, false if the class was reported already
+     */
+    public synchronized boolean report(int status) {
+        if (reported) {
+            return false;
+        }
+        try {
+            RunnerProtocol.writeClassResult(protocol, status,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        reported = true;
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package nl.moj.worker.java.test.runner;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Forwards everything written to it as frames of a single type, so the output
+ * of tests can never be mistaken for protocol data.
+ */
+public class FrameOutputStream extends OutputStream {
+
+    private final DataOutputStream protocol;
+    private final byte type;
+
+    public FrameOutputStream(DataOutputStream protocol, byte type) {
+        this.protocol = protocol;
+        this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            RunnerProtocol.writeFrame(protocol, type, b, off, len);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package nl.moj.worker.java.test.runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.internal.TextListener;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runners.model.InitializationError;
+
+import junit.runner.Version;
+
+/**
+ * Entry point of a pooled runner JVM. Reads {@link RunRequest}s from stdin and
+ * runs each requested test class with JUnit in a fresh class loader, exactly
+ * like {@code org.junit.runner.JUnitCore <class>} would in a forked JVM, and
+ * writes the output and outcome back using the {@link RunnerProtocol}.
+ * <p>
+ * This class is loaded in the runner JVM and must only depend on the JDK and JUnit.
+ */
+public class PooledTestRunner {
+
+    private final DataInputStream in;
+    private final DataOutputStream protocol;
+    private final PrintStream stray;
+
+    PooledTestRunner(DataInputStream in, DataOutputStream protocol, PrintStream stray) {
+        this.in = in;
+        this.protocol = protocol;
+        this.stray = stray;
+    }
+
+    public static void main(String[] args) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream protocol = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        PrintStream stray = System.err;
+
+        // keep the protocol streams away from code under test
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+        System.setOut(stray);
+
+        warmup();
+
+        RunnerPolicy.install(PooledTestRunner.class);
+
+        new PooledTestRunner(in, protocol, stray).serve();
+    }
+
+    private static void warmup() {
+        JUnitCore core = new JUnitCore();
+        core.addListener(new TextListener(new PrintStream(OutputStream.nullOutputStream())));
+        core.run(Request.aClass(Warmup.class));
+    }
+
+    void serve() throws Exception {
+        RunnerProtocol.writeReady(protocol);
+        while (true) {
+            RunRequest request;
+            try {
+                request = RunnerProtocol.readRequest(in);
+            } catch (EOFException e) {
+                // worker closed our stdin, we are done.
+                return;
+            }
+            Outcome outcome = run(request);
+            RunnerProtocol.writeDone(protocol, outcome.success() ? 0 : 1, outcome.recycle());
+        }
+    }
+
+    private Outcome run(RunRequest request) throws Exception {
+        Properties properties = (Properties) System.getProperties().clone();
+        Set<Thread> threads = Set.copyOf(Thread.getAllStackTraces().keySet());
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+
+        PrintStream out = new PrintStream(new FrameOutputStream(protocol, RunnerProtocol.STDOUT), true,
+                StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new FrameOutputStream(protocol, RunnerProtocol.STDERR), true,
+                StandardCharsets.UTF_8);
+
+        boolean success;
+        boolean recycle;
+        System.setOut(out);
+        System.setErr(err);
+        try (URLClassLoader loader = new URLClassLoader(
+                new URL[] { Paths.get(request.target()).toUri().toURL() }, PooledTestRunner.class.getClassLoader())) {
+            request.systemProperties().forEach(System::setProperty);
+            Thread.currentThread().setContextClassLoader(loader);
+
+            out.println("JUnit version " + Version.id());
+            JUnitCore core = new JUnitCore();
+            core.addListener(new TextListener(out));
+            Result result = core.run(createRequest(loader, request.testClass()));
+            success = result.wasSuccessful();
+            recycle = hasSecurityViolation(result.getFailures());
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(stray);
+            System.setErr(stray);
+            Thread.currentThread().setContextClassLoader(context);
+            System.setProperties(properties);
+        }
+
+        // threads left behind by the tests may interfere with the next run
+        recycle |= Thread.getAllStackTraces().keySet().stream().anyMatch(t -> !threads.contains(t) && t.isAlive());
+        return new Outcome(success, recycle);
+    }
+
+    static Request createRequest(ClassLoader loader, String testClass) {
+        try {
+            return Request.aClass(Class.forName(testClass, false, loader));
+        } catch (ClassNotFoundException e) {
+            return Request.errorReport(PooledTestRunner.class, new InitializationError(
+                    List.of(new IllegalArgumentException("Could not find class [" + testClass + "]", e))));
+        }
+    }
+
+    private boolean hasSecurityViolation(List<Failure> failures) {
+        for (Failure f : failures) {
+            Throwable t = f.getException();
+            while (t != null) {
+                if (t instanceof SecurityException) {
+                    return true;
+                }
+                t = t.getCause();
+            }
+        }
+        return false;
+    }
+
+    private record Outcome(boolean success, boolean recycle) {
+    }
+}
@@ -0,0 +1,13 @@
+package nl.moj.worker.java.test.runner;
+
+import java.util.Map;
+
+/**
+ * Request to run a single test class in a runner JVM.
+ *
+ * @param target the directory holding the compiled classes of the attempt
+ * @param testClass the name of the test class to run
+ * @param systemProperties system properties to set during the run
+ */
+public record RunRequest(String target, String testClass, Map<String, String> systemProperties) {
+}
@@ -0,0 +1,69 @@
+package nl.moj.worker.java.test.runner;
+
+import java.security.AllPermission;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+
+/**
+ * Grants the runner itself all permissions and delegates every other check to
+ * the configured security policy. The runner needs to swap output streams,
+ * create class loaders and restore system properties between runs, code under
+ * test only ever gets what the policy file grants.
+ */
+// the security manager is deprecated for removal, but still the only way to sandbox the code under test
+@SuppressWarnings("removal")
+public class RunnerPolicy extends Policy {
+
+    private final Policy delegate;
+    private final CodeSource runner;
+
+    public RunnerPolicy(Policy delegate, CodeSource runner) {
+        this.delegate = delegate;
+        this.runner = runner;
+    }
+
+    @Override
+    public boolean implies(ProtectionDomain domain, Permission permission) {
+        if (isRunner(domain)) {
+            return true;
+        }
+        return delegate.implies(domain, permission);
+    }
+
+    @Override
+    public PermissionCollection getPermissions(ProtectionDomain domain) {
+        if (isRunner(domain)) {
+            PermissionCollection all = new AllPermission().newPermissionCollection();
+            all.add(new AllPermission());
+            return all;
+        }
+        return delegate.getPermissions(domain);
+    }
+
+    @Override
+    public PermissionCollection getPermissions(CodeSource codesource) {
+        return delegate.getPermissions(codesource);
+    }
+
+    @Override
+    public void refresh() {
+        delegate.refresh();
+    }
+
+    private boolean isRunner(ProtectionDomain domain) {
+        return domain != null && domain.getCodeSource() != null && runner != null
+                && runner.getLocation() != null
+                && runner.getLocation().equals(domain.getCodeSource().getLocation());
+    }
+
+    /**
+     * Installs the security manager, granting the given runner class all permissions.
+     */
+    static void install(Class<?> runner) {
+        Policy.setPolicy(new RunnerPolicy(Policy.getPolicy(), runner.getProtectionDomain().getCodeSource()));
+        System.setSecurityManager(new SecurityManager());
+    }
+}
@@ -0,0 +1,102 @@
+package nl.moj.worker.java.test.runner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wire format between the worker and a runner JVM. The worker writes a
+ * {@link RunRequest} to the stdin of the runner, the runner answers on its
+ * stdout with frames, each frame being a type byte, a length and a payload.
+ * A batch runner gets its test classes on the command line and reports each
+ * of them with a {@link #CLASS_START} and a {@link #CLASS_RESULT} frame.
+ * <p>
+ * This class is loaded in the runner JVM and must only depend on the JDK.
+ */
+public final class RunnerProtocol {
+
+    /**
+     * The runner is started and ready to receive a run request, no payload.
+     */
+    public static final byte READY = 'R';
+    /**
+     * A chunk of the standard output of the tests.
+     */
+    public static final byte STDOUT = 'O';
+    /**
+     * A chunk of the standard error of the tests.
+     */
+    public static final byte STDERR = 'E';
+    /**
+     * The run request finished, payload is the exit status (0 is success) and if
+     * the runner should be recycled.
+     */
+    public static final byte DONE = 'D';
+    /**
+     * A batch runner started a test class, payload is the index of the class.
+     */
+    public static final byte CLASS_START = 'S';
+    /**
+     * A batch runner finished a test class, payload is the status and the time
+     * the class took in milliseconds.
+     */
+    public static final byte CLASS_RESULT = 'C';
+
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_FAILURE = 1;
+    public static final int STATUS_TIMEOUT = 2;
+
+    private RunnerProtocol() {
+    }
+
+    public static void writeFrame(DataOutputStream out, byte type, byte[] data, int off, int len)
+            throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.writeInt(len);
+            out.write(data, off, len);
+            out.flush();
+        }
+    }
+
+    public static void writeReady(DataOutputStream out) throws IOException {
+        writeFrame(out, READY, new byte[0], 0, 0);
+    }
+
+    public static void writeDone(DataOutputStream out, int status, boolean recycle) throws IOException {
+        writeFrame(out, DONE, new byte[] { (byte) status, (byte) (recycle ? 1 : 0) }, 0, 2);
+    }
+
+    public static void writeClassStart(DataOutputStream out, int index) throws IOException {
+        writeFrame(out, CLASS_START, ByteBuffer.allocate(4).putInt(index).array(), 0, 4);
+    }
+
+    public static void writeClassResult(DataOutputStream out, int status, long millis) throws IOException {
+        writeFrame(out, CLASS_RESULT, ByteBuffer.allocate(9).put((byte) status).putLong(millis).array(), 0, 9);
+    }
+
+    public static void writeRequest(DataOutputStream out, RunRequest request) throws IOException {
+        out.writeUTF(request.target());
+        out.writeUTF(request.testClass());
+        out.writeInt(request.systemProperties().size());
+        for (Map.Entry<String, String> e : request.systemProperties().entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+        out.flush();
+    }
+
+    public static RunRequest readRequest(DataInputStream in) throws IOException {
+        String target = in.readUTF();
+        String testClass = in.readUTF();
+        int size = in.readInt();
+        Map<String, String> systemProperties = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            systemProperties.put(in.readUTF(), in.readUTF());
+        }
+        return new RunRequest(target, testClass, systemProperties);
+    }
+}
@@ -0,0 +1,16 @@
+package nl.moj.worker.java.test.runner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Executed once by a runner JVM on start to load and JIT the JUnit code paths
+ * before the first real test arrives.
+ */
+public class Warmup {
+
+    @Test
+    public void warmup() {
+        Assert.assertTrue(Boolean.parseBoolean("true"));
+    }
+}
@@ -66,6 +66,14 @@ public class LengthLimitedOutputCatcher extends LogOutputStream {
         lineCount++;
     }
 
+    /**
+     * Discards all output caught so far.
+     */
+    public void reset() {
+        buffer.setLength(0);
+        lineCount = 0;
+    }
+
     public StringBuilder getBuffer() {
         return buffer;
     }
@@ -0,0 +1,31 @@
+package nl.moj.worker.util;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import lombok.Getter;
+import nl.moj.common.config.properties.Limits.TimeoutMode;
+
+/**
+ * Thrown when a process was killed by the {@link ProcessWatchdog}, telling which
+ * limit it exceeded.
+ */
+@Getter
+public class ProcessTimeoutException extends TimeoutException {
+
+    private final TimeoutMode limit;
+    private final Duration timeout;
+
+    public ProcessTimeoutException(TimeoutMode limit, Duration timeout) {
+        super(describe(limit, timeout));
+        this.limit = limit;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return a description of the limit, like {@code 4000 ms of CPU time}
+     */
+    public static String describe(TimeoutMode limit, Duration timeout) {
+        return timeout.toMillis() + " ms of " + (limit == TimeoutMode.CPU_TIME ? "CPU time" : "wall-clock time");
+    }
+}
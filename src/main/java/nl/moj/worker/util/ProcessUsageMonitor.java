@@ -0,0 +1,140 @@
+package nl.moj.worker.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.server.util.NamedThreadFactory;
+
+/**
+ * Measures the CPU time and peak resident memory of the processes forked by the
+ * worker, read from {@code /proc/<pid>/stat} and {@code /proc/<pid>/status}.
+ * <p>
+ * The values of a process are gone once it exited and is reaped, tracked processes
+ * are therefore sampled periodically and the last sample taken is reported. For
+ * short lived processes the CPU time of the last sample interval may be missed.
+ * Nothing is measured on systems without a {@code /proc} file system.
+ */
+@Component
+@Slf4j
+public class ProcessUsageMonitor {
+
+    private static final Path PROC = Paths.get("/proc");
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+    // USER_HZ, the unit of the CPU times in /proc/<pid>/stat, is 100 on all common architectures
+    private static final long MILLIS_PER_TICK = 10;
+    // utime and stime are fields 14 and 15, counted from the field after the command name
+    private static final int UTIME = 11;
+    private static final int STIME = 12;
+
+    private final Set<Tracker> tracked = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService sampler;
+
+    public ProcessUsageMonitor() {
+        this.sampler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("usage-sampler"));
+        this.sampler.scheduleWithFixedDelay(() -> tracked.forEach(Tracker::sample), SAMPLE_INTERVAL_MILLIS,
+                SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isSupported() {
+        return Files.isDirectory(PROC.resolve("self"));
+    }
+
+    /**
+     * Starts sampling the usage of a process until {@link Tracker#stop()} is called.
+     */
+    public Tracker track(long pid) {
+        Tracker tracker = new Tracker(pid);
+        if (isSupported()) {
+            tracker.sample();
+            tracked.add(tracker);
+        }
+        return tracker;
+    }
+
+    /**
+     * @return the current usage of a running process, empty if it is gone or can not be read.
+     */
+    public static Optional<ResourceUsage> read(long pid) {
+        try {
+            String stat = Files.readString(PROC.resolve(Long.toString(pid)).resolve("stat"));
+            // the command name may contain spaces, the fields start after its closing parenthesis
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            Duration user = Duration.ofMillis(Long.parseLong(fields[UTIME]) * MILLIS_PER_TICK);
+            Duration system = Duration.ofMillis(Long.parseLong(fields[STIME]) * MILLIS_PER_TICK);
+            return Optional.of(new ResourceUsage(user, system, peakRss(pid)));
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the CPU time used so far by the calling thread, for work done inside
+     *         the worker JVM. Peak memory is not measured.
+     */
+    public static ResourceUsage currentThread() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isCurrentThreadCpuTimeSupported()) {
+            return null;
+        }
+        long user = threads.getCurrentThreadUserTime();
+        long total = threads.getCurrentThreadCpuTime();
+        return new ResourceUsage(Duration.ofNanos(user), Duration.ofNanos(Math.max(0, total - user)), 0);
+    }
+
+    private static long peakRss(long pid) throws IOException {
+        for (String line : Files.readAllLines(PROC.resolve(Long.toString(pid)).resolve("status"))) {
+            if (line.startsWith("VmHWM:")) {
+                // reported in kB
+                return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+            }
+        }
+        return 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+
+    public class Tracker {
+
+        private final long pid;
+        private volatile ResourceUsage usage;
+
+        private Tracker(long pid) {
+            this.pid = pid;
+        }
+
+        private void sample() {
+            read(pid).ifPresent(u -> usage = u);
+        }
+
+        /**
+         * Takes a last sample, if the process still runs, and stops sampling.
+         *
+         * @return the last usage sampled, null if nothing could be measured
+         */
+        public ResourceUsage stop() {
+            if (tracked.remove(this)) {
+                sample();
+            }
+            return usage;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package nl.moj.worker.util;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.config.properties.Limits;
+import nl.moj.common.config.properties.Limits.TimeoutMode;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.server.util.NamedThreadFactory;
+
+/**
+ * Enforces time limits on the processes forked by the worker, with millisecond
+ * precision. A process is limited in wall-clock time, CPU time, or both. The CPU
+ * time of the process and its descendants is polled from {@code /proc}, so it
+ * only counts the time since the watch started, which makes it usable for a
+ * single run in a reused runner JVM. On expiry the whole process tree is killed.
+ */
+@Component
+@Slf4j
+public class ProcessWatchdog {
+
+    private static final long CPU_POLL_INTERVAL_MILLIS = 20;
+
+    private final MojServerProperties mojServerProperties;
+    private final ProcessUsageMonitor processUsageMonitor;
+    private final ScheduledExecutorService scheduler;
+
+    public ProcessWatchdog(MojServerProperties mojServerProperties, ProcessUsageMonitor processUsageMonitor) {
+        this.mojServerProperties = mojServerProperties;
+        this.processUsageMonitor = processUsageMonitor;
+        this.scheduler = Executors.newScheduledThreadPool(2, new NamedThreadFactory("process-watchdog"));
+    }
+
+    /**
+     * Watches a test process using the configured test timeout mode, falling back
+     * to wall-clock time where CPU time can not be measured.
+     */
+    public Watch watchTest(Process process, Duration timeout) {
+        Limits limits = mojServerProperties.getLimits();
+        if (limits.getTestTimeoutMode() == TimeoutMode.CPU_TIME && processUsageMonitor.isSupported()) {
+            return watch(process, wallClockFor(timeout), timeout);
+        }
+        return watch(process, timeout, null);
+    }
+
+    /**
+     * @return the wall-clock time a test limited in CPU time may take.
+     */
+    public Duration wallClockFor(Duration timeout) {
+        return Duration.ofMillis((long) (timeout.toMillis() * mojServerProperties.getLimits()
+                .getCpuTimeWallClockFactor()));
+    }
+
+    /**
+     * Starts watching a process.
+     *
+     * @param wallClock the wall-clock time the process may run, null for no limit
+     * @param cpuTime the CPU time the process and its descendants may use from now on, null for no limit
+     */
+    public Watch watch(Process process, Duration wallClock, Duration cpuTime) {
+        Watch watch = new Watch(process, wallClock, cpuTime);
+        if (wallClock != null) {
+            watch.wallClock = scheduler.schedule(() -> watch.expire(TimeoutMode.WALL_CLOCK), wallClock.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+        if (cpuTime != null) {
+            watch.cpuTime = scheduler.scheduleWithFixedDelay(watch::checkCpuTime, CPU_POLL_INTERVAL_MILLIS,
+                    CPU_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return watch;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static Duration cpuTime(Process process) {
+        return Stream.concat(Stream.of(process.toHandle()), process.descendants())
+                .map(p -> ProcessUsageMonitor.read(p.pid()))
+                .flatMap(Optional::stream)
+                .map(u -> u.cpuUser().plus(u.cpuSystem()))
+                .reduce(Duration.ZERO, Duration::plus);
+    }
+
+    public static class Watch {
+
+        private final Process process;
+        private final Duration wallClockLimit;
+        private final Duration cpuLimit;
+        private final Duration cpuStart;
+        private volatile ScheduledFuture<?> wallClock;
+        private volatile ScheduledFuture<?> cpuTime;
+        private volatile TimeoutMode expired;
+        private volatile ResourceUsage usage;
+        private boolean cancelled;
+
+        private Watch(Process process, Duration wallClockLimit, Duration cpuLimit) {
+            this.process = process;
+            this.wallClockLimit = wallClockLimit;
+            this.cpuLimit = cpuLimit;
+            this.cpuStart = cpuLimit == null ? null : cpuTime(process);
+        }
+
+        private void checkCpuTime() {
+            if (cpuTime(process).minus(cpuStart).compareTo(cpuLimit) >= 0) {
+                expire(TimeoutMode.CPU_TIME);
+            }
+        }
+
+        private synchronized void expire(TimeoutMode limit) {
+            if (cancelled || expired != null || !process.isAlive()) {
+                return;
+            }
+            expired = limit;
+            usage = ProcessUsageMonitor.read(process.pid()).orElse(null);
+            log.info("Process {} exceeded its {} limit, killing it.", process.pid(), limit);
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+            stop();
+        }
+
+        /**
+         * Stops watching, the process is no longer limited.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            stop();
+        }
+
+        private void stop() {
+            if (wallClock != null) {
+                wallClock.cancel(false);
+            }
+            if (cpuTime != null) {
+                cpuTime.cancel(false);
+            }
+        }
+
+        /**
+         * @return the limit that killed the process, empty if it did not expire
+         */
+        public Optional<TimeoutMode> getExpired() {
+            return Optional.ofNullable(expired);
+        }
+
+        /**
+         * @return the exception describing the limit that killed the process, empty if it did not expire
+         */
+        public Optional<ProcessTimeoutException> getTimeout() {
+            return getExpired().map(limit -> new ProcessTimeoutException(limit,
+                    limit == TimeoutMode.CPU_TIME ? cpuLimit : wallClockLimit));
+        }
+
+        /**
+         * @return the usage of the process just before it was killed, null if it did not expire
+         */
+        public ResourceUsage getUsage() {
+            return usage;
+        }
+    }
+}
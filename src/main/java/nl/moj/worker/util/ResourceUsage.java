@@ -0,0 +1,39 @@
+package nl.moj.worker.util;
+
+import java.time.Duration;
+
+/**
+ * CPU time and peak resident memory used by a compile or test run.
+ *
+ * @param cpuUser the CPU time spent in user mode
+ * @param cpuSystem the CPU time spent in the kernel on behalf of the run
+ * @param peakRss the peak resident set size in bytes, 0 if not measured
+ */
+public record ResourceUsage(Duration cpuUser, Duration cpuSystem, long peakRss) {
+
+    /**
+     * @return the CPU time used since the earlier usage of the same process, with
+     *         the peak resident set size of this usage.
+     */
+    public ResourceUsage since(ResourceUsage earlier) {
+        if (earlier == null) {
+            return this;
+        }
+        return new ResourceUsage(cpuUser.minus(earlier.cpuUser), cpuSystem.minus(earlier.cpuSystem), peakRss);
+    }
+
+    /**
+     * Combines the usage of two runs, like a compile retried without precompiled
+     * classes. Either may be null.
+     */
+    public static ResourceUsage combine(ResourceUsage a, ResourceUsage b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return new ResourceUsage(a.cpuUser.plus(b.cpuUser), a.cpuSystem.plus(b.cpuSystem),
+                Math.max(a.peakRss, b.peakRss));
+    }
+}
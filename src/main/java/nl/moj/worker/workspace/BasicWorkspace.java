@@ -22,17 +22,75 @@ public class BasicWorkspace implements Workspace {
     private final Path sources;
     private final Path target;
     private final AssignmentDescriptor assignmentDescriptor;
+    private final WorkspaceLocation.Allocation allocation;
 
     public BasicWorkspace(AssignmentDescriptor assignmentDescriptor, List<JMSFile> replacements) throws IOException {
-        this.base = Files.createTempDirectory("workspace");
+        this(assignmentDescriptor, replacements, null, null);
+    }
+
+    /**
+     * Creates a workspace linking the source files of a template created by
+     * {@link WorkspaceTemplates} instead of copying them from the assignment.
+     *
+     * @param template the template root, null to copy the files from the assignment
+     * @param allocation the space allocated in the location to create the workspace in, null
+     *        to create it in the system temp directory and delete it on close
+     */
+    public BasicWorkspace(AssignmentDescriptor assignmentDescriptor, List<JMSFile> replacements, Path template,
+            WorkspaceLocation.Allocation allocation) throws IOException {
+        try {
+            this.base = allocation != null ? Files.createTempDirectory(allocation.location().getRoot(), "workspace")
+                    : Files.createTempDirectory("workspace");
+        } catch (IOException | RuntimeException e) {
+            if (allocation != null) {
+                allocation.free(null);
+            }
+            throw e;
+        }
         this.sources = this.base.resolve("sources");
         this.target = this.base.resolve("target");
         this.assignmentDescriptor = assignmentDescriptor;
-        Files.createDirectories(sources);
-        Files.createDirectories(target);
-        prepare();
-        if (replacements != null && !replacements.isEmpty()) {
-            replaceFiles(replacements);
+        this.allocation = allocation;
+        try {
+            Files.createDirectories(sources);
+            Files.createDirectories(target);
+            if (template != null) {
+                link(template);
+            } else {
+                prepare();
+            }
+            if (replacements != null && !replacements.isEmpty()) {
+                replaceFiles(replacements);
+            }
+        } catch (IOException | RuntimeException e) {
+            // a half built workspace is deleted and gives back its space
+            try {
+                close();
+            } catch (Exception suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private void link(Path template) throws IOException {
+        Path resources = template.resolve(target.getFileName().toString());
+        try (Stream<Path> files = Files.walk(template)) {
+            for (Path f : files.toList()) {
+                Path dest = base.resolve(template.relativize(f).toString());
+                if (Files.isDirectory(f)) {
+                    Files.createDirectories(dest);
+                } else if (f.startsWith(resources)) {
+                    // tests may write to their resources
+                    Files.copy(f, dest, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    try {
+                        Files.createLink(dest, f);
+                    } catch (UnsupportedOperationException | IOException e) {
+                        Files.copy(f, dest, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
         }
     }
 
@@ -142,6 +200,14 @@ public class BasicWorkspace implements Workspace {
     }
 
     public void close() throws Exception {
+        if (allocation != null) {
+            allocation.free(base);
+        } else {
+            delete();
+        }
+    }
+
+    private void delete() throws IOException {
         try (Stream<Path> walk = Files.walk(base)) {
             walk.sorted(Comparator.reverseOrder()).forEach(f -> {
                 try {
@@ -0,0 +1,82 @@
+package nl.moj.worker.workspace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.FileSystemUtils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A directory workspaces are created in, with a capacity. Space is allocated
+ * up front for every workspace and given back once the workspace is deleted in
+ * the background.
+ */
+@Slf4j
+public class WorkspaceLocation {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final Path root;
+    @Getter
+    private final long capacity;
+    private final AtomicLong usage = new AtomicLong();
+    private final Executor cleanup;
+
+    public WorkspaceLocation(String name, Path root, long capacity, Executor cleanup) {
+        this.name = name;
+        this.root = root;
+        this.capacity = capacity;
+        this.cleanup = cleanup;
+    }
+
+    public long getUsage() {
+        return usage.get();
+    }
+
+    /**
+     * @return the allocation, empty if the location does not have the requested capacity left
+     */
+    public Optional<Allocation> allocate(long bytes) {
+        long current;
+        do {
+            current = usage.get();
+            if (current + bytes > capacity) {
+                return Optional.empty();
+            }
+        } while (!usage.compareAndSet(current, current + bytes));
+        return Optional.of(new Allocation(this, bytes));
+    }
+
+    private void free(Path workspace, long bytes) {
+        cleanup.execute(() -> {
+            try {
+                FileSystemUtils.deleteRecursively(workspace);
+            } catch (IOException e) {
+                log.warn("Failed to delete workspace {}.", workspace, e);
+            } finally {
+                usage.addAndGet(-bytes);
+            }
+        });
+    }
+
+    /**
+     * Space allocated for a single workspace.
+     */
+    public record Allocation(WorkspaceLocation location, long bytes) {
+
+        /**
+         * Deletes the workspace in the background, giving back the allocated space when done.
+         *
+         * @param workspace the workspace to delete, null when it was never created.
+         */
+        public void free(Path workspace) {
+            location.free(workspace, bytes);
+        }
+    }
+}
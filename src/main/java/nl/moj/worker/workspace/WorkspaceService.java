@@ -1,21 +1,119 @@
 package nl.moj.worker.workspace;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.stereotype.Service;
 
-import lombok.AllArgsConstructor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.Workspaces;
 import nl.moj.common.messages.JMSFile;
+import nl.moj.server.util.NamedThreadFactory;
 
+/**
+ * Creates workspaces in the memory location when configured and it has capacity
+ * left, otherwise on disk. The space a workspace needs is estimated as twice the
+ * size of the assignment files and the team's replacements, leaving room for the
+ * compiled classes.
+ */
 @Service
 @Slf4j
-@AllArgsConstructor
 public class WorkspaceService {
 
+    private final MojServerProperties mojServerProperties;
+    private final WorkspaceTemplates workspaceTemplates;
+
+    private final ExecutorService cleanup = Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("workspace-cleanup"));
+    private final Map<Path, Long> assignmentSizes = new ConcurrentHashMap<>();
+    @Getter
+    private final WorkspaceLocation disk;
+    @Getter
+    private final WorkspaceLocation memory;
+
+    public WorkspaceService(MojServerProperties mojServerProperties, WorkspaceTemplates workspaceTemplates,
+            MeterRegistry meterRegistry) throws IOException {
+        this.mojServerProperties = mojServerProperties;
+        this.workspaceTemplates = workspaceTemplates;
+
+        Workspaces config = mojServerProperties.getRuntime().getWorkspaces();
+        Path diskRoot = config.getDiskRoot() != null ? config.getDiskRoot()
+                : Paths.get(System.getProperty("java.io.tmpdir"));
+        this.disk = new WorkspaceLocation("disk", Files.createDirectories(diskRoot), Long.MAX_VALUE, cleanup);
+        this.memory = config.getMemoryRoot() != null ? new WorkspaceLocation("memory",
+                Files.createDirectories(config.getMemoryRoot()), config.getMemoryCapacity().toBytes(), cleanup) : null;
+
+        for (WorkspaceLocation location : memory != null ? List.of(disk, memory) : List.of(disk)) {
+            Gauge.builder("moj.workspace.usage", location, WorkspaceLocation::getUsage)
+                    .tag("location", location.getName())
+                    .description("Estimated bytes used by workspaces")
+                    .register(meterRegistry);
+            log.info("Creating {} workspaces in {}.", location.getName(), location.getRoot());
+        }
+        if (memory != null) {
+            Gauge.builder("moj.workspace.capacity", memory, WorkspaceLocation::getCapacity)
+                    .tag("location", memory.getName())
+                    .register(meterRegistry);
+        }
+    }
+
     public Workspace getWorkspace(AssignmentDescriptor ad, List<JMSFile> replacements) throws IOException {
-        return new BasicWorkspace(ad, replacements);
+        WorkspaceLocation.Allocation allocation = allocate(ad, replacements);
+        if (mojServerProperties.getRuntime().isWorkspaceTemplates()) {
+            return workspaceTemplates.withTemplate(ad, allocation.location(),
+                    template -> new BasicWorkspace(ad, replacements, template, allocation));
+        }
+        return new BasicWorkspace(ad, replacements, null, allocation);
+    }
+
+    private WorkspaceLocation.Allocation allocate(AssignmentDescriptor ad, List<JMSFile> replacements)
+            throws IOException {
+        long bytes = 2 * (sizeOf(ad) + (replacements == null ? 0
+                : replacements.stream()
+                        .mapToLong(f -> f.getContent() == null ? 0 : f.getContent().getBytes(StandardCharsets.UTF_8).length)
+                        .sum()));
+        Optional<WorkspaceLocation.Allocation> allocation = memory != null ? memory.allocate(bytes) : Optional.empty();
+        if (memory != null && allocation.isEmpty()) {
+            log.debug("Memory workspace capacity exhausted, creating workspace on disk.");
+        }
+        return allocation.or(() -> disk.allocate(bytes)).orElseThrow();
+    }
+
+    private long sizeOf(AssignmentDescriptor ad) throws IOException {
+        try {
+            return assignmentSizes.computeIfAbsent(ad.getDirectory().toAbsolutePath(), dir -> {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // let pending deletes finish
+        cleanup.shutdown();
     }
 }
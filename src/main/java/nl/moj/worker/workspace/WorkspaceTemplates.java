@@ -0,0 +1,276 @@
+package nl.moj.worker.workspace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.MojServerProperties;
+
+/**
+ * Materializes the workspace layout of an assignment once per worker, so
+ * workspaces for attempts can link the source files instead of copying them one
+ * by one. Template sources are read only, a workspace replaces a file instead of
+ * writing into it. Resources are copied, tests may write to them.
+ * <p>
+ * A template is rebuilt when any file in the assignment directory changes, checked
+ * at most once per template check interval. The template it replaces is deleted
+ * once no workspace is being created from it anymore. A template is built once,
+ * workspaces needing it while it is built wait for it, others do not.
+ * <p>
+ * Templates take space in their location like workspaces do, the size of the
+ * assignment files is allocated for them. Workspaces in a location without room
+ * for the template copy the assignment files instead.
+ */
+@Component
+@Slf4j
+public class WorkspaceTemplates {
+
+    private final MojServerProperties mojServerProperties;
+
+    // guarded by this
+    private final Map<String, Template> templates = new HashMap<>();
+    private final Map<String, CompletableFuture<Template>> building = new HashMap<>();
+    private final Map<Path, Path> roots = new HashMap<>();
+    private final Map<Path, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+    private final AtomicLong created = new AtomicLong();
+
+    public WorkspaceTemplates(MojServerProperties mojServerProperties) {
+        this.mojServerProperties = mojServerProperties;
+    }
+
+    /**
+     * Calls the given function with the template of the assignment, the template is
+     * not deleted before the function returns.
+     *
+     * @param location the directory the workspaces linking the template are created in,
+     *        templates are kept in the same location so they can be linked.
+     * @param function receives the root of the template workspace of the assignment,
+     *        containing the sources and target folders as prepared by {@link BasicWorkspace},
+     *        or null when the location has no room left for the template.
+     */
+    public <T> T withTemplate(AssignmentDescriptor ad, WorkspaceLocation location, TemplateFunction<T> function)
+            throws IOException {
+        Template template = acquire(ad, location);
+        try {
+            return function.apply(template != null ? template.root : null);
+        } finally {
+            if (template != null) {
+                release(template);
+            }
+        }
+    }
+
+    private Template acquire(AssignmentDescriptor ad, WorkspaceLocation location) throws IOException {
+        Path dir = ad.getDirectory().toAbsolutePath();
+        Fingerprint fingerprint = fingerprint(dir);
+        String key = location.getName() + "-" + fingerprint.value();
+        // one template per assignment and location, newer versions may live in another directory
+        String slot = location.getName() + "-" + (ad.getName() != null ? ad.getName() : dir.toString());
+        while (true) {
+            CompletableFuture<Template> future;
+            boolean build = false;
+            synchronized (this) {
+                Template template = templates.get(slot);
+                if (template != null && template.key.equals(key) && Files.isDirectory(template.root)) {
+                    template.users++;
+                    return template;
+                }
+                future = building.get(key);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    building.put(key, future);
+                    build = true;
+                }
+            }
+            if (build) {
+                return build(ad, key, slot, dir, fingerprint.size(), location, future);
+            }
+            try {
+                if (future.join() == null) {
+                    return null;
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private Template build(AssignmentDescriptor ad, String key, String slot, Path dir, long size,
+            WorkspaceLocation location, CompletableFuture<Template> future) throws IOException {
+        Template template;
+        try {
+            template = create(ad, key, size, location);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                building.remove(key);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            building.remove(key);
+            if (template != null) {
+                Template replaced = templates.put(slot, template);
+                if (replaced != null) {
+                    retire(replaced, dir);
+                }
+                template.users++;
+            }
+        }
+        future.complete(template);
+        return template;
+    }
+
+    private synchronized void release(Template template) {
+        template.users--;
+        if (template.retired && template.users == 0) {
+            template.delete();
+        }
+    }
+
+    private void retire(Template template, Path dir) {
+        template.retired = true;
+        if (!template.directory.equals(dir)) {
+            fingerprints.remove(template.directory);
+        }
+        if (template.users == 0) {
+            template.delete();
+        }
+    }
+
+    private Template create(AssignmentDescriptor ad, String key, long size, WorkspaceLocation location)
+            throws IOException {
+        Optional<WorkspaceLocation.Allocation> allocation = location.allocate(size);
+        if (allocation.isEmpty()) {
+            log.debug("No room for the workspace template of assignment {} in {}.", ad.getName(), location.getName());
+            return null;
+        }
+        Path root;
+        synchronized (this) {
+            root = roots.get(location.getRoot());
+            if (root == null || !Files.isDirectory(root)) {
+                root = Files.createTempDirectory(location.getRoot(), "workspace-templates");
+                roots.put(location.getRoot(), root);
+            }
+        }
+        // never reuse the directory of a replaced template, it may still be deleted in the background
+        Path template = root.resolve(key + "-" + created.incrementAndGet());
+        // prepared in the same location, so it can be moved in place
+        BasicWorkspace workspace;
+        try {
+            // deletes itself when it fails
+            workspace = new BasicWorkspace(ad, null, null, new WorkspaceLocation.Allocation(location, 0));
+        } catch (IOException | RuntimeException e) {
+            allocation.get().free(null);
+            throw e;
+        }
+        try (Stream<Path> files = Files.walk(workspace.getSourcesRoot())) {
+            files.filter(Files::isRegularFile).forEach(f -> f.toFile().setReadOnly());
+            Files.move(workspace.getRoot(), template, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            allocation.get().free(workspace.getRoot());
+            throw e;
+        }
+        log.info("Created workspace template for assignment {}.", ad.getName());
+        return new Template(key, template, ad.getDirectory().toAbsolutePath(), allocation.get());
+    }
+
+    /**
+     * @return the fingerprint of the files in the assignment directory, taken again
+     *         once the template check interval passed.
+     */
+    private Fingerprint fingerprint(Path dir) throws IOException {
+        long now = System.nanoTime();
+        Fingerprint fingerprint = fingerprints.get(dir);
+        if (fingerprint == null || now - fingerprint.taken() >= mojServerProperties.getRuntime().getWorkspaces()
+                .getTemplateCheckInterval().toNanos()) {
+            fingerprint = takeFingerprint(dir, now);
+            fingerprints.put(dir, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static Fingerprint takeFingerprint(Path dir, long now) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(dir.toString().getBytes(StandardCharsets.UTF_8));
+        long size = 0;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.filter(Files::isRegularFile).sorted().toList()) {
+                String stat = "\n" + dir.relativize(f) + ":" + Files.size(f) + ":" + Files.getLastModifiedTime(f).toMillis();
+                digest.update(stat.getBytes(StandardCharsets.UTF_8));
+                size += Files.size(f);
+            }
+        }
+        return new Fingerprint(HexFormat.of().formatHex(digest.digest()), size, now);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        for (Path root : roots.values()) {
+            FileSystemUtils.deleteRecursively(root);
+        }
+    }
+
+    @FunctionalInterface
+    public interface TemplateFunction<T> {
+
+        T apply(Path template) throws IOException;
+    }
+
+    private record Fingerprint(String value, long size, long taken) {
+    }
+
+    private static final class Template {
+
+        private final String key;
+        private final Path root;
+        private final Path directory;
+        private final WorkspaceLocation.Allocation allocation;
+        // guarded by WorkspaceTemplates.this
+        private int users;
+        private boolean retired;
+
+        private Template(String key, Path root, Path directory, WorkspaceLocation.Allocation allocation) {
+            this.key = key;
+            this.root = root;
+            this.directory = directory;
+            this.allocation = allocation;
+        }
+
+        void delete() {
+            log.info("Deleting replaced workspace template {}.", root);
+            allocation.free(root);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+alter table compile_attempts
+    add column cpu_user bigint null;
+
+alter table compile_attempts
+    add column cpu_system bigint null;
+
+alter table compile_attempts
+    add column peak_rss bigint null;
+
+alter table test_cases
+    add column cpu_user bigint null;
+
+alter table test_cases
+    add column cpu_system bigint null;
+
+alter table test_cases
+    add column peak_rss bigint null;
@@ -0,0 +1,2 @@
+alter table test_cases
+    add column cached boolean null;
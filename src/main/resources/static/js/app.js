@@ -36,7 +36,7 @@ function connectCompetition() {
         $('#status').html('<span>Connected</span>');
         // Do something, all subscribes must be done in this callback
         // This is needed because this will be executed after a (re)connect
-        stomp.subscribe('/user/queue/session',
+        stomp.subscribe('/topic/team/' + team,
             function (data) {
                 const msg = JSON.parse(data.body);
                 if ('TEST' === msg.messageType && msg.test) {
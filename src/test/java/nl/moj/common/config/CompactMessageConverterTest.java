@@ -0,0 +1,208 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.common.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.jms.BytesMessage;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.jms.support.converter.MappingJackson2MessageConverter;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageType;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.moj.common.config.properties.Runtime.MessageCodec;
+import nl.moj.common.config.properties.Runtime.Messaging;
+import nl.moj.common.messages.JMSFile;
+import nl.moj.common.messages.JMSResponse;
+import nl.moj.common.messages.JMSTestCaseResponse;
+import nl.moj.common.messages.JMSTestCaseResult;
+import nl.moj.common.messages.JMSTestRequest;
+
+public class CompactMessageConverterTest {
+
+    private ObjectMapper objectMapper;
+    private Messaging messaging;
+    private Session session;
+    private CompactMessageConverter converter;
+
+    @BeforeEach
+    public void init() throws Exception {
+        objectMapper = new CommonConfig().jsonObjectMapper();
+        messaging = new Messaging();
+        session = mock(Session.class);
+        when(session.createBytesMessage()).thenAnswer(i -> bytesMessage());
+        when(session.createTextMessage(anyString())).thenAnswer(i -> textMessage(i.getArgument(0)));
+        converter = new CompactMessageConverter(objectMapper, messaging);
+    }
+
+    @Test
+    public void shouldSendSmallMessagesUncompressed() throws Exception {
+        JMSTestRequest request = testRequest("class Team {}");
+
+        Message message = converter.toMessage(request, session);
+
+        assertThat(message).isInstanceOf(BytesMessage.class);
+        assertThat(message.getIntProperty(CompactMessageConverter.CODEC_PROPERTY))
+                .isEqualTo(CompactMessageConverter.PLAIN);
+        JMSTestRequest received = (JMSTestRequest) converter.fromMessage(message);
+        assertThat(received.getAttempt()).isEqualTo(request.getAttempt());
+        assertThat(received.getSources().get(0).getContent()).isEqualTo("class Team {}");
+    }
+
+    @Test
+    public void shouldNotCompressByDefault() throws Exception {
+        Message message = converter.toMessage(testRequest("x".repeat(10_000)), session);
+
+        assertThat(message.getIntProperty(CompactMessageConverter.CODEC_PROPERTY))
+                .isEqualTo(CompactMessageConverter.PLAIN);
+    }
+
+    @Test
+    public void shouldCompressLargeMessages() throws Exception {
+        messaging.setCompress(true);
+        String output = "Expected: 42 but was: 41\n".repeat(4000);
+        JMSResponse response = JMSTestCaseResponse.builder()
+                .attempt(UUID.randomUUID())
+                .testCaseResult(JMSTestCaseResult.builder().testCase(UUID.randomUUID()).output(output).build())
+                .build();
+
+        BytesMessage message = (BytesMessage) converter.toMessage(response, session);
+
+        assertThat(message.getIntProperty(CompactMessageConverter.CODEC_PROPERTY))
+                .isEqualTo(CompactMessageConverter.DEFLATED);
+        assertThat(message.getBodyLength()).isLessThan(objectMapper.writeValueAsBytes(response).length / 10);
+        JMSTestCaseResponse received = (JMSTestCaseResponse) converter.fromMessage(message);
+        assertThat(received.getTestCaseResult().getOutput()).isEqualTo(output);
+    }
+
+    @Test
+    public void shouldRejectMessagesInflatingBeyondMaximum() throws Exception {
+        messaging.setCompress(true);
+        Message message = converter.toMessage(testRequest("x".repeat(1_000_000)), session);
+        messaging.setMaxInflatedSize(DataSize.ofKilobytes(64));
+
+        assertThatThrownBy(() -> converter.fromMessage(message)).isInstanceOf(MessageConversionException.class)
+                .hasMessageContaining("inflates beyond");
+    }
+
+    @Test
+    public void shouldSendTextMessagesWithJsonCodec() throws Exception {
+        messaging.setCodec(MessageCodec.JSON);
+        JMSTestRequest request = testRequest("class Team {}");
+
+        Message message = converter.toMessage(request, session);
+
+        assertThat(message).isInstanceOf(TextMessage.class);
+        assertThat(((JMSTestRequest) converter.fromMessage(message)).getAttempt()).isEqualTo(request.getAttempt());
+    }
+
+    @Test
+    public void shouldExchangeMessagesWithOlderVersions() throws Exception {
+        MappingJackson2MessageConverter older = new MappingJackson2MessageConverter();
+        older.setTargetType(MessageType.TEXT);
+        older.setTypeIdPropertyName("_type");
+        older.setObjectMapper(objectMapper);
+        JMSTestRequest request = testRequest("class Team {}");
+
+        JMSTestRequest fromOlder = (JMSTestRequest) converter.fromMessage(older.toMessage(request, session));
+        JMSTestRequest toOlder = (JMSTestRequest) older.fromMessage(converter.toMessage(request, session));
+
+        assertThat(fromOlder.getAttempt()).isEqualTo(request.getAttempt());
+        assertThat(toOlder.getAttempt()).isEqualTo(request.getAttempt());
+    }
+
+    @Test
+    public void shouldRejectUnknownCodec() throws Exception {
+        Message message = converter.toMessage(testRequest("class Team {}"), session);
+        message.setIntProperty(CompactMessageConverter.CODEC_PROPERTY, 99);
+
+        assertThatThrownBy(() -> converter.fromMessage(message)).isInstanceOf(MessageConversionException.class)
+                .hasMessageContaining("99");
+    }
+
+    private JMSTestRequest testRequest(String content) {
+        return JMSTestRequest.builder()
+                .attempt(UUID.randomUUID())
+                .assignment(UUID.randomUUID())
+                .sources(List.of(JMSFile.builder()
+                        .type(JMSFile.Type.SOURCE)
+                        .path("Team.java")
+                        .content(content)
+                        .build()))
+                .tests(List.of())
+                .build();
+    }
+
+    private static BytesMessage bytesMessage() throws Exception {
+        BytesMessage message = mock(BytesMessage.class);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        properties(message);
+        when(message.getBodyLength()).thenAnswer(i -> (long) body.size());
+        doAnswer(i -> {
+            body.write(i.getArgument(0, byte[].class));
+            return null;
+        }).when(message).writeBytes(any(byte[].class));
+        when(message.readBytes(any(byte[].class))).thenAnswer(i -> {
+            byte[] bytes = body.toByteArray();
+            System.arraycopy(bytes, 0, i.getArgument(0, byte[].class), 0, bytes.length);
+            return bytes.length;
+        });
+        return message;
+    }
+
+    private static TextMessage textMessage(String text) throws Exception {
+        TextMessage message = mock(TextMessage.class);
+        properties(message);
+        when(message.getText()).thenReturn(text);
+        return message;
+    }
+
+    private static void properties(Message message) throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        Answer<Void> set = i -> {
+            properties.put(i.getArgument(0), i.getArgument(1));
+            return null;
+        };
+        doAnswer(set).when(message).setIntProperty(anyString(), anyInt());
+        doAnswer(set).when(message).setStringProperty(anyString(), anyString());
+        when(message.propertyExists(anyString())).thenAnswer(i -> properties.containsKey(i.getArgument(0)));
+        when(message.getIntProperty(anyString())).thenAnswer(i -> properties.get(i.getArgument(0)));
+        when(message.getStringProperty(anyString())).thenAnswer(i -> properties.get(i.getArgument(0)));
+    }
+}
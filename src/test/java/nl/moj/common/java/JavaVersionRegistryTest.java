@@ -0,0 +1,80 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.common.java;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+
+public class JavaVersionRegistryTest {
+
+    private static final int CURRENT = Runtime.version().feature();
+
+    private MojServerProperties mojServerProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private JavaVersionRegistry registry;
+
+    @BeforeEach
+    public void init() {
+        mojServerProperties = new MojServerProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new JavaVersionRegistry(mojServerProperties, meterRegistry);
+    }
+
+    @Test
+    public void shouldProbeConfiguredVersionsOnce() {
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        mojServerProperties.getLanguages().getJavaVersions().add(javaVersion("current", CURRENT, javaHome));
+        mojServerProperties.getLanguages().getJavaVersions().add(javaVersion("missing", CURRENT,
+                Paths.get("/does/not/exist")));
+        registry.init();
+
+        assertThat(registry.getResolvedJavaVersions()).hasSize(2);
+        assertThat(registry.getResolvedJavaVersions().get(0).available()).isTrue();
+        assertThat(registry.getResolvedJavaVersions().get(0).runtimeVersion()).isEqualTo(CURRENT);
+        assertThat(registry.getResolvedJavaVersions().get(1).available()).isFalse();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(registry.getJavaVersion(CURRENT).getName()).isEqualTo("current");
+        }
+        assertThat(meterRegistry.get("moj.jdk.probe").tag("jdk", "current").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRejectUnavailableVersion() {
+        registry.init();
+        assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> registry.getJavaVersion(999));
+    }
+
+    private Languages.JavaVersion javaVersion(String name, int version, Path javaHome) {
+        Languages.JavaVersion jv = new Languages.JavaVersion();
+        jv.setName(name);
+        jv.setVersion(version);
+        jv.setCompiler(javaHome.resolve("bin").resolve("javac"));
+        jv.setRuntime(javaHome.resolve("bin").resolve("java"));
+        return jv;
+    }
+}
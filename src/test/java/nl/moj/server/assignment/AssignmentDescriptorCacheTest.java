@@ -0,0 +1,91 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.assignment;
+
+import static nl.moj.server.TestUtil.classpathResourceToPath;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.assignment.service.AssignmentDescriptorService;
+import nl.moj.common.config.CommonConfig;
+import nl.moj.server.assignment.service.AssignmentDescriptorCache;
+
+public class AssignmentDescriptorCacheTest {
+
+    @TempDir
+    private Path dir;
+
+    private Path descriptor;
+    private SimpleMeterRegistry meterRegistry;
+    private AssignmentDescriptorCache cache;
+
+    @BeforeEach
+    public void init() throws Exception {
+        descriptor = dir.resolve("assignment.yaml");
+        Files.copy(classpathResourceToPath("/assignments/assignment-1/assignment.yaml"), descriptor);
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new AssignmentDescriptorCache(
+                new AssignmentDescriptorService(new CommonConfig().yamlObjectMapper()), meterRegistry);
+    }
+
+    @Test
+    public void shouldParseDescriptorOnce() {
+        AssignmentDescriptor first = cache.get(descriptor);
+        AssignmentDescriptor second = cache.get(descriptor.getParent().resolve(".").resolve("assignment.yaml"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(count("hit")).isEqualTo(1);
+        assertThat(count("miss")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldParseChangedDescriptor() throws Exception {
+        AssignmentDescriptor first = cache.get(descriptor);
+        Files.writeString(descriptor, Files.readString(descriptor)
+                .replace("display-name: " + first.getDisplayName(), "display-name: Changed"));
+        Files.setLastModifiedTime(descriptor, FileTime.from(Instant.now().plusSeconds(10)));
+
+        AssignmentDescriptor changed = cache.get(descriptor);
+
+        assertThat(changed).isNotSameAs(first);
+        assertThat(changed.getDisplayName()).isEqualTo("Changed");
+        assertThat(count("miss")).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldParseAgainAfterInvalidate() {
+        AssignmentDescriptor first = cache.get(descriptor);
+
+        cache.invalidate();
+
+        assertThat(cache.get(descriptor)).isNotSameAs(first);
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("moj.assignment.descriptor.cache", "result", result).count();
+    }
+}
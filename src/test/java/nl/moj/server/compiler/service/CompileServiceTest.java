@@ -0,0 +1,136 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.compiler.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.TaskScheduler;
+
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.messages.Operation;
+import nl.moj.server.assignment.model.Assignment;
+import nl.moj.server.assignment.service.AssignmentService;
+import nl.moj.server.competition.model.CompetitionSession;
+import nl.moj.server.compiler.model.CompileAttempt;
+import nl.moj.server.compiler.repository.CompileAttemptRepository;
+import nl.moj.server.message.service.MessageService;
+import nl.moj.server.message.service.OperationQueue;
+import nl.moj.server.metrics.MetricsService;
+import nl.moj.server.runtime.model.TeamAssignmentStatus;
+import nl.moj.server.runtime.repository.TeamAssignmentStatusRepository;
+import nl.moj.server.teams.model.Team;
+import nl.moj.server.teams.service.SourceSnapshotService;
+import nl.moj.server.teams.service.TeamService;
+import nl.moj.server.test.model.TestAttempt;
+import nl.moj.server.util.JMSResponseHelper;
+import nl.moj.server.util.TransactionHelper;
+
+public class CompileServiceTest {
+
+    private OperationQueue operationQueue;
+    private MetricsService metricsService;
+    private MojServerProperties mojServerProperties;
+    private CompileService compileService;
+
+    private TeamAssignmentStatus status;
+    private CompileRequest request;
+
+    @BeforeEach
+    public void init() {
+        CompileAttemptRepository compileAttemptRepository = mock(CompileAttemptRepository.class);
+        TeamAssignmentStatusRepository teamAssignmentStatusRepository = mock(TeamAssignmentStatusRepository.class);
+        AssignmentService assignmentService = mock(AssignmentService.class);
+        operationQueue = mock(OperationQueue.class);
+        metricsService = mock(MetricsService.class);
+        mojServerProperties = new MojServerProperties();
+        compileService = new CompileService(compileAttemptRepository, teamAssignmentStatusRepository,
+                mock(TeamService.class), operationQueue, mock(MessageService.class), new JMSResponseHelper(),
+                assignmentService, mock(TaskScheduler.class), mock(TransactionHelper.class), metricsService,
+                mojServerProperties, mock(SourceSnapshotService.class));
+
+        Assignment assignment = Assignment.builder().id(1L).uuid(UUID.randomUUID()).name("assignment").build();
+        CompetitionSession session = new CompetitionSession();
+        session.setId(1L);
+        session.setUuid(UUID.randomUUID());
+        Team team = Team.builder().id(1L).uuid(UUID.randomUUID()).build();
+        status = TeamAssignmentStatus.builder().uuid(UUID.randomUUID()).assignment(assignment).team(team).build();
+        request = CompileRequest.builder().assignment(assignment).session(session).team(team).sources(Map.of())
+                .build();
+
+        when(teamAssignmentStatusRepository.findByAssignment_IdAndCompetitionSession_IdAndTeam_Id(any(), any(),
+                any())).thenReturn(status);
+        when(compileAttemptRepository.save(any())).thenAnswer(i -> i.getArgument(0));
+        when(assignmentService.resolveCompileAbortTimout(any())).thenReturn(Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void shouldSupersedePendingCompileAttempts() throws Exception {
+        CompileAttempt pending = attempt(null);
+        CompileAttempt finished = attempt(Instant.now());
+        CompileAttempt tested = attempt(null);
+        status.getTestAttempts().add(TestAttempt.builder().uuid(UUID.randomUUID()).compileAttempt(tested).build());
+
+        CompileAttempt attempt = compileService.registerCompileAttempt(request);
+
+        assertThat(pending.getDateTimeEnd()).isNotNull();
+        assertThat(pending.getAborted()).isTrue();
+        assertThat(pending.getReason()).isEqualTo(JMSResponseHelper.SUPERSEDED);
+        // the compile of a test attempt is finished with the test attempt
+        assertThat(tested.getDateTimeEnd()).isNull();
+        assertThat(finished.getAborted()).isNull();
+        assertThat(attempt.getDateTimeEnd()).isNull();
+        verify(operationQueue).cancel(List.of(pending.getUuid()), JMSResponseHelper.SUPERSEDED);
+        verify(metricsService).registerSupersededAttempts(Operation.COMPILE, 1);
+    }
+
+    @Test
+    public void shouldNotSupersedeWhenDisabled() throws Exception {
+        mojServerProperties.getRuntime().setSupersedeAttempts(false);
+        CompileAttempt pending = attempt(null);
+
+        compileService.registerCompileAttempt(request);
+
+        assertThat(pending.getDateTimeEnd()).isNull();
+        verify(operationQueue, never()).cancel(any(), any());
+        verify(metricsService, never()).registerSupersededAttempts(any(), anyInt());
+    }
+
+    private CompileAttempt attempt(Instant ended) {
+        CompileAttempt ca = CompileAttempt.builder()
+                .uuid(UUID.randomUUID())
+                .assignmentStatus(status)
+                .dateTimeRegister(Instant.now())
+                .dateTimeEnd(ended)
+                .build();
+        status.getCompileAttempts().add(ca);
+        return ca;
+    }
+}
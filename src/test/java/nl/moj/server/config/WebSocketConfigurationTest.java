@@ -0,0 +1,89 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.access.AccessDeniedException;
+
+import nl.moj.server.user.service.TeamSessionRegistry;
+
+public class WebSocketConfigurationTest {
+
+    private final TeamSessionRegistry registry = new TeamSessionRegistry();
+    private final WebSocketConfiguration.TeamSubscriptionInterceptor interceptor = new WebSocketConfiguration.TeamSubscriptionInterceptor(
+            registry);
+    private final MessageChannel channel = mock(MessageChannel.class);
+
+    @Test
+    public void shouldOnlyAllowTeamMembersToSubscribeToTeamDestination() {
+        UUID team = UUID.randomUUID();
+        registry.connected("s1", team, "alice");
+
+        Message<?> own = subscribe("s1", TeamSessionRegistry.destination(team));
+        assertThat(interceptor.preSend(own, channel)).isSameAs(own);
+        assertThatThrownBy(() -> interceptor.preSend(subscribe("s1", TeamSessionRegistry.destination(UUID.randomUUID())),
+                channel)).isInstanceOf(AccessDeniedException.class);
+        assertThatThrownBy(() -> interceptor.preSend(subscribe("s2", TeamSessionRegistry.destination(team)),
+                channel)).isInstanceOf(AccessDeniedException.class);
+    }
+
+    @Test
+    public void shouldAllowPublicDestinations() {
+        Message<?> message = subscribe("s1", "/queue/session");
+        assertThat(interceptor.preSend(message, channel)).isSameAs(message);
+    }
+
+    @Test
+    public void shouldRejectDestinationPatterns() {
+        UUID team = UUID.randomUUID();
+        registry.connected("s1", team, "alice");
+
+        for (String destination : new String[] { "/topic/**", "/topic/*/" + team, "/topic/team/*",
+                "/topic/team/{team}", "/topic/team/" + team.toString().replace('a', '?'), "/**" }) {
+            assertThatThrownBy(() -> interceptor.preSend(subscribe("s1", destination), channel))
+                    .as(destination)
+                    .isInstanceOf(AccessDeniedException.class);
+        }
+    }
+
+    @Test
+    public void shouldIgnoreOtherCommands() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SEND);
+        accessor.setSessionId("s1");
+        accessor.setDestination("/topic/**");
+        Message<?> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        assertThat(interceptor.preSend(message, channel)).isSameAs(message);
+    }
+
+    private Message<?> subscribe(String sessionId, String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,241 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.message.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.ProducerCallback;
+import org.springframework.jms.support.converter.MessageConverter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime;
+import nl.moj.common.messages.JMSCompileRequest;
+import nl.moj.common.messages.JMSCompileResponse;
+import nl.moj.common.messages.JMSSubmitRequest;
+import nl.moj.common.messages.JMSTestCaseResponse;
+import nl.moj.common.messages.JMSTestRequest;
+import nl.moj.common.messages.JMSTestResponse;
+import nl.moj.common.messages.Operation;
+
+public class OperationQueueTest {
+
+    private JmsTemplate jmsTemplate;
+    private MessageProducer producer;
+    private Message message;
+    private SimpleMeterRegistry meterRegistry;
+    private MojServerProperties mojServerProperties;
+    private OperationQueue queue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void init() throws Exception {
+        jmsTemplate = mock(JmsTemplate.class);
+        producer = mock(MessageProducer.class);
+        Session session = mock(Session.class);
+        MessageConverter converter = mock(MessageConverter.class);
+        message = mock(Message.class);
+        when(converter.toMessage(any(), any())).thenReturn(message);
+        when(jmsTemplate.getMessageConverter()).thenReturn(converter);
+        when(jmsTemplate.execute(eq(OperationQueue.REQUEST_DESTINATION), any(ProducerCallback.class)))
+                .thenAnswer(i -> i.getArgument(1, ProducerCallback.class).doInJms(session, producer));
+        meterRegistry = new SimpleMeterRegistry();
+        mojServerProperties = new MojServerProperties();
+        queue = new OperationQueue(jmsTemplate, mojServerProperties, meterRegistry);
+    }
+
+    @Test
+    public void shouldSendWithPriorityOfOperation() throws Exception {
+        queue.send(JMSSubmitRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        verify(producer).send(any(Message.class), anyInt(), eq(Operation.SUBMIT.getPriority()), anyLong());
+
+        queue.send(JMSCompileRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        verify(producer).send(any(Message.class), anyInt(), eq(Operation.COMPILE.getPriority()), anyLong());
+
+        assertThat(Operation.SUBMIT.getPriority()).isGreaterThan(Operation.TEST.getPriority());
+        assertThat(Operation.TEST.getPriority()).isGreaterThan(Operation.COMPILE.getPriority());
+    }
+
+    @Test
+    public void shouldNotLetNewRequestsOvertakeAgedRequest() throws Exception {
+        mojServerProperties.getRuntime().setPriorityAgingTimeout(Duration.ZERO);
+        UUID compile = UUID.randomUUID();
+        queue.send(JMSCompileRequest.builder().attempt(compile).build(), null, null);
+
+        queue.send(JMSSubmitRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        verify(producer, times(3)).send(any(Message.class), anyInt(), eq(Operation.COMPILE.getPriority()),
+                anyLong());
+
+        // once the compile is done the others only wait for each other
+        queue.received(JMSCompileResponse.builder().attempt(compile).build());
+        queue.send(JMSSubmitRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        verify(producer).send(any(Message.class), anyInt(), eq(Operation.TEST.getPriority()), anyLong());
+    }
+
+    @Test
+    public void shouldLetNewRequestsOvertakeRecentRequest() throws Exception {
+        queue.send(JMSCompileRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        queue.send(JMSSubmitRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+
+        verify(producer).send(any(Message.class), anyInt(), eq(Operation.SUBMIT.getPriority()), anyLong());
+    }
+
+    @Test
+    public void shouldCountPendingRequestsPerOperation() {
+        UUID attempt = UUID.randomUUID();
+        queue.send(JMSCompileRequest.builder().attempt(attempt).build(), null, null);
+        queue.send(JMSCompileRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        assertThat(queue.getPending(Operation.COMPILE)).isEqualTo(2);
+        assertThat(queue.getPending(Operation.SUBMIT)).isZero();
+
+        queue.received(JMSCompileResponse.builder().attempt(attempt).build());
+        // a second response for the same attempt is not counted
+        queue.received(JMSCompileResponse.builder().attempt(attempt).build());
+
+        assertThat(meterRegistry.get("moj.operation.pending").tag("operation", "compile").gauge().value())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("moj.operation.response").tag("operation", "compile").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSendToAnyWorkerWithoutAffinity() throws Exception {
+        queue.send(JMSCompileRequest.builder().attempt(UUID.randomUUID()).build(), UUID.randomUUID(),
+                UUID.randomUUID());
+
+        verify(message, never()).setStringProperty(eq(OperationQueue.GROUP_PROPERTY), any());
+        assertThat(routed("compile", "any")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldGroupRequestsByTeam() throws Exception {
+        mojServerProperties.getRuntime().getRouting().setAffinity(Runtime.Affinity.TEAM);
+        UUID team = UUID.randomUUID();
+
+        queue.send(JMSCompileRequest.builder().attempt(UUID.randomUUID()).build(), UUID.randomUUID(), team);
+
+        verify(message).setStringProperty(OperationQueue.GROUP_PROPERTY, "team-" + team);
+        assertThat(routed("compile", "affinity")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldSpreadTeamsOfAnAssignmentOverShards() throws Exception {
+        mojServerProperties.getRuntime().getRouting().setAffinity(Runtime.Affinity.ASSIGNMENT);
+        mojServerProperties.getRuntime().getRouting().setAssignmentShards(4);
+        UUID assignment = UUID.randomUUID();
+        Set<String> groups = new HashSet<>();
+        doAnswer(i -> groups.add(i.getArgument(1))).when(message)
+                .setStringProperty(eq(OperationQueue.GROUP_PROPERTY), any());
+
+        for (int i = 0; i < 100; i++) {
+            queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), assignment, UUID.randomUUID());
+        }
+
+        assertThat(groups).hasSize(4).allMatch(g -> g.startsWith("assignment-" + assignment + "-"));
+    }
+
+    @Test
+    public void shouldMoveGroupAwayFromWorkerWithTooManyPending() throws Exception {
+        mojServerProperties.getRuntime().getRouting().setAffinity(Runtime.Affinity.TEAM);
+        mojServerProperties.getRuntime().getRouting().setMaxPending(2);
+        UUID team = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+
+        queue.send(JMSTestRequest.builder().attempt(first).build(), null, team);
+        queue.received(JMSTestResponse.builder().attempt(first).worker("worker-1").build());
+        // pinned to worker-1 now, which does not respond
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, team);
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, team);
+        verify(message, times(3)).setStringProperty(OperationQueue.GROUP_PROPERTY, "team-" + team);
+
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, team);
+
+        verify(message).setStringProperty(OperationQueue.GROUP_PROPERTY, "team-" + team + "-1");
+        assertThat(meterRegistry.get("moj.operation.group.reassigned").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldPinGroupOnFirstTestCaseResult() throws Exception {
+        mojServerProperties.getRuntime().getRouting().setAffinity(Runtime.Affinity.TEAM);
+        mojServerProperties.getRuntime().getRouting().setMaxPending(2);
+        UUID team = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+
+        queue.send(JMSTestRequest.builder().attempt(first).build(), null, team);
+        // still running, but known to run on worker-1
+        queue.progress(JMSTestCaseResponse.builder().attempt(first).worker("worker-1").build());
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, team);
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, team);
+
+        verify(message, times(2)).setStringProperty(OperationQueue.GROUP_PROPERTY, "team-" + team);
+        verify(message).setStringProperty(OperationQueue.GROUP_PROPERTY, "team-" + team + "-1");
+        assertThat(queue.getPending(Operation.TEST)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldForgetIdleGroups() throws Exception {
+        mojServerProperties.getRuntime().getRouting().setAffinity(Runtime.Affinity.TEAM);
+        mojServerProperties.getRuntime().getRouting().setGroupIdleTimeout(Duration.ZERO);
+        UUID idle = UUID.randomUUID();
+        UUID busy = UUID.randomUUID();
+
+        queue.send(JMSTestRequest.builder().attempt(idle).build(), null, UUID.randomUUID());
+        queue.received(JMSTestResponse.builder().attempt(idle).worker("worker-1").build());
+        queue.send(JMSTestRequest.builder().attempt(busy).build(), null, UUID.randomUUID());
+        assertThat(groups()).isEqualTo(1);
+
+        // groups with pending requests are kept
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        assertThat(groups()).isEqualTo(1);
+
+        queue.received(JMSTestResponse.builder().attempt(busy).worker("worker-1").build());
+        queue.send(JMSTestRequest.builder().attempt(UUID.randomUUID()).build(), null, null);
+        assertThat(groups()).isZero();
+    }
+
+    private double groups() {
+        return meterRegistry.get("moj.operation.groups").gauge().value();
+    }
+
+    private double routed(String operation, String routing) {
+        return meterRegistry.get("moj.operation.routed").tag("operation", operation).tag("routing", routing)
+                .counter().count();
+    }
+}
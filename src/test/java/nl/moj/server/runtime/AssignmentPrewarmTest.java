@@ -0,0 +1,80 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.messages.JMSPrewarmResponse;
+import nl.moj.server.competition.model.CompetitionAssignment;
+import nl.moj.server.message.service.PrewarmService;
+
+@SpringBootTest
+public class AssignmentPrewarmTest extends BaseRuntimeTest {
+
+    @Autowired
+    private AssignmentRuntime assignmentRuntime;
+
+    @Autowired
+    private CompetitionRuntime competitionRuntime;
+
+    @Autowired
+    private PrewarmService prewarmService;
+
+    @Autowired
+    private MojServerProperties mojServerProperties;
+
+    @BeforeEach
+    public void enablePrewarm() {
+        mojServerProperties.getRuntime().setPrewarmAssignments(true);
+    }
+
+    @AfterEach
+    public void disablePrewarm() {
+        mojServerProperties.getRuntime().setPrewarmAssignments(false);
+    }
+
+    @Test
+    public void shouldPrewarmWorkersWhenAssignmentStarts() throws Exception {
+        CompetitionAssignment oa = getAssignment("parallel");
+        assignmentRuntime.start(competitionRuntime.getSessionId(), oa.getAssignment().getUuid());
+
+        assertThat(prewarmService.getCurrent()).hasValueSatisfying(
+                r -> assertThat(r.assignment()).isEqualTo(oa.getAssignment().getUuid()));
+
+        Instant deadline = Instant.now().plus(Duration.ofSeconds(30));
+        List<JMSPrewarmResponse> responses = prewarmService.getResponses();
+        while (responses.isEmpty() && Instant.now().isBefore(deadline)) {
+            Thread.sleep(100);
+            responses = prewarmService.getResponses();
+        }
+
+        assertThat(responses).hasSize(1);
+        assertThat(responses.get(0).getAssignment()).isEqualTo(oa.getAssignment().getUuid());
+        assertThat(responses.get(0).isSuccess()).isTrue();
+    }
+}
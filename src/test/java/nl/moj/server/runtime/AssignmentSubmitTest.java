@@ -40,7 +40,7 @@ import nl.moj.server.submit.model.SubmitAttempt;
 import nl.moj.server.test.model.TestAttempt;
 
 /**
- * During integration testing this class is executed twice, one for sequential and one for parallel.
+ * During integration testing this class is executed three times, for sequential, parallel and batch test execution.
  * This test validates the Assignment Submit.
  * - with a long timeout ==> user gets zero points (because the solution is invalidated by timeout constraints)
  * - without timeout on first submit ==> users gets a score (while session running)
@@ -59,7 +59,7 @@ public class AssignmentSubmitTest extends BaseRuntimeTest {
     private AssignmentService assignmentService;
 
     private static Stream<String> assignments() {
-        return Stream.of("sequential", "parallel");
+        return Stream.of("sequential", "parallel", "batch");
     }
 
     @ParameterizedTest
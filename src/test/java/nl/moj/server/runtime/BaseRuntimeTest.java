@@ -65,6 +65,8 @@ import nl.moj.server.submit.repository.SubmitAttemptRepository;
 import nl.moj.server.support.TestJmsListener;
 import nl.moj.server.teams.model.Team;
 import nl.moj.server.teams.repository.TeamRepository;
+import nl.moj.server.teams.service.SourceSnapshotService;
+import nl.moj.server.teams.service.TeamSourceStore;
 import nl.moj.server.test.model.TestAttempt;
 import nl.moj.server.test.repository.TestAttemptRepository;
 import nl.moj.server.user.model.User;
@@ -124,6 +126,12 @@ public abstract class BaseRuntimeTest {
     @Autowired
     private TransactionHelper trx;
 
+    @Autowired
+    private TeamSourceStore teamSourceStore;
+
+    @Autowired
+    private SourceSnapshotService sourceSnapshotService;
+
     @Getter
     private Competition competition;
 
@@ -183,6 +191,9 @@ public abstract class BaseRuntimeTest {
             }
             dbUtil.cleanup();
             mockJmsService.reset();
+            // not written into the data directory while it is deleted
+            teamSourceStore.flush();
+            sourceSnapshotService.awaitWrites();
             PathUtil.delete(mojServerProperties.getDataDirectory(), true);
         } catch (NullPointerException npe) {
             log.error("Nullpointer: {}", npe.getMessage(), npe);
@@ -0,0 +1,142 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import org.apache.tika.mime.MediaType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.server.runtime.model.AssignmentFile;
+import nl.moj.server.runtime.model.AssignmentFileType;
+
+public class JavaAssignmentFileResolverTest {
+
+    @TempDir
+    private Path dir;
+
+    private MojServerProperties mojServerProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private JavaAssignmentFileResolver resolver;
+
+    @BeforeEach
+    public void init() throws Exception {
+        Files.writeString(dir.resolve("Team.java"), "class Team {}");
+        Files.writeString(dir.resolve("Other.java"), "class Other {}");
+        mojServerProperties = new MojServerProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        resolver = new JavaAssignmentFileResolver(mojServerProperties, meterRegistry);
+    }
+
+    @Test
+    public void shouldReadContentOnceUntilChanged() throws Exception {
+        AssignmentFile file = convert("Team.java", AssignmentFileType.EDIT);
+
+        assertThat(file.getContentAsString()).isEqualTo("class Team {}");
+        assertThat(file.getContentAsString()).isEqualTo("class Team {}");
+        assertThat(count("hit")).isEqualTo(1);
+        assertThat(count("miss")).isEqualTo(1);
+
+        Path path = dir.resolve("Team.java");
+        Files.writeString(path, "class Team { int x; }");
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertThat(file.getContentAsString()).isEqualTo("class Team { int x; }");
+        assertThat(count("miss")).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeepUuidWhenResolvedAgain() {
+        AssignmentFile first = convert("Team.java", AssignmentFileType.EDIT);
+        AssignmentFile second = convert("Team.java", AssignmentFileType.EDIT);
+        AssignmentFile other = convert("Team.java", AssignmentFileType.SOLUTION);
+
+        assertThat(second.getUuid()).isEqualTo(first.getUuid());
+        assertThat(other.getUuid()).isNotEqualTo(first.getUuid());
+        assertThat(first.getMediaType()).isEqualTo(MediaType.parse("text/x-java-source"));
+    }
+
+    @Test
+    public void shouldDetectMediaTypeAgainWhenChanged() throws Exception {
+        Path path = dir.resolve("data.bin");
+        Files.writeString(path, "%PDF-1.4\n");
+        assertThat(convert("data.bin", AssignmentFileType.RESOURCE).getMediaType())
+                .isEqualTo(MediaType.application("pdf"));
+
+        Files.write(path, new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertThat(convert("data.bin", AssignmentFileType.RESOURCE).getMediaType())
+                .isEqualTo(MediaType.image("png"));
+    }
+
+    @Test
+    public void shouldNotCacheLargeFiles() {
+        mojServerProperties.getRuntime().getAssignmentFiles().setMaxCachedFileSize(DataSize.ofBytes(4));
+        AssignmentFile file = convert("Team.java", AssignmentFileType.EDIT);
+
+        file.getContent();
+        file.getContent();
+
+        assertThat(count("hit")).isZero();
+        assertThat(count("miss")).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedContent() {
+        mojServerProperties.getRuntime().getAssignmentFiles().setContentCacheSize(DataSize.ofBytes(20));
+        AssignmentFile team = convert("Team.java", AssignmentFileType.EDIT);
+        AssignmentFile other = convert("Other.java", AssignmentFileType.EDIT);
+
+        team.getContent();
+        other.getContent();
+        other.getContent();
+        team.getContent();
+
+        assertThat(count("hit")).isEqualTo(1);
+        assertThat(count("miss")).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotReadContentToCompareOrPrint() {
+        AssignmentFile team = convert("Team.java", AssignmentFileType.EDIT);
+        AssignmentFile again = convert("Team.java", AssignmentFileType.EDIT);
+
+        assertThat(team).isEqualTo(again).hasSameHashCodeAs(again);
+        assertThat(team.toString()).doesNotContain("class Team");
+        assertThat(count("miss")).isZero();
+        assertThat(count("hit")).isZero();
+    }
+
+    private AssignmentFile convert(String file, AssignmentFileType type) {
+        return resolver.convertToAssignmentFile("assignment", dir, null, Path.of(file), type, false);
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("moj.assignment.file.cache", "result", result).count();
+    }
+}
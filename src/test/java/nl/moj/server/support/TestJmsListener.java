@@ -11,8 +11,10 @@ import org.springframework.jms.annotation.JmsListener;
 import org.springframework.stereotype.Service;
 
 import nl.moj.common.messages.JMSResponse;
+import nl.moj.common.messages.JMSTestCaseResponse;
 import nl.moj.server.compiler.service.CompileService;
 import nl.moj.server.message.service.JmsMessageListener;
+import nl.moj.server.message.service.OperationQueue;
 import nl.moj.server.submit.service.SubmitService;
 import nl.moj.server.test.service.TestService;
 
@@ -22,8 +24,9 @@ public class TestJmsListener extends JmsMessageListener {
 
     private final Map<UUID, CountDownLatch> latches = new ConcurrentHashMap<>();
 
-    public TestJmsListener(SubmitService submitService, CompileService compileService, TestService testService) {
-        super(submitService, compileService, testService);
+    public TestJmsListener(SubmitService submitService, CompileService compileService, TestService testService,
+            OperationQueue operationQueue) {
+        super(submitService, compileService, testService, operationQueue);
     }
 
     public void reset() {
@@ -36,7 +39,10 @@ public class TestJmsListener extends JmsMessageListener {
         try {
             super.receiveOperationResponse(response);
         } finally {
-            countDown(response.getAttempt());
+            // partial results do not complete the attempt
+            if (!(response instanceof JMSTestCaseResponse)) {
+                countDown(response.getAttempt());
+            }
         }
 
     }
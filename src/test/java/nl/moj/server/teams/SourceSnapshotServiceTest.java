@@ -0,0 +1,139 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.teams;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.FileSystemUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.CommonConfig;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.teams.model.SourceSnapshot;
+import nl.moj.server.teams.service.SourceSnapshotService;
+
+public class SourceSnapshotServiceTest {
+
+    private static final Path TEAM_JAVA = Path.of("src", "Team.java");
+    private static final Path HELPER_JAVA = Path.of("src", "Helper.java");
+
+    @TempDir
+    private Path dataDirectory;
+
+    private StorageService storageService;
+    private SimpleMeterRegistry meterRegistry;
+    private SourceSnapshotService service;
+
+    @BeforeEach
+    public void init() {
+        MojServerProperties mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(dataDirectory);
+        storageService = new StorageService(mojServerProperties);
+        meterRegistry = new SimpleMeterRegistry();
+        service = new SourceSnapshotService(storageService, new CommonConfig().jsonObjectMapper(), meterRegistry);
+    }
+
+    @Test
+    public void shouldReturnSourcesOfAttempt() throws Exception {
+        Path directory = teamAssignmentDirectory();
+        UUID attempt = UUID.randomUUID();
+        Map<Path, String> sources = Map.of(TEAM_JAVA, "class Team {}", HELPER_JAVA, "class Helper {}");
+
+        service.write(directory, attempt, SourceSnapshot.Kind.TEST, Instant.now(), sources);
+
+        SourceSnapshot snapshot = service.getSnapshot(directory, attempt).orElseThrow();
+        assertThat(snapshot.getKind()).isEqualTo(SourceSnapshot.Kind.TEST);
+        assertThat(service.getSources(snapshot)).isEqualTo(sources);
+        assertThat(service.getSnapshot(directory, UUID.randomUUID())).isEmpty();
+    }
+
+    @Test
+    public void shouldStoreSameContentOnce() throws Exception {
+        Path one = teamAssignmentDirectory();
+        Path other = teamAssignmentDirectory();
+        String starter = "class Helper {}";
+
+        service.write(one, UUID.randomUUID(), SourceSnapshot.Kind.COMPILE, Instant.now(),
+                Map.of(TEAM_JAVA, "class Team {}", HELPER_JAVA, starter));
+        service.write(one, UUID.randomUUID(), SourceSnapshot.Kind.COMPILE, Instant.now(),
+                Map.of(TEAM_JAVA, "class Team {}", HELPER_JAVA, starter));
+        service.write(other, UUID.randomUUID(), SourceSnapshot.Kind.SUBMIT, Instant.now(),
+                Map.of(TEAM_JAVA, "class Team { int x; }", HELPER_JAVA, starter));
+
+        try (Stream<Path> blobs = Files.walk(storageService.getSnapshotBlobsFolder())) {
+            assertThat(blobs.filter(Files::isRegularFile).count()).isEqualTo(3);
+        }
+        assertThat(meterRegistry.counter("moj.source.snapshots.files", "result", "stored").count()).isEqualTo(3);
+        assertThat(meterRegistry.counter("moj.source.snapshots.files", "result", "deduplicated").count()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldStoreContentAgainWhenBlobsWereRemoved() throws Exception {
+        Path directory = teamAssignmentDirectory();
+        service.write(directory, UUID.randomUUID(), SourceSnapshot.Kind.COMPILE, Instant.now(),
+                Map.of(TEAM_JAVA, "class Team {}"));
+        FileSystemUtils.deleteRecursively(storageService.getSnapshotBlobsFolder());
+
+        UUID attempt = UUID.randomUUID();
+        service.write(directory, attempt, SourceSnapshot.Kind.TEST, Instant.now(), Map.of(TEAM_JAVA, "class Team {}"));
+
+        assertThat(service.getSources(service.getSnapshot(directory, attempt).orElseThrow()))
+                .isEqualTo(Map.of(TEAM_JAVA, "class Team {}"));
+    }
+
+    @Test
+    public void shouldWriteSnapshotsInBackground() throws Exception {
+        Path directory = teamAssignmentDirectory();
+        UUID attempt = UUID.randomUUID();
+
+        service.snapshot(directory, attempt, SourceSnapshot.Kind.TEST, Map.of(TEAM_JAVA, "class Team {}"));
+        service.awaitWrites();
+
+        assertThat(service.getSnapshot(directory, attempt)).isPresent();
+    }
+
+    @Test
+    public void shouldListSnapshotsOldestFirst() throws Exception {
+        Path directory = teamAssignmentDirectory();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        Instant now = Instant.now();
+
+        service.write(directory, second, SourceSnapshot.Kind.TEST, now, Map.of(TEAM_JAVA, "class Team { int x; }"));
+        service.write(directory, first, SourceSnapshot.Kind.COMPILE, now.minusSeconds(10),
+                Map.of(TEAM_JAVA, "class Team {}"));
+
+        assertThat(service.getSnapshots(directory)).extracting(SourceSnapshot::getAttempt).containsExactly(first,
+                second);
+        assertThat(service.getSnapshots(teamAssignmentDirectory())).isEmpty();
+    }
+
+    private Path teamAssignmentDirectory() {
+        return storageService.getSessionTeamFolder(UUID.randomUUID(), UUID.randomUUID()).resolve("assignment");
+    }
+}
@@ -0,0 +1,205 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.teams;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
+import nl.moj.server.teams.service.TeamSourceStore;
+
+public class TeamSourceStoreTest {
+
+    private static final Path TEAM_JAVA = Path.of("src", "Team.java");
+
+    @TempDir
+    private Path dataDirectory;
+
+    private MojServerProperties mojServerProperties;
+    private StorageService storageService;
+    private SimpleMeterRegistry meterRegistry;
+    private TeamSourceStore store;
+    private Path directory;
+
+    @BeforeEach
+    public void init() {
+        mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(dataDirectory);
+        // flushed by the tests
+        mojServerProperties.getRuntime().getTeamSources().setFlushInterval(Duration.ofHours(1));
+        storageService = new StorageService(mojServerProperties);
+        meterRegistry = new SimpleMeterRegistry();
+        store = new TeamSourceStore(mojServerProperties, storageService, meterRegistry);
+        directory = storageService.getSessionTeamFolder(UUID.randomUUID(), UUID.randomUUID())
+                .resolve("assignment").resolve("sources");
+    }
+
+    @AfterEach
+    public void shutdown() {
+        store.shutdown();
+    }
+
+    @Test
+    public void shouldServeSourcesFromMemoryUntilFlushed() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+
+        assertThat(store.read(directory, TEAM_JAVA)).isEqualTo("class Team {}");
+        assertThat(directory.resolve(TEAM_JAVA)).doesNotExist();
+
+        store.flush();
+
+        assertThat(directory.resolve(TEAM_JAVA)).hasContent("class Team {}");
+        assertThat(storageService.getTeamSourcesJournal()).doesNotExist();
+    }
+
+    @Test
+    public void shouldWriteOnlyLatestContent() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+        store.write(directory, Map.of(TEAM_JAVA, "class Team { int x; }"));
+
+        store.flush();
+
+        assertThat(directory.resolve(TEAM_JAVA)).hasContent("class Team { int x; }");
+        assertThat(meterRegistry.counter("moj.team.sources.writes").count()).isEqualTo(2);
+        assertThat(meterRegistry.counter("moj.team.sources.disk.writes").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLoadSourcesSavedBefore() throws Exception {
+        Files.createDirectories(directory.resolve(TEAM_JAVA).getParent());
+        Files.writeString(directory.resolve(TEAM_JAVA), "class Team {}");
+        store.start();
+
+        assertThat(store.read(directory, TEAM_JAVA)).isEqualTo("class Team {}");
+        assertThat(store.read(directory, Path.of("Other.java"))).isNull();
+    }
+
+    @Test
+    public void shouldNotWriteDeletedDirectory() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+
+        store.delete(directory.getParent());
+        store.flush();
+
+        assertThat(directory).doesNotExist();
+        assertThat(store.read(directory, TEAM_JAVA)).isNull();
+    }
+
+    @Test
+    public void shouldRecoverSavesNotFlushedBeforeCrash() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+        store.flush();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team { int x; }"));
+
+        crash();
+
+        assertThat(directory.resolve(TEAM_JAVA)).hasContent("class Team { int x; }");
+        assertThat(storageService.getTeamSourcesJournal()).doesNotExist();
+    }
+
+    @Test
+    public void shouldNotRecoverDeletedDirectory() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+        store.delete(directory.getParent());
+
+        crash();
+
+        assertThat(directory).doesNotExist();
+    }
+
+    @Test
+    public void shouldKeepFilesCreatedAfterDeleteOnRecovery() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+        store.delete(directory.getParent());
+        Path snapshot = directory.resolveSibling("snapshots").resolve("attempt.json");
+        Files.createDirectories(snapshot.getParent());
+        Files.writeString(snapshot, "{}");
+
+        crash();
+
+        assertThat(snapshot).exists();
+        assertThat(directory).doesNotExist();
+    }
+
+    @Test
+    public void shouldDropReleasedSourcesOnceWritten() throws Exception {
+        store.start();
+        store.write(directory, Map.of(TEAM_JAVA, "class Team {}"));
+
+        store.release(directory.getParent());
+        assertThat(store.read(directory, TEAM_JAVA)).isEqualTo("class Team {}");
+        assertThat(meterRegistry.counter("moj.team.sources.reads", "source", "disk").count()).isZero();
+
+        store.flush();
+        assertThat(store.read(directory, TEAM_JAVA)).isEqualTo("class Team {}");
+        assertThat(meterRegistry.counter("moj.team.sources.reads", "source", "disk").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRecoverFromJournal() throws Exception {
+        Path journal = storageService.getTeamSourcesJournal();
+        Files.createDirectories(journal.getParent());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(journal))) {
+            record(out, directory.resolve(TEAM_JAVA).toString(), "class Team {}");
+            record(out, directory.resolve(TEAM_JAVA).toString(), "class Team { int x; }");
+            // cut off by the crash
+            out.writeInt(100);
+            out.write("/tmp".getBytes(StandardCharsets.UTF_8));
+        }
+
+        store.start();
+
+        assertThat(directory.resolve(TEAM_JAVA)).hasContent("class Team { int x; }");
+        assertThat(journal).doesNotExist();
+    }
+
+    /**
+     * Replaces the store without flushing it, as a restart after a crash does.
+     */
+    private void crash() {
+        store = new TeamSourceStore(mojServerProperties, storageService, meterRegistry);
+        store.start();
+    }
+
+    private static void record(DataOutputStream out, String file, String content) throws Exception {
+        for (String value : new String[] { file, content }) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.test.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.TaskScheduler;
+
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.messages.JMSTestCaseResponse;
+import nl.moj.common.messages.JMSTestCaseResult;
+import nl.moj.common.messages.JMSTestResponse;
+import nl.moj.common.messages.Operation;
+import nl.moj.server.assignment.model.Assignment;
+import nl.moj.server.assignment.service.AssignmentService;
+import nl.moj.server.competition.model.CompetitionSession;
+import nl.moj.server.compiler.model.CompileAttempt;
+import nl.moj.server.compiler.service.CompileService;
+import nl.moj.server.message.service.MessageService;
+import nl.moj.server.message.service.OperationQueue;
+import nl.moj.server.metrics.MetricsService;
+import nl.moj.server.runtime.model.TeamAssignmentStatus;
+import nl.moj.server.runtime.repository.TeamAssignmentStatusRepository;
+import nl.moj.server.submit.model.SubmitAttempt;
+import nl.moj.server.teams.model.Team;
+import nl.moj.server.teams.service.SourceSnapshotService;
+import nl.moj.server.teams.service.TeamService;
+import nl.moj.server.test.model.TestAttempt;
+import nl.moj.server.test.model.TestCase;
+import nl.moj.server.test.repository.TestAttemptRepository;
+import nl.moj.server.test.repository.TestCaseRepository;
+import nl.moj.server.util.JMSResponseHelper;
+import nl.moj.server.util.TransactionHelper;
+
+public class TestServiceTest {
+
+    private TestCaseRepository testCaseRepository;
+    private TestAttemptRepository testAttemptRepository;
+    private TeamAssignmentStatusRepository teamAssignmentStatusRepository;
+    private CompileService compileService;
+    private OperationQueue operationQueue;
+    private MessageService messageService;
+    private AssignmentService assignmentService;
+    private MetricsService metricsService;
+    private TestService testService;
+
+    private TestAttempt testAttempt;
+    private TestCase first;
+    private TestCase second;
+
+    @BeforeEach
+    public void init() {
+        testCaseRepository = mock(TestCaseRepository.class);
+        testAttemptRepository = mock(TestAttemptRepository.class);
+        teamAssignmentStatusRepository = mock(TeamAssignmentStatusRepository.class);
+        compileService = mock(CompileService.class);
+        operationQueue = mock(OperationQueue.class);
+        messageService = mock(MessageService.class);
+        assignmentService = mock(AssignmentService.class);
+        metricsService = mock(MetricsService.class);
+        testService = new TestService(compileService, testCaseRepository, testAttemptRepository,
+                teamAssignmentStatusRepository, mock(TeamService.class), operationQueue, messageService,
+                new JMSResponseHelper(), assignmentService, mock(TaskScheduler.class), mock(TransactionHelper.class),
+                metricsService, new MojServerProperties(), mock(SourceSnapshotService.class));
+
+        testAttempt = TestAttempt.builder()
+                .uuid(UUID.randomUUID())
+                .assignmentStatus(new TeamAssignmentStatus())
+                .dateTimeRegister(Instant.now())
+                .build();
+        first = TestCase.builder().uuid(UUID.randomUUID()).name("FirstTest").testAttempt(testAttempt).build();
+        second = TestCase.builder().uuid(UUID.randomUUID()).name("SecondTest").testAttempt(testAttempt).build();
+        testAttempt.getTestCases().addAll(List.of(first, second));
+        when(testAttemptRepository.findByUuidForUpdate(testAttempt.getUuid())).thenReturn(testAttempt);
+        when(testAttemptRepository.save(any())).thenAnswer(i -> i.getArgument(0));
+    }
+
+    @Test
+    public void shouldStoreAndSendTestCaseResultAsSoonAsReceived() {
+        testService.receiveTestCaseResponse(testCaseResponse(first, "first"));
+
+        assertThat(first.getDateTimeEnd()).isNotNull();
+        assertThat(first.getTestOutput()).isEqualTo("first");
+        assertThat(second.getDateTimeEnd()).isNull();
+        assertThat(testAttempt.getDateTimeEnd()).isNull();
+        verify(testCaseRepository).save(first);
+        verify(messageService).sendTestFeedback(testAttempt, first);
+    }
+
+    @Test
+    public void shouldIgnoreDuplicateTestCaseResult() {
+        testService.receiveTestCaseResponse(testCaseResponse(first, "first"));
+        testService.receiveTestCaseResponse(testCaseResponse(first, "duplicate"));
+
+        assertThat(first.getTestOutput()).isEqualTo("first");
+        verify(testCaseRepository, times(1)).save(first);
+        verify(messageService, times(1)).sendTestFeedback(testAttempt, first);
+    }
+
+    @Test
+    public void shouldIgnoreTestCaseResultOfFinishedAttempt() {
+        testAttempt.setDateTimeEnd(Instant.now());
+
+        testService.receiveTestCaseResponse(testCaseResponse(first, "first"));
+
+        assertThat(first.getDateTimeEnd()).isNull();
+        verify(messageService, never()).sendTestFeedback(any(), any());
+    }
+
+    @Test
+    public void shouldNotSendTestCaseResultWhenNewerAttemptPending() {
+        when(testAttemptRepository.countNewerAttempts(any(), any())).thenReturn(1L);
+
+        testService.receiveTestCaseResponse(testCaseResponse(first, "first"));
+
+        assertThat(first.getTestOutput()).isEqualTo("first");
+        verify(messageService, never()).sendTestFeedback(any(), any());
+    }
+
+    @Test
+    public void shouldKeepStreamedResultsWhenAttemptCompletes() {
+        testService.receiveTestCaseResponse(testCaseResponse(first, "first"));
+
+        testService.receiveTestResponse(JMSTestResponse.builder()
+                .attempt(testAttempt.getUuid())
+                .started(Instant.now())
+                .ended(Instant.now())
+                .testCaseResults(List.of(testCaseResult(first, "aborted"), testCaseResult(second, "second")))
+                .build());
+
+        assertThat(testAttempt.getDateTimeEnd()).isNotNull();
+        assertThat(first.getTestOutput()).isEqualTo("first");
+        assertThat(second.getTestOutput()).isEqualTo("second");
+        verify(messageService, times(1)).sendTestFeedback(testAttempt, first);
+        verify(messageService).sendRemainingTestFeedback(testAttempt, Set.of(first.getUuid()));
+    }
+
+    @Test
+    public void shouldSupersedePendingTestAttempts() throws Exception {
+        TeamAssignmentStatus status = testAttempt.getAssignmentStatus();
+        Assignment assignment = Assignment.builder().id(1L).uuid(UUID.randomUUID()).name("assignment").build();
+        Team team = Team.builder().id(1L).uuid(UUID.randomUUID()).build();
+        CompetitionSession session = new CompetitionSession();
+        session.setId(1L);
+        session.setUuid(UUID.randomUUID());
+        status.setAssignment(assignment);
+        status.setTeam(team);
+        testAttempt.setCompileAttempt(CompileAttempt.builder().uuid(UUID.randomUUID())
+                .dateTimeRegister(Instant.now()).build());
+        TestAttempt submitted = TestAttempt.builder()
+                .uuid(UUID.randomUUID())
+                .assignmentStatus(status)
+                .dateTimeRegister(Instant.now())
+                .build();
+        status.getTestAttempts().addAll(List.of(testAttempt, submitted));
+        status.getSubmitAttempts().add(SubmitAttempt.builder().uuid(UUID.randomUUID()).testAttempt(submitted).build());
+        when(teamAssignmentStatusRepository.findByAssignment_IdAndCompetitionSession_IdAndTeam_Id(any(), any(),
+                any())).thenReturn(status);
+        when(compileService.prepareCompileAttempt(any())).thenReturn(new CompileAttempt());
+        when(testCaseRepository.save(any())).thenAnswer(i -> i.getArgument(0));
+        when(assignmentService.resolveTestAbortTimout(any(), anyInt())).thenReturn(Duration.ofMinutes(1));
+
+        TestAttempt attempt = testService.registerTestAttempt(TestRequest.builder()
+                .assignment(assignment)
+                .session(session)
+                .team(team)
+                .tests(List.of())
+                .sources(Map.of())
+                .build());
+
+        assertThat(testAttempt.getDateTimeEnd()).isNotNull();
+        assertThat(testAttempt.getAborted()).isTrue();
+        assertThat(testAttempt.getReason()).isEqualTo(JMSResponseHelper.SUPERSEDED);
+        assertThat(first.getReason()).isEqualTo(JMSResponseHelper.SUPERSEDED);
+        // the test attempt of a submit is finished with the submit
+        assertThat(submitted.getDateTimeEnd()).isNull();
+        assertThat(attempt.getDateTimeEnd()).isNull();
+        verify(operationQueue).cancel(List.of(testAttempt.getUuid()), JMSResponseHelper.SUPERSEDED);
+        verify(metricsService).registerSupersededAttempts(Operation.TEST, 1);
+        // superseded attempts are not registered as finished by a worker
+        verify(metricsService, never()).registerTestAttemptMetrics(any());
+    }
+
+    private JMSTestCaseResponse testCaseResponse(TestCase tc, String output) {
+        return JMSTestCaseResponse.builder()
+                .attempt(testAttempt.getUuid())
+                .testCaseResult(testCaseResult(tc, output))
+                .build();
+    }
+
+    private JMSTestCaseResult testCaseResult(TestCase tc, String output) {
+        return JMSTestCaseResult.builder()
+                .testCase(tc.getUuid())
+                .success(true)
+                .started(Instant.now())
+                .ended(Instant.now())
+                .output(output)
+                .build();
+    }
+}
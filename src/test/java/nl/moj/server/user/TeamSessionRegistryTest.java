@@ -0,0 +1,68 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.server.user;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import nl.moj.server.user.service.TeamSessionRegistry;
+
+public class TeamSessionRegistryTest {
+
+    private final TeamSessionRegistry registry = new TeamSessionRegistry();
+
+    @Test
+    public void shouldKeepUserConnectedUntilLastSessionDisconnects() {
+        UUID team = UUID.randomUUID();
+        registry.connected("s1", team, "alice");
+        registry.connected("s2", team, "alice");
+        registry.connected("s3", team, "bob");
+
+        registry.disconnected("s1");
+        assertThat(registry.getConnectedUsers(team)).containsExactlyInAnyOrder("alice", "bob");
+
+        registry.disconnected("s2");
+        registry.disconnected("s3");
+        assertThat(registry.getConnectedUsers(team)).isEmpty();
+        assertThat(registry.hasConnectedUsers(team)).isFalse();
+    }
+
+    @Test
+    public void shouldOnlyListUsersOfTeam() {
+        UUID team = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        registry.connected("s1", team, "alice");
+        registry.connected("s2", other, "carol");
+
+        assertThat(registry.getConnectedUsers(team)).containsExactly("alice");
+        assertThat(registry.getConnectedUsers(UUID.randomUUID())).isEmpty();
+    }
+
+    @Test
+    public void shouldOnlyAllowMembersToSubscribeToTeamDestination() {
+        UUID team = UUID.randomUUID();
+        registry.connected("s1", team, "alice");
+
+        assertThat(registry.maySubscribe("s1", TeamSessionRegistry.destination(team))).isTrue();
+        assertThat(registry.maySubscribe("s1", TeamSessionRegistry.destination(UUID.randomUUID()))).isFalse();
+        assertThat(registry.maySubscribe("unknown", TeamSessionRegistry.destination(team))).isFalse();
+        assertThat(registry.maySubscribe("unknown", "/queue/session")).isTrue();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import nl.moj.common.messages.JMSCancel;
+
+public class CancelledAttemptsTest {
+
+    private final CancelledAttempts cancelledAttempts = new CancelledAttempts();
+
+    @Test
+    void shouldReportCancelledAttempts() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        cancelledAttempts.receiveCancel(JMSCancel.builder()
+                .attempts(List.of(first, second))
+                .reason("Superseded by a newer attempt.")
+                .build());
+
+        assertThat(cancelledAttempts.getCancellation(first)).contains("Superseded by a newer attempt.");
+        assertThat(cancelledAttempts.getCancellation(second)).contains("Superseded by a newer attempt.");
+    }
+
+    @Test
+    void shouldNotReportOtherAttempts() {
+        cancelledAttempts.receiveCancel(JMSCancel.builder()
+                .attempts(List.of(UUID.randomUUID()))
+                .reason("Superseded by a newer attempt.")
+                .build());
+
+        assertThat(cancelledAttempts.getCancellation(UUID.randomUUID())).isEmpty();
+        assertThat(cancelledAttempts.getCancellation(null)).isEmpty();
+    }
+}
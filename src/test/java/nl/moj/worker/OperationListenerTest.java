@@ -0,0 +1,118 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cloud.sleuth.Tracer;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.listener.MessageListenerContainer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.messages.JMSCompileRequest;
+import nl.moj.common.messages.JMSCompileResponse;
+import nl.moj.common.messages.JMSTestRequest;
+import nl.moj.common.messages.JMSTestResponse;
+import nl.moj.worker.java.JavaService;
+
+public class OperationListenerTest {
+
+    private JmsTemplate jmsTemplate;
+    private JavaService javaService;
+    private WorkerCredits workerCredits;
+    private OperationListener listener;
+
+    @BeforeEach
+    public void init() {
+        MojServerProperties mojServerProperties = new MojServerProperties();
+        mojServerProperties.getRuntime().getCredits().setMax(2);
+        JmsListenerEndpointRegistry registry = mock(JmsListenerEndpointRegistry.class);
+        when(registry.getListenerContainer(OperationListener.LISTENER_ID))
+                .thenReturn(mock(MessageListenerContainer.class));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        jmsTemplate = mock(JmsTemplate.class);
+        javaService = mock(JavaService.class);
+        workerCredits = new WorkerCredits(mojServerProperties, registry, meterRegistry);
+        CancelledAttempts cancelledAttempts = mock(CancelledAttempts.class);
+        when(cancelledAttempts.getCancellation(any())).thenReturn(Optional.empty());
+        WorkerService workerService = mock(WorkerService.class);
+        when(workerService.getWorkerIdentification()).thenReturn("worker");
+        listener = new OperationListener(jmsTemplate, javaService, workerService, workerCredits, cancelledAttempts,
+                meterRegistry, mock(Tracer.class, RETURNS_DEEP_STUBS));
+    }
+
+    @Test
+    public void shouldSendAbortedResponseWhenCompileFails() throws Exception {
+        JMSCompileRequest request = JMSCompileRequest.builder()
+                .attempt(UUID.randomUUID())
+                .assignment(UUID.randomUUID())
+                .sources(List.of())
+                .build();
+        when(javaService.compile(eq(request), any()))
+                .thenReturn(CompletableFuture.failedFuture(new UncheckedIOException(new IOException("disk full"))));
+
+        listener.receiveOperationRequest(request, System.currentTimeMillis());
+
+        ArgumentCaptor<JMSCompileResponse> response = ArgumentCaptor.forClass(JMSCompileResponse.class);
+        verify(jmsTemplate).convertAndSend(anyString(), response.capture());
+        assertThat(response.getValue().getAttempt()).isEqualTo(request.getAttempt());
+        assertThat(response.getValue().isAborted()).isTrue();
+        assertThat(response.getValue().getReason()).contains("disk full");
+        assertThat(workerCredits.getInFlight()).isZero();
+    }
+
+    @Test
+    public void shouldSendAbortedResponseWhenTestFailsLater() throws Exception {
+        JMSTestRequest request = JMSTestRequest.builder()
+                .attempt(UUID.randomUUID())
+                .assignment(UUID.randomUUID())
+                .sources(List.of())
+                .tests(List.of())
+                .build();
+        CompletableFuture<JMSTestResponse> result = new CompletableFuture<>();
+        when(javaService.test(eq(request), any(), any())).thenReturn(result);
+
+        listener.receiveOperationRequest(request, System.currentTimeMillis());
+        assertThat(workerCredits.getInFlight()).isEqualTo(1);
+        result.completeExceptionally(new IllegalStateException("runner crashed"));
+
+        ArgumentCaptor<JMSTestResponse> response = ArgumentCaptor.forClass(JMSTestResponse.class);
+        verify(jmsTemplate).convertAndSend(anyString(), response.capture());
+        assertThat(response.getValue().isAborted()).isTrue();
+        assertThat(response.getValue().getReason()).isEqualTo("runner crashed");
+        assertThat(workerCredits.getInFlight()).isZero();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jms.config.JmsListenerEndpointRegistry;
+import org.springframework.jms.listener.MessageListenerContainer;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.config.properties.Runtime.Credits;
+
+public class WorkerCreditsTest {
+
+    private MessageListenerContainer container;
+    private SimpleMeterRegistry meterRegistry;
+    private WorkerCredits credits;
+
+    @BeforeEach
+    public void init() {
+        MojServerProperties mojServerProperties = new MojServerProperties();
+        mojServerProperties.getRuntime().getCredits().setMax(2);
+        JmsListenerEndpointRegistry registry = mock(JmsListenerEndpointRegistry.class);
+        container = mock(MessageListenerContainer.class);
+        when(registry.getListenerContainer(OperationListener.LISTENER_ID)).thenReturn(container);
+        meterRegistry = new SimpleMeterRegistry();
+        credits = new WorkerCredits(mojServerProperties, registry, meterRegistry);
+    }
+
+    @Test
+    public void shouldPauseListenerWhenSaturated() throws Exception {
+        when(container.isRunning()).thenReturn(true);
+        credits.acquire();
+        assertThat(credits.getInFlight()).isEqualTo(1);
+        credits.acquire();
+        assertThat(meterRegistry.get("moj.worker.inflight").gauge().value()).isEqualTo(2);
+
+        verify(container, timeout(1000)).stop();
+
+        when(container.isRunning()).thenReturn(false);
+        credits.release();
+        verify(container, timeout(1000)).start();
+        assertThat(credits.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotPauseListenerBelowLimit() throws Exception {
+        when(container.isRunning()).thenReturn(true);
+        credits.acquire();
+        credits.release();
+        Thread.sleep(100);
+        verify(container, never()).stop();
+        verify(container, never()).start();
+    }
+
+    @Test
+    public void shouldDeriveLimitFromProcessorsAndMemory() {
+        Credits config = new Credits();
+        config.setPerCpu(1000);
+        config.setMemoryPerAttempt(DataSize.ofTerabytes(1000));
+        assertThat(WorkerCredits.limit(config)).isEqualTo(1);
+
+        config.setMemoryPerAttempt(DataSize.ofBytes(1));
+        config.setPerCpu(1);
+        assertThat(WorkerCredits.limit(config)).isEqualTo(java.lang.Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,184 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.assignment.service.AssignmentDescriptorService;
+import nl.moj.common.config.CommonConfig;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
+import nl.moj.common.util.ZipUtils;
+
+public class RemoteControllerClientTest {
+
+    private static final UUID ASSIGNMENT = UUID.randomUUID();
+    private static final String CONTENT = "http://controller/api/assignment/" + ASSIGNMENT + "/content";
+
+    @TempDir
+    Path temp;
+
+    private MojServerProperties mojServerProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private MockRestServiceServer server;
+    private RemoteControllerClient client;
+
+    @BeforeEach
+    public void init() {
+        mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(temp.resolve("data"));
+        mojServerProperties.setControllerEndpoint(URI.create("http://controller"));
+        meterRegistry = new SimpleMeterRegistry();
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        client = new RemoteControllerClient(mojServerProperties,
+                new AssignmentDescriptorService(new CommonConfig().yamlObjectMapper()), restTemplate,
+                new StorageService(mojServerProperties), meterRegistry);
+    }
+
+    @Test
+    public void shouldDownloadOnceForConcurrentRequests() throws Exception {
+        server.expect(ExpectedCount.once(), requestTo(CONTENT))
+                .andRespond(withSuccess(zip("first"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v1\"")));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<AssignmentDescriptor>> calls = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                calls.add(() -> client.getAssignmentDescriptor(ASSIGNMENT));
+            }
+            for (Future<AssignmentDescriptor> f : executor.invokeAll(calls)) {
+                assertThat(f.get().getName()).isEqualTo("first");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        server.verify();
+        try (var dirs = Files.list(temp.resolve("data").resolve("assignment-cache"))) {
+            assertThat(dirs.toList()).hasSize(1);
+        }
+    }
+
+    @Test
+    public void shouldRevalidateWithEtag() throws Exception {
+        mojServerProperties.getRuntime().getAssignmentCache().setRevalidateAfter(Duration.ZERO);
+        server.expect(requestTo(CONTENT))
+                .andRespond(withSuccess(zip("first"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v1\"")));
+        server.expect(requestTo(CONTENT)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        server.expect(requestTo(CONTENT)).andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+                .andRespond(withSuccess(zip("second"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v2\"")));
+
+        AssignmentDescriptor first = client.getAssignmentDescriptor(ASSIGNMENT);
+        Thread.sleep(5);
+        assertThat(client.getAssignmentDescriptor(ASSIGNMENT)).isSameAs(first);
+        Thread.sleep(5);
+        AssignmentDescriptor second = client.getAssignmentDescriptor(ASSIGNMENT);
+
+        server.verify();
+        assertThat(second.getName()).isEqualTo("second");
+        assertThat(second.getDirectory()).isNotEqualTo(first.getDirectory());
+        assertThat(meterRegistry.get("moj.assignment.download").tag("result", "downloaded").timer().count())
+                .isEqualTo(2);
+        assertThat(meterRegistry.get("moj.assignment.download").tag("result", "not-modified").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedVersions() throws Exception {
+        mojServerProperties.getRuntime().getAssignmentCache().setRevalidateAfter(Duration.ZERO);
+        mojServerProperties.getRuntime().getAssignmentCache().setMaxSize(DataSize.ofBytes(1));
+        server.expect(requestTo(CONTENT))
+                .andRespond(withSuccess(zip("first"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v1\"")));
+        server.expect(requestTo(CONTENT))
+                .andRespond(withSuccess(zip("second"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v2\"")));
+
+        AssignmentDescriptor first = client.getAssignmentDescriptor(ASSIGNMENT);
+        Thread.sleep(5);
+        AssignmentDescriptor second = client.getAssignmentDescriptor(ASSIGNMENT);
+
+        server.verify();
+        assertThat(first.getDirectory()).doesNotExist();
+        assertThat(second.getDirectory()).isDirectory();
+    }
+
+    @Test
+    public void shouldNotEvictVersionsInUse() throws Exception {
+        mojServerProperties.getRuntime().getAssignmentCache().setRevalidateAfter(Duration.ZERO);
+        mojServerProperties.getRuntime().getAssignmentCache().setMaxSize(DataSize.ofBytes(1));
+        server.expect(requestTo(CONTENT))
+                .andRespond(withSuccess(zip("first"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v1\"")));
+        server.expect(requestTo(CONTENT))
+                .andRespond(withSuccess(zip("second"), MediaType.APPLICATION_OCTET_STREAM).headers(etag("\"v2\"")));
+
+        AssignmentDescriptor first = client.acquireAssignmentDescriptor(ASSIGNMENT);
+        Thread.sleep(5);
+        AssignmentDescriptor second = client.getAssignmentDescriptor(ASSIGNMENT);
+
+        server.verify();
+        assertThat(first.getDirectory()).isDirectory();
+        assertThat(second.getDirectory()).isDirectory();
+
+        client.release(first);
+        assertThat(first.getDirectory()).doesNotExist();
+        assertThat(second.getDirectory()).isDirectory();
+    }
+
+    private HttpHeaders etag(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        return headers;
+    }
+
+    private byte[] zip(String name) throws Exception {
+        Path dir = Files.createDirectories(temp.resolve("source-" + name));
+        Files.writeString(dir.resolve("assignment.yaml"), "name: " + name + "\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipUtils.zip(dir, out, p -> true);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.java;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.storage.StorageService;
+
+public class ClassDataSharingServiceTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    private StorageService storageService;
+    private ClassDataSharingService service;
+    private Languages.JavaVersion javaVersion;
+
+    @BeforeEach
+    public void init() throws Exception {
+        MojServerProperties mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(dataDirectory);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        storageService = new StorageService(mojServerProperties);
+        Files.createDirectories(storageService.getLibsFolder());
+        try (var libs = Files.list(Paths.get("src/main/resources/bootstrap/libs"))) {
+            for (Path lib : libs.toList()) {
+                Files.copy(lib, storageService.getLibsFolder().resolve(lib.getFileName()));
+            }
+        }
+        service = new ClassDataSharingService(mojServerProperties,
+                new JavaVersionRegistry(mojServerProperties, meterRegistry),
+                new ClasspathService(storageService), storageService, meterRegistry);
+
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        javaVersion = new Languages.JavaVersion();
+        javaVersion.setName("current");
+        javaVersion.setVersion(Runtime.version().feature());
+        javaVersion.setCompiler(javaHome.resolve("bin").resolve("javac"));
+        javaVersion.setRuntime(javaHome.resolve("bin").resolve("java"));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        service.shutdown();
+    }
+
+    @Test
+    public void shouldCreateArchiveOnFirstUse() throws Exception {
+        assertThat(service.resolveRuntimeOptions(javaVersion)).isEmpty();
+
+        List<String> options = awaitRuntimeOptions();
+        assertThat(options).first().asString().startsWith("-XX:SharedArchiveFile=");
+        assertThat(Paths.get(options.get(0).substring("-XX:SharedArchiveFile=".length()))).exists();
+    }
+
+    @Test
+    public void shouldRecreateArchiveWhenLibsChange() throws Exception {
+        service.resolveRuntimeOptions(javaVersion);
+        assertThat(awaitRuntimeOptions()).isNotEmpty();
+
+        Files.setLastModifiedTime(storageService.getLibsFolder().resolve("junit-4.12.jar"),
+                FileTime.from(Instant.now().plusSeconds(60)));
+
+        assertThat(service.resolveRuntimeOptions(javaVersion)).isEmpty();
+        assertThat(awaitRuntimeOptions()).isNotEmpty();
+    }
+
+    @Test
+    public void shouldNotUseArchivesWhenDisabled() {
+        MojServerProperties disabled = new MojServerProperties();
+        disabled.setDataDirectory(dataDirectory);
+        disabled.getRuntime().setClassDataSharing(false);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ClassDataSharingService service = new ClassDataSharingService(disabled,
+                new JavaVersionRegistry(disabled, meterRegistry), new ClasspathService(storageService),
+                storageService, meterRegistry);
+
+        assertThat(service.resolveRuntimeOptions(javaVersion)).isEmpty();
+        assertThat(service.resolveCompilerOptions(javaVersion)).isEmpty();
+        assertThat(storageService.getLibsFolder().resolve("cds")).doesNotExist();
+    }
+
+    private List<String> awaitRuntimeOptions() throws InterruptedException {
+        for (int i = 0; i < 300; i++) {
+            List<String> options = service.resolveRuntimeOptions(javaVersion);
+            if (!options.isEmpty()) {
+                return options;
+            }
+            Thread.sleep(100);
+        }
+        return List.of();
+    }
+}
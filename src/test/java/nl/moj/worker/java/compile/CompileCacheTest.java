@@ -0,0 +1,137 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.java.compile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.CommonConfig;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
+import nl.moj.worker.workspace.Workspace;
+
+public class CompileCacheTest {
+
+    @TempDir
+    Path temp;
+
+    private MojServerProperties mojServerProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private CompileCache cache;
+    private Languages.JavaVersion javaVersion;
+    private AssignmentDescriptor ad;
+
+    @BeforeEach
+    public void init() {
+        mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(temp.resolve("data"));
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new CompileCache(mojServerProperties, new StorageService(mojServerProperties),
+                new CommonConfig().jsonObjectMapper(), meterRegistry);
+
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        javaVersion = new Languages.JavaVersion();
+        javaVersion.setName("current");
+        javaVersion.setVersion(Runtime.version().feature());
+        javaVersion.setCompiler(javaHome.resolve("bin").resolve("javac"));
+        ad = new AssignmentDescriptor();
+        ad.setDirectory(temp.resolve("assignment"));
+    }
+
+    @Test
+    public void shouldUseSameKeyForSameSourcesInOtherWorkspace() throws Exception {
+        Workspace first = workspace("first", "public class A {}");
+        Workspace second = workspace("second", "public class A {}");
+        Workspace changed = workspace("changed", "public class A { int a; }");
+
+        String key = cache.key(first, javaVersion, options(first));
+        assertThat(cache.key(second, javaVersion, options(second))).isEqualTo(key);
+        assertThat(cache.key(changed, javaVersion, options(changed))).isNotEqualTo(key);
+        assertThat(cache.key(first, javaVersion, List.of("-Xlint:all"))).isNotEqualTo(key);
+    }
+
+    @Test
+    public void shouldRestoreStoredClasses() throws Exception {
+        Workspace first = workspace("first", "public class A {}");
+        String key = cache.key(first, javaVersion, options(first));
+        assertThat(cache.restore(key, first.getTargetRoot())).isEmpty();
+
+        Files.write(first.getTargetRoot().resolve("A.class"), new byte[] { 1, 2, 3 });
+        Files.writeString(first.getTargetRoot().resolve("data.txt"), "resource");
+        cache.store(key, first.getTargetRoot(), CompileOutput.builder().success(true).output("warning").build());
+
+        Workspace second = workspace("second", "public class A {}");
+        Optional<CompileOutput> restored = cache.restore(key, second.getTargetRoot());
+
+        assertThat(restored).isPresent();
+        assertThat(restored.get().isSuccess()).isTrue();
+        assertThat(restored.get().getOutput()).isEqualTo("warning");
+        assertThat(second.getTargetRoot().resolve("A.class")).hasBinaryContent(new byte[] { 1, 2, 3 });
+        assertThat(second.getTargetRoot().resolve("data.txt")).doesNotExist();
+        assertThat(meterRegistry.get("moj.compile.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("moj.compile.cache").tag("result", "miss").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        mojServerProperties.getRuntime().getCompileCache().setMaxSize(DataSize.ofBytes(3000));
+        Workspace ws = workspace("ws", "public class A {}");
+        Files.write(ws.getTargetRoot().resolve("A.class"), new byte[1000]);
+
+        cache.store("a", ws.getTargetRoot(), CompileOutput.builder().success(true).build());
+        cache.store("b", ws.getTargetRoot(), CompileOutput.builder().success(true).build());
+        assertThat(cache.restore("a", temp.resolve("restore-a"))).isPresent();
+        cache.store("c", ws.getTargetRoot(), CompileOutput.builder().success(true).build());
+
+        assertThat(cache.restore("b", temp.resolve("restore-b"))).isEmpty();
+        assertThat(cache.restore("a", temp.resolve("restore-a"))).isPresent();
+        assertThat(cache.restore("c", temp.resolve("restore-c"))).isPresent();
+    }
+
+    private List<String> options(Workspace ws) {
+        return List.of("-Xlint:all", "-d", ws.getTargetRoot().toAbsolutePath().toString());
+    }
+
+    private Workspace workspace(String name, String source) throws Exception {
+        Path root = Files.createDirectories(temp.resolve(name));
+        Path sources = Files.createDirectories(root.resolve("sources"));
+        Path target = Files.createDirectories(root.resolve("target"));
+        Files.writeString(sources.resolve("A.java"), source);
+        Workspace ws = mock(Workspace.class);
+        when(ws.getAssignmentDescriptor()).thenReturn(ad);
+        when(ws.getRoot()).thenReturn(root);
+        when(ws.getSourcesRoot()).thenReturn(sources);
+        when(ws.getTargetRoot()).thenReturn(target);
+        when(ws.getSources()).thenAnswer(i -> Files.walk(sources));
+        return ws;
+    }
+}
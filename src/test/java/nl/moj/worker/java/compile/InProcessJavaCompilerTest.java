@@ -0,0 +1,188 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.java.compile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.util.ResourceUsage;
+
+public class InProcessJavaCompilerTest {
+
+    @TempDir
+    Path workspace;
+
+    private MojServerProperties mojServerProperties;
+    private InProcessJavaCompiler compiler;
+
+    @BeforeEach
+    public void init() {
+        mojServerProperties = new MojServerProperties();
+        compiler = new InProcessJavaCompiler(mojServerProperties);
+    }
+
+    @Test
+    public void shouldOnlySupportWorkerJavaVersion() {
+        Languages.JavaVersion jv = new Languages.JavaVersion();
+        jv.setVersion(Runtime.version().feature());
+        assertThat(compiler.supports(jv)).isTrue();
+
+        jv.setVersion(Runtime.version().feature() - 1);
+        assertThat(compiler.supports(jv)).isFalse();
+
+        jv.setVersion(Runtime.version().feature());
+        mojServerProperties.getRuntime().setInProcessCompile(false);
+        assertThat(compiler.supports(jv)).isFalse();
+    }
+
+    @Test
+    public void shouldCompileToTarget() throws Exception {
+        Path source = Files.writeString(workspace.resolve("Hello.java"), "public class Hello {}");
+        Path target = Files.createDirectories(workspace.resolve("target"));
+        LengthLimitedOutputCatcher output = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getCompileOutputLimits());
+
+        AtomicReference<ResourceUsage> usage = new AtomicReference<>();
+
+        boolean success = compiler.compile(List.of("-d", target.toString()), List.of(source), Duration.ofSeconds(30),
+                output, usage::set);
+
+        assertThat(success).isTrue();
+        assertThat(target.resolve("Hello.class")).exists();
+        assertThat(usage.get()).isNotNull();
+        assertThat(usage.get().cpuUser().plus(usage.get().cpuSystem())).isPositive();
+    }
+
+    @Test
+    public void shouldReportDiagnosticsLikeJavac() throws Exception {
+        Path source = Files.writeString(workspace.resolve("Broken.java"), "public class Broken { int x = \"\"; }");
+        LengthLimitedOutputCatcher output = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getCompileOutputLimits());
+
+        boolean success = compiler.compile(List.of("-d", workspace.toString()), List.of(source),
+                Duration.ofSeconds(30), output);
+
+        assertThat(success).isFalse();
+        assertThat(output.toString()).contains("Broken.java:1: error: incompatible types").contains("1 error");
+    }
+
+    @Test
+    public void shouldForkJavacWhileTimedOutCompilationRuns() throws Exception {
+        Path source = Files.writeString(workspace.resolve("Stuck.java"), "public class Stuck { int x = \"\"; }");
+        CountDownLatch release = new CountDownLatch(1);
+        // javac cannot finish before it reported its diagnostics, which blocks until released
+        LengthLimitedOutputCatcher output = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getCompileOutputLimits()) {
+            @Override
+            protected void processLine(String line) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.processLine(line);
+            }
+        };
+        Languages.JavaVersion jv = new Languages.JavaVersion();
+        jv.setVersion(Runtime.version().feature());
+
+        assertThatThrownBy(() -> compiler.compile(List.of("-d", workspace.toString()), List.of(source),
+                Duration.ofMillis(50), output)).isInstanceOf(TimeoutException.class);
+        assertThat(compiler.supports(jv)).isFalse();
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (!compiler.supports(jv) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(compiler.supports(jv)).isTrue();
+    }
+
+    @Test
+    public void shouldNotCountWaitingForThreadAgainstTimeout() throws Exception {
+        mojServerProperties.getRuntime().setInProcessCompileThreads(1);
+        compiler = new InProcessJavaCompiler(mojServerProperties);
+        Path stuck = Files.writeString(workspace.resolve("Stuck.java"), "public class Stuck { int x = \"\"; }");
+        Path hello = Files.writeString(workspace.resolve("Hello.java"), "public class Hello {}");
+        CountDownLatch release = new CountDownLatch(1);
+        LengthLimitedOutputCatcher blocking = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getCompileOutputLimits()) {
+            @Override
+            protected void processLine(String line) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.processLine(line);
+            }
+        };
+        LengthLimitedOutputCatcher output = new LengthLimitedOutputCatcher(
+                mojServerProperties.getLimits().getCompileOutputLimits());
+        Languages.JavaVersion jv = new Languages.JavaVersion();
+        jv.setVersion(Runtime.version().feature());
+
+        // occupy the only compile thread
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return compiler.compile(List.of("-d", workspace.toString()), List.of(stuck), Duration.ofMinutes(1),
+                        blocking);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (compiler.supports(jv) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(compiler.supports(jv)).isFalse();
+
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return compiler.compile(List.of("-d", workspace.toString()), List.of(hello), Duration.ofSeconds(2),
+                        output);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // wait longer than the timeout of the second compilation
+        Thread.sleep(3000);
+        assertThat(second).isNotDone();
+
+        release.countDown();
+        assertThat(first.get(60, TimeUnit.SECONDS)).isFalse();
+        assertThat(second.get(60, TimeUnit.SECONDS)).isTrue();
+        assertThat(compiler.supports(jv)).isTrue();
+    }
+}
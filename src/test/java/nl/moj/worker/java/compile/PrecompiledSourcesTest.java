@@ -0,0 +1,216 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.java.compile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.assignment.descriptor.AssignmentFiles;
+import nl.moj.common.config.CommonConfig;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.storage.StorageService;
+import nl.moj.worker.util.LengthLimitedOutputCatcher;
+import nl.moj.worker.workspace.BasicWorkspace;
+
+public class PrecompiledSourcesTest {
+
+    @TempDir
+    Path temp;
+
+    private MojServerProperties mojServerProperties;
+    private InProcessJavaCompiler compiler;
+    private PrecompiledSources precompiledSources;
+    private Languages.JavaVersion javaVersion;
+    private AssignmentDescriptor ad;
+
+    @BeforeEach
+    public void init() throws Exception {
+        mojServerProperties = new MojServerProperties();
+        mojServerProperties.setDataDirectory(temp.resolve("data"));
+        compiler = new InProcessJavaCompiler(mojServerProperties);
+        precompiledSources = new PrecompiledSources(mojServerProperties, new StorageService(mojServerProperties),
+                compiler, new CommonConfig().jsonObjectMapper(), new SimpleMeterRegistry());
+
+        Path javaHome = Paths.get(System.getProperty("java.home"));
+        javaVersion = new Languages.JavaVersion();
+        javaVersion.setName("current");
+        javaVersion.setVersion(Runtime.version().feature());
+        javaVersion.setCompiler(javaHome.resolve("bin").resolve("javac"));
+
+        Path dir = Files.createDirectories(temp.resolve("assignment"));
+        Files.createDirectories(dir.resolve("src"));
+        Files.createDirectories(dir.resolve("test"));
+        Files.writeString(dir.resolve("src/Assignment.java"), "public class Assignment { int value() { return 0; } }");
+        Files.writeString(dir.resolve("src/Helper.java"), "public class Helper { static int one() { return 1; } }");
+        Files.writeString(dir.resolve("src/Uses.java"), "public class Uses { Assignment a; }");
+        Files.writeString(dir.resolve("test/AssignmentTest.java"),
+                "public class AssignmentTest { int test() { return new Assignment().value() + Helper.one(); } }");
+
+        ad = new AssignmentDescriptor();
+        ad.setName("precompiled");
+        ad.setDirectory(dir);
+        ad.setAssignmentFiles(new AssignmentFiles());
+        ad.getAssignmentFiles().getSources().setBase(Paths.get("src"));
+        ad.getAssignmentFiles().getSources().setEditable(List.of(Paths.get("Assignment.java")));
+        ad.getAssignmentFiles().getSources().setReadonly(List.of(Paths.get("Helper.java"), Paths.get("Uses.java")));
+        ad.getAssignmentFiles().getTestSources().setBase(Paths.get("test"));
+        ad.getAssignmentFiles().getTestSources().setTests(List.of(Paths.get("AssignmentTest.java")));
+    }
+
+    @Test
+    public void shouldOnlyCompileSourcesDependingOnEditableSources() throws Exception {
+        try (BasicWorkspace first = new BasicWorkspace(ad, null)) {
+            // precompiles in the background, the first attempt compiles everything
+            assertThat(precompiledSources.prepare(first, javaVersion, options(first))).isEmpty();
+        }
+        Optional<List<Path>> remaining = awaitPrecompiled();
+
+        assertThat(remaining).isPresent();
+        assertThat(remaining.get()).extracting(p -> p.getFileName().toString())
+                .containsExactly("Assignment.java", "AssignmentTest.java", "Uses.java");
+    }
+
+    @Test
+    public void shouldCompileAgainstPrecompiledClasses() throws Exception {
+        try (BasicWorkspace first = new BasicWorkspace(ad, null)) {
+            precompiledSources.prepare(first, javaVersion, options(first));
+        }
+        awaitPrecompiled();
+
+        try (BasicWorkspace ws = new BasicWorkspace(ad, null)) {
+            ws.importSourceFile(new ByteArrayInputStream("public class Assignment { int value() { return 42; } }"
+                    .getBytes(StandardCharsets.UTF_8)), Paths.get("Assignment.java"));
+            Optional<List<Path>> remaining = precompiledSources.prepare(ws, javaVersion, options(ws));
+
+            assertThat(remaining).isPresent();
+            assertThat(ws.getTargetRoot().resolve("Helper.class")).exists();
+            assertThat(ws.getTargetRoot().resolve("Assignment.class")).doesNotExist();
+            LengthLimitedOutputCatcher output = new LengthLimitedOutputCatcher(
+                    mojServerProperties.getLimits().getCompileOutputLimits());
+            assertThat(compiler.compile(options(ws), remaining.get(), Duration.ofSeconds(30), output)).isTrue();
+            assertThat(ws.getTargetRoot().resolve("AssignmentTest.class")).exists();
+        }
+    }
+
+    @Test
+    public void shouldRecompileChangedFixedSources() throws Exception {
+        try (BasicWorkspace first = new BasicWorkspace(ad, null)) {
+            precompiledSources.prepare(first, javaVersion, options(first));
+        }
+        awaitPrecompiled();
+
+        try (BasicWorkspace ws = new BasicWorkspace(ad, null)) {
+            ws.importSourceFile(new ByteArrayInputStream("public class Helper { static int one() { return 2; } }"
+                    .getBytes(StandardCharsets.UTF_8)), Paths.get("Helper.java"));
+
+            // everything depends on either the editable or the changed source
+            assertThat(precompiledSources.prepare(ws, javaVersion, options(ws))).isEmpty();
+        }
+    }
+
+    @Test
+    public void shouldRecompileSourcesUsingTypesTheTeamDeclares() throws Exception {
+        Files.writeString(ad.getDirectory().resolve("src/Other.java"),
+                "import java.util.*; public class Other { List<String> values; }");
+        ad.getAssignmentFiles().getSources().setReadonly(List.of(Paths.get("Helper.java"), Paths.get("Uses.java"),
+                Paths.get("Other.java")));
+        try (BasicWorkspace first = new BasicWorkspace(ad, null)) {
+            precompiledSources.prepare(first, javaVersion, options(first));
+        }
+        assertThat(awaitPrecompiled().get()).extracting(p -> p.getFileName().toString())
+                .doesNotContain("Other.java");
+
+        try (BasicWorkspace ws = new BasicWorkspace(ad, null)) {
+            // a type in the same package shadows the wildcard imported one
+            ws.importSourceFile(new ByteArrayInputStream(
+                    "public class Assignment { int value() { return 0; } } class List<T> { }"
+                            .getBytes(StandardCharsets.UTF_8)),
+                    Paths.get("Assignment.java"));
+            Optional<List<Path>> remaining = precompiledSources.prepare(ws, javaVersion, options(ws));
+
+            assertThat(remaining).isPresent();
+            assertThat(remaining.get()).extracting(p -> p.getFileName().toString()).contains("Other.java");
+        }
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedPrecompiledSources() throws Exception {
+        try (BasicWorkspace first = new BasicWorkspace(ad, null)) {
+            precompiledSources.prepare(first, javaVersion, options(first));
+        }
+        awaitPrecompiled();
+        Path folder = new StorageService(mojServerProperties).getPrecompiledFolder();
+        assertThat(entries(folder)).hasSize(1);
+
+        // precompiling with other options does not fit next to the first anymore
+        mojServerProperties.getRuntime().setPrecompiledSourcesMaxSize(DataSize.ofBytes(1));
+        try (BasicWorkspace ws = new BasicWorkspace(ad, null)) {
+            List<String> options = new ArrayList<>(options(ws));
+            options.add("-g");
+            assertThat(precompiledSources.prepare(ws, javaVersion, options)).isEmpty();
+        }
+        for (int i = 0; i < 300 && !entries(folder).isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(entries(folder)).isEmpty();
+        try (BasicWorkspace ws = new BasicWorkspace(ad, null)) {
+            assertThat(precompiledSources.prepare(ws, javaVersion, options(ws))).isEmpty();
+        }
+    }
+
+    private List<Path> entries(Path folder) throws Exception {
+        try (Stream<Path> dirs = Files.list(folder)) {
+            return dirs.toList();
+        }
+    }
+
+    private Optional<List<Path>> awaitPrecompiled() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            try (BasicWorkspace ws = new BasicWorkspace(ad, null)) {
+                Optional<List<Path>> remaining = precompiledSources.prepare(ws, javaVersion, options(ws));
+                if (remaining.isPresent()) {
+                    return remaining;
+                }
+            }
+            Thread.sleep(100);
+        }
+        return Optional.empty();
+    }
+
+    private List<String> options(BasicWorkspace ws) {
+        String target = ws.getTargetRoot().toAbsolutePath().toString();
+        return List.of("-Xlint:all", "-cp", target, "-d", target);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.java.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.java.JavaVersionRegistry;
+import nl.moj.common.messages.JMSTestCase;
+import nl.moj.worker.workspace.Workspace;
+
+public class TestResultCacheTest {
+
+    @TempDir
+    Path temp;
+
+    private MojServerProperties mojServerProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private TestRunnerService testRunnerService;
+    private TestResultCache cache;
+    private AssignmentDescriptor ad;
+
+    @BeforeEach
+    public void init() throws Exception {
+        mojServerProperties = new MojServerProperties();
+        meterRegistry = new SimpleMeterRegistry();
+
+        Languages.JavaVersion javaVersion = new Languages.JavaVersion();
+        javaVersion.setName("current");
+        javaVersion.setVersion(Runtime.version().feature());
+        javaVersion.setRuntime(Paths.get(System.getProperty("java.home")).resolve("bin").resolve("java"));
+        JavaVersionRegistry javaVersionRegistry = mock(JavaVersionRegistry.class);
+        when(javaVersionRegistry.getJavaVersion(any())).thenReturn(javaVersion);
+
+        Path policy = Files.writeString(temp.resolve("test.policy"), "grant {};");
+        testRunnerService = mock(TestRunnerService.class);
+        when(testRunnerService.resolveSecurityPolicy(any())).thenReturn(policy);
+        when(testRunnerService.resolveSystemProperties(any())).thenReturn(Map.of("a", "b"));
+
+        cache = new TestResultCache(mojServerProperties, javaVersionRegistry, testRunnerService, meterRegistry);
+        ad = new AssignmentDescriptor();
+        ad.setDirectory(temp.resolve("assignment"));
+        ad.setJavaVersion(17);
+        ad.setCacheTestResults(true);
+    }
+
+    @Test
+    public void shouldOnlyBeEnabledForAssignmentsOptingIn() {
+        assertThat(cache.isEnabled(ad)).isTrue();
+        ad.setCacheTestResults(false);
+        assertThat(cache.isEnabled(ad)).isFalse();
+        ad.setCacheTestResults(true);
+        mojServerProperties.getRuntime().getTestResultCache().setEnabled(false);
+        assertThat(cache.isEnabled(ad)).isFalse();
+    }
+
+    @Test
+    public void shouldUseKeyPerTestAndSources() throws Exception {
+        List<JMSTestCase> tests = List.of(test("ATest"), test("BTest"));
+        List<String> first = cache.keys(workspace("first", "public class A {}"), tests);
+        List<String> second = cache.keys(workspace("second", "public class A {}"), tests);
+        List<String> changed = cache.keys(workspace("changed", "public class A { int a; }"), tests);
+
+        assertThat(first).hasSize(2).doesNotHaveDuplicates();
+        assertThat(second).isEqualTo(first);
+        assertThat(changed).doesNotContainAnyElementsOf(first);
+
+        when(testRunnerService.resolveSystemProperties(any())).thenReturn(Map.of("a", "c"));
+        assertThat(cache.keys(workspace("props", "public class A {}"), tests)).doesNotContainAnyElementsOf(first);
+    }
+
+    @Test
+    public void shouldUseKeyPerResourceContent() throws Exception {
+        List<JMSTestCase> tests = List.of(test("ATest"));
+        Workspace workspace = workspace("resources", "public class A {}");
+        List<String> first = cache.keys(workspace, tests);
+
+        Files.writeString(workspace.getTargetRoot().resolve("A.class"), "compiled");
+        assertThat(cache.keys(workspace, tests)).isEqualTo(first);
+
+        Files.writeString(workspace.getTargetRoot().resolve("data.txt"), "changed data");
+        List<String> changed = cache.keys(workspace, tests);
+        assertThat(changed).doesNotContainAnyElementsOf(first);
+
+        // a file of the assignment passed to the tests changed in place
+        Path data = Files.writeString(Files.createDirectories(ad.getDirectory()).resolve("input.txt"), "input");
+        when(testRunnerService.resolveSystemProperties(any()))
+                .thenReturn(Map.of("input", data.toAbsolutePath().toString()));
+        List<String> input = cache.keys(workspace, tests);
+        Files.writeString(data, "changed input");
+        assertThat(cache.keys(workspace, tests)).doesNotContainAnyElementsOf(input);
+    }
+
+    @Test
+    public void shouldReturnCachedResultForOtherTestCase() {
+        JMSTestCase test = test("ATest");
+        assertThat(cache.get("key", test)).isEmpty();
+
+        Instant started = Instant.now().minusSeconds(10);
+        cache.put("key", TestCaseOutput.builder()
+                .testCase(UUID.randomUUID())
+                .success(true)
+                .output("ok")
+                .dateTimeStart(started)
+                .dateTimeEnd(started.plusMillis(1500))
+                .build());
+
+        Instant lookup = Instant.now();
+        Optional<TestCaseOutput> cached = cache.get("key", test);
+        assertThat(cached).isPresent();
+        assertThat(cached.get().getTestCase()).isEqualTo(test.getTestCase());
+        assertThat(cached.get().isCached()).isTrue();
+        assertThat(cached.get().isSuccess()).isTrue();
+        assertThat(cached.get().getOutput()).isEqualTo("ok");
+        // timed as the lookup, the test did not run
+        assertThat(cached.get().getDateTimeStart()).isAfterOrEqualTo(lookup);
+        assertThat(cached.get().getDateTimeEnd()).isAfterOrEqualTo(cached.get().getDateTimeStart())
+                .isBeforeOrEqualTo(Instant.now());
+        assertThat(meterRegistry.get("moj.test.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("moj.test.cache").tag("result", "miss").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotCacheTimedOutResults() {
+        cache.put("key", TestCaseOutput.builder()
+                .timedOut(true)
+                .dateTimeStart(Instant.now())
+                .dateTimeEnd(Instant.now())
+                .build());
+
+        assertThat(cache.get("key", test("ATest"))).isEmpty();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        mojServerProperties.getRuntime().getTestResultCache().setMaxSize(DataSize.ofBytes(3000));
+        cache.put("a", output(500));
+        cache.put("b", output(500));
+        assertThat(cache.get("a", test("ATest"))).isPresent();
+        cache.put("c", output(500));
+
+        assertThat(cache.get("b", test("ATest"))).isEmpty();
+        assertThat(cache.get("a", test("ATest"))).isPresent();
+        assertThat(cache.get("c", test("ATest"))).isPresent();
+    }
+
+    private TestCaseOutput output(int length) {
+        return TestCaseOutput.builder()
+                .success(true)
+                .output("x".repeat(length))
+                .dateTimeStart(Instant.now())
+                .dateTimeEnd(Instant.now())
+                .build();
+    }
+
+    private JMSTestCase test(String name) {
+        return JMSTestCase.builder().testCase(UUID.randomUUID()).name(name).build();
+    }
+
+    private Workspace workspace(String name, String source) throws Exception {
+        Path root = Files.createDirectories(temp.resolve(name));
+        Path sources = Files.createDirectories(root.resolve("sources"));
+        Files.writeString(sources.resolve("A.java"), source);
+        Path target = Files.createDirectories(root.resolve("target"));
+        Files.writeString(target.resolve("data.txt"), "data");
+        Workspace ws = mock(Workspace.class);
+        when(ws.getAssignmentDescriptor()).thenReturn(ad);
+        when(ws.getRoot()).thenReturn(root);
+        when(ws.getSourcesRoot()).thenReturn(sources);
+        when(ws.getTargetRoot()).thenReturn(target);
+        when(ws.getSources()).thenAnswer(i -> Files.walk(sources));
+        return ws;
+    }
+}
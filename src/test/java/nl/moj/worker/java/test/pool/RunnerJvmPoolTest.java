@@ -0,0 +1,194 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.java.test.pool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nl.moj.common.config.properties.Languages;
+import nl.moj.common.config.properties.Limits.TimeoutMode;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.worker.java.ClassDataSharingService;
+import nl.moj.worker.java.ClasspathService;
+import nl.moj.worker.java.test.runner.PooledTestRunner;
+import nl.moj.worker.java.test.runner.RunRequest;
+import nl.moj.worker.util.ProcessTimeoutException;
+import nl.moj.worker.util.ProcessUsageMonitor;
+import nl.moj.worker.util.ProcessWatchdog;
+import nl.moj.worker.util.ResourceUsage;
+
+public class RunnerJvmPoolTest {
+
+    private static final Path LIBS = Paths.get("src/main/resources/bootstrap/libs");
+
+    @TempDir
+    Path target;
+
+    private MojServerProperties mojServerProperties;
+    private ProcessUsageMonitor processUsageMonitor;
+    private ProcessWatchdog processWatchdog;
+    private RunnerJvmPool pool;
+    private RunnerJvmPool.Key key;
+
+    @BeforeEach
+    public void init() throws Exception {
+        mojServerProperties = new MojServerProperties();
+        mojServerProperties.getRuntime().getTestRunnerPool().setSize(1);
+        ClasspathService classpathService = mock(ClasspathService.class);
+        when(classpathService.resolveRunnerClasspath()).thenReturn(String.join(File.pathSeparator,
+                LIBS.resolve("junit-4.12.jar").toAbsolutePath().toString(),
+                LIBS.resolve("hamcrest-all-1.3.jar").toAbsolutePath().toString(),
+                Paths.get(PooledTestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                        .toString()));
+        Path policy = Files.writeString(target.resolve("test.policy"), """
+                grant {
+                    permission java.util.PropertyPermission "moj.value", "read";
+                    permission java.lang.RuntimePermission "accessDeclaredMembers";
+                    permission java.lang.RuntimePermission "getStackTrace";
+                };
+                """);
+        ClassDataSharingService classDataSharingService = mock(ClassDataSharingService.class);
+        processUsageMonitor = new ProcessUsageMonitor();
+        processWatchdog = new ProcessWatchdog(mojServerProperties, processUsageMonitor);
+        pool = new RunnerJvmPool(mojServerProperties, classpathService, classDataSharingService, processWatchdog);
+        Languages.JavaVersion javaVersion = new Languages.JavaVersion();
+        javaVersion.setName("current");
+        javaVersion.setVersion(Runtime.version().feature());
+        javaVersion.setRuntime(Paths.get(System.getProperty("java.home"), "bin", "java"));
+        key = new RunnerJvmPool.Key(javaVersion, policy, false);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        pool.shutdown();
+        processWatchdog.shutdown();
+        processUsageMonitor.shutdown();
+    }
+
+    @Test
+    public void shouldRunTestsInPooledJvm() throws Exception {
+        compile("PassingTest", """
+                import org.junit.Test;
+                public class PassingTest {
+                    @Test public void ok() { System.out.println("value=" + System.getProperty("moj.value")); }
+                }
+                """);
+        compile("FailingTest", """
+                import org.junit.Test;
+                import static org.junit.Assert.assertEquals;
+                public class FailingTest {
+                    @Test public void fails() { assertEquals(1, 2); }
+                }
+                """);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(pool.run(key, request("PassingTest", Map.of("moj.value", "42")), Duration.ofSeconds(30), out,
+                new ByteArrayOutputStream(), null)).isTrue();
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains("JUnit version 4.12").contains("value=42")
+                .contains("OK (1 test)");
+
+        out.reset();
+        assertThat(pool.run(key, request("FailingTest", Map.of()), Duration.ofSeconds(30), out,
+                new ByteArrayOutputStream(), null)).isFalse();
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains("expected:<1> but was:<2>")
+                .doesNotContain("value=");
+    }
+
+    @Test
+    public void shouldTimeoutLongRunningTests() throws Exception {
+        compile("SlowTest", """
+                import org.junit.Test;
+                public class SlowTest {
+                    @Test public void slow() { while (true) { } }
+                }
+                """);
+
+        AtomicReference<ResourceUsage> usage = new AtomicReference<>();
+        assertThatExceptionOfType(ProcessTimeoutException.class).isThrownBy(() -> pool.run(key,
+                request("SlowTest", Map.of()), Duration.ofSeconds(2), new ByteArrayOutputStream(),
+                new ByteArrayOutputStream(), usage::set))
+                .satisfies(e -> assertThat(e.getLimit()).isEqualTo(TimeoutMode.WALL_CLOCK));
+
+        // the busy loop spun the CPU until the runner JVM was killed
+        assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+        assertThat(usage.get().cpuUser()).isGreaterThan(Duration.ofMillis(500));
+        assertThat(usage.get().peakRss()).isPositive();
+    }
+
+    @Test
+    public void shouldLimitCpuTimeInsteadOfWallClockTime() throws Exception {
+        assumeTrue(processUsageMonitor.isSupported());
+        mojServerProperties.getLimits().setTestTimeoutMode(TimeoutMode.CPU_TIME);
+        mojServerProperties.getLimits().setCpuTimeWallClockFactor(3.0);
+        compile("SpinningTest", """
+                import org.junit.Test;
+                public class SpinningTest {
+                    @Test public void spin() { while (true) { } }
+                }
+                """);
+        compile("SleepingTest", """
+                import org.junit.Test;
+                public class SleepingTest {
+                    @Test public void sleep() throws Exception { Thread.sleep(60_000); }
+                }
+                """);
+
+        assertThatExceptionOfType(ProcessTimeoutException.class).isThrownBy(() -> pool.run(key,
+                request("SpinningTest", Map.of()), Duration.ofMillis(1500), new ByteArrayOutputStream(),
+                new ByteArrayOutputStream(), null))
+                .satisfies(e -> assertThat(e.getLimit()).isEqualTo(TimeoutMode.CPU_TIME));
+
+        // sleeping uses no CPU, it ends at the wall-clock limit of three times the timeout
+        long started = System.nanoTime();
+        assertThatExceptionOfType(ProcessTimeoutException.class).isThrownBy(() -> pool.run(key,
+                request("SleepingTest", Map.of()), Duration.ofMillis(500), new ByteArrayOutputStream(),
+                new ByteArrayOutputStream(), null))
+                .satisfies(e -> assertThat(e.getLimit()).isEqualTo(TimeoutMode.WALL_CLOCK));
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isGreaterThanOrEqualTo(Duration.ofMillis(1500));
+    }
+
+    private RunRequest request(String testClass, Map<String, String> systemProperties) {
+        return new RunRequest(target.toAbsolutePath().toString(), testClass, systemProperties);
+    }
+
+    private void compile(String name, String source) throws Exception {
+        Path file = Files.writeString(target.resolve(name + ".java"), source);
+        int result = ToolProvider.getSystemJavaCompiler().run(null, null, null, "-cp",
+                LIBS.resolve("junit-4.12.jar").toString(), "-d", target.toString(), file.toString());
+        assertThat(result).isZero();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ProcessUsageMonitorTest {
+
+    private ProcessUsageMonitor monitor;
+
+    @BeforeEach
+    public void init() {
+        monitor = new ProcessUsageMonitor();
+        assumeTrue(monitor.isSupported());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        monitor.shutdown();
+    }
+
+    @Test
+    public void shouldReadUsageOfRunningProcess() {
+        ResourceUsage usage = ProcessUsageMonitor.read(ProcessHandle.current().pid()).orElseThrow();
+
+        assertThat(usage.cpuUser()).isPositive();
+        assertThat(usage.peakRss()).isGreaterThan(1024 * 1024);
+    }
+
+    @Test
+    public void shouldKeepLastSampleOfExitedProcess() throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-version").start();
+        ProcessUsageMonitor.Tracker tracker = monitor.track(process.pid());
+
+        assertThat(process.waitFor(30, TimeUnit.SECONDS)).isTrue();
+
+        ResourceUsage usage = tracker.stop();
+        assertThat(usage).isNotNull();
+        assertThat(usage.peakRss()).isPositive();
+        assertThat(usage.since(usage).cpuUser()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void shouldCombineUsage() {
+        ResourceUsage a = new ResourceUsage(Duration.ofMillis(10), Duration.ofMillis(1), 100);
+        ResourceUsage b = new ResourceUsage(Duration.ofMillis(20), Duration.ofMillis(2), 50);
+
+        assertThat(ResourceUsage.combine(a, b))
+                .isEqualTo(new ResourceUsage(Duration.ofMillis(30), Duration.ofMillis(3), 100));
+        assertThat(ResourceUsage.combine(null, b)).isSameAs(b);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+   Copyright 2020 First Eight BV (The Netherlands)
+
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file / these files except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package nl.moj.worker.workspace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.moj.common.assignment.descriptor.AssignmentDescriptor;
+import nl.moj.common.assignment.descriptor.AssignmentFiles;
+import nl.moj.common.config.properties.MojServerProperties;
+import nl.moj.common.messages.JMSFile;
+
+public class WorkspaceServiceTest {
+
+    @TempDir
+    Path temp;
+
+    private MojServerProperties mojServerProperties;
+    private SimpleMeterRegistry meterRegistry;
+    private WorkspaceTemplates workspaceTemplates;
+    private WorkspaceService workspaceService;
+    private AssignmentDescriptor ad;
+
+    @BeforeEach
+    public void init() throws Exception {
+        mojServerProperties = new MojServerProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        workspaceTemplates = new WorkspaceTemplates(mojServerProperties);
+        workspaceService = new WorkspaceService(mojServerProperties, workspaceTemplates, meterRegistry);
+
+        Path dir = Files.createDirectories(temp.resolve("assignment"));
+        Files.createDirectories(dir.resolve("src"));
+        Files.createDirectories(dir.resolve("resources"));
+        Files.writeString(dir.resolve("src/Assignment.java"), "public class Assignment {}");
+        Files.writeString(dir.resolve("resources/data.txt"), "data");
+
+        ad = new AssignmentDescriptor();
+        ad.setName("template");
+        ad.setDirectory(dir);
+        ad.setAssignmentFiles(new AssignmentFiles());
+        ad.getAssignmentFiles().getSources().setBase(Paths.get("src"));
+        ad.getAssignmentFiles().getSources().setEditable(List.of(Paths.get("Assignment.java")));
+        ad.getAssignmentFiles().getResources().setBase(Paths.get("resources"));
+        ad.getAssignmentFiles().getResources().setFiles(List.of(Paths.get("data.txt")));
+    }
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        workspaceService.shutdown();
+        workspaceTemplates.shutdown();
+    }
+
+    @Test
+    public void shouldCreateWorkspaceFromTemplate() throws Exception {
+        Path root;
+        try (Workspace ws = workspaceService.getWorkspace(ad, List.of(JMSFile.builder()
+                .type(JMSFile.Type.SOURCE).path("Assignment.java").content("public class Assignment { int a; }")
+                .build()))) {
+            root = ws.getRoot();
+            assertThat(ws.getSourcesRoot().resolve("Assignment.java")).hasContent("public class Assignment { int a; }");
+            assertThat(ws.getTargetRoot().resolve("data.txt")).hasContent("data");
+        }
+
+        try (Workspace ws = workspaceService.getWorkspace(ad, null)) {
+            // the replacement of the other workspace did not change the template
+            assertThat(ws.getSourcesRoot().resolve("Assignment.java")).hasContent("public class Assignment {}");
+        }
+
+        workspaceService.shutdown();
+        for (int i = 0; i < 50 && Files.exists(root); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(root).doesNotExist();
+    }
+
+    @Test
+    public void shouldRecreateTemplateWhenAssignmentChanges() throws Exception {
+        mojServerProperties.getRuntime().getWorkspaces().setTemplateCheckInterval(Duration.ZERO);
+        Path first = template();
+        assertThat(template()).isEqualTo(first);
+
+        Files.writeString(ad.getDirectory().resolve("resources/data.txt"), "changed data");
+
+        try (Workspace ws = workspaceService.getWorkspace(ad, null)) {
+            assertThat(ws.getTargetRoot().resolve("data.txt")).hasContent("changed data");
+        }
+        // the replaced template is deleted in the background
+        workspaceService.shutdown();
+        for (int i = 0; i < 50 && Files.exists(first); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(first).doesNotExist();
+    }
+
+    @Test
+    public void shouldOnlyCheckForChangesOncePerInterval() throws Exception {
+        Path first = template();
+
+        Files.writeString(ad.getDirectory().resolve("resources/data.txt"), "changed data");
+
+        assertThat(template()).isEqualTo(first);
+    }
+
+    @Test
+    public void shouldCreateTemplateOnceForConcurrentWorkspaces() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Path>> templates = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                templates.add(executor.submit(() -> {
+                    start.await();
+                    return template();
+                }));
+            }
+            start.countDown();
+
+            Set<Path> created = new HashSet<>();
+            for (Future<Path> template : templates) {
+                created.add(template.get(30, TimeUnit.SECONDS));
+            }
+            assertThat(created).hasSize(1);
+            try (Stream<Path> dirs = Files.list(created.iterator().next().getParent())) {
+                assertThat(dirs).hasSize(1);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldKeepResourcesWritable() throws Exception {
+        try (Workspace ws = workspaceService.getWorkspace(ad, null)) {
+            Files.writeString(ws.getTargetRoot().resolve("data.txt"), "written by a test");
+        }
+
+        try (Workspace ws = workspaceService.getWorkspace(ad, null)) {
+            assertThat(ws.getTargetRoot().resolve("data.txt")).hasContent("data");
+        }
+    }
+
+    @Test
+    public void shouldSpillToDiskWhenMemoryCapacityIsExhausted() throws Exception {
+        mojServerProperties.getRuntime().getWorkspaces().setMemoryRoot(temp.resolve("memory"));
+        mojServerProperties.getRuntime().getWorkspaces().setDiskRoot(temp.resolve("disk"));
+        // room for a single workspace of this assignment
+        mojServerProperties.getRuntime().getWorkspaces().setMemoryCapacity(DataSize.ofBytes(100));
+        workspaceService = new WorkspaceService(mojServerProperties, workspaceTemplates, meterRegistry);
+
+        try (Workspace first = workspaceService.getWorkspace(ad, null);
+                Workspace second = workspaceService.getWorkspace(ad, null)) {
+            assertThat(first.getRoot()).startsWith(temp.resolve("memory"));
+            assertThat(second.getRoot()).startsWith(temp.resolve("disk"));
+            assertThat(meterRegistry.get("moj.workspace.usage").tag("location", "memory").gauge().value())
+                    .isPositive();
+        }
+        workspaceService.shutdown();
+        // the template of the assignment files stays
+        for (int i = 0; i < 50 && workspaceService.getMemory().getUsage() > 30; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(workspaceService.getMemory().getUsage()).isEqualTo(30);
+    }
+
+    @Test
+    public void shouldChargeTemplatesAgainstMemoryCapacity() throws Exception {
+        mojServerProperties.getRuntime().getWorkspaces().setMemoryRoot(temp.resolve("memory"));
+        // room for a workspace of this assignment, not for its template as well
+        mojServerProperties.getRuntime().getWorkspaces().setMemoryCapacity(DataSize.ofBytes(70));
+        workspaceService = new WorkspaceService(mojServerProperties, workspaceTemplates, meterRegistry);
+
+        try (Workspace ws = workspaceService.getWorkspace(ad, null)) {
+            assertThat(ws.getRoot()).startsWith(temp.resolve("memory"));
+            assertThat(ws.getSourcesRoot().resolve("Assignment.java")).hasContent("public class Assignment {}");
+            assertThat(workspaceService.getMemory().getUsage()).isEqualTo(60);
+            // asked while the workspace holds its allocation, which is freed in the background once closed
+            Path template = workspaceTemplates.withTemplate(ad, workspaceService.getMemory(), t -> t);
+            assertThat(template).isNull();
+        }
+    }
+
+    @Test
+    public void shouldFreeAllocationWhenWorkspaceCannotBeCreated() throws Exception {
+        mojServerProperties.getRuntime().setWorkspaceTemplates(false);
+        mojServerProperties.getRuntime().getWorkspaces().setMemoryRoot(temp.resolve("memory"));
+        workspaceService = new WorkspaceService(mojServerProperties, workspaceTemplates, meterRegistry);
+        // replaces the non empty sources directory with a file
+        List<JMSFile> replacements = List.of(JMSFile.builder()
+                .type(JMSFile.Type.SOURCE)
+                .path(".")
+                .content("class Team {}")
+                .build());
+
+        assertThatThrownBy(() -> workspaceService.getWorkspace(ad, replacements)).isInstanceOf(IOException.class);
+
+        workspaceService.shutdown();
+        for (int i = 0; i < 50 && workspaceService.getMemory().getUsage() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(workspaceService.getMemory().getUsage()).isZero();
+        try (Stream<Path> workspaces = Files.list(temp.resolve("memory"))) {
+            assertThat(workspaces).isEmpty();
+        }
+    }
+
+    private Path template() throws Exception {
+        return workspaceTemplates.withTemplate(ad, workspaceService.getDisk(), template -> template);
+    }
+}
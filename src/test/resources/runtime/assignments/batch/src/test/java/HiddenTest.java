@@ -0,0 +1,11 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class HiddenTest {
+
+    @Test
+    public void hidden() throws Exception {
+        Assert.assertTrue(new Assignment().run());
+    }
+}
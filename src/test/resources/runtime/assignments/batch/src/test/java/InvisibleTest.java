@@ -0,0 +1,10 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InvisibleTest {
+
+    @Test
+    public void invisibleTest() throws Exception {
+        Assert.assertTrue(new Assignment().run());
+    }
+}
@@ -0,0 +1,11 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class VisibleTest {
+
+    @Test
+    public void visibleTest() throws Exception {
+        Assert.assertTrue(new Assignment().run());
+    }
+}